@@ -0,0 +1,234 @@
+package com.yupi.yuaiagent.advisor;
+
+import com.yupi.yuaiagent.llm.AnswerQuality;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.ai.chat.client.advisor.api.*;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.MessageAggregator;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleSupplier;
+
+/**
+ * 自适应 Re2 Advisor
+ * ReReadingAdvisor 会把每个问题都重复一遍，提示词 Token 翻倍。这里只对复杂问题开启重读：
+ * 问题较长、包含多个问句、包含推理类关键词，命中的信号数达到阈值才重读；
+ * 其余问题按采样率随机重读，用来和复杂问题对照收益。
+ * 每次请求记录是否重读、额外的提示词 Token 以及回答的质量标记（空回答、被截断、含低置信度措辞），
+ * 按是否重读分组对比即可判断重读是否值得。
+ */
+@Component
+public class AdaptiveReReadingAdvisor implements CallAroundAdvisor, StreamAroundAdvisor {
+
+    /**
+     * 本次请求是否重读，写入 adviseContext
+     */
+    public static final String RE2_APPLIED_KEY = "re2_applied";
+
+    /**
+     * 重读时原问题与重复问题之间的标记
+     */
+    public static final String REREAD_MARKER = "\nRead the question again: ";
+
+    private static final TokenCountEstimator TOKEN_ESTIMATOR = new JTokkitTokenCountEstimator();
+
+    private final boolean enabled;
+    private final int minChars;
+    private final int minQuestions;
+    private final List<String> reasoningKeywords;
+    private final int minSignals;
+    private final double sampleRate;
+    private final List<String> lowConfidencePhrases;
+    private final DoubleSupplier random;
+
+    /**
+     * @param enabled              是否开启，关闭时所有请求都不重读
+     * @param minChars             问题达到该字数算一个复杂信号
+     * @param minQuestions         问句（问号）达到该数量算一个复杂信号
+     * @param reasoningKeywords    包含任一推理类关键词算一个复杂信号
+     * @param minSignals           复杂信号达到该数量时重读
+     * @param sampleRate           简单问题的随机重读比例
+     * @param lowConfidencePhrases 回答中出现即标记为低置信度的措辞
+     */
+    @Autowired
+    public AdaptiveReReadingAdvisor(@Value("${yu-ai-agent.re2.enabled:true}") boolean enabled,
+                                    @Value("${yu-ai-agent.re2.min-chars:80}") int minChars,
+                                    @Value("${yu-ai-agent.re2.min-questions:2}") int minQuestions,
+                                    @Value("${yu-ai-agent.re2.reasoning-keywords:为什么,如何,怎么办,该不该,是否,比较,区别,分析,原因,利弊}")
+                                    List<String> reasoningKeywords,
+                                    @Value("${yu-ai-agent.re2.min-signals:2}") int minSignals,
+                                    @Value("${yu-ai-agent.re2.sample-rate:0.05}") double sampleRate,
+                                    @Value("${yu-ai-agent.cascade.low-confidence-phrases:不确定,无法回答}")
+                                    List<String> lowConfidencePhrases) {
+        this(enabled, minChars, minQuestions, reasoningKeywords, minSignals, sampleRate, lowConfidencePhrases,
+                () -> ThreadLocalRandom.current().nextDouble());
+    }
+
+    AdaptiveReReadingAdvisor(boolean enabled, int minChars, int minQuestions, List<String> reasoningKeywords,
+                             int minSignals, double sampleRate, List<String> lowConfidencePhrases,
+                             DoubleSupplier random) {
+        this.enabled = enabled;
+        this.minChars = minChars;
+        this.minQuestions = minQuestions;
+        this.reasoningKeywords = reasoningKeywords;
+        this.minSignals = minSignals;
+        this.sampleRate = sampleRate;
+        this.lowConfidencePhrases = lowConfidencePhrases;
+        this.random = random;
+    }
+
+    /**
+     * 判断问题是否需要重读，返回命中的规则：complex、sampled 需要重读，simple 不重读
+     */
+    String decide(String question) {
+        if (question == null || question.isBlank()) {
+            return "simple";
+        }
+        int signals = 0;
+        if (question.length() >= minChars) {
+            signals++;
+        }
+        if (countQuestions(question) >= minQuestions) {
+            signals++;
+        }
+        for (String keyword : reasoningKeywords) {
+            if (!keyword.isBlank() && question.contains(keyword)) {
+                signals++;
+                break;
+            }
+        }
+        if (signals >= minSignals) {
+            return "complex";
+        }
+        return sampleRate > 0 && random.getAsDouble() < sampleRate ? "sampled" : "simple";
+    }
+
+    private static int countQuestions(String question) {
+        int count = 0;
+        for (int i = 0; i < question.length(); i++) {
+            char c = question.charAt(i);
+            if (c == '?' || c == '？') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private AdvisedRequest before(AdvisedRequest advisedRequest, boolean applied) {
+        AdvisedRequest.Builder builder = AdvisedRequest.from(advisedRequest);
+        if (applied) {
+            // 直接拼接而不是用模板参数，问题里的花括号不会被当成占位符
+            builder.userText(advisedRequest.userText() + REREAD_MARKER + advisedRequest.userText() + "\n");
+            overheadSummary().record(estimate(REREAD_MARKER + advisedRequest.userText()));
+        }
+        return builder.build()
+                .updateContext(context -> {
+                    context.put(RE2_APPLIED_KEY, applied);
+                    return context;
+                });
+    }
+
+    @Override
+    public AdvisedResponse aroundCall(AdvisedRequest advisedRequest, CallAroundAdvisorChain chain) {
+        if (!enabled) {
+            return chain.nextAroundCall(advisedRequest);
+        }
+        String reason = decide(advisedRequest.userText());
+        boolean applied = !"simple".equals(reason);
+        requestCounter(applied, reason).increment();
+        AdvisedResponse advisedResponse = chain.nextAroundCall(before(advisedRequest, applied));
+        recordOutcome(applied, advisedResponse.response());
+        return advisedResponse;
+    }
+
+    @Override
+    public Flux<AdvisedResponse> aroundStream(AdvisedRequest advisedRequest, StreamAroundAdvisorChain chain) {
+        if (!enabled) {
+            return chain.nextAroundStream(advisedRequest);
+        }
+        return Flux.defer(() -> {
+            String reason = decide(advisedRequest.userText());
+            boolean applied = !"simple".equals(reason);
+            requestCounter(applied, reason).increment();
+            return new MessageAggregator().aggregateAdvisedResponse(
+                    chain.nextAroundStream(before(advisedRequest, applied)),
+                    aggregated -> recordOutcome(applied, aggregated.response()));
+        });
+    }
+
+    private void recordOutcome(boolean applied, ChatResponse response) {
+        String flag = AnswerQuality.flag(response, lowConfidencePhrases);
+        outcomeCounter(applied, flag != null ? flag : AnswerQuality.OK).increment();
+        long promptTokens = promptTokens(response);
+        if (promptTokens > 0) {
+            promptTokensSummary(applied).record(promptTokens);
+        }
+    }
+
+    private static long promptTokens(ChatResponse response) {
+        if (response == null || response.getMetadata() == null) {
+            return 0;
+        }
+        Usage usage = response.getMetadata().getUsage();
+        if (usage == null || usage.getPromptTokens() == null) {
+            return 0;
+        }
+        return usage.getPromptTokens();
+    }
+
+    private static int estimate(String text) {
+        return (text == null || text.isEmpty()) ? 0 : TOKEN_ESTIMATOR.estimate(text);
+    }
+
+    private static Counter requestCounter(boolean applied, String reason) {
+        return Counter.builder("ai.chat.re2.requests")
+                .description("Re2 重读决策次数")
+                .tag("applied", String.valueOf(applied))
+                .tag("reason", reason)
+                .register(Metrics.globalRegistry);
+    }
+
+    private static Counter outcomeCounter(boolean applied, String quality) {
+        return Counter.builder("ai.chat.re2.outcome")
+                .description("按是否重读分组的回答质量标记")
+                .tag("applied", String.valueOf(applied))
+                .tag("quality", quality)
+                .register(Metrics.globalRegistry);
+    }
+
+    private static DistributionSummary overheadSummary() {
+        return DistributionSummary.builder("ai.chat.re2.overhead.tokens")
+                .description("重读额外增加的提示词 Token（估算）")
+                .baseUnit("tokens")
+                .register(Metrics.globalRegistry);
+    }
+
+    private static DistributionSummary promptTokensSummary(boolean applied) {
+        return DistributionSummary.builder("ai.chat.re2.prompt.tokens")
+                .description("按是否重读分组的实际提示词 Token")
+                .baseUnit("tokens")
+                .tag("applied", String.valueOf(applied))
+                .register(Metrics.globalRegistry);
+    }
+
+    @Override
+    public int getOrder() {
+        // 在记忆 Advisor 之后（记忆中只保存原始问题），用户信息和知识库上下文拼接之前（只重读问题本身）
+        return -1;
+    }
+
+    @Override
+    public String getName() {
+        return this.getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,95 @@
+package com.yupi.yuaiagent.advisor;
+
+import com.yupi.yuaiagent.llm.AdaptiveConcurrencyLimiter;
+import org.springframework.ai.chat.client.advisor.api.*;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.core.Ordered;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 自适应并发限制 Advisor
+ * 放在调用链最外层：超过并发上限的请求直接拒绝，不写入对话记忆、不检索知识库。
+ * RTT 按本次调用的 Token 总数归一化后上报给限流器（没有用量信息时按整次耗时）。
+ * 只有超时、5xx、连接错误作为过载信号收缩上限，见 AdaptiveConcurrencyLimiter#isOverload。
+ */
+public class ConcurrencyLimitAdvisor implements CallAroundAdvisor, StreamAroundAdvisor {
+
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    public ConcurrencyLimitAdvisor(AdaptiveConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @Override
+    public AdvisedResponse aroundCall(AdvisedRequest advisedRequest, CallAroundAdvisorChain chain) {
+        AdaptiveConcurrencyLimiter.Permit permit = acquire();
+        AdvisedResponse advisedResponse;
+        try {
+            advisedResponse = chain.nextAroundCall(advisedRequest);
+        } catch (RuntimeException e) {
+            permit.onError(e);
+            throw e;
+        }
+        permit.onSuccess(totalTokens(advisedResponse.response()));
+        return advisedResponse;
+    }
+
+    @Override
+    public Flux<AdvisedResponse> aroundStream(AdvisedRequest advisedRequest, StreamAroundAdvisorChain chain) {
+        return Flux.defer(() -> {
+            AdaptiveConcurrencyLimiter.Permit permit = acquire();
+            // 用量信息在最后一段响应里
+            AtomicLong tokens = new AtomicLong();
+            return chain.nextAroundStream(advisedRequest)
+                    .doOnNext(response -> {
+                        long total = totalTokens(response.response());
+                        if (total > 0) {
+                            tokens.set(total);
+                        }
+                    })
+                    .doOnError(permit::onError)
+                    .doFinally(signal -> {
+                        if (signal == SignalType.ON_COMPLETE) {
+                            permit.onSuccess(tokens.get());
+                        } else {
+                            // 出错时 onError 已释放名额，这里只处理取消
+                            permit.onIgnore();
+                        }
+                    });
+        });
+    }
+
+    private AdaptiveConcurrencyLimiter.Permit acquire() {
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+        if (permit == null) {
+            throw new AdaptiveConcurrencyLimiter.LimitExceededException(limiter.getLimit());
+        }
+        return permit;
+    }
+
+    private static long totalTokens(ChatResponse response) {
+        if (response == null || response.getMetadata() == null) {
+            return 0;
+        }
+        Usage usage = response.getMetadata().getUsage();
+        if (usage == null || usage.getTotalTokens() == null) {
+            return 0;
+        }
+        return usage.getTotalTokens();
+    }
+
+    @Override
+    public int getOrder() {
+        // 在记忆 Advisor 和其他所有 Advisor 之前执行
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+
+    @Override
+    public String getName() {
+        return this.getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,80 @@
+package com.yupi.yuaiagent.advisor;
+
+import org.springframework.ai.chat.client.advisor.QuestionAnswerAdvisor;
+import org.springframework.ai.chat.client.advisor.api.*;
+import org.springframework.ai.document.Document;
+import reactor.core.publisher.Flux;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 使用预先检索好的文档做知识库问答的 Advisor
+ * 与 QuestionAnswerAdvisor 的提示词和上下文参数一致，区别是不在调用链里检索：
+ * 文档由调用方与历史加载、模板渲染并发检索后，通过 QuestionAnswerAdvisor.RETRIEVED_DOCUMENTS 参数传入。
+ * 未传入文档时不做任何改动。
+ */
+public class PrefetchedDocumentsAdvisor implements CallAroundAdvisor, StreamAroundAdvisor {
+
+    /**
+     * 拼接在用户问题后面的知识库上下文的起始标记
+     */
+    public static final String CONTEXT_MARKER = "Context information is below";
+
+    // 与 QuestionAnswerAdvisor 默认提示词相同
+    private static final String USER_TEXT_ADVISE = """
+
+            Context information is below, surrounded by ---------------------
+
+            ---------------------
+            {question_answer_context}
+            ---------------------
+
+            Given the context and provided history information and not prior knowledge,
+            reply to the user comment. If the answer is not in the context, inform
+            the user that you can't answer the question.
+            """;
+
+    @SuppressWarnings("unchecked")
+    private AdvisedRequest before(AdvisedRequest advisedRequest) {
+        Object retrieved = advisedRequest.adviseContext().get(QuestionAnswerAdvisor.RETRIEVED_DOCUMENTS);
+        if (!(retrieved instanceof List<?> list)) {
+            return advisedRequest;
+        }
+        String documentContext = ((List<Document>) list).stream()
+                .map(Document::getText)
+                .collect(Collectors.joining(System.lineSeparator()));
+
+        Map<String, Object> advisedUserParams = new HashMap<>(advisedRequest.userParams());
+        advisedUserParams.put("question_answer_context", documentContext);
+
+        return AdvisedRequest.from(advisedRequest)
+                .userText(advisedRequest.userText() + System.lineSeparator() + USER_TEXT_ADVISE)
+                .userParams(advisedUserParams)
+                .build();
+    }
+
+    @Override
+    public AdvisedResponse aroundCall(AdvisedRequest advisedRequest, CallAroundAdvisorChain chain) {
+        return chain.nextAroundCall(this.before(advisedRequest));
+    }
+
+    @Override
+    public Flux<AdvisedResponse> aroundStream(AdvisedRequest advisedRequest, StreamAroundAdvisorChain chain) {
+        return chain.nextAroundStream(this.before(advisedRequest));
+    }
+
+    @Override
+    public int getOrder() {
+        // 与 QuestionAnswerAdvisor 相同，在记忆 Advisor（HIGHEST_PRECEDENCE + 1000）之后执行，
+        // 记忆中保存的是未拼接知识库上下文的原始问题
+        return 0;
+    }
+
+    @Override
+    public String getName() {
+        return this.getClass().getSimpleName();
+    }
+}
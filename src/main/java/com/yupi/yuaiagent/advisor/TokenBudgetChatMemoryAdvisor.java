@@ -0,0 +1,244 @@
+package com.yupi.yuaiagent.advisor;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor;
+import org.springframework.ai.chat.client.advisor.api.*;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.MessageAggregator;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按 Token 预算挑选历史消息的对话记忆 Advisor
+ * 替代固定条数的 CHAT_MEMORY_RETRIEVE_SIZE_KEY：
+ * 1. 从记忆中取出候选消息（条数上限由 CHAT_MEMORY_RETRIEVE_SIZE_KEY 控制）
+ * 2. System Prompt、当前问题和历史中的 SYSTEM 消息视为固定上下文，始终保留
+ * 3. 超出预算时从最早的消息开始裁剪，裁剪条数按 trimStep 向上取整：一次多裁掉一块，
+ *    之后若干轮新增的消息都还放得下，最早保留的消息不变，请求前缀可以命中模型的 KV 缓存；
+ *    逐条裁剪（trimStep = 1）时对话饱和后每一轮的前缀都不同
+ * 4. 记录每次调用的历史 Token 估算值和模型返回的 Prompt Token 数，便于调优预算
+ * 调用方已提前并发取出历史时，通过 PREFETCHED_HISTORY_KEY 传入，不再重复读取存储。
+ * 需要校验输出后才能确定本轮内容时（如解析失败要重新生成），通过 CHAT_MEMORY_DEFER_SAVE_KEY
+ * 让本 Advisor 只读取历史、不写入记忆，由调用方在拿到最终结果后自行写入。
+ */
+@Slf4j
+public class TokenBudgetChatMemoryAdvisor extends AbstractChatMemoryAdvisor<ChatMemory> {
+
+    /**
+     * 单次请求覆盖默认 Token 预算的参数名
+     */
+    public static final String CHAT_MEMORY_TOKEN_BUDGET_KEY = "chat_memory_token_budget";
+
+    /**
+     * 预先取出的候选历史消息（List&lt;Message&gt;）的参数名
+     */
+    public static final String PREFETCHED_HISTORY_KEY = "chat_memory_prefetched_history";
+
+    /**
+     * 为 true 时不把本轮的用户输入和模型输出写入记忆的参数名
+     */
+    public static final String CHAT_MEMORY_DEFER_SAVE_KEY = "chat_memory_defer_save";
+
+    /**
+     * 每条消息的角色标记等额外开销（近似值）
+     */
+    private static final int MESSAGE_OVERHEAD_TOKENS = 4;
+
+    // JTokkit 本地分词，纯内存计算，无需调用模型
+    private static final TokenCountEstimator TOKEN_ESTIMATOR = new JTokkitTokenCountEstimator();
+
+    private final int defaultTokenBudget;
+    private final int trimStep;
+
+    private final DistributionSummary historyTokensSummary = DistributionSummary
+            .builder("ai.chat.memory.history.tokens")
+            .description("按预算挑选后注入的历史消息 Token 估算值")
+            .register(Metrics.globalRegistry);
+
+    private final DistributionSummary promptTokensSummary = DistributionSummary
+            .builder("ai.chat.prompt.tokens")
+            .description("模型返回的 Prompt Token 数")
+            .register(Metrics.globalRegistry);
+
+    // Ollama 返回的 prompt-eval-duration，前缀命中 KV 缓存时明显变短
+    private final Timer prefillTimer = Timer
+            .builder("ai.chat.prefill.time")
+            .description("模型 prefill（处理 Prompt）耗时")
+            .register(Metrics.globalRegistry);
+
+    private final Counter trimmedMessagesCounter = Counter
+            .builder("ai.chat.memory.trimmed.messages")
+            .description("因超出 Token 预算被裁掉的历史消息数")
+            .register(Metrics.globalRegistry);
+
+    /**
+     * @param chatMemory         对话记忆存储
+     * @param defaultTokenBudget 历史 + 固定上下文的默认 Token 预算
+     * @param maxCandidateSize   每次最多从存储中取出的候选消息条数
+     */
+    public TokenBudgetChatMemoryAdvisor(ChatMemory chatMemory, int defaultTokenBudget, int maxCandidateSize) {
+        this(chatMemory, defaultTokenBudget, maxCandidateSize, 1);
+    }
+
+    /**
+     * @param trimStep 超出预算时每次裁剪的消息条数粒度
+     */
+    public TokenBudgetChatMemoryAdvisor(ChatMemory chatMemory, int defaultTokenBudget, int maxCandidateSize,
+                                        int trimStep) {
+        super(chatMemory, DEFAULT_CHAT_MEMORY_CONVERSATION_ID, maxCandidateSize, true);
+        if (defaultTokenBudget <= 0) {
+            throw new IllegalArgumentException("Token 预算必须大于 0");
+        }
+        if (trimStep <= 0) {
+            throw new IllegalArgumentException("裁剪粒度必须大于 0");
+        }
+        this.defaultTokenBudget = defaultTokenBudget;
+        this.trimStep = trimStep;
+    }
+
+    private AdvisedRequest before(AdvisedRequest request) {
+        String conversationId = this.doGetConversationId(request.adviseContext());
+        int candidateSize = this.doGetChatMemoryRetrieveSize(request.adviseContext());
+        int tokenBudget = doGetTokenBudget(request.adviseContext());
+
+        //1、取出候选历史消息（优先使用预取结果）
+        List<Message> candidates = doGetPrefetchedHistory(request.adviseContext(), candidateSize);
+        if (candidates == null) {
+            candidates = this.getChatMemoryStore().get(conversationId, candidateSize);
+        }
+
+        //2、固定上下文：System Prompt + 当前问题 + 历史中的 SYSTEM 消息
+        int pinnedTokens = estimate(request.systemText()) + estimate(request.userText());
+        List<Message> pinnedMessages = new ArrayList<>();
+        List<Message> history = new ArrayList<>();
+        for (Message message : candidates) {
+            if (message.getMessageType() == MessageType.SYSTEM) {
+                pinnedMessages.add(message);
+                pinnedTokens += estimate(message);
+            } else {
+                history.add(message);
+            }
+        }
+
+        //3、超出预算时从最早的消息开始裁剪，裁剪条数按 trimStep 向上取整
+        int[] tokens = new int[history.size()];
+        int historyTokens = 0;
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = estimate(history.get(i));
+            historyTokens += tokens[i];
+        }
+        int drop = 0;
+        while (drop < tokens.length && pinnedTokens + historyTokens > tokenBudget) {
+            historyTokens -= tokens[drop++];
+        }
+        int steppedDrop = Math.min(tokens.length, (drop + trimStep - 1) / trimStep * trimStep);
+        while (drop < steppedDrop) {
+            historyTokens -= tokens[drop++];
+        }
+        List<Message> selected = history.subList(steppedDrop, history.size());
+        int usedTokens = pinnedTokens + historyTokens;
+
+        int trimmed = candidates.size() - pinnedMessages.size() - selected.size();
+        if (trimmed > 0) {
+            trimmedMessagesCounter.increment(trimmed);
+        }
+        historyTokensSummary.record(usedTokens - pinnedTokens);
+        log.info("按 Token 预算挑选历史，conversationId: {}, 预算: {}, 固定上下文: {}, 历史: {}, 保留 {} 条, 裁掉 {} 条",
+                conversationId, tokenBudget, pinnedTokens, usedTokens - pinnedTokens, selected.size(), trimmed);
+
+        //4、组装请求消息：固定的 SYSTEM 消息在前，历史按时间顺序在后
+        List<Message> advisedMessages = new ArrayList<>(request.messages());
+        advisedMessages.addAll(pinnedMessages);
+        advisedMessages.addAll(selected);
+        AdvisedRequest advisedRequest = AdvisedRequest.from(request).messages(advisedMessages).build();
+
+        //5、把本轮用户输入写入记忆
+        if (!isDeferSave(request.adviseContext())) {
+            UserMessage userMessage = new UserMessage(request.userText(), request.media());
+            this.getChatMemoryStore().add(conversationId, userMessage);
+        }
+
+        return advisedRequest;
+    }
+
+    private void observeAfter(AdvisedResponse advisedResponse) {
+        Usage usage = advisedResponse.response().getMetadata().getUsage();
+        if (usage != null && usage.getPromptTokens() != null && usage.getPromptTokens() > 0) {
+            promptTokensSummary.record(usage.getPromptTokens());
+            log.info("模型 Prompt Token 数: {}", usage.getPromptTokens());
+        }
+        if (advisedResponse.response().getMetadata().get("prompt-eval-duration") instanceof Duration prefill) {
+            prefillTimer.record(prefill);
+        }
+
+        List<Message> assistantMessages = advisedResponse.response()
+                .getResults()
+                .stream()
+                .map(g -> (Message) g.getOutput())
+                .toList();
+        if (isDeferSave(advisedResponse.adviseContext())) {
+            return;
+        }
+        this.getChatMemoryStore().add(this.doGetConversationId(advisedResponse.adviseContext()), assistantMessages);
+    }
+
+    /**
+     * 获取本次请求的 Token 预算，未指定时使用默认值
+     */
+    private int doGetTokenBudget(Map<String, Object> context) {
+        return context.containsKey(CHAT_MEMORY_TOKEN_BUDGET_KEY)
+                ? Integer.parseInt(context.get(CHAT_MEMORY_TOKEN_BUDGET_KEY).toString())
+                : this.defaultTokenBudget;
+    }
+
+    private static boolean isDeferSave(Map<String, Object> context) {
+        return Boolean.TRUE.equals(context.get(CHAT_MEMORY_DEFER_SAVE_KEY));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Message> doGetPrefetchedHistory(Map<String, Object> context, int candidateSize) {
+        Object prefetched = context.get(PREFETCHED_HISTORY_KEY);
+        if (!(prefetched instanceof List<?> history)) {
+            return null;
+        }
+        List<Message> messages = (List<Message>) history;
+        return messages.size() > candidateSize ? messages.subList(messages.size() - candidateSize, messages.size()) : messages;
+    }
+
+    private static int estimate(Message message) {
+        return estimate(message.getText()) + MESSAGE_OVERHEAD_TOKENS;
+    }
+
+    private static int estimate(String text) {
+        return (text == null || text.isEmpty()) ? 0 : TOKEN_ESTIMATOR.estimate(text);
+    }
+
+    @Override
+    public AdvisedResponse aroundCall(AdvisedRequest advisedRequest, CallAroundAdvisorChain chain) {
+        advisedRequest = this.before(advisedRequest);
+        AdvisedResponse advisedResponse = chain.nextAroundCall(advisedRequest);
+        this.observeAfter(advisedResponse);
+        return advisedResponse;
+    }
+
+    @Override
+    public Flux<AdvisedResponse> aroundStream(AdvisedRequest advisedRequest, StreamAroundAdvisorChain chain) {
+        Flux<AdvisedResponse> advisedResponses = this.doNextWithProtectFromBlockingBefore(advisedRequest, chain,
+                this::before);
+        return new MessageAggregator().aggregateAdvisedResponse(advisedResponses, this::observeAfter);
+    }
+}
@@ -0,0 +1,53 @@
+package com.yupi.yuaiagent.advisor;
+
+import org.springframework.ai.chat.client.advisor.api.*;
+import reactor.core.publisher.Flux;
+
+/**
+ * 把本轮的用户信息拼到用户消息前面（kv-cache 提示词布局）
+ * 在记忆 Advisor 之后执行：记忆中只保存用户原始问题，用户信息不会在历史里重复出现，
+ * 也不会改变已经发送过的前缀。
+ */
+public class UserContextAdvisor implements CallAroundAdvisor, StreamAroundAdvisor {
+
+    /**
+     * 用户信息文本的参数名
+     */
+    public static final String USER_CONTEXT_KEY = "prompt_user_context";
+
+    /**
+     * 用户信息与原始问题之间的分隔标记
+     */
+    public static final String QUESTION_MARKER = "\n\n问题描述：";
+
+    private AdvisedRequest before(AdvisedRequest advisedRequest) {
+        Object context = advisedRequest.adviseContext().get(USER_CONTEXT_KEY);
+        if (context == null || context.toString().isBlank()) {
+            return advisedRequest;
+        }
+        return AdvisedRequest.from(advisedRequest)
+                .userText(context + QUESTION_MARKER + advisedRequest.userText())
+                .build();
+    }
+
+    @Override
+    public AdvisedResponse aroundCall(AdvisedRequest advisedRequest, CallAroundAdvisorChain chain) {
+        return chain.nextAroundCall(this.before(advisedRequest));
+    }
+
+    @Override
+    public Flux<AdvisedResponse> aroundStream(AdvisedRequest advisedRequest, StreamAroundAdvisorChain chain) {
+        return chain.nextAroundStream(this.before(advisedRequest));
+    }
+
+    @Override
+    public int getOrder() {
+        // 在记忆 Advisor（DEFAULT_CHAT_MEMORY_PRECEDENCE_ORDER）之后，日志 Advisor 之前
+        return 0;
+    }
+
+    @Override
+    public String getName() {
+        return this.getClass().getSimpleName();
+    }
+}
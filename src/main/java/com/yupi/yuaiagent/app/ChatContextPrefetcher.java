@@ -0,0 +1,106 @@
+package com.yupi.yuaiagent.app;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import com.yupi.yuaiagent.rag.ContextCompressor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 调用模型前的并发预取
+ * 历史加载、知识库检索（BM25 + 向量混合检索，检索结果随后压缩）、System Prompt 模板渲染互不依赖，
+ * 原本在 Advisor 链里依次执行；这里同时发起，模型调用前的耗时从三者之和变为三者最大值。
+ * 结果通过 Advisor 参数交给 TokenBudgetChatMemoryAdvisor 和 PrefetchedDocumentsAdvisor。
+ * 历史从调用方传入的 ChatMemory 读取，保证与对话写入的是同一个存储。
+ */
+@Slf4j
+@Component
+public class ChatContextPrefetcher {
+
+    /**
+     * 预取结果
+     *
+     * @param systemPrompt 渲染后的 System Prompt，未要求时为 null
+     * @param history      候选历史消息
+     * @param documents    压缩后的知识库检索结果，未要求时为 null
+     */
+    public record PrefetchedContext(String systemPrompt, List<Message> history, List<Document> documents) {
+    }
+
+    private final DocumentRetriever documentRetriever;
+    private final ContextCompressor contextCompressor;
+    private final int maxHistorySize;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public ChatContextPrefetcher(@Qualifier("loveAppHybridRetriever") DocumentRetriever documentRetriever,
+                                 ContextCompressor contextCompressor,
+                                 @Value("${yu-ai-agent.chat-memory.max-history-size:50}") int maxHistorySize) {
+        this.documentRetriever = documentRetriever;
+        this.contextCompressor = contextCompressor;
+        this.maxHistorySize = maxHistorySize;
+    }
+
+    /**
+     * 并发预取，阻塞直到三项都完成
+     *
+     * @param chatMemory     对话使用的 ChatMemory（与记忆 Advisor 相同）
+     * @param conversationId 对话 ID
+     * @param query          用户问题（用于知识库检索）
+     * @param systemPrompt   System Prompt 渲染函数，为 null 时不渲染
+     * @param withRag        是否检索知识库
+     * @return 预取结果
+     */
+    public PrefetchedContext prefetch(ChatMemory chatMemory, String conversationId, String query, Supplier<String> systemPrompt, boolean withRag) {
+        long start = System.nanoTime();
+        CompletableFuture<List<Message>> history = supply("history",
+                () -> chatMemory.get(conversationId, maxHistorySize));
+        CompletableFuture<List<Document>> documents = withRag
+                ? supply("rag", () -> contextCompressor.compress(query, documentRetriever.retrieve(new Query(query))).documents())
+                : CompletableFuture.completedFuture(null);
+        CompletableFuture<String> prompt = systemPrompt != null
+                ? supply("template", systemPrompt)
+                : CompletableFuture.completedFuture(null);
+        try {
+            CompletableFuture.allOf(history, documents, prompt).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : e;
+        }
+        long elapsed = System.nanoTime() - start;
+        timer("total").record(elapsed, TimeUnit.NANOSECONDS);
+        log.info("预取完成，conversationId: {}, 耗时 {} ms", conversationId, elapsed / 1_000_000);
+        return new PrefetchedContext(prompt.join(), history.join(), documents.join());
+    }
+
+    private <T> CompletableFuture<T> supply(String stage, Supplier<T> supplier) {
+        Timer timer = timer(stage);
+        return CompletableFuture.supplyAsync(() -> timer.record(supplier), executor);
+    }
+
+    private static Timer timer(String stage) {
+        return Timer.builder("ai.chat.prefetch.time")
+                .description("模型调用前预取各阶段耗时")
+                .tag("stage", stage)
+                .register(Metrics.globalRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
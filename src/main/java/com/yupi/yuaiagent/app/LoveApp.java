@@ -1,28 +1,48 @@
 package com.yupi.yuaiagent.app;
 
+import com.yupi.yuaiagent.advisor.AdaptiveReReadingAdvisor;
+import com.yupi.yuaiagent.advisor.ConcurrencyLimitAdvisor;
 import com.yupi.yuaiagent.advisor.MyLoggerAdvisor;
-import com.yupi.yuaiagent.template.PromptTemplateLoader;
+import com.yupi.yuaiagent.advisor.PrefetchedDocumentsAdvisor;
+import com.yupi.yuaiagent.advisor.TokenBudgetChatMemoryAdvisor;
+import com.yupi.yuaiagent.advisor.UserContextAdvisor;
+import com.yupi.yuaiagent.llm.AdaptiveConcurrencyLimiter;
+import com.yupi.yuaiagent.template.PromptLayoutAssembler;
+import com.yupi.yuaiagent.utils.StreamingJsonParser;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 import org.springframework.ai.chat.client.advisor.QuestionAnswerAdvisor;
 import org.springframework.ai.chat.client.advisor.api.Advisor;
 import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_CONVERSATION_ID_KEY;
-import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_RETRIEVE_SIZE_KEY;
 
 @Component
 @Slf4j
@@ -32,27 +52,46 @@ public class LoveApp {
     private final ChatMemory chatMemory;
     
     @Resource
-    private PromptTemplateLoader promptTemplateLoader;
+    private ChatContextPrefetcher chatContextPrefetcher;
 
-    // 模板文件路径（相对于 resources 目录）
-    private static final String TEMPLATE_PATH = "promptTemplate/SystemTemplate";
+    @Resource
+    private PromptLayoutAssembler promptLayoutAssembler;
 
     /**
      * 构造器注入
      * Spring 会自动注入 ChatModel 和 ChatMemory,Chatmodel使用OllamaChatModel或者dashscopeChatModel
+     * @param chatModel "loveAppChatModel"：开启分级路由时为小模型/大模型路由，否则就是 ollamaChatModel
      * @param chatMemory Spring 自动装配的 ChatMemory
      *                   使用 @Qualifier 指定要注入的实现：
+     *                   - "tieredChatMemory": 内存 + 本地预写日志 + MySQL 分层存储（默认）
      *                   - "mysqlChatMemory": MySQL 数据库存储
      *                   - "fileChatMemory": 文件存储
+     * @param tokenBudget 历史消息 + System Prompt 的 Token 预算
+     * @param maxHistorySize 每次最多从记忆中取出的候选消息条数
+     * @param trimStep 超出 Token 预算时每次裁剪的消息条数粒度（越大前缀越稳定，越容易命中 KV 缓存）
+     * @param concurrencyLimiter 模型调用的自适应并发限制（与 VisionApp 共用）
+     * @param reReadingAdvisor 只对复杂问题开启的 Re2 重读
      */
-    public LoveApp(@Qualifier("ollamaChatModel") ChatModel chatModel,
-                   @Qualifier("mysqlChatMemory") ChatMemory chatMemory) {
+    public LoveApp(@Qualifier("loveAppChatModel") ChatModel chatModel,
+                   @Qualifier("tieredChatMemory") ChatMemory chatMemory,
+                   @Value("${yu-ai-agent.chat-memory.token-budget:2048}") int tokenBudget,
+                   @Value("${yu-ai-agent.chat-memory.max-history-size:50}") int maxHistorySize,
+                   @Value("${yu-ai-agent.chat-memory.trim-step:10}") int trimStep,
+                   AdaptiveConcurrencyLimiter concurrencyLimiter,
+                   AdaptiveReReadingAdvisor reReadingAdvisor) {
         this.chatMemory = chatMemory;
         
         // 构建 ChatClient，不设置 defaultSystem，改为动态加载
         chatClient = ChatClient.builder(chatModel)
                 .defaultAdvisors(
-                        new MessageChatMemoryAdvisor(chatMemory),
+                        // 超过自适应并发上限直接拒绝
+                        new ConcurrencyLimitAdvisor(concurrencyLimiter),
+                        // 按 Token 预算挑选历史，而不是固定回放最近 10 条；超出预算时按块裁剪
+                        new TokenBudgetChatMemoryAdvisor(chatMemory, tokenBudget, maxHistorySize, trimStep),
+                        // 复杂问题重读一遍，简单问题不多花 Token
+                        reReadingAdvisor,
+                        // kv-cache 布局下把用户信息放到最后一条用户消息里
+                        new UserContextAdvisor(),
                         new MyLoggerAdvisor()
                 )
                 .build();
@@ -92,8 +131,11 @@ public class LoveApp {
         variables.put("question", message);
         variables.put("maxWords", "300");
         
-        // 加载并填充模板
-        String systemPrompt = promptTemplateLoader.loadAndFill(TEMPLATE_PATH, variables);
+        // 并发：加载历史、检索知识库、填充模板
+        ChatContextPrefetcher.PrefetchedContext context = chatContextPrefetcher.prefetch(chatMemory, chatId, message,
+                () -> promptLayoutAssembler.systemPrompt(variables), true);
+        String userContext = promptLayoutAssembler.userContext(variables);
+        String systemPrompt = context.systemPrompt();
         
         log.info("使用动态生成的 System Prompt:{}", systemPrompt);
         
@@ -105,9 +147,13 @@ public class LoveApp {
                 .advisors(advisorSpec -> {
                     // 设置对话记忆参数
                     advisorSpec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId);
-                    advisorSpec.param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10);
-                    // 添加 RAG 知识库检索（可选）
-                    advisorSpec.advisors(new QuestionAnswerAdvisor(loveAppVectorStore));
+                    advisorSpec.param(TokenBudgetChatMemoryAdvisor.PREFETCHED_HISTORY_KEY, context.history());
+                    if (userContext != null) {
+                        advisorSpec.param(UserContextAdvisor.USER_CONTEXT_KEY, userContext);
+                    }
+                    // 添加 RAG 知识库检索（使用预取的文档）
+                    advisorSpec.param(QuestionAnswerAdvisor.RETRIEVED_DOCUMENTS, context.documents());
+                    advisorSpec.advisors(new PrefetchedDocumentsAdvisor());
                 })
                 .call()
                 .chatResponse();
@@ -116,9 +162,42 @@ public class LoveApp {
         return content;
     }
 
-     public record LoveReport(String title, List<String> suggestions) {
+    public record LoveReport(String title, List<String> suggestions) {
+    }
+
+    /**
+     * 流式生成恋爱报告时的事件
+     * - TITLE：标题解析完成
+     * - SUGGESTION：第 index 条建议解析完成
+     * - RETRY：输出无法修复，已丢弃之前的事件并重新生成
+     * - DONE：最终报告
+     */
+    public record LoveReportEvent(Type type, String text, int index, LoveReport report) {
+
+        public enum Type {
+            TITLE, SUGGESTION, RETRY, DONE
+        }
+
+        static LoveReportEvent title(String title) {
+            return new LoveReportEvent(Type.TITLE, title, -1, null);
+        }
+
+        static LoveReportEvent suggestion(int index, String suggestion) {
+            return new LoveReportEvent(Type.SUGGESTION, suggestion, index, null);
+        }
+
+        static LoveReportEvent retry() {
+            return new LoveReportEvent(Type.RETRY, null, -1, null);
+        }
+
+        static LoveReportEvent done(LoveReport report) {
+            return new LoveReportEvent(Type.DONE, null, -1, report);
+        }
     }
 
+    private static final ObjectMapper REPORT_MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
     /**
      * 使用模板生成恋爱报告
      * 
@@ -132,6 +211,8 @@ public class LoveApp {
     
     /**
      * 使用模板生成恋爱报告（完整版）
+     * 输出先按原样解析，失败时就地修复常见 JSON 缺陷，修复也失败才重新生成一次
+     * 本轮只在拿到最终报告后写入一次记忆，解析失败的输出不会进入对话历史
      * 
      * @param message 用户消息
      * @param chatId 对话 ID
@@ -140,6 +221,90 @@ public class LoveApp {
      * @return 恋爱报告
      */
     public LoveReport doChatWithReportForUser(String message, String chatId, String userName, String userProfession) {
+        long start = System.nanoTime();
+        ChatClient.ChatClientRequestSpec request = reportRequest(message, chatId, userName, userProfession);
+        LoveReport loveReport = parseReport(request.call().content());
+        if (loveReport == null) {
+            loveReport = regenerateReport(request);
+        }
+        rememberReport(chatId, message, loveReport);
+        firstSuggestionTimer("call").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        log.info("loveReport: {}", loveReport);
+        return loveReport;
+    }
+
+    /**
+     * 流式生成恋爱报告，建议每解析完一条就推送一条，不等整段 JSON 生成完
+     *
+     * @param message 用户消息
+     * @param chatId 对话 ID
+     * @return 报告事件流，最后一个事件为 DONE
+     */
+    public Flux<LoveReportEvent> doChatWithReportStream(String message, String chatId) {
+        return doChatWithReportStreamForUser(message, chatId, "用户", "程序员");
+    }
+
+    /**
+     * 流式生成恋爱报告（完整版）
+     *
+     * @param message 用户消息
+     * @param chatId 对话 ID
+     * @param userName 用户名称
+     * @param userProfession 用户职业
+     * @return 报告事件流，最后一个事件为 DONE
+     */
+    public Flux<LoveReportEvent> doChatWithReportStreamForUser(String message, String chatId,
+                                                               String userName, String userProfession) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            ChatClient.ChatClientRequestSpec request = reportRequest(message, chatId, userName, userProfession);
+            List<LoveReportEvent> pending = new ArrayList<>();
+            AtomicBoolean firstSuggestion = new AtomicBoolean();
+            StreamingJsonParser parser = new StreamingJsonParser(new StreamingJsonParser.Listener() {
+                @Override
+                public void onField(String key, String value) {
+                    if ("title".equals(key)) {
+                        pending.add(LoveReportEvent.title(value));
+                    }
+                }
+
+                @Override
+                public void onArrayElement(String key, int index, String value) {
+                    if (!"suggestions".equals(key)) {
+                        return;
+                    }
+                    if (firstSuggestion.compareAndSet(false, true)) {
+                        firstSuggestionTimer("stream").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    }
+                    pending.add(LoveReportEvent.suggestion(index, value));
+                }
+            });
+            Flux<LoveReportEvent> incremental = request.stream().content()
+                    .concatMapIterable(chunk -> {
+                        parser.feed(chunk);
+                        List<LoveReportEvent> events = List.copyOf(pending);
+                        pending.clear();
+                        return events;
+                    });
+            return incremental.concatWith(Flux.defer(() -> {
+                LoveReport loveReport = parseReport(parser.text());
+                if (loveReport != null) {
+                    log.info("loveReport: {}", loveReport);
+                    rememberReport(chatId, message, loveReport);
+                    return Flux.just(LoveReportEvent.done(loveReport));
+                }
+                LoveReport retried = regenerateReport(request);
+                rememberReport(chatId, message, retried);
+                return Flux.concat(Flux.just(LoveReportEvent.retry()), replay(retried));
+            }));
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * 构建生成报告的请求，阻塞和流式两种方式共用
+     */
+    private ChatClient.ChatClientRequestSpec reportRequest(String message, String chatId,
+                                                           String userName, String userProfession) {
         // 准备模板变量
         Map<String, String> variables = new HashMap<>();
         variables.put("advisorName", "心灵导师小爱");
@@ -151,38 +316,126 @@ public class LoveApp {
         variables.put("question", message);
         variables.put("maxWords", "300");
         
-        // 加载并填充模板
-        String systemPrompt = promptTemplateLoader.loadAndFill(TEMPLATE_PATH, variables);
+        // 并发：加载历史、填充模板
+        ChatContextPrefetcher.PrefetchedContext context = chatContextPrefetcher.prefetch(chatMemory, chatId, message,
+                () -> promptLayoutAssembler.systemPrompt(variables), false);
+        String userContext = promptLayoutAssembler.userContext(variables);
+        String systemPrompt = context.systemPrompt();
         
-        // 添加报告生成指令
+        // 添加报告生成指令（示例本身必须是合法 JSON，否则模型会照着输出多余的逗号）
         String formatInstruction = """
                你必须生成符合下面格式的回答：
-               使用Json格式，例如
+               使用Json格式，只输出 JSON，不要输出其他内容，例如
                 {"title": "恋爱报告：程序员鱼皮的爱情指南",
                   "suggestions": [
                        "拓展社交圈：积极参与社区活动、线上社群，扩大社交圈子。",
                        "提升个人魅力：注重仪容仪表、提升内在修养，展现个人魅力。",
                         "培养共同兴趣：找到共同爱好，增加互动和话题，培养情感联系。",
                       "练习沟通技巧：清晰表达需求，积极倾听，表达真挚情感。",
-                      "寻求专业帮助：考虑心理咨询师，更好地了解自我和爱情。",
+                      "寻求专业帮助：考虑心理咨询师，更好地了解自我和爱情。"
                     ]
                  }
                 """;
         
         String fullSystemPrompt = systemPrompt + "\n\n每次对话后都要生成恋爱结果，标题为用户名的恋爱报告，内容为建议列表。\n" + formatInstruction;
         
-        LoveReport loveReport = chatClient
+        return chatClient
                 .prompt()
                 .system(fullSystemPrompt)
                 .user(message)
-                .advisors(spec-> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
-                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
-                .call()
-                .entity(LoveReport.class);
-        log.info("loveReport: {}", loveReport);
+                .advisors(spec-> {
+                    spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
+                            .param(TokenBudgetChatMemoryAdvisor.PREFETCHED_HISTORY_KEY, context.history())
+                            // 解析失败会重新生成，由 rememberReport 只写入最终结果
+                            .param(TokenBudgetChatMemoryAdvisor.CHAT_MEMORY_DEFER_SAVE_KEY, true);
+                    if (userContext != null) {
+                        spec.param(UserContextAdvisor.USER_CONTEXT_KEY, userContext);
+                    }
+                });
+    }
+
+    /**
+     * 修复失败时重新生成一次，交给结构化输出转换器解析
+     */
+    private LoveReport regenerateReport(ChatClient.ChatClientRequestSpec request) {
+        reportParseCounter("retry").increment();
+        log.warn("恋爱报告 JSON 无法修复，重新生成");
+        return request.call().entity(LoveReport.class);
+    }
+
+    /**
+     * 把本轮问题和最终报告写入记忆（代替记忆 Advisor 的写入，重新生成时不会重复写入问题或留下失败的输出）
+     */
+    private void rememberReport(String chatId, String message, LoveReport loveReport) {
+        if (loveReport == null) {
+            return;
+        }
+        try {
+            chatMemory.add(chatId, List.of(new UserMessage(message),
+                    new AssistantMessage(REPORT_MAPPER.writeValueAsString(loveReport))));
+        } catch (JsonProcessingException e) {
+            log.warn("恋爱报告写入对话记忆失败，chatId: {}", chatId, e);
+        }
+    }
+
+    private static Flux<LoveReportEvent> replay(LoveReport loveReport) {
+        List<LoveReportEvent> events = new ArrayList<>();
+        events.add(LoveReportEvent.title(loveReport.title()));
+        List<String> suggestions = loveReport.suggestions() != null ? loveReport.suggestions() : List.of();
+        for (int i = 0; i < suggestions.size(); i++) {
+            events.add(LoveReportEvent.suggestion(i, suggestions.get(i)));
+        }
+        events.add(LoveReportEvent.done(loveReport));
+        return Flux.fromIterable(events);
+    }
+
+    /**
+     * 解析模型输出的报告：先按原样解析，失败再修复后解析
+     *
+     * @param content 模型输出
+     * @return 报告，修复后仍无法解析时返回 null
+     */
+    static LoveReport parseReport(String content) {
+        if (content == null || content.isBlank()) {
+            return null;
+        }
+        LoveReport loveReport = readReport(content.strip());
+        if (loveReport != null) {
+            reportParseCounter("clean").increment();
+            return loveReport;
+        }
+        String repaired = StreamingJsonParser.repair(content);
+        loveReport = repaired != null ? readReport(repaired) : null;
+        if (loveReport != null) {
+            reportParseCounter("repaired").increment();
+            log.info("恋爱报告 JSON 已就地修复");
+        }
         return loveReport;
     }
 
+    private static LoveReport readReport(String json) {
+        try {
+            LoveReport loveReport = REPORT_MAPPER.readValue(json, LoveReport.class);
+            return loveReport != null && loveReport.suggestions() != null ? loveReport : null;
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    private static Timer firstSuggestionTimer(String mode) {
+        return Timer.builder("ai.chat.report.first.suggestion")
+                .description("恋爱报告从发出请求到拿到第一条建议的耗时")
+                .tag("mode", mode)
+                .register(Metrics.globalRegistry);
+    }
+
+    private static Counter reportParseCounter(String result) {
+        return Counter.builder("ai.chat.report.parse")
+                .description("恋爱报告解析结果：clean 原样解析，repaired 修复后解析，retry 重新生成")
+                .tag("result", result)
+                .register(Metrics.globalRegistry);
+    }
+
     @Resource
     private VectorStore loveAppVectorStore;
 
@@ -190,12 +443,15 @@ public class LoveApp {
     private Advisor loveAppRagAdvisor;
 
     public String doChatWithRag(String message, String chatId){
+        // 并发：加载历史、检索知识库
+        ChatContextPrefetcher.PrefetchedContext context = chatContextPrefetcher.prefetch(chatMemory, chatId, message, null, true);
         ChatResponse chatResponse = chatClient.prompt()
                 .user(message)
                 .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
-                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
-                //应用知识库问答
-                .advisors(new QuestionAnswerAdvisor(loveAppVectorStore))
+                        .param(TokenBudgetChatMemoryAdvisor.PREFETCHED_HISTORY_KEY, context.history())
+                        .param(QuestionAnswerAdvisor.RETRIEVED_DOCUMENTS, context.documents()))
+                //应用知识库问答（使用预取的文档）
+                .advisors(new PrefetchedDocumentsAdvisor())
                 //应用增强检索服务（云知识库服务）
                 //。advisors(loveAppRagAdvisor)
                 .call()
@@ -1,7 +1,14 @@
 package com.yupi.yuaiagent.app;
 
+import com.yupi.yuaiagent.advisor.ConcurrencyLimitAdvisor;
 import com.yupi.yuaiagent.advisor.MyLoggerAdvisor;
+import com.yupi.yuaiagent.cache.VisionResultCache;
+import com.yupi.yuaiagent.llm.AdaptiveConcurrencyLimiter;
+import com.yupi.yuaiagent.utils.ImagePreprocessor;
 import com.yupi.yuaiagent.utils.ImageUtils;
+import com.yupi.yuaiagent.utils.VisionTimingMetrics;
+import io.micrometer.core.instrument.Metrics;
+import jakarta.annotation.PreDestroy;
 
 
 import lombok.extern.slf4j.Slf4j;
@@ -11,10 +18,23 @@ import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Component;
 import org.springframework.util.MimeTypeUtils;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
 
-import java.util.Base64;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * 多模态对话助手 - 支持图片理解
@@ -24,15 +44,33 @@ import java.util.Base64;
 @Slf4j
 public class VisionApp {
 
+    // 对话记忆使用只存文本的 MySQL 存储：分层存储的热层会把历史图片的 Media 留在堆里并随每次请求重放
     private final ChatClient chatClient;
+    // 不带对话记忆的客户端：批量任务、批量分析的每次推理互不相关，不应写入或携带历史
+    private final ChatClient statelessChatClient;
+    private final ImagePreprocessor imagePreprocessor;
+    private final VisionResultCache visionResultCache;
+    private final VisionTimingMetrics timingMetrics = new VisionTimingMetrics(Metrics.globalRegistry);
+    // 批量分析退化为逐项调用时使用，最多同时 AnalysisKind.values().length 个请求
+    private final ExecutorService fallbackExecutor = Executors.newVirtualThreadPerTaskExecutor();
 
     public VisionApp(@Qualifier("ollamaChatModel") ChatModel chatModel
-                   ,@Qualifier("mysqlChatMemory") ChatMemory chatMemory) {
+                   ,@Qualifier("mysqlChatMemory") ChatMemory chatMemory
+                   ,ImagePreprocessor imagePreprocessor
+                   ,VisionResultCache visionResultCache
+                   ,AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this.imagePreprocessor = imagePreprocessor;
+        this.visionResultCache = visionResultCache;
         this.chatClient = ChatClient.builder(chatModel)
         .defaultAdvisors(
+            // 与 LoveApp 共用同一个模型服务，共用并发上限
+            new ConcurrencyLimitAdvisor(concurrencyLimiter),
             new MessageChatMemoryAdvisor(chatMemory),
             new MyLoggerAdvisor()
         ).build();
+        this.statelessChatClient = ChatClient.builder(chatModel)
+        .defaultAdvisors(new ConcurrencyLimitAdvisor(concurrencyLimiter), new MyLoggerAdvisor())
+        .build();
     }
 
     /**
@@ -45,17 +83,11 @@ public class VisionApp {
     public String analyzeImageFromResources(String imagePath, String question) {
         log.info("开始分析图片：{}", imagePath);
         
-        // 加载图片并转换为 Base64
-        String base64Image = ImageUtils.loadImageAsBase64FromResources(imagePath);
+        // 加载图片为 Resource（不经过 Base64 编解码）
+        Resource image = ImageUtils.loadImageResourceFromResources(imagePath);
         
-        // 解码为字节数组
-        byte[] imageBytes = Base64.getDecoder().decode(base64Image);
-        
-        // 获取图片类型
-        String mimeType = ImageUtils.getImageMimeType(imagePath);
-        
-        // 构建多模态消息
-        return analyzeImage(imageBytes, mimeType, question);
+        // 构建多模态消息（图片类型由预处理按文件头识别）
+        return analyzeImage(chatClient, image, question);
     }
 
     /**
@@ -68,44 +100,128 @@ public class VisionApp {
     public String analyzeImageFromProject(String imagePath, String question) {
         log.info("开始分析项目图片：{}", imagePath);
         
-        // 加载图片并转换为 Base64
-        String base64Image = ImageUtils.loadImageAsBase64FromProject(imagePath);
-        
-        // 解码为字节数组
-        byte[] imageBytes = Base64.getDecoder().decode(base64Image);
+        // 加载图片为 Resource（不经过 Base64 编解码，大文件内存映射）
+        Resource image = ImageUtils.loadImageResourceFromProject(imagePath);
         
-        // 获取图片类型
-        String mimeType = ImageUtils.getImageMimeType(imagePath);
-        
-        // 构建多模态消息
-        return analyzeImage(imageBytes, mimeType, question);
+        // 构建多模态消息（图片类型由预处理按文件头识别）
+        return analyzeImage(chatClient, image, question);
     }
 
     /**
-     * 核心方法：分析图片字节数组
+     * 分析任意位置的图片文件（批量任务使用）
+     *
+     * @param imageFile 图片文件路径
+     * @param question 用户问题
+     * @return AI 对图片的分析结果
+     */
+    public String analyzeImageFile(Path imageFile, String question) {
+        return analyzeImage(statelessChatClient, ImageUtils.loadImageResource(imageFile), question);
+    }
+
+    /**
+     * 核心方法：分析图片
      * 
-     * @param imageBytes 图片字节数组
-     * @param mimeType 图片 MIME 类型（如 image/jpeg）
+     * @param client 使用的 ChatClient
+     * @param image 图片 Resource
      * @param question 用户问题
      * @return AI 分析结果
      */
-    private String analyzeImage(byte[] imageBytes, String mimeType, String question) {
-        log.info("开始调用 AI 分析图片，MIME 类型：{}", mimeType);
+    private String analyzeImage(ChatClient client, Resource image, String question) {
+        long start = System.nanoTime();
+        byte[] imageBytes = readImage(image);
+
+        // 同一张图片（按内容）+ 同一个问题直接返回缓存结果
+        String imageHash = VisionResultCache.hashImage(imageBytes);
+        Optional<String> cached = visionResultCache.get(imageHash, question);
+        if (cached.isPresent()) {
+            log.info("命中图片分析缓存：{}", imageHash);
+            return cached.get();
+        }
+
+        // 缩小、重新编码并去除元数据，减少上传和视觉编码耗时
+        ImagePreprocessor.ProcessedImage processed = imagePreprocessor.process(imageBytes);
+        timingMetrics.recordImage(processed.bytes().length, System.nanoTime() - start);
+        return callModel(client, imageHash, processed, question);
+    }
+
+    /**
+     * 流式分析 resources/images 目录下的图片，边生成边返回
+     * 命中缓存时直接返回完整结果；正常结束后整段结果写入缓存
+     *
+     * @param imagePath 图片路径（相对于 resources/images）
+     * @param question 用户问题
+     * @return AI 分析结果片段
+     */
+    public Flux<String> analyzeImageStream(String imagePath, String question) {
+        return Flux.defer(() -> {
+            log.info("开始流式分析图片：{}", imagePath);
+            long start = System.nanoTime();
+            byte[] imageBytes = readImage(ImageUtils.loadImageResourceFromResources(imagePath));
+            String imageHash = VisionResultCache.hashImage(imageBytes);
+            Optional<String> cached = visionResultCache.get(imageHash, question);
+            if (cached.isPresent()) {
+                log.info("命中图片分析缓存：{}", imageHash);
+                return Flux.just(cached.get());
+            }
+            ImagePreprocessor.ProcessedImage processed = imagePreprocessor.process(imageBytes);
+            timingMetrics.recordImage(processed.bytes().length, System.nanoTime() - start);
+
+            StringBuilder result = new StringBuilder();
+            Flux<String> chunks = chatClient
+                    .prompt()
+                    .user(userSpec -> userSpec
+                        .text(question)
+                        .media(MimeTypeUtils.parseMimeType(processed.mimeType()), new ByteArrayResource(processed.bytes()))
+                    )
+                    .stream()
+                    .content();
+            return timingMetrics.timeStream(chunks)
+                    .doOnNext(result::append)
+                    .doOnComplete(() -> visionResultCache.put(imageHash, question, result.toString()));
+        // 读取和预处理图片是阻塞操作，不能占用调用方（如 Netty）线程
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * 调用视觉模型回答一个问题，并写入缓存
+     */
+    private String callModel(ChatClient client, String imageHash, ImagePreprocessor.ProcessedImage processed, String question) {
+        log.info("开始调用 AI 分析图片，MIME 类型：{}，大小：{} bytes", processed.mimeType(), processed.bytes().length);
         
         // 使用 ChatClient 的 media 方法传递图片
-        String result = chatClient
+        String result = timingMetrics.timeCall(() -> client
                 .prompt()
                 .user(userSpec -> userSpec
                     .text(question)
-                    .media(MimeTypeUtils.parseMimeType(mimeType), new ByteArrayResource(imageBytes))
+                    .media(MimeTypeUtils.parseMimeType(processed.mimeType()), new ByteArrayResource(processed.bytes()))
                 )
                 .call()
-                .content();
+                .content());
         
         log.info("图片分析完成，结果长度：{} 字符", result.length());
+        visionResultCache.put(imageHash, question, result);
         return result;
     }
 
+    /**
+     * 使 resources/images 下某张图片的缓存分析结果失效（图片内容变化后调用）
+     *
+     * @param imagePath 图片路径（相对于 resources/images）
+     */
+    public void invalidateCache(String imagePath) {
+        byte[] imageBytes = readImage(ImageUtils.loadImageResourceFromResources(imagePath));
+        visionResultCache.invalidate(VisionResultCache.hashImage(imageBytes));
+    }
+
+    private static byte[] readImage(Resource image) {
+        try {
+            return image.getContentAsByteArray();
+        } catch (IOException e) {
+            log.error("读取图片失败：{}", image.getDescription(), e);
+            throw new RuntimeException("读取图片失败：" + image.getDescription(), e);
+        }
+    }
+
     /**
      * 根据图片生成详细描述
      * 
@@ -113,15 +229,7 @@ public class VisionApp {
      * @return 详细描述
      */
     public String describeImage(String imagePath) {
-        String question = """
-            请详细描述这张图片，包括：
-            1. 主要内容和主题
-            2. 画面中的元素和物体
-            3. 色彩和光线特点
-            4. 整体氛围和感觉
-            5. 可能的拍摄场景或背景
-            """;
-        return analyzeImageFromResources(imagePath, question);
+        return analyzeImageFromResources(imagePath, AnalysisKind.DESCRIPTION.getQuestion());
     }
 
     /**
@@ -131,8 +239,7 @@ public class VisionApp {
      * @return 提取的文字内容
      */
     public String extractTextFromImage(String imagePath) {
-        String question = "请识别并提取图片中的所有文字内容，按照从上到下、从左到右的顺序列出";
-        return analyzeImageFromResources(imagePath, question);
+        return analyzeImageFromResources(imagePath, AnalysisKind.TEXT.getQuestion());
     }
     
     /**
@@ -142,8 +249,7 @@ public class VisionApp {
      * @return 物体识别结果
      */
     public String identifyObjects(String imagePath) {
-        String question = "请列出图片中所有能识别出的物体和元素，并说明它们的位置关系";
-        return analyzeImageFromResources(imagePath, question);
+        return analyzeImageFromResources(imagePath, AnalysisKind.OBJECTS.getQuestion());
     }
     
     /**
@@ -153,7 +259,156 @@ public class VisionApp {
      * @return 情感分析结果
      */
     public String analyzeEmotion(String imagePath) {
-        String question = "请分析这张图片传达的情感和氛围，包括色调、构图对情绪的影响";
-        return analyzeImageFromResources(imagePath, question);
+        return analyzeImageFromResources(imagePath, AnalysisKind.EMOTION.getQuestion());
+    }
+
+    /**
+     * 一次推理完成多项分析（图片只上传、编码一次）
+     * 已缓存的分析项直接使用；单次推理结果中缺失的分析项，才单独并发补充调用
+     *
+     * @param imagePath 图片路径（相对于 resources/images）
+     * @param kinds 需要的分析项
+     * @return 图片画像，未请求的分析项为 null
+     */
+    public ImageProfile analyzeImageProfile(String imagePath, Set<AnalysisKind> kinds) {
+        if (kinds.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一个分析项");
+        }
+        log.info("开始批量分析图片：{}，分析项：{}", imagePath, kinds);
+        byte[] imageBytes = readImage(ImageUtils.loadImageResourceFromResources(imagePath));
+        String imageHash = VisionResultCache.hashImage(imageBytes);
+
+        //1、已缓存的分析项（与逐项分析共用缓存）
+        Map<AnalysisKind, String> results = new EnumMap<>(AnalysisKind.class);
+        for (AnalysisKind kind : kinds) {
+            visionResultCache.get(imageHash, kind.getQuestion()).ifPresent(value -> results.put(kind, value));
+        }
+        Set<AnalysisKind> pending = EnumSet.copyOf(kinds);
+        pending.removeAll(results.keySet());
+        if (pending.isEmpty()) {
+            log.info("批量分析全部命中缓存：{}", imageHash);
+            return toProfile(results);
+        }
+        long start = System.nanoTime();
+        ImagePreprocessor.ProcessedImage processed = imagePreprocessor.process(imageBytes);
+        timingMetrics.recordImage(processed.bytes().length, System.nanoTime() - start);
+
+        //2、单次结构化输出，只询问未缓存的分析项
+        StringBuilder prompt = new StringBuilder("请仔细观察这张图片，完成以下分析，并按要求的 JSON 格式返回，未要求的字段返回 null：\n");
+        for (AnalysisKind kind : pending) {
+            prompt.append("- ").append(kind.getField()).append("：").append(kind.getQuestion().strip()).append("\n");
+        }
+        if (pending.contains(AnalysisKind.TEXT)) {
+            prompt.append("图片中没有文字时，text 返回空字符串\n");
+        }
+        // 结构化输出不带对话历史：无关的历史消息（及其中的图片）会干扰 JSON 格式，也抵消了合并推理的收益
+        try {
+            ImageProfile profile = statelessChatClient
+                    .prompt()
+                    .user(userSpec -> userSpec
+                        .text(prompt.toString())
+                        .media(MimeTypeUtils.parseMimeType(processed.mimeType()), new ByteArrayResource(processed.bytes()))
+                    )
+                    .call()
+                    .entity(ImageProfile.class);
+            if (profile != null) {
+                for (AnalysisKind kind : pending) {
+                    String value = kind.valueOf(profile);
+                    if (kind.isAnswered(value)) {
+                        results.put(kind, value);
+                        visionResultCache.put(imageHash, kind.getQuestion(), value);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("批量分析结果解析失败，改为逐项分析：{}", e.getMessage());
+        }
+
+        //3、退化：只对缺失的分析项并发单独调用
+        Set<AnalysisKind> missing = EnumSet.copyOf(pending);
+        missing.removeAll(results.keySet());
+        if (missing.isEmpty()) {
+            log.info("批量分析完成（单次推理）：{}", imagePath);
+            return toProfile(results);
+        }
+        log.warn("批量分析结果缺少 {}，逐项补充", missing);
+        Map<AnalysisKind, CompletableFuture<String>> futures = new EnumMap<>(AnalysisKind.class);
+        for (AnalysisKind kind : missing) {
+            futures.put(kind, CompletableFuture.supplyAsync(
+                    () -> callModel(statelessChatClient, imageHash, processed, kind.getQuestion()), fallbackExecutor));
+        }
+        CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0])).join();
+        futures.forEach((kind, future) -> results.put(kind, future.join()));
+        return toProfile(results);
+    }
+
+    private static ImageProfile toProfile(Map<AnalysisKind, String> results) {
+        return new ImageProfile(results.get(AnalysisKind.DESCRIPTION), results.get(AnalysisKind.TEXT),
+                results.get(AnalysisKind.OBJECTS), results.get(AnalysisKind.EMOTION));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        fallbackExecutor.shutdown();
+    }
+
+    /**
+     * 图片画像（批量分析结果）
+     *
+     * @param description 详细描述
+     * @param text 图片中的文字（OCR）
+     * @param objects 物体及位置关系
+     * @param emotion 情感和氛围
+     */
+    public record ImageProfile(String description, String text, String objects, String emotion) {
+    }
+
+    /**
+     * 图片分析项
+     */
+    public enum AnalysisKind {
+        DESCRIPTION("description", """
+            请详细描述这张图片，包括：
+            1. 主要内容和主题
+            2. 画面中的元素和物体
+            3. 色彩和光线特点
+            4. 整体氛围和感觉
+            5. 可能的拍摄场景或背景
+            """),
+        TEXT("text", "请识别并提取图片中的所有文字内容，按照从上到下、从左到右的顺序列出"),
+        OBJECTS("objects", "请列出图片中所有能识别出的物体和元素，并说明它们的位置关系"),
+        EMOTION("emotion", "请分析这张图片传达的情感和氛围，包括色调、构图对情绪的影响");
+
+        private final String field;
+        private final String question;
+
+        AnalysisKind(String field, String question) {
+            this.field = field;
+            this.question = question;
+        }
+
+        public String getField() {
+            return field;
+        }
+
+        public String getQuestion() {
+            return question;
+        }
+
+        /**
+         * 单次推理的结果是否可用：图片中没有文字时 TEXT 为空字符串也是有效结果
+         */
+        boolean isAnswered(String value) {
+            return this == TEXT ? value != null : StringUtils.hasText(value);
+        }
+
+        String valueOf(ImageProfile profile) {
+            return switch (this) {
+                case DESCRIPTION -> profile.description();
+                case TEXT -> profile.text();
+                case OBJECTS -> profile.objects();
+                case EMOTION -> profile.emotion();
+            };
+        }
     }
 }
@@ -0,0 +1,311 @@
+package com.yupi.yuaiagent.cache;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.crypto.digest.DigestUtil;
+import com.yupi.yuaiagent.utils.ImagePreprocessor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 图片分析结果缓存（按内容寻址）
+ * key = 图片内容 SHA-256 + 变体（模型名 + 预处理配置）+ 问题，同一张图片换了文件名也能命中；
+ * 换模型或调整预处理参数后旧结果不再命中，由定时清理删除。
+ * - 内存层：LRU，条目与磁盘文件同样按写入时间过期
+ * - 磁盘层：{dir}/{图片哈希}/{变体 + 问题的哈希}.txt，重启后仍然有效，按图片整目录失效；
+ *   定时删除过期文件，总大小超过上限时按写入时间从旧到新删除
+ */
+@Slf4j
+@Component
+public class VisionResultCache {
+
+    private final boolean enabled;
+    private final Path dir;
+    private final Duration ttl;
+    private final long maxDiskBytes;
+    private final String variant;
+    private final Clock clock;
+    private final Duration pruneInterval;
+    private final Map<String, Entry> memoryCache;
+
+    private final ScheduledExecutorService pruneScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "vision-cache-prune");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Counter hitCounter = Counter.builder("ai.vision.cache.requests")
+            .tag("result", "hit").register(Metrics.globalRegistry);
+    private final Counter missCounter = Counter.builder("ai.vision.cache.requests")
+            .tag("result", "miss").register(Metrics.globalRegistry);
+    private final Counter prunedCounter = Counter.builder("ai.vision.cache.pruned")
+            .description("定时清理删除的磁盘缓存文件数").register(Metrics.globalRegistry);
+
+    /**
+     * 内存缓存条目
+     *
+     * @param result    分析结果
+     * @param expiresAt 过期时间（毫秒时间戳）
+     */
+    private record Entry(String result, long expiresAt) {
+    }
+
+    @Autowired
+    public VisionResultCache(@Value("${yu-ai-agent.vision.cache.enabled:true}") boolean enabled,
+                             @Value("${yu-ai-agent.vision.cache.dir:}") String dir,
+                             @Value("${yu-ai-agent.vision.cache.max-entries:1000}") int maxEntries,
+                             @Value("${yu-ai-agent.vision.cache.ttl-hours:168}") long ttlHours,
+                             @Value("${yu-ai-agent.vision.cache.max-disk-mb:1024}") long maxDiskMb,
+                             @Value("${yu-ai-agent.vision.cache.prune-interval-minutes:60}") long pruneIntervalMinutes,
+                             @Value("${spring.ai.ollama.chat.options.model:${spring.ai.ollama.chat.model:}}") String model,
+                             ImagePreprocessor imagePreprocessor) {
+        this(enabled, dir.isBlank() ? Paths.get(System.getProperty("user.dir"), "vision-cache") : Paths.get(dir),
+                maxEntries, Duration.ofHours(ttlHours), maxDiskMb * 1024 * 1024,
+                "model=" + model + "," + imagePreprocessor.configKey(), Clock.systemDefaultZone(),
+                Duration.ofMinutes(pruneIntervalMinutes));
+    }
+
+    public VisionResultCache(boolean enabled, Path dir, int maxEntries, Duration ttl) {
+        this(enabled, dir, maxEntries, ttl, Long.MAX_VALUE, "", Clock.systemDefaultZone(), Duration.ZERO);
+    }
+
+    /**
+     * @param maxDiskBytes  磁盘层总大小上限
+     * @param variant       模型名、预处理配置等影响分析结果的参数，参与缓存键
+     * @param pruneInterval 定时清理磁盘层的间隔，为 0 时不定时清理
+     */
+    VisionResultCache(boolean enabled, Path dir, int maxEntries, Duration ttl, long maxDiskBytes, String variant,
+                      Clock clock, Duration pruneInterval) {
+        this.enabled = enabled;
+        this.dir = dir;
+        this.ttl = ttl;
+        this.maxDiskBytes = maxDiskBytes;
+        this.variant = variant;
+        this.clock = clock;
+        this.pruneInterval = pruneInterval;
+        this.memoryCache = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled || pruneInterval.isZero()) {
+            return;
+        }
+        long intervalMs = pruneInterval.toMillis();
+        // 启动时先清理一次，频繁重启的实例也不会让磁盘缓存无限增长
+        pruneScheduler.scheduleWithFixedDelay(this::pruneQuietly, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pruneScheduler.shutdownNow();
+    }
+
+    /**
+     * 计算图片内容哈希
+     */
+    public static String hashImage(byte[] imageBytes) {
+        return DigestUtil.sha256Hex(imageBytes);
+    }
+
+    /**
+     * 查询缓存
+     *
+     * @param imageHash 图片内容哈希（hashImage）
+     * @param question  问题
+     * @return 命中时返回分析结果
+     */
+    public Optional<String> get(String imageHash, String question) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        String key = key(imageHash, question);
+        long now = clock.millis();
+        Entry entry;
+        synchronized (memoryCache) {
+            entry = memoryCache.get(key);
+            if (entry != null && entry.expiresAt() <= now) {
+                memoryCache.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            entry = readFromDisk(imageHash, question, now);
+            if (entry != null) {
+                synchronized (memoryCache) {
+                    memoryCache.put(key, entry);
+                }
+            }
+        }
+        (entry != null ? hitCounter : missCounter).increment();
+        return Optional.ofNullable(entry).map(Entry::result);
+    }
+
+    /**
+     * 写入缓存（内存 + 磁盘）
+     */
+    public void put(String imageHash, String question, String result) {
+        if (!enabled || result == null) {
+            return;
+        }
+        long now = clock.millis();
+        synchronized (memoryCache) {
+            memoryCache.put(key(imageHash, question), new Entry(result, now + ttl.toMillis()));
+        }
+        Path file = file(imageHash, question);
+        try {
+            Files.createDirectories(file.getParent());
+            // 先写临时文件再原子替换，避免读到写了一半的结果
+            Path temp = Files.createTempFile(file.getParent(), "result", ".tmp");
+            Files.writeString(temp, result, StandardCharsets.UTF_8);
+            temp.toFile().setLastModified(now);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("写入图片分析缓存失败：{}", file, e);
+        }
+    }
+
+    /**
+     * 使某张图片的全部分析结果失效
+     */
+    public void invalidate(String imageHash) {
+        String prefix = imageHash + ":";
+        synchronized (memoryCache) {
+            memoryCache.keySet().removeIf(key -> key.startsWith(prefix));
+        }
+        FileUtil.del(dir.resolve(imageHash));
+        log.info("图片分析缓存已失效：{}", imageHash);
+    }
+
+    /**
+     * 清空全部缓存
+     */
+    public void invalidateAll() {
+        synchronized (memoryCache) {
+            memoryCache.clear();
+        }
+        FileUtil.del(dir);
+        log.info("图片分析缓存已全部清空");
+    }
+
+    /**
+     * 清理磁盘层：删除过期文件（含写入中途退出留下的临时文件），总大小仍超过上限时按写入时间从旧到新删除，
+     * 最后删除空的图片目录
+     *
+     * @return 删除的文件数
+     */
+    public int prune() {
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        long now = clock.millis();
+        List<File> kept = new ArrayList<>();
+        long totalBytes = 0;
+        int deleted = 0;
+        try (Stream<Path> files = Files.walk(dir, 2)) {
+            for (Path path : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                File file = path.toFile();
+                if (now - file.lastModified() > ttl.toMillis()) {
+                    deleted += file.delete() ? 1 : 0;
+                } else {
+                    kept.add(file);
+                    totalBytes += file.length();
+                }
+            }
+        } catch (IOException e) {
+            log.warn("扫描图片分析缓存目录失败：{}", dir, e);
+            return deleted;
+        }
+        if (totalBytes > maxDiskBytes) {
+            kept.sort(Comparator.comparingLong(File::lastModified));
+            for (File file : kept) {
+                if (totalBytes <= maxDiskBytes) {
+                    break;
+                }
+                long length = file.length();
+                if (file.delete()) {
+                    totalBytes -= length;
+                    deleted++;
+                }
+            }
+        }
+        File[] imageDirs = dir.toFile().listFiles(File::isDirectory);
+        if (imageDirs != null) {
+            for (File imageDir : imageDirs) {
+                String[] children = imageDir.list();
+                if (children != null && children.length == 0) {
+                    imageDir.delete();
+                }
+            }
+        }
+        prunedCounter.increment(deleted);
+        return deleted;
+    }
+
+    private void pruneQuietly() {
+        try {
+            int deleted = prune();
+            if (deleted > 0) {
+                log.info("图片分析磁盘缓存已清理 {} 个文件", deleted);
+            }
+        } catch (RuntimeException e) {
+            log.warn("清理图片分析磁盘缓存失败", e);
+        }
+    }
+
+    private Entry readFromDisk(String imageHash, String question, long now) {
+        File file = file(imageHash, question).toFile();
+        if (!file.isFile()) {
+            return null;
+        }
+        long expiresAt = file.lastModified() + ttl.toMillis();
+        if (expiresAt <= now) {
+            FileUtil.del(file);
+            return null;
+        }
+        try {
+            return new Entry(Files.readString(file.toPath(), StandardCharsets.UTF_8), expiresAt);
+        } catch (IOException e) {
+            log.warn("读取图片分析缓存失败：{}", file, e);
+            return null;
+        }
+    }
+
+    private Path file(String imageHash, String question) {
+        return dir.resolve(imageHash).resolve(DigestUtil.sha256Hex(variant + "\n" + question) + ".txt");
+    }
+
+    private String key(String imageHash, String question) {
+        return imageHash + ":" + variant + "\n" + question;
+    }
+}
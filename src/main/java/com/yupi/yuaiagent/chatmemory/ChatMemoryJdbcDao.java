@@ -0,0 +1,215 @@
+package com.yupi.yuaiagent.chatmemory;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 对话记忆热点读写的 JDBC 实现（MySQLChatMemory 的 add / get / clear 使用）
+ * SQL 是固定的常量，不经过 QueryWrapper 拼接和 MyBatis 解析；同一连接上的 PreparedStatement
+ * 由 Druid 的 PS 缓存复用，配合 useServerPrepStmts 只在服务端预编译一次。
+ * 查询结果直接映射为 Message，不创建 ChatMemoryEntity。
+ * 保留策略的分批清理也在这里，只按主键逐行删除，避免一条大 DELETE 长时间持有行锁；
+ * 过期扫描的 SQL 随保留策略的前缀个数变化，配置不变时同样是固定的。
+ * 分片时由 ChatMemoryShardRouter 设置当前分片，数据源按分片路由，这里不感知分片。
+ */
+@Component
+public class ChatMemoryJdbcDao {
+
+    private static final String SELECT_NEXT_INDEX_SQL =
+            "SELECT COALESCE(MAX(message_index), -1) + 1 FROM chat_memory WHERE conversation_id = ?";
+
+    private static final String INSERT_SQL =
+            "INSERT INTO chat_memory (conversation_id, message_index, message_type, content, content_bin) " +
+            "VALUES (?, ?, ?, ?, ?)";
+
+    // 只取构造 Message 需要的列
+    private static final String SELECT_LATEST_SQL =
+            "SELECT message_type, content, content_bin FROM chat_memory " +
+            "WHERE conversation_id = ? AND message_index > ? ORDER BY message_index DESC LIMIT ?";
+
+    private static final String SELECT_MAX_INDEX_SQL =
+            "SELECT MAX(message_index) FROM chat_memory WHERE conversation_id = ?";
+
+    private static final String EXISTS_SQL = "SELECT 1 FROM chat_memory WHERE conversation_id = ? LIMIT 1";
+
+    // 清空对话时按索引分批取出待删除的行
+    private static final String SELECT_IDS_UP_TO_SQL =
+            "SELECT id FROM chat_memory WHERE conversation_id = ? AND message_index <= ? " +
+            "ORDER BY message_index LIMIT ?";
+
+    // 过期扫描：走 idx_create_time (create_time, conversation_id)，InnoDB 二级索引末尾自带主键，
+    // 按 (create_time, conversation_id, id) 键集分页，查询的列都在索引里，不回表
+    private static final String SELECT_CREATED_BEFORE_SQL =
+            "SELECT id, conversation_id, create_time FROM chat_memory WHERE create_time < ?";
+
+    private static final String CREATED_BEFORE_AFTER_CONDITION =
+            " AND (create_time > ? OR (create_time = ? AND (conversation_id > ? OR (conversation_id = ? AND id > ?))))";
+
+    private static final String CREATED_BEFORE_ORDER = " ORDER BY create_time, conversation_id, id LIMIT ?";
+
+    private static final String DELETE_BY_ID_SQL = "DELETE FROM chat_memory WHERE id = ?";
+
+    /**
+     * 过期扫描返回的行
+     */
+    public record RowRef(long id, String conversationId, LocalDateTime createTime) {
+    }
+
+    private static final RowMapper<RowRef> ROW_REF_MAPPER = (rs, rowNum) -> new RowRef(
+            rs.getLong(1), rs.getString(2), rs.getTimestamp(3).toLocalDateTime());
+
+    private static final MessageCodec DECODER = new MessageCodec(0);
+
+    private static final RowMapper<Message> MESSAGE_ROW_MAPPER = (rs, rowNum) -> {
+        byte[] contentBin = rs.getBytes(3);
+        if (contentBin != null) {
+            return DECODER.decode(contentBin);
+        }
+        String type = rs.getString(1);
+        String content = rs.getString(2);
+        if ("ASSISTANT".equalsIgnoreCase(type)) {
+            return new AssistantMessage(content);
+        } else if ("SYSTEM".equalsIgnoreCase(type)) {
+            return new SystemMessage(content);
+        }
+        return new UserMessage(content);
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ChatMemoryJdbcDao(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    /**
+     * 在对话末尾批量追加消息
+     *
+     * @param binaryCodec 二进制存储时的编码器，为 null 时按文本写入 content 列
+     * @return 第一条新消息的索引
+     */
+    public int append(String conversationId, List<Message> messages, MessageCodec binaryCodec) {
+        return append(conversationId, messages, binaryCodec, 0);
+    }
+
+    /**
+     * 同 append，新消息的索引不小于 minIndex
+     * 对话被清空、旧消息全部删除后最大索引会回退，调用方传入清空标记之后的索引，新消息才不会被标记隐藏
+     */
+    public int append(String conversationId, List<Message> messages, MessageCodec binaryCodec, int minIndex) {
+        // 按最大索引而不是行数续写，早期消息被清理后索引也不会重复
+        Integer nextIndex = jdbcTemplate.queryForObject(SELECT_NEXT_INDEX_SQL, Integer.class, conversationId);
+        int startIndex = Math.max(nextIndex != null ? nextIndex : 0, minIndex);
+        List<Object[]> batch = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            String type = message.getMessageType().getValue();
+            if (binaryCodec != null) {
+                // content 列为 NOT NULL，二进制存储时写空字符串
+                batch.add(new Object[]{conversationId, startIndex + i, type, "", binaryCodec.encode(message)});
+            } else {
+                batch.add(new Object[]{conversationId, startIndex + i, type, message.getText(), null});
+            }
+        }
+        jdbcTemplate.batchUpdate(INSERT_SQL, batch);
+        return startIndex;
+    }
+
+    /**
+     * 查询 afterIndex 之后最近的 limit 条消息，按时间正序返回
+     */
+    public List<Message> findLatest(String conversationId, int afterIndex, int limit) {
+        List<Message> messages = jdbcTemplate.query(SELECT_LATEST_SQL, MESSAGE_ROW_MAPPER,
+                conversationId, afterIndex, limit);
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    /**
+     * 对话当前最大的消息索引，没有消息时返回 null
+     */
+    public Integer maxIndex(String conversationId) {
+        return jdbcTemplate.queryForObject(SELECT_MAX_INDEX_SQL, Integer.class, conversationId);
+    }
+
+    public boolean exists(String conversationId) {
+        return !jdbcTemplate.queryForList(EXISTS_SQL, Integer.class, conversationId).isEmpty();
+    }
+
+    /**
+     * 取出对话中索引不超过 maxIndex 的最早 limit 行的主键
+     */
+    public List<Long> findIdsUpTo(String conversationId, int maxIndex, int limit) {
+        return jdbcTemplate.queryForList(SELECT_IDS_UP_TO_SQL, Long.class, conversationId, maxIndex, limit);
+    }
+
+    /**
+     * 按 (create_time, conversation_id, id) 顺序取出 cutoff 之前创建的行
+     *
+     * @param includePrefixes 只取对话 ID 以其中某个前缀开头的行，为空时不限
+     * @param excludePrefixes 跳过对话 ID 以其中任一前缀开头的行
+     * @param after           上一批的最后一行，首批传 null
+     */
+    public List<RowRef> findCreatedBefore(LocalDateTime cutoff, List<String> includePrefixes,
+                                          List<String> excludePrefixes, RowRef after, int limit) {
+        StringBuilder sql = new StringBuilder(SELECT_CREATED_BEFORE_SQL);
+        List<Object> args = new ArrayList<>();
+        args.add(Timestamp.valueOf(cutoff));
+        if (!includePrefixes.isEmpty()) {
+            sql.append(" AND (");
+            for (int i = 0; i < includePrefixes.size(); i++) {
+                sql.append(i == 0 ? "conversation_id LIKE ?" : " OR conversation_id LIKE ?");
+                args.add(likePrefix(includePrefixes.get(i)));
+            }
+            sql.append(")");
+        }
+        for (String prefix : excludePrefixes) {
+            sql.append(" AND conversation_id NOT LIKE ?");
+            args.add(likePrefix(prefix));
+        }
+        if (after != null) {
+            Timestamp afterTime = Timestamp.valueOf(after.createTime());
+            sql.append(CREATED_BEFORE_AFTER_CONDITION);
+            args.addAll(List.of(afterTime, afterTime, after.conversationId(), after.conversationId(), after.id()));
+        }
+        sql.append(CREATED_BEFORE_ORDER);
+        args.add(limit);
+        return jdbcTemplate.query(sql.toString(), ROW_REF_MAPPER, args.toArray());
+    }
+
+    /**
+     * 前缀匹配的 LIKE 模式，转义前缀中的通配符（如 test_ 中的下划线）
+     */
+    private static String likePrefix(String prefix) {
+        return prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+    }
+
+    /**
+     * 按主键批量删除（每行一条固定 SQL，只锁被删除的行）
+     *
+     * @return 删除的行数
+     */
+    public int deleteByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        int deleted = 0;
+        for (int count : jdbcTemplate.batchUpdate(DELETE_BY_ID_SQL, ids.stream().map(id -> new Object[]{id}).toList())) {
+            // 部分驱动批量执行时返回 SUCCESS_NO_INFO（-2）
+            deleted += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+        }
+        return deleted;
+    }
+}
@@ -0,0 +1,61 @@
+package com.yupi.yuaiagent.chatmemory;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 对话记忆保留策略配置
+ * 消息按 create_time 过期，过期时长按对话 ID 前缀匹配（最长前缀优先），未匹配时使用 defaultTtl。
+ * ttl 不配置或为 0 表示永久保留。
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "yu-ai-agent.chat-memory.retention")
+public class ChatMemoryRetentionProperties {
+
+    /**
+     * 是否开启定时过期清理（clear 的异步分批删除不受此开关影响）
+     */
+    private boolean enabled = false;
+
+    /**
+     * 默认保留时长
+     */
+    private Duration defaultTtl;
+
+    /**
+     * 按对话 ID 前缀的保留策略
+     */
+    private List<Policy> policies = new ArrayList<>();
+
+    /**
+     * 两次清理之间的间隔
+     */
+    private Duration interval = Duration.ofMinutes(5);
+
+    /**
+     * 每批删除的行数
+     */
+    private int chunkSize = 500;
+
+    /**
+     * 两批之间的停顿，给并发写入让出行锁和 IO
+     */
+    private Duration pause = Duration.ofMillis(50);
+
+    /**
+     * 每次清理的时间预算，用完后下次从断点继续
+     */
+    private Duration timeBudget = Duration.ofSeconds(10);
+
+    @Data
+    public static class Policy {
+        private String prefix;
+        private Duration ttl;
+    }
+}
@@ -0,0 +1,364 @@
+package com.yupi.yuaiagent.chatmemory;
+
+import com.yupi.yuaiagent.model.entity.ChatMemorySummaryEntity;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对话记忆的分批清理
+ * 1. 保留策略：定时按 create_time 扫描过期消息（idx_create_time 键集分页，不回表），按对话 ID 前缀匹配保留时长；
+ *    按保留时长分组扫描，每组在 SQL 里按前缀预先过滤，保留时长更长或永久保留的对话不会每轮都被读出；
+ * 2. 清空对话：MySQLChatMemory.clear 只写一个隐藏标记，实际删除提交到这里异步进行，
+ *    未完成或失败的删除每个间隔重试（不受 enabled 开关影响），重启后从清空标记恢复。
+ * 两类删除都在同一个后台线程上执行：每批按主键删除 chunkSize 行，批间停顿，单次运行有时间预算，
+ * 预算用完后下次从断点继续，不会长时间持有行锁阻塞并发写入，也不占用请求线程。
+ */
+@Slf4j
+@Component
+public class ChatMemoryRetentionPurger {
+
+    private final ChatMemoryJdbcDao chatMemoryJdbcDao;
+    private final ChatMemorySummarizer chatMemorySummarizer;
+    private final ChatMemoryShardRouter chatMemoryShardRouter;
+    private final ChatMemoryRetentionProperties properties;
+    private final Clock clock;
+
+    // 各分片、各扫描分组的断点，扫描完成后清空（键为 分片|保留时长，不分片时分片为 ""）
+    private final Map<String, ChatMemoryJdbcDao.RowRef> cursors = new HashMap<>();
+    // 各分片最近一次完整扫描结束的时间
+    private final Map<String, Instant> passCompletedAt = new ConcurrentHashMap<>();
+    // 等待异步删除的对话 -> 需要删除到的消息索引（含）
+    private final Map<String, Integer> pendingClears = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "chat-memory-retention");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public ChatMemoryRetentionPurger(ChatMemoryJdbcDao chatMemoryJdbcDao,
+                                     ChatMemorySummarizer chatMemorySummarizer,
+                                     ChatMemoryShardRouter chatMemoryShardRouter,
+                                     ChatMemoryRetentionProperties properties) {
+        this(chatMemoryJdbcDao, chatMemorySummarizer, chatMemoryShardRouter, properties, Clock.systemDefaultZone());
+    }
+
+    ChatMemoryRetentionPurger(ChatMemoryJdbcDao chatMemoryJdbcDao, ChatMemorySummarizer chatMemorySummarizer,
+                              ChatMemoryShardRouter chatMemoryShardRouter, ChatMemoryRetentionProperties properties,
+                              Clock clock) {
+        this.chatMemoryJdbcDao = chatMemoryJdbcDao;
+        this.chatMemorySummarizer = chatMemorySummarizer;
+        this.chatMemoryShardRouter = chatMemoryShardRouter;
+        this.properties = properties;
+        this.clock = clock;
+        for (String shard : shardKeys()) {
+            passCompletedAt.put(shard, clock.instant());
+            Gauge.builder("ai.chat.memory.retention.pass.age", passCompletedAt,
+                            map -> Duration.between(map.get(shard), clock.instant()).toSeconds())
+                    .description("距离上一轮过期扫描完成的秒数")
+                    .baseUnit("seconds")
+                    .tag("shard", shard.isEmpty() ? "default" : shard)
+                    .register(Metrics.globalRegistry);
+        }
+        Gauge.builder("ai.chat.memory.retention.pending.clears", pendingClears, Map::size)
+                .description("等待异步删除的已清空对话数")
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * 扫描分组：一个保留时长一组，includePrefixes 为空表示默认保留时长（不限前缀）
+     * SQL 按前缀预先过滤只是缩小范围，行是否过期最终仍以 ttlFor 为准
+     */
+    record ScanGroup(Duration ttl, List<String> includePrefixes, List<String> excludePrefixes) {
+    }
+
+    @PostConstruct
+    public void start() {
+        long intervalMs = properties.getInterval().toMillis();
+        // 清空对话的删除总是定时重试，先恢复重启前没删完的对话
+        scheduler.execute(this::recoverPendingClearsQuietly);
+        scheduler.scheduleWithFixedDelay(this::purgeQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        if (isExpiryEnabled()) {
+            log.info("对话记忆过期清理已开启，间隔 {}，默认保留 {}，策略 {} 条",
+                    properties.getInterval(), properties.getDefaultTtl(), properties.getPolicies().size());
+        }
+    }
+
+    /**
+     * 提交一个已清空对话的异步删除，立即返回
+     *
+     * @param maxIndex 清空时的最大消息索引，之后新写入的消息不会被删除
+     */
+    public void purgeConversationAsync(String conversationId, int maxIndex) {
+        pendingClears.merge(conversationId, maxIndex, Math::max);
+        scheduler.execute(this::purgeClearsQuietly);
+    }
+
+    /**
+     * 对话的保留时长，永久保留时返回 null
+     */
+    Duration ttlFor(String conversationId) {
+        Duration ttl = properties.getDefaultTtl();
+        int matched = -1;
+        for (ChatMemoryRetentionProperties.Policy policy : properties.getPolicies()) {
+            String prefix = policy.getPrefix();
+            if (prefix != null && conversationId.startsWith(prefix) && prefix.length() > matched) {
+                matched = prefix.length();
+                ttl = policy.getTtl();
+            }
+        }
+        return finiteTtl(ttl);
+    }
+
+    /**
+     * 按保留时长分组，短的在前
+     * 某组跳过其他保留时长的前缀，除非更长的前缀又回到本组的保留时长（如 tmp_ 1 小时、tmp_long_ 7 天）
+     */
+    List<ScanGroup> scanGroups() {
+        Duration defaultTtl = finiteTtl(properties.getDefaultTtl());
+        List<ChatMemoryRetentionProperties.Policy> policies = properties.getPolicies().stream()
+                .filter(policy -> policy.getPrefix() != null)
+                .toList();
+        Set<Duration> ttls = new TreeSet<>();
+        if (defaultTtl != null) {
+            ttls.add(defaultTtl);
+        }
+        policies.forEach(policy -> {
+            if (finiteTtl(policy.getTtl()) != null) {
+                ttls.add(finiteTtl(policy.getTtl()));
+            }
+        });
+        List<ScanGroup> groups = new ArrayList<>();
+        for (Duration ttl : ttls) {
+            List<String> include = ttl.equals(defaultTtl) ? List.of() : policies.stream()
+                    .filter(policy -> ttl.equals(finiteTtl(policy.getTtl())))
+                    .map(ChatMemoryRetentionProperties.Policy::getPrefix)
+                    .toList();
+            List<String> exclude = new ArrayList<>();
+            for (ChatMemoryRetentionProperties.Policy policy : policies) {
+                String prefix = policy.getPrefix();
+                if (ttl.equals(finiteTtl(policy.getTtl()))) {
+                    continue;
+                }
+                boolean inScope = include.isEmpty()
+                        || include.stream().anyMatch(p -> prefix.length() > p.length() && prefix.startsWith(p));
+                boolean nestedBack = policies.stream().anyMatch(other -> other.getPrefix().length() > prefix.length()
+                        && other.getPrefix().startsWith(prefix) && ttl.equals(finiteTtl(other.getTtl())));
+                if (inScope && !nestedBack) {
+                    exclude.add(prefix);
+                }
+            }
+            groups.add(new ScanGroup(ttl, include, exclude));
+        }
+        return groups;
+    }
+
+    private static Duration finiteTtl(Duration ttl) {
+        return ttl == null || ttl.isZero() || ttl.isNegative() ? null : ttl;
+    }
+
+    private boolean isExpiryEnabled() {
+        return properties.isEnabled() && !scanGroups().isEmpty();
+    }
+
+    private void purgeQuietly() {
+        try {
+            purgeClears();
+            if (properties.isEnabled()) {
+                purgeExpired();
+            }
+        } catch (Exception e) {
+            log.error("对话记忆清理失败，下次继续", e);
+        }
+    }
+
+    private void recoverPendingClearsQuietly() {
+        try {
+            recoverPendingClears();
+        } catch (Exception e) {
+            log.error("恢复未删除完的已清空对话失败，下次启动时重试", e);
+        }
+    }
+
+    /**
+     * 清空标记在删除完成后才移除，重启后仍存在的标记就是没删完的对话
+     */
+    void recoverPendingClears() {
+        for (String shard : shardKeys()) {
+            List<ChatMemorySummaryEntity> markers = chatMemoryShardRouter.onShard(shard.isEmpty() ? null : shard,
+                    chatMemorySummarizer::findClearMarkers);
+            markers.forEach(marker -> pendingClears.merge(marker.getConversationId(), marker.getCoveredIndex(), Math::max));
+        }
+        if (!pendingClears.isEmpty()) {
+            log.info("恢复 {} 个未删除完的已清空对话", pendingClears.size());
+            purgeClears();
+        }
+    }
+
+    private void purgeClearsQuietly() {
+        try {
+            purgeClears();
+        } catch (Exception e) {
+            log.error("已清空对话的删除失败，下次继续", e);
+        }
+    }
+
+    /**
+     * 分批删除已清空对话的旧消息，删完后移除清空标记
+     * 新消息的索引由 MySQLChatMemory 保证在标记之后，删除不会碰到清空后写入的消息
+     */
+    void purgeClears() {
+        long deadline = System.nanoTime() + properties.getTimeBudget().toNanos();
+        for (String conversationId : new ArrayList<>(pendingClears.keySet())) {
+            Integer maxIndex = pendingClears.get(conversationId);
+            if (maxIndex == null) {
+                continue;
+            }
+            boolean done = chatMemoryShardRouter.route(conversationId, () -> {
+                while (System.nanoTime() < deadline) {
+                    List<Long> ids = chatMemoryJdbcDao.findIdsUpTo(conversationId, maxIndex, properties.getChunkSize());
+                    purgedCounter("clear").increment(chatMemoryJdbcDao.deleteByIds(ids));
+                    if (ids.size() < properties.getChunkSize()) {
+                        return true;
+                    }
+                    pause();
+                }
+                return false;
+            });
+            if (!done) {
+                // 时间预算用完，剩下的交给下一次定时清理
+                return;
+            }
+            chatMemorySummarizer.removeClearMarker(conversationId, maxIndex);
+            pendingClears.remove(conversationId, maxIndex);
+        }
+    }
+
+    /**
+     * 按保留策略删除过期消息，各分片依次执行，共用一份时间预算
+     */
+    void purgeExpired() {
+        List<ScanGroup> groups = scanGroups();
+        if (groups.isEmpty()) {
+            return;
+        }
+        long deadline = System.nanoTime() + properties.getTimeBudget().toNanos();
+        for (String shard : shardKeys()) {
+            boolean completed = chatMemoryShardRouter.onShard(shard.isEmpty() ? null : shard,
+                    () -> purgeExpiredOnShard(shard, groups, deadline));
+            if (!completed) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return 本分片是否已扫描完一轮
+     */
+    private boolean purgeExpiredOnShard(String shard, List<ScanGroup> groups, long deadline) {
+        for (ScanGroup group : groups) {
+            if (!purgeExpiredGroup(shard, group, deadline)) {
+                return false;
+            }
+        }
+        passCompletedAt.put(shard, clock.instant());
+        return true;
+    }
+
+    /**
+     * @return 本组是否已扫描完
+     */
+    private boolean purgeExpiredGroup(String shard, ScanGroup group, long deadline) {
+        String cursorKey = shard + "|" + group.ttl();
+        while (System.nanoTime() < deadline) {
+            LocalDateTime now = LocalDateTime.now(clock);
+            List<ChatMemoryJdbcDao.RowRef> rows = chatMemoryJdbcDao.findCreatedBefore(now.minus(group.ttl()),
+                    group.includePrefixes(), group.excludePrefixes(), cursors.get(cursorKey), properties.getChunkSize());
+            List<Long> expiredIds = new ArrayList<>();
+            Set<String> conversations = new LinkedHashSet<>();
+            for (ChatMemoryJdbcDao.RowRef row : rows) {
+                Duration ttl = ttlFor(row.conversationId());
+                // 前缀预过滤放过的、保留时长更长的行，等它们自己的时限
+                if (ttl == null || !row.createTime().isBefore(now.minus(ttl))) {
+                    continue;
+                }
+                expiredIds.add(row.id());
+                conversations.add(row.conversationId());
+                lagSummary().record(Duration.between(row.createTime().plus(ttl), now).toSeconds());
+            }
+            purgedCounter("ttl").increment(chatMemoryJdbcDao.deleteByIds(expiredIds));
+            // 消息全部过期的对话，摘要也一起删除
+            for (String conversationId : conversations) {
+                if (!chatMemoryJdbcDao.exists(conversationId)) {
+                    chatMemorySummarizer.clearSummary(conversationId);
+                }
+            }
+            if (rows.size() < properties.getChunkSize()) {
+                cursors.remove(cursorKey);
+                return true;
+            }
+            cursors.put(cursorKey, rows.get(rows.size() - 1));
+            pause();
+        }
+        return false;
+    }
+
+    private void pause() {
+        long pauseMs = properties.getPause().toMillis();
+        if (pauseMs <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(pauseMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<String> shardKeys() {
+        return chatMemoryShardRouter.isSharded() ? chatMemoryShardRouter.shards() : List.of("");
+    }
+
+    private static Counter purgedCounter(String reason) {
+        return Counter.builder("ai.chat.memory.retention.purged")
+                .description("清理删除的消息行数")
+                .tag("reason", reason)
+                .register(Metrics.globalRegistry);
+    }
+
+    private static DistributionSummary lagSummary() {
+        return DistributionSummary.builder("ai.chat.memory.retention.lag")
+                .description("消息过期到实际被删除之间的延迟")
+                .baseUnit("seconds")
+                .register(Metrics.globalRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,15 @@
+package com.yupi.yuaiagent.chatmemory;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+/**
+ * 按 ChatMemoryShardRouter 当前线程选中的分片切换数据源
+ * 未路由的操作落到默认数据源（第一个分片）
+ */
+public class ChatMemoryRoutingDataSource extends AbstractRoutingDataSource {
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return ChatMemoryShardRouter.currentShard();
+    }
+}
@@ -0,0 +1,236 @@
+package com.yupi.yuaiagent.chatmemory;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.yupi.yuaiagent.mapper.ChatMemoryMapper;
+import com.yupi.yuaiagent.mapper.ChatMemorySummaryMapper;
+import com.yupi.yuaiagent.model.entity.ChatMemoryEntity;
+import com.yupi.yuaiagent.model.entity.ChatMemorySummaryEntity;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 对话记忆分片迁移工具（通过 ChatMemoryAdminController 手动触发）
+ * 增减分片并重启后调用 rebalance()：逐个分片扫描对话，把不再属于本分片的对话
+ * 合并到新分片后再从旧分片删除。
+ * - 不删除目标分片上的数据：改配置后已路由到新分片的新消息整体后移到旧消息之后，旧消息按原索引补入
+ * - 每一步都可以重跑：已复制的行按 (索引, 类型, 内容, 创建时间) 识别，中途失败重新执行即可
+ * - 迁移单个对话时持有 ChatMemoryShardRouter 的独占栅栏，本实例对该对话的读写会等待
+ * 运行约束：栅栏只在本进程内有效，多实例部署时应先把流量切到执行迁移的实例（或停写）；
+ * 改配置后、迁移完成前，被移动的对话读不到旧历史。新分片上若已生成新的摘要（改配置后新写入超过摘要阈值），
+ * 无法确定合并位置，该对话会被跳过并留在旧分片，需人工处理。
+ */
+@Slf4j
+@Component
+public class ChatMemoryShardRebalancer {
+
+    // 每次扫描的对话数 / 每次读取的消息数
+    private static final int SCAN_BATCH_SIZE = 200;
+    private static final int COPY_BATCH_SIZE = 500;
+
+    private final ChatMemoryShardRouter chatMemoryShardRouter;
+    private final ChatMemoryMapper chatMemoryMapper;
+    private final ChatMemorySummaryMapper chatMemorySummaryMapper;
+
+    // 同一时间只允许一次迁移
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public ChatMemoryShardRebalancer(ChatMemoryShardRouter chatMemoryShardRouter,
+                                     ChatMemoryMapper chatMemoryMapper,
+                                     ChatMemorySummaryMapper chatMemorySummaryMapper) {
+        this.chatMemoryShardRouter = chatMemoryShardRouter;
+        this.chatMemoryMapper = chatMemoryMapper;
+        this.chatMemorySummaryMapper = chatMemorySummaryMapper;
+    }
+
+    /**
+     * 迁移结果
+     *
+     * @param scannedConversations 扫描的对话数
+     * @param movedConversations   迁移的对话数
+     * @param movedMessages        迁移的消息数
+     * @param skippedConversations 无法自动合并、留在旧分片的对话
+     */
+    public record RebalanceReport(int scannedConversations, int movedConversations, long movedMessages,
+                                  List<String> skippedConversations) {
+    }
+
+    /**
+     * 按当前分片配置迁移所有分片上的对话
+     *
+     * @throws IllegalStateException 已有迁移正在执行
+     */
+    public RebalanceReport rebalance() {
+        if (!chatMemoryShardRouter.isSharded()) {
+            log.info("未开启对话记忆分片，无需迁移");
+            return new RebalanceReport(0, 0, 0, List.of());
+        }
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("对话记忆分片迁移正在执行");
+        }
+        try {
+            return doRebalance();
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private RebalanceReport doRebalance() {
+        int scanned = 0;
+        int moved = 0;
+        long movedMessages = 0;
+        List<String> skipped = new ArrayList<>();
+        for (String sourceShard : chatMemoryShardRouter.shards()) {
+            String cursor = "";
+            while (true) {
+                String after = cursor;
+                List<String> conversationIds = chatMemoryShardRouter.onShard(sourceShard,
+                        () -> chatMemoryMapper.selectConversationIdsAfter(after, SCAN_BATCH_SIZE));
+                if (conversationIds.isEmpty()) {
+                    break;
+                }
+                for (String conversationId : conversationIds) {
+                    scanned++;
+                    String targetShard = chatMemoryShardRouter.shardFor(conversationId);
+                    if (sourceShard.equals(targetShard)) {
+                        continue;
+                    }
+                    long copied = chatMemoryShardRouter.exclusive(conversationId,
+                            () -> moveConversation(conversationId, sourceShard, targetShard));
+                    if (copied < 0) {
+                        skipped.add(conversationId);
+                    } else {
+                        movedMessages += copied;
+                        moved++;
+                    }
+                }
+                cursor = conversationIds.get(conversationIds.size() - 1);
+            }
+            log.info("分片 {} 扫描完成", sourceShard);
+        }
+        log.info("对话记忆分片迁移完成，扫描对话 {} 个，迁移对话 {} 个，迁移消息 {} 条，跳过对话 {} 个",
+                scanned, moved, movedMessages, skipped.size());
+        return new RebalanceReport(scanned, moved, movedMessages, skipped);
+    }
+
+    /**
+     * 把一个对话从 sourceShard 合并到 targetShard，再从 sourceShard 删除
+     *
+     * @return 复制的消息数，无法自动合并时返回 -1
+     */
+    private long moveConversation(String conversationId, String sourceShard, String targetShard) {
+        List<ChatMemoryEntity> sourceRows = loadConversation(sourceShard, conversationId);
+        ChatMemorySummaryEntity sourceSummary = chatMemoryShardRouter.onShard(sourceShard,
+                () -> chatMemorySummaryMapper.selectById(conversationId));
+        List<ChatMemoryEntity> targetRows = loadConversation(targetShard, conversationId);
+        ChatMemorySummaryEntity targetSummary = chatMemoryShardRouter.onShard(targetShard,
+                () -> chatMemorySummaryMapper.selectById(conversationId));
+
+        //1、区分目标分片上上次中断时已复制的行和改配置后新写入的行
+        Map<Integer, ChatMemoryEntity> sourceByIndex = new HashMap<>();
+        sourceRows.forEach(row -> sourceByIndex.put(row.getMessageIndex(), row));
+        Set<Integer> copiedIndexes = new HashSet<>();
+        List<ChatMemoryEntity> freshRows = new ArrayList<>();
+        for (ChatMemoryEntity row : targetRows) {
+            if (sameRow(row, sourceByIndex.get(row.getMessageIndex()))) {
+                copiedIndexes.add(row.getMessageIndex());
+            } else {
+                freshRows.add(row);
+            }
+        }
+        if (targetSummary != null && !sameSummary(targetSummary, sourceSummary)) {
+            if (targetSummary.getSummary().isBlank()) {
+                // 改配置后对话在新分片上被清空过，旧历史作废
+                chatMemoryShardRouter.onShard(sourceShard, () -> deleteConversation(conversationId));
+                log.info("对话 {} 已在 {} 上清空，丢弃 {} 上的旧历史", conversationId, targetShard, sourceShard);
+                return 0;
+            }
+            log.warn("对话 {} 在 {} 上已有新摘要，无法自动合并，保留在 {}", conversationId, targetShard, sourceShard);
+            return -1;
+        }
+
+        //2、新写入的行整体后移到旧消息之后（一条 UPDATE，偏移大于现有最大索引，逐行更新也不会撞唯一键）
+        int sourceMax = sourceRows.isEmpty() ? -1 : sourceRows.get(sourceRows.size() - 1).getMessageIndex();
+        boolean shifted = freshRows.stream().allMatch(row -> row.getMessageIndex() > sourceMax);
+        if (!shifted) {
+            if (!copiedIndexes.isEmpty()) {
+                // 复制总在后移之后，两者同时存在说明数据被其他途径改过
+                log.warn("对话 {} 在 {} 上的数据无法识别，保留在 {}", conversationId, targetShard, sourceShard);
+                return -1;
+            }
+            int targetMax = targetRows.get(targetRows.size() - 1).getMessageIndex();
+            int offset = Math.max(sourceMax, targetMax) + 1;
+            chatMemoryShardRouter.onShard(targetShard, () -> chatMemoryMapper.shiftMessageIndex(conversationId, offset));
+        }
+
+        //3、按原索引和创建时间补入目标分片上还没有的旧消息
+        long copied = 0;
+        for (ChatMemoryEntity row : sourceRows) {
+            if (copiedIndexes.contains(row.getMessageIndex())) {
+                continue;
+            }
+            // 主键在各分片独立自增
+            row.setId(null);
+            chatMemoryShardRouter.onShard(targetShard, () -> chatMemoryMapper.insert(row));
+            copied++;
+        }
+
+        //4、复制摘要（新分片上没有自己的摘要时）
+        if (sourceSummary != null && targetSummary == null) {
+            chatMemoryShardRouter.onShard(targetShard, () -> chatMemorySummaryMapper.insert(sourceSummary));
+        }
+
+        //5、合并完成后再删除源分片数据
+        chatMemoryShardRouter.onShard(sourceShard, () -> deleteConversation(conversationId));
+        log.info("迁移对话 {}：{} -> {}，复制消息 {} 条，合并新消息 {} 条",
+                conversationId, sourceShard, targetShard, copied, freshRows.size());
+        return copied;
+    }
+
+    /**
+     * 分批读取对话在指定分片上的全部消息（按索引升序）
+     */
+    private List<ChatMemoryEntity> loadConversation(String shard, String conversationId) {
+        List<ChatMemoryEntity> rows = new ArrayList<>();
+        int cursor = -1;
+        while (true) {
+            int after = cursor;
+            List<ChatMemoryEntity> batch = chatMemoryShardRouter.onShard(shard,
+                    () -> chatMemoryMapper.selectPageAfter(conversationId, after, COPY_BATCH_SIZE));
+            rows.addAll(batch);
+            if (batch.size() < COPY_BATCH_SIZE) {
+                return rows;
+            }
+            cursor = batch.get(batch.size() - 1).getMessageIndex();
+        }
+    }
+
+    private static boolean sameRow(ChatMemoryEntity a, ChatMemoryEntity b) {
+        return b != null
+                && Objects.equals(a.getMessageType(), b.getMessageType())
+                && Objects.equals(a.getContent(), b.getContent())
+                && Arrays.equals(a.getContentBin(), b.getContentBin())
+                && Objects.equals(a.getCreateTime(), b.getCreateTime());
+    }
+
+    private static boolean sameSummary(ChatMemorySummaryEntity a, ChatMemorySummaryEntity b) {
+        return b != null
+                && Objects.equals(a.getSummary(), b.getSummary())
+                && Objects.equals(a.getCoveredIndex(), b.getCoveredIndex());
+    }
+
+    private Void deleteConversation(String conversationId) {
+        chatMemoryMapper.delete(new QueryWrapper<ChatMemoryEntity>().eq("conversation_id", conversationId));
+        chatMemorySummaryMapper.deleteById(conversationId);
+        return null;
+    }
+}
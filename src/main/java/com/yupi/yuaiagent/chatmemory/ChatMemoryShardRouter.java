@@ -0,0 +1,135 @@
+package com.yupi.yuaiagent.chatmemory;
+
+import cn.hutool.core.lang.ConsistentHash;
+import cn.hutool.core.lang.hash.MurmurHash;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * 对话记忆分片路由
+ * 按 conversationId 的一致性哈希选择分片，并通过 ThreadLocal 告诉
+ * ChatMemoryRoutingDataSource 本次数据库操作使用哪个分片。
+ * 增减分片时只有少量对话需要迁移（见 ChatMemoryShardRebalancer）。
+ * route 持有对话所在分段的读锁，迁移工具用 exclusive 持有写锁，
+ * 迁移一个对话期间本实例对它的读写会等待迁移完成。
+ */
+@Slf4j
+@Component
+public class ChatMemoryShardRouter {
+
+    private static final ThreadLocal<String> CURRENT_SHARD = new ThreadLocal<>();
+
+    private static final int FENCE_STRIPES = 64;
+
+    private final List<String> shards;
+    private final ConsistentHash<String> hashRing;
+
+    // 按对话分段的迁移栅栏：普通读写共享，迁移独占
+    private final ReentrantReadWriteLock[] fences = new ReentrantReadWriteLock[FENCE_STRIPES];
+
+    @Autowired
+    public ChatMemoryShardRouter(ChatMemoryShardingProperties properties) {
+        this(properties.isEnabled() ? new ArrayList<>(properties.getShards().keySet()) : List.of(),
+                properties.getVirtualNodes());
+    }
+
+    /**
+     * @param shards       分片名列表，为空表示不分片
+     * @param virtualNodes 每个分片的虚拟节点数
+     */
+    public ChatMemoryShardRouter(List<String> shards, int virtualNodes) {
+        this.shards = List.copyOf(shards);
+        this.hashRing = this.shards.isEmpty() ? null
+                : new ConsistentHash<>(key -> MurmurHash.hash32(key.toString()), virtualNodes, this.shards);
+        for (int i = 0; i < FENCE_STRIPES; i++) {
+            fences[i] = new ReentrantReadWriteLock();
+        }
+        log.info("对话记忆分片路由初始化完成，分片: {}", this.shards.isEmpty() ? "未开启" : this.shards);
+    }
+
+    /**
+     * 当前线程正在使用的分片，未路由时返回 null（使用默认数据源）
+     */
+    public static String currentShard() {
+        return CURRENT_SHARD.get();
+    }
+
+    public boolean isSharded() {
+        return hashRing != null;
+    }
+
+    public List<String> shards() {
+        return shards;
+    }
+
+    /**
+     * 计算对话所属分片，不分片时返回 null
+     */
+    public String shardFor(String conversationId) {
+        return hashRing == null ? null : hashRing.get(conversationId);
+    }
+
+    /**
+     * 在对话所属分片上执行数据库操作
+     */
+    public <T> T route(String conversationId, Supplier<T> action) {
+        ReentrantReadWriteLock.ReadLock fence = fenceFor(conversationId).readLock();
+        fence.lock();
+        try {
+            return onShard(shardFor(conversationId), action);
+        } finally {
+            fence.unlock();
+        }
+    }
+
+    /**
+     * 独占对话执行操作（迁移工具使用）：等待本实例上该对话正在进行的读写结束，期间新的读写等待
+     * 不能在 route 内部调用（读锁不能升级为写锁）
+     */
+    public <T> T exclusive(String conversationId, Supplier<T> action) {
+        ReentrantReadWriteLock.WriteLock fence = fenceFor(conversationId).writeLock();
+        fence.lock();
+        try {
+            return action.get();
+        } finally {
+            fence.unlock();
+        }
+    }
+
+    public void run(String conversationId, Runnable action) {
+        route(conversationId, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    private ReentrantReadWriteLock fenceFor(String conversationId) {
+        return fences[Math.floorMod(conversationId.hashCode(), FENCE_STRIPES)];
+    }
+
+    /**
+     * 在指定分片上执行数据库操作（迁移工具使用），支持嵌套调用
+     */
+    public <T> T onShard(String shard, Supplier<T> action) {
+        if (shard == null) {
+            return action.get();
+        }
+        String previous = CURRENT_SHARD.get();
+        CURRENT_SHARD.set(shard);
+        try {
+            return action.get();
+        } finally {
+            if (previous == null) {
+                CURRENT_SHARD.remove();
+            } else {
+                CURRENT_SHARD.set(previous);
+            }
+        }
+    }
+}
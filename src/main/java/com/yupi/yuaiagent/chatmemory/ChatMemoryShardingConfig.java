@@ -0,0 +1,57 @@
+package com.yupi.yuaiagent.chatmemory;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 对话记忆分片数据源配置
+ * 开启分片后，用按分片路由的数据源替换 Druid 自动配置的单数据源，
+ * Mapper 代码不变，由 ChatMemoryShardRouter 决定每次操作落到哪个分片。
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(prefix = "yu-ai-agent.chat-memory.sharding", name = "enabled", havingValue = "true")
+public class ChatMemoryShardingConfig {
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ChatMemoryShardingProperties shardingProperties,
+                                 DataSourceProperties dataSourceProperties) {
+        if (shardingProperties.getShards().isEmpty()) {
+            throw new IllegalStateException("已开启对话记忆分片，但未配置任何分片数据源");
+        }
+        Map<Object, Object> targetDataSources = new LinkedHashMap<>();
+        DataSource defaultDataSource = null;
+        for (Map.Entry<String, ChatMemoryShardingProperties.ShardDataSource> entry : shardingProperties.getShards().entrySet()) {
+            ChatMemoryShardingProperties.ShardDataSource shard = entry.getValue();
+            DruidDataSource druidDataSource = new DruidDataSource();
+            druidDataSource.setName("chat-memory-" + entry.getKey());
+            druidDataSource.setDriverClassName(dataSourceProperties.getDriverClassName());
+            druidDataSource.setUrl(shard.getUrl());
+            druidDataSource.setUsername(shard.getUsername() != null ? shard.getUsername() : dataSourceProperties.getUsername());
+            druidDataSource.setPassword(shard.getPassword() != null ? shard.getPassword() : dataSourceProperties.getPassword());
+            // 与单库配置一致，按连接缓存 PreparedStatement
+            druidDataSource.setPoolPreparedStatements(true);
+            druidDataSource.setMaxPoolPreparedStatementPerConnectionSize(50);
+            targetDataSources.put(entry.getKey(), druidDataSource);
+            if (defaultDataSource == null) {
+                defaultDataSource = druidDataSource;
+            }
+            log.info("注册对话记忆分片数据源：{} -> {}", entry.getKey(), shard.getUrl());
+        }
+
+        ChatMemoryRoutingDataSource routingDataSource = new ChatMemoryRoutingDataSource();
+        routingDataSource.setTargetDataSources(targetDataSources);
+        routingDataSource.setDefaultTargetDataSource(defaultDataSource);
+        return routingDataSource;
+    }
+}
@@ -0,0 +1,45 @@
+package com.yupi.yuaiagent.chatmemory;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 对话记忆分片配置
+ * 未开启时所有对话仍使用 spring.datasource 单库
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "yu-ai-agent.chat-memory.sharding")
+public class ChatMemoryShardingProperties {
+
+    /**
+     * 是否开启分片
+     */
+    private boolean enabled = false;
+
+    /**
+     * 一致性哈希环上每个分片的虚拟节点数
+     */
+    private int virtualNodes = 160;
+
+    /**
+     * 是否开放分片迁移接口 POST /admin/chat-memory/rebalance（默认关闭，只在扩缩容时临时打开）
+     */
+    private boolean rebalanceEndpointEnabled = false;
+
+    /**
+     * 分片名 -> 分片数据源（有序，第一个分片同时作为默认数据源）
+     */
+    private Map<String, ShardDataSource> shards = new LinkedHashMap<>();
+
+    @Data
+    public static class ShardDataSource {
+        private String url;
+        private String username;
+        private String password;
+    }
+}
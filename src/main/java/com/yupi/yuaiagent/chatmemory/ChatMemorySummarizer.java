@@ -0,0 +1,266 @@
+package com.yupi.yuaiagent.chatmemory;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import com.yupi.yuaiagent.mapper.ChatMemoryMapper;
+import com.yupi.yuaiagent.mapper.ChatMemorySummaryMapper;
+import com.yupi.yuaiagent.model.entity.ChatMemoryEntity;
+import com.yupi.yuaiagent.model.entity.ChatMemorySummaryEntity;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 对话滚动摘要器
+ * 对话未摘要的消息数超过阈值后，把较早的消息和已有摘要一起折叠为新的摘要，
+ * 保存到 chat_memory_summary 表。摘要在后台有界线程池中执行，不占用请求线程，
+ * 队列满时直接丢弃本次任务（下一轮对话会再次触发）。
+ */
+@Slf4j
+@Component
+public class ChatMemorySummarizer {
+
+    private static final String SUMMARY_PROMPT = """
+            你是对话记录整理助手。请把【已有摘要】和【新增对话】合并为一份新的摘要：
+            1. 保留用户的身份信息、诉求、关键事实和已经给出的重要建议
+            2. 删除寒暄和重复内容
+            3. 使用第三人称陈述，不超过 %d 字
+
+            【已有摘要】
+            %s
+
+            【新增对话】
+            %s
+            """;
+
+    private final ChatClient chatClient;
+    private final ChatMemoryMapper chatMemoryMapper;
+    private final ChatMemorySummaryMapper chatMemorySummaryMapper;
+    private final ChatMemoryShardRouter chatMemoryShardRouter;
+
+    private final boolean enabled;
+    private final int threshold;
+    private final int keepRecent;
+    private final int maxSummaryWords;
+
+    // 正在摘要的对话，避免同一对话重复提交
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor executor;
+
+    // 新摘要写入后的回调（参数为对话 ID），用于让上层缓存失效
+    private final List<Consumer<String>> summaryListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param threshold  未摘要消息数超过 threshold + keepRecent 时触发摘要
+     * @param keepRecent 最近保留原文、不参与折叠的消息数
+     */
+    public ChatMemorySummarizer(@Qualifier("ollamaChatModel") ChatModel chatModel,
+                                ChatMemoryMapper chatMemoryMapper,
+                                ChatMemorySummaryMapper chatMemorySummaryMapper,
+                                ChatMemoryShardRouter chatMemoryShardRouter,
+                                @Value("${yu-ai-agent.chat-memory.summary.enabled:true}") boolean enabled,
+                                @Value("${yu-ai-agent.chat-memory.summary.threshold:20}") int threshold,
+                                @Value("${yu-ai-agent.chat-memory.summary.keep-recent:10}") int keepRecent,
+                                @Value("${yu-ai-agent.chat-memory.summary.max-words:500}") int maxSummaryWords,
+                                @Value("${yu-ai-agent.chat-memory.summary.pool-size:2}") int poolSize,
+                                @Value("${yu-ai-agent.chat-memory.summary.queue-capacity:100}") int queueCapacity) {
+        this.chatClient = ChatClient.builder(chatModel).build();
+        this.chatMemoryMapper = chatMemoryMapper;
+        this.chatMemorySummaryMapper = chatMemorySummaryMapper;
+        this.chatMemoryShardRouter = chatMemoryShardRouter;
+        this.enabled = enabled;
+        this.threshold = threshold;
+        this.keepRecent = keepRecent;
+        this.maxSummaryWords = maxSummaryWords;
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread thread = new Thread(r, "chat-summary-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 注册新摘要写入后的回调，回调在摘要线程上执行
+     */
+    public void addSummaryListener(Consumer<String> listener) {
+        summaryListeners.add(listener);
+    }
+
+    /**
+     * 获取对话的摘要，不存在时返回 null
+     */
+    public ChatMemorySummaryEntity getSummary(String conversationId) {
+        return chatMemoryShardRouter.route(conversationId, () -> chatMemorySummaryMapper.selectById(conversationId));
+    }
+
+    /**
+     * 删除对话的摘要
+     */
+    public void clearSummary(String conversationId) {
+        chatMemoryShardRouter.run(conversationId, () -> chatMemorySummaryMapper.deleteById(conversationId));
+    }
+
+    /**
+     * 清空对话时写入隐藏标记：摘要为空、覆盖到清空时的最大索引
+     * 旧消息由后台分批删除，删除完成前读取和摘要都从标记之后开始
+     */
+    public void markCleared(String conversationId, int maxIndex) {
+        chatMemoryShardRouter.run(conversationId, () -> {
+            ChatMemorySummaryEntity entity = new ChatMemorySummaryEntity();
+            entity.setConversationId(conversationId);
+            entity.setSummary("");
+            entity.setCoveredIndex(maxIndex);
+            entity.setUpdateTime(LocalDateTime.now());
+            if (chatMemorySummaryMapper.updateById(entity) == 0) {
+                chatMemorySummaryMapper.insert(entity);
+            }
+        });
+    }
+
+    /**
+     * 当前分片上所有尚未删除完旧消息的清空标记（重启后恢复异步删除）
+     */
+    public List<ChatMemorySummaryEntity> findClearMarkers() {
+        return chatMemorySummaryMapper.selectList(new QueryWrapper<ChatMemorySummaryEntity>().eq("summary", ""));
+    }
+
+    /**
+     * 旧消息删除完后移除清空标记；标记已被新的摘要或新的清空覆盖时不动
+     */
+    public void removeClearMarker(String conversationId, int maxIndex) {
+        chatMemoryShardRouter.run(conversationId, () -> chatMemorySummaryMapper.delete(
+                new QueryWrapper<ChatMemorySummaryEntity>()
+                        .eq("conversation_id", conversationId)
+                        .eq("summary", "")
+                        .eq("covered_index", maxIndex)));
+    }
+
+    /**
+     * 异步检查并摘要对话（在请求线程上只做提交，立即返回）
+     *
+     * @param conversationId 对话 ID
+     * @param lastIndex      当前最新消息的索引
+     */
+    public void summarizeAsync(String conversationId, int lastIndex) {
+        if (!enabled || lastIndex + 1 < threshold + keepRecent) {
+            return;
+        }
+        if (!inFlight.add(conversationId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    chatMemoryShardRouter.run(conversationId, () -> summarizeIfNeeded(conversationId, lastIndex));
+                } catch (Exception e) {
+                    log.error("对话摘要失败，conversationId: {}", conversationId, e);
+                } finally {
+                    inFlight.remove(conversationId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(conversationId);
+            log.warn("摘要队列已满，跳过本次摘要，conversationId: {}", conversationId);
+        }
+    }
+
+    /**
+     * 同步检查并摘要对话
+     */
+    void summarizeIfNeeded(String conversationId, int lastIndex) {
+        ChatMemorySummaryEntity summary = chatMemorySummaryMapper.selectById(conversationId);
+        int coveredIndex = summary != null ? summary.getCoveredIndex() : -1;
+        if (lastIndex - coveredIndex < threshold + keepRecent) {
+            return;
+        }
+
+        //1、取出需要折叠的消息：(coveredIndex, lastIndex - keepRecent]
+        int foldUpTo = lastIndex - keepRecent;
+        List<ChatMemoryEntity> entities = chatMemoryMapper.selectList(
+            new QueryWrapper<ChatMemoryEntity>()
+                .eq("conversation_id", conversationId)
+                .gt("message_index", coveredIndex)
+                .le("message_index", foldUpTo)
+                .orderByAsc("message_index")
+        );
+        if (entities.isEmpty()) {
+            return;
+        }
+
+        //2、调用模型合并已有摘要和新增对话
+        StringBuilder dialogue = new StringBuilder();
+        for (ChatMemoryEntity entity : entities) {
+            dialogue.append(entity.getMessageType()).append(": ").append(MySQLChatMemory.contentOf(entity)).append("\n");
+        }
+        // 清空标记的摘要为空
+        String previous = summary != null && !summary.getSummary().isBlank() ? summary.getSummary() : "无";
+        long start = System.currentTimeMillis();
+        String newSummary = chatClient.prompt()
+                .user(SUMMARY_PROMPT.formatted(maxSummaryWords, previous, dialogue))
+                .call()
+                .content();
+        if (newSummary == null || newSummary.isBlank()) {
+            log.warn("模型返回空摘要，conversationId: {}", conversationId);
+            return;
+        }
+
+        //3、保存摘要（条件写入，期间被清空时丢弃）
+        ChatMemorySummaryEntity entity = new ChatMemorySummaryEntity();
+        entity.setConversationId(conversationId);
+        entity.setSummary(newSummary.trim());
+        entity.setCoveredIndex(entities.get(entities.size() - 1).getMessageIndex());
+        entity.setUpdateTime(LocalDateTime.now());
+        if (!saveIfUnchanged(entity, summary)) {
+            log.info("摘要期间对话已被清空或已有新摘要，丢弃本次结果，conversationId: {}", conversationId);
+            return;
+        }
+        summaryListeners.forEach(listener -> listener.accept(conversationId));
+        log.info("对话摘要完成，conversationId: {}, 折叠 {} 条消息，覆盖到索引 {}，耗时 {} ms",
+                conversationId, entities.size(), entity.getCoveredIndex(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 条件写入摘要：只有摘要行仍是开始摘要时读到的那一行才写入
+     * 模型调用期间对话被清空（写入清空标记或已删完旧消息）、或被其他实例抢先摘要时返回 false
+     */
+    private boolean saveIfUnchanged(ChatMemorySummaryEntity entity, ChatMemorySummaryEntity previous) {
+        if (previous == null) {
+            try {
+                return chatMemorySummaryMapper.insertIfCovered(entity) > 0;
+            } catch (DuplicateKeyException e) {
+                return false;
+            }
+        }
+        return chatMemorySummaryMapper.update(entity, new UpdateWrapper<ChatMemorySummaryEntity>()
+                .eq("conversation_id", previous.getConversationId())
+                .eq("covered_index", previous.getCoveredIndex())
+                .eq("summary", previous.getSummary())) > 0;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
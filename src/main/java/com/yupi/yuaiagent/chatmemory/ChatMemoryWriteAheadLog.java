@@ -0,0 +1,287 @@
+package com.yupi.yuaiagent.chatmemory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * 对话记忆预写日志（追加写的本地文件）
+ * 每次写入先追加到当前段文件，刷入 MySQL 后整段删除；
+ * 进程崩溃后按段号顺序重放未删除的段即可恢复。
+ * 记录格式：op(1B) | conversationId(len+UTF-8) | messageType(1B) | content(len+UTF-8)
+ * 每条记录的序号 = 段号 << 32 | 段内位置，不写入文件，读取时按位置推算。
+ * 对话落库后把已落库的最大序号追加到检查点文件，重放时跳过检查点之前的记录，
+ * 因此刷盘后、删段前崩溃也不会把消息重复写入 MySQL。
+ * 检查点只对仍存在的段有意义：段全部删除后清空检查点，段号从头开始也不会误跳过。
+ */
+@Slf4j
+public class ChatMemoryWriteAheadLog implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "flushed.ckpt";
+
+    /**
+     * 日志操作类型
+     */
+    public enum Op {
+        ADD, CLEAR
+    }
+
+    /**
+     * 一条日志记录，CLEAR 记录的 message 为 null
+     *
+     * @param seq 记录序号，全局单调递增
+     */
+    public record Entry(long seq, Op op, String conversationId, Message message) {
+    }
+
+    private final Path dir;
+    private final boolean fsync;
+
+    private long segmentSeq;
+    private Path currentSegment;
+    private FileOutputStream currentFile;
+    private DataOutputStream currentOut;
+    private int currentEntries;
+
+    private FileOutputStream checkpointFile;
+    private DataOutputStream checkpointOut;
+
+    /**
+     * @param dir   日志目录
+     * @param fsync 每次追加后是否强制刷盘（更安全，但写延迟更高）
+     */
+    public ChatMemoryWriteAheadLog(Path dir, boolean fsync) {
+        this.dir = dir;
+        this.fsync = fsync;
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            throw new UncheckedIOException("创建预写日志目录失败：" + dir, e);
+        }
+        List<Path> existing = segments();
+        this.segmentSeq = existing.isEmpty() ? 0 : parseSeq(existing.get(existing.size() - 1));
+        if (existing.isEmpty()) {
+            // 没有待重放的段，旧检查点的序号可能大于新段的序号，必须丢弃
+            resetFlushed();
+        }
+    }
+
+    /**
+     * 目录下已有的段文件（按段号升序），不含正在写的段
+     */
+    public synchronized List<Path> segments() {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files
+                    .filter(p -> p.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                    .filter(p -> !p.equals(currentSegment))
+                    .sorted((a, b) -> Long.compare(parseSeq(a), parseSeq(b)))
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取预写日志目录失败：" + dir, e);
+        }
+    }
+
+    /**
+     * 追加一条记录
+     *
+     * @return 带序号的记录
+     */
+    public synchronized Entry append(Op op, String conversationId, Message message) {
+        try {
+            if (currentOut == null) {
+                openNextSegment();
+            }
+            Entry entry = new Entry(seqOf(segmentSeq, currentEntries), op, conversationId, message);
+            currentOut.writeByte(entry.op().ordinal());
+            writeString(currentOut, entry.conversationId());
+            if (entry.op() == Op.ADD) {
+                currentOut.writeByte(entry.message().getMessageType().ordinal());
+                writeString(currentOut, entry.message().getText());
+            }
+            currentOut.flush();
+            if (fsync) {
+                currentFile.getFD().sync();
+            }
+            currentEntries++;
+            return entry;
+        } catch (IOException e) {
+            throw new UncheckedIOException("写入预写日志失败", e);
+        }
+    }
+
+    /**
+     * 记录对话已落库到的最大序号（MySQL 写入成功后调用）
+     */
+    public synchronized void markFlushed(String conversationId, long seq) {
+        try {
+            if (checkpointOut == null) {
+                checkpointFile = new FileOutputStream(dir.resolve(CHECKPOINT_FILE).toFile(), true);
+                checkpointOut = new DataOutputStream(new BufferedOutputStream(checkpointFile));
+            }
+            checkpointOut.writeLong(seq);
+            writeString(checkpointOut, conversationId);
+            checkpointOut.flush();
+            if (fsync) {
+                checkpointFile.getFD().sync();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("写入预写日志检查点失败", e);
+        }
+    }
+
+    /**
+     * 各对话已落库到的最大序号，末尾不完整的记录被忽略
+     */
+    public synchronized Map<String, Long> flushedSeqs() {
+        Map<String, Long> flushed = new HashMap<>();
+        Path checkpoint = dir.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(checkpoint)) {
+            return flushed;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpoint)))) {
+            while (true) {
+                long seq = in.readLong();
+                flushed.merge(readString(in), seq, Math::max);
+            }
+        } catch (EOFException e) {
+            return flushed;
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取预写日志检查点失败：" + checkpoint, e);
+        }
+    }
+
+    /**
+     * 清空检查点，只能在检查点覆盖的段都已删除后调用
+     */
+    public synchronized void resetFlushed() {
+        closeCheckpoint();
+        delete(dir.resolve(CHECKPOINT_FILE));
+    }
+
+    /**
+     * 关闭当前段，之后的记录写入新段
+     *
+     * @return 被关闭的段，当前段为空时返回 null
+     */
+    public synchronized Path rotate() {
+        Path closed = currentSegment;
+        closeCurrent();
+        return closed;
+    }
+
+    /**
+     * 读取一个段的全部记录，末尾不完整的记录（写入时崩溃）被忽略
+     */
+    public static List<Entry> read(Path segment) {
+        List<Entry> entries = new ArrayList<>();
+        long segmentSeq = parseSeq(segment);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment)))) {
+            while (true) {
+                int op = in.read();
+                if (op < 0) {
+                    break;
+                }
+                String conversationId = readString(in);
+                long seq = seqOf(segmentSeq, entries.size());
+                if (op == Op.CLEAR.ordinal()) {
+                    entries.add(new Entry(seq, Op.CLEAR, conversationId, null));
+                } else {
+                    MessageType type = MessageType.values()[in.readByte()];
+                    entries.add(new Entry(seq, Op.ADD, conversationId, toMessage(type, readString(in))));
+                }
+            }
+        } catch (EOFException e) {
+            log.warn("预写日志 {} 末尾记录不完整，已忽略", segment.getFileName());
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取预写日志失败：" + segment, e);
+        }
+        return entries;
+    }
+
+    public void delete(Path segment) {
+        try {
+            Files.deleteIfExists(segment);
+        } catch (IOException e) {
+            log.error("删除预写日志失败：{}", segment, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closeCurrent();
+        closeCheckpoint();
+    }
+
+    private void openNextSegment() throws IOException {
+        segmentSeq++;
+        currentSegment = dir.resolve(SEGMENT_PREFIX + String.format("%019d", segmentSeq) + SEGMENT_SUFFIX);
+        currentFile = new FileOutputStream(currentSegment.toFile(), true);
+        currentOut = new DataOutputStream(new BufferedOutputStream(currentFile));
+        currentEntries = 0;
+    }
+
+    private void closeCurrent() {
+        if (currentOut != null) {
+            try {
+                currentOut.close();
+            } catch (IOException e) {
+                log.error("关闭预写日志失败：{}", currentSegment, e);
+            }
+        }
+        currentOut = null;
+        currentFile = null;
+        currentSegment = null;
+    }
+
+    private void closeCheckpoint() {
+        if (checkpointOut != null) {
+            try {
+                checkpointOut.close();
+            } catch (IOException e) {
+                log.error("关闭预写日志检查点失败", e);
+            }
+        }
+        checkpointOut = null;
+        checkpointFile = null;
+    }
+
+    private static long seqOf(long segmentSeq, int position) {
+        return segmentSeq << 32 | position;
+    }
+
+    private static long parseSeq(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Message toMessage(MessageType type, String content) {
+        return switch (type) {
+            case ASSISTANT -> new AssistantMessage(content);
+            case SYSTEM -> new SystemMessage(content);
+            default -> new UserMessage(content);
+        };
+    }
+}
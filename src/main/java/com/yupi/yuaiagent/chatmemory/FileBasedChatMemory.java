@@ -2,20 +2,33 @@ package com.yupi.yuaiagent.chatmemory;
 
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
-import com.esotericsoftware.kryo.io.Output;
+import lombok.extern.slf4j.Slf4j;
 import org.objenesis.strategy.StdInstantiatorStrategy;
 import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.stereotype.Component;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+/**
+ * 文件存储的对话记忆，每个对话一个文件，消息用 MessageCodec 编码后追加写入
+ */
+@Slf4j
 @Component("fileChatMemory")  // 指定 Bean 名称
 public class FileBasedChatMemory implements ChatMemory {
 
+    //文件头，用于识别格式
+    private static final byte[] MAGIC={'Y','M','C','1'};
+
     private final String BASE_DIR;
+    private final MessageCodec codec=new MessageCodec(MessageCodec.DEFAULT_COMPRESS_THRESHOLD);
+    //同一对话的读写（追加、截断、迁移、删除）按对话 ID 分段加锁串行执行，避免并发追加时记录交错、重复写文件头
+    private final Object[] locks=new Object[64];
+    //只用于读取旧版本的 .kryo 文件
     private static final Kryo kryo=new Kryo();
 
     static {
@@ -31,6 +44,9 @@ public class FileBasedChatMemory implements ChatMemory {
     //构建对象时，指定文件保存目录
     public FileBasedChatMemory(String dir){
         this.BASE_DIR=dir;
+        for(int i=0;i<locks.length;i++){
+            locks[i]=new Object();
+        }
         File baseDir=new File(dir);
         if(!baseDir.exists()){
             baseDir.mkdirs();
@@ -39,16 +55,31 @@ public class FileBasedChatMemory implements ChatMemory {
 
     @Override
     public void add(String conversationId, List<Message> messages) {
-        List<Message> conversationMessages=getOrCreateConversation(conversationId);
-        conversationMessages.addAll(messages);
-        saveConversation(conversationId,conversationMessages);
+        synchronized (lockFor(conversationId)){
+            File file=getConversationFile(conversationId);
+            migrateLegacyFile(conversationId,file);
+            //每条记录自带长度，新消息直接追加，不再读出整个对话重写
+            try(OutputStream output=new BufferedOutputStream(new FileOutputStream(file,true))){
+                if(file.length()==0){
+                    output.write(MAGIC);
+                }
+                for(Message message:messages){
+                    codec.write(output,message);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
     }
 
 
 
     @Override
     public List<Message> get(String conversationId, int lastN) {
-        List<Message> allMessages=getOrCreateConversation(conversationId);
+        List<Message> allMessages;
+        synchronized (lockFor(conversationId)){
+            allMessages=getOrCreateConversation(conversationId);
+        }
         return allMessages.stream()
                 .skip(Math.max(0,allMessages.size()-lastN))
                 .toList();
@@ -56,18 +87,47 @@ public class FileBasedChatMemory implements ChatMemory {
 
     @Override
     public void clear(String conversationId) {
-        File file=getConversationFile(conversationId);
-        if(file.exists()){
-            file.delete();
+        synchronized (lockFor(conversationId)){
+            File file=getConversationFile(conversationId);
+            if(file.exists()){
+                file.delete();
+            }
+            File legacyFile=getLegacyConversationFile(conversationId);
+            if(legacyFile.exists()){
+                legacyFile.delete();
+            }
         }
     }
 
+    private Object lockFor(String conversationId) {
+        return locks[Math.floorMod(conversationId.hashCode(),locks.length)];
+    }
+
     private List<Message> getOrCreateConversation(String conversationId) {
         File file=getConversationFile(conversationId);
+        migrateLegacyFile(conversationId,file);
         List<Message> messages=new ArrayList<>();
         if(file.exists()){
-            try(Input input =new Input(new FileInputStream(file))){
-                messages=kryo.readObject(input,ArrayList.class);
+            try{
+                byte[] bytes=Files.readAllBytes(file.toPath());
+                if(!Arrays.equals(Arrays.copyOf(bytes,MAGIC.length),MAGIC)){
+                    throw new IOException("不是对话记忆文件："+file);
+                }
+                ByteArrayInputStream input=new ByteArrayInputStream(bytes,MAGIC.length,bytes.length-MAGIC.length);
+                int validLength=MAGIC.length;
+                try{
+                    Message message;
+                    while((message=codec.read(input))!=null){
+                        messages.add(message);
+                        validLength=bytes.length-input.available();
+                    }
+                }catch (EOFException e){
+                    //进程在写入中途退出时最后一条记录不完整，截掉后新消息才能接着追加
+                    log.warn("对话记忆文件末尾记录不完整，已截断：{}",file);
+                    try(RandomAccessFile raf=new RandomAccessFile(file,"rw")){
+                        raf.setLength(validLength);
+                    }
+                }
             }catch (IOException e){
                 e.printStackTrace();
             }
@@ -75,19 +135,41 @@ public class FileBasedChatMemory implements ChatMemory {
         return messages;
     }
 
-
-    private void saveConversation(String conversationId, List<Message> messages) {
-        File file=getConversationFile(conversationId);
-        try(Output output=new Output(new FileOutputStream(file))){
-            kryo.writeObject(output,messages);
+    /**
+     * 旧版本用 Kryo 整体序列化，首次访问时转换为新格式
+     */
+    private void migrateLegacyFile(String conversationId, File file) {
+        File legacyFile=getLegacyConversationFile(conversationId);
+        if(file.exists()||!legacyFile.exists()){
+            return;
+        }
+        List<Message> messages;
+        try(Input input =new Input(new FileInputStream(legacyFile))){
+            messages=kryo.readObject(input,ArrayList.class);
+        }catch (IOException e){
+            e.printStackTrace();
+            return;
+        }
+        File tempFile=new File(BASE_DIR,conversationId+".msg.tmp");
+        try(OutputStream output=new BufferedOutputStream(new FileOutputStream(tempFile))){
+            output.write(MAGIC);
+            for(Message message:messages){
+                codec.write(output,message);
+            }
         } catch (IOException e) {
             e.printStackTrace();
+            return;
+        }
+        if(tempFile.renameTo(file)){
+            legacyFile.delete();
         }
-
-
     }
 
     private File getConversationFile(String conversationId) {
+        return new File(BASE_DIR,conversationId+".msg");
+    }
+
+    private File getLegacyConversationFile(String conversationId) {
         return new File(BASE_DIR,conversationId+".kryo");
     }
 }
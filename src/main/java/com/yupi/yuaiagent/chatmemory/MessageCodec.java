@@ -0,0 +1,229 @@
+package com.yupi.yuaiagent.chatmemory;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 对话消息的紧凑二进制编码（文件存储和 chat_memory.content_bin 共用）
+ * 每条记录自带长度，可以直接追加写入：
+ * <pre>
+ * 头部 1 字节：低 4 位为消息类型，最高位表示内容已压缩
+ * varint    ：内容 UTF-8 字节数
+ * [varint]  ：压缩后字节数（仅压缩时）
+ * 内容字节
+ * </pre>
+ * 内容超过阈值时用 Deflate（最快档、无 zlib 头）压缩，压缩后没有变小则保留原文。
+ * 内容长度上限为 {@link #MAX_CONTENT_LENGTH}，读取时先校验长度再分配缓冲区，损坏的长度字段不会导致申请超大内存。
+ * 与 MySQL 文本存储一样只保存消息类型和文本，不保存元数据。
+ */
+public class MessageCodec {
+
+    /**
+     * 默认压缩阈值（UTF-8 字节数）
+     */
+    public static final int DEFAULT_COMPRESS_THRESHOLD = 256;
+
+    /**
+     * 单条消息内容的最大 UTF-8 字节数
+     */
+    public static final int MAX_CONTENT_LENGTH = 16 * 1024 * 1024;
+
+    private static final int COMPRESSED_FLAG = 0x80;
+    private static final int TYPE_MASK = 0x0F;
+
+    private static final ThreadLocal<Deflater> DEFLATER =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final int compressThreshold;
+
+    /**
+     * @param compressThreshold 内容达到该字节数时尝试压缩，小于等于 0 表示不压缩
+     */
+    public MessageCodec(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    /**
+     * 把一条消息编码成独立的字节数组
+     */
+    public byte[] encode(Message message) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            write(out, message);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 解码 encode 生成的字节数组
+     */
+    public Message decode(byte[] bytes) {
+        try {
+            Message message = read(new ByteArrayInputStream(bytes));
+            if (message == null) {
+                throw new EOFException("空的消息记录");
+            }
+            return message;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 把一条消息追加写入输出流
+     */
+    public void write(OutputStream out, Message message) throws IOException {
+        String text = message.getText() != null ? message.getText() : "";
+        byte[] raw = text.getBytes(StandardCharsets.UTF_8);
+        if (raw.length > MAX_CONTENT_LENGTH) {
+            throw new IllegalArgumentException("消息内容超过 " + MAX_CONTENT_LENGTH + " 字节");
+        }
+        byte[] compressed = compressThreshold > 0 && raw.length >= compressThreshold ? deflate(raw) : null;
+
+        int type = typeCode(message.getMessageType());
+        if (compressed != null) {
+            out.write(type | COMPRESSED_FLAG);
+            writeVarint(out, raw.length);
+            writeVarint(out, compressed.length);
+            out.write(compressed);
+        } else {
+            out.write(type);
+            writeVarint(out, raw.length);
+            out.write(raw);
+        }
+    }
+
+    /**
+     * 从输入流读取一条消息，流已结束时返回 null，记录不完整时抛出 EOFException，长度字段超出上限时抛出 IOException
+     */
+    public Message read(InputStream in) throws IOException {
+        int header = in.read();
+        if (header < 0) {
+            return null;
+        }
+        int rawLength = readLength(in);
+        byte[] raw;
+        if ((header & COMPRESSED_FLAG) != 0) {
+            raw = inflate(readFully(in, readLength(in)), rawLength);
+        } else {
+            raw = readFully(in, rawLength);
+        }
+        return toMessage(header & TYPE_MASK, new String(raw, StandardCharsets.UTF_8));
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        // 输出超过原文长度时说明压缩无效，直接放弃
+        byte[] buffer = new byte[raw.length];
+        int length = 0;
+        while (!deflater.finished()) {
+            length += deflater.deflate(buffer, length, buffer.length - length);
+            if (length == buffer.length && !deflater.finished()) {
+                return null;
+            }
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+
+    private static byte[] inflate(byte[] compressed, int rawLength) throws IOException {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(compressed);
+        byte[] raw = new byte[rawLength];
+        try {
+            int length = 0;
+            while (length < rawLength) {
+                int n = inflater.inflate(raw, length, rawLength - length);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new EOFException("压缩内容不完整");
+                }
+                length += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("压缩内容已损坏", e);
+        }
+        return raw;
+    }
+
+    private static int readLength(InputStream in) throws IOException {
+        int length = readVarint(in);
+        if (length < 0 || length > MAX_CONTENT_LENGTH) {
+            throw new IOException("消息记录已损坏，长度超出上限：" + (length & 0xFFFFFFFFL));
+        }
+        return length;
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length < length) {
+            throw new EOFException("消息记录不完整");
+        }
+        return bytes;
+    }
+
+    /**
+     * 无符号 varint（每字节 7 位，最高位表示后面还有字节）
+     */
+    static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static int readVarint(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("消息记录不完整");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("varint 过长");
+    }
+
+    private static int typeCode(MessageType type) {
+        return switch (type) {
+            case USER -> 1;
+            case ASSISTANT -> 2;
+            case SYSTEM -> 3;
+            case TOOL -> 4;
+        };
+    }
+
+    private static Message toMessage(int typeCode, String content) {
+        return switch (typeCode) {
+            case 2 -> new AssistantMessage(content);
+            case 3 -> new SystemMessage(content);
+            // 工具消息只保存了文本，与 MySQL 文本存储一样按用户消息还原
+            default -> new UserMessage(content);
+        };
+    }
+}
@@ -1,16 +1,16 @@
 package com.yupi.yuaiagent.chatmemory;
 
 import org.springframework.ai.chat.memory.ChatMemory;
-import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
-import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.messages.SystemMessage;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
-
 import com.yupi.yuaiagent.mapper.ChatMemoryMapper;
 import com.yupi.yuaiagent.model.entity.ChatMemoryEntity;
+import com.yupi.yuaiagent.model.entity.ChatMemorySummaryEntity;
+import com.yupi.yuaiagent.model.vo.ChatHistoryPage;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -22,77 +22,134 @@ import java.util.List;
 @Component("mysqlChatMemory")  // 指定 Bean 名称
 public class MySQLChatMemory implements ChatMemory {
 
+    // 分页浏览时单页最大条数
+    private static final int MAX_PAGE_SIZE = 500;
+
+    private static final MessageCodec DECODER = new MessageCodec(0);
+
     @Autowired
     private ChatMemoryMapper chatMemoryMapper;
 
+    @Autowired
+    private ChatMemorySummarizer chatMemorySummarizer;
+
+    @Autowired
+    private ChatMemoryShardRouter chatMemoryShardRouter;
+
+    @Autowired
+    private ChatMemoryJdbcDao chatMemoryJdbcDao;
+
+    @Autowired
+    private ChatMemoryRetentionPurger chatMemoryRetentionPurger;
+
+    // 新消息的存储格式：text 写入 content 列，binary 用 MessageCodec 编码后写入 content_bin 列
+    // 读取时两种格式的行都能识别，切换格式不需要迁移旧数据
+    @Value("${yu-ai-agent.chat-memory.storage-format:text}")
+    private String storageFormat = "text";
+
+    private MessageCodec messageCodec = new MessageCodec(MessageCodec.DEFAULT_COMPRESS_THRESHOLD);
+
+    @Value("${yu-ai-agent.chat-memory.compress-threshold:" + MessageCodec.DEFAULT_COMPRESS_THRESHOLD + "}")
+    void setCompressThreshold(int compressThreshold) {
+        this.messageCodec = new MessageCodec(compressThreshold);
+    }
     
     @Override
     public void add(String conversationId, List<Message> messages) {
         log.info("保存对话到mysql，conversatonId：{},消息数{}",conversationId,messages.size());
+        //同一对话的所有读写都路由到同一个分片
+        chatMemoryShardRouter.run(conversationId, () -> doAdd(conversationId, messages));
+    }
 
-        //获取对话已有的消息数量
-        Long count=chatMemoryMapper.selectCount(
-            new QueryWrapper<ChatMemoryEntity>()
-                .eq("conversation_id",conversationId)
-        );
-        int startIndex=count.intValue();
-        
-        //批量插入新消息
-        for (int i = 0; i < messages.size(); i++) {
-            Message message=messages.get(i);
-            ChatMemoryEntity chatMemoryEntity=new ChatMemoryEntity();
-            chatMemoryEntity.setConversationId(conversationId);
-            chatMemoryEntity.setMessageIndex(startIndex + i);
-            chatMemoryEntity.setMessageType(message.getMessageType().getValue());
-            chatMemoryEntity.setContent(message.getText());
-
-            chatMemoryMapper.insert(chatMemoryEntity);
-        }
+    private void doAdd(String conversationId, List<Message> messages) {
+        //热点路径走 JDBC 直连：固定 SQL + PS 缓存，批量插入
+        MessageCodec binaryCodec = "binary".equalsIgnoreCase(storageFormat) ? messageCodec : null;
+        //索引从摘要（或清空标记）覆盖的位置之后续写：清空后旧消息全部删除时最大索引会回退
+        ChatMemorySummaryEntity summary = chatMemorySummarizer.getSummary(conversationId);
+        int minIndex = summary != null ? summary.getCoveredIndex() + 1 : 0;
+        int startIndex = chatMemoryJdbcDao.append(conversationId, messages, binaryCodec, minIndex);
+
+        //对话过长时在后台折叠早期消息为摘要，不阻塞当前请求
+        chatMemorySummarizer.summarizeAsync(conversationId, startIndex + messages.size() - 1);
     }
 
     @Override
     public List<Message> get(String conversationId, int lastN) {
         log.info("从 MySQL 获取对话, conversationId: {}, 最近 {} 条", conversationId, lastN);
-        List<ChatMemoryEntity> entities = chatMemoryMapper.selectList(
-            new QueryWrapper<ChatMemoryEntity>()
-                .eq("conversation_id", conversationId)
-                .orderByDesc("message_index")
-                .last("LIMIT " + lastN)
-        );
-         // 转换为 Message 对象（注意需要反转顺序）
+        return chatMemoryShardRouter.route(conversationId, () -> doGet(conversationId, lastN));
+    }
+
+    private List<Message> doGet(String conversationId, int lastN) {
+        //已被摘要覆盖的消息不再按原文回放
+        ChatMemorySummaryEntity summary = chatMemorySummarizer.getSummary(conversationId);
+        int afterIndex = summary != null ? summary.getCoveredIndex() : -1;
         List<Message> messages = new ArrayList<>();
-        for (int i = entities.size() - 1; i >= 0; i--) {
-            ChatMemoryEntity entity = entities.get(i);
-            Message message = convertToMessage(entity);
-            messages.add(message);
+        // 摘要为空表示对话被清空过，只隐藏旧消息
+        if (summary != null && !summary.getSummary().isBlank()) {
+            messages.add(new SystemMessage("以下是本次对话早期内容的摘要：\n" + summary.getSummary()));
+        }
+        //摘要也计入 lastN 条
+        int limit = lastN - messages.size();
+        if (limit > 0) {
+            messages.addAll(chatMemoryJdbcDao.findLatest(conversationId, afterIndex, limit));
         }
         return messages;
     }
 
     /**
-     * 将实体转换为 Message 对象
+     * 分页浏览对话历史（键集分页，按 messageIndex 升序）
+     *
+     * @param conversationId 对话 ID
+     * @param afterIndex 上一页返回的 nextIndex，首页传 null
+     * @param pageSize 每页条数
+     * @param metadataOnly 是否只查元数据（不读取 content）
+     * @return 分页结果
      */
-    private Message convertToMessage(ChatMemoryEntity entity) {
-        String type = entity.getMessageType();
-        String content = entity.getContent();
-        
-        if ("USER".equals(type)) {
-            return new UserMessage(content);
-        } else if ("ASSISTANT".equals(type)) {
-            return new AssistantMessage(content);
-        } else {
-            return new UserMessage(content);  // 默认返回用户消息
+    public ChatHistoryPage listHistory(String conversationId, Integer afterIndex, int pageSize, boolean metadataOnly) {
+        if (pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("pageSize 必须在 1 到 " + MAX_PAGE_SIZE + " 之间");
+        }
+        int requested = afterIndex != null ? afterIndex : -1;
+        // 已清空、尚未删除完的旧消息不再返回
+        ChatMemorySummaryEntity summary = chatMemorySummarizer.getSummary(conversationId);
+        int cursor = summary != null && summary.getSummary().isBlank()
+                ? Math.max(requested, summary.getCoveredIndex()) : requested;
+        // 多取一条用于判断是否还有下一页
+        List<ChatMemoryEntity> records = chatMemoryShardRouter.route(conversationId, () -> metadataOnly
+                ? chatMemoryMapper.selectMetaPageAfter(conversationId, cursor, pageSize + 1)
+                : chatMemoryMapper.selectPageAfter(conversationId, cursor, pageSize + 1));
+        boolean hasMore = records.size() > pageSize;
+        if (hasMore) {
+            records = records.subList(0, pageSize);
         }
+        for (ChatMemoryEntity record : records) {
+            if (record.getContentBin() != null) {
+                record.setContent(contentOf(record));
+                record.setContentBin(null);
+            }
+        }
+        Integer nextIndex = hasMore ? records.get(records.size() - 1).getMessageIndex() : null;
+        return new ChatHistoryPage(records, nextIndex, hasMore);
+    }
+
+    /**
+     * 取出一行的文本内容，兼容文本和二进制两种存储格式（解码与压缩阈值无关）
+     */
+    static String contentOf(ChatMemoryEntity entity) {
+        return entity.getContentBin() != null ? DECODER.decode(entity.getContentBin()).getText() : entity.getContent();
     }
 
     @Override
     public void clear(String conversationId) {
         log.info("清空 MySQL 对话记录, conversationId: {}", conversationId);
-        
-        chatMemoryMapper.delete(
-            new QueryWrapper<ChatMemoryEntity>()
-                .eq("conversation_id", conversationId)
-        );
+        //请求线程上只写隐藏标记，旧消息在后台分批删除，不会一次锁住整段对话
+        Integer maxIndex = chatMemoryShardRouter.route(conversationId, () -> chatMemoryJdbcDao.maxIndex(conversationId));
+        if (maxIndex == null) {
+            chatMemorySummarizer.clearSummary(conversationId);
+            return;
+        }
+        chatMemorySummarizer.markCleared(conversationId, maxIndex);
+        chatMemoryRetentionPurger.purgeConversationAsync(conversationId, maxIndex);
     }
 
 
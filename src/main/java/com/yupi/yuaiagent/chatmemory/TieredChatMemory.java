@@ -0,0 +1,435 @@
+package com.yupi.yuaiagent.chatmemory;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 分层对话记忆
+ * - 热层：活跃对话的最近消息缓存在内存，get 直接命中；条目超过 hotTtlMs 或有新摘要写入后重新回源
+ * - 温层：每次写入先追加到本地预写日志，保证进程崩溃不丢消息
+ * - 冷层：后台定时把日志中的消息批量写入 MySQL（权威存储），写完删除日志段
+ * 启动时先把上次未刷完的日志段重放到 MySQL（跳过检查点之前已落库的记录），再对外提供服务。
+ */
+@Slf4j
+@Component("tieredChatMemory")
+public class TieredChatMemory implements ChatMemory {
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final ChatMemory coldStore;
+    private final ChatMemoryWriteAheadLog writeAheadLog;
+    private final ChatMemorySummarizer chatMemorySummarizer;
+    private final long flushIntervalMs;
+    private final int maxHotConversations;
+    private final int maxHotMessages;
+    private final long hotTtlMs;
+
+    // 热层：按访问顺序淘汰最久未使用的对话
+    private final Map<String, HotConversation> hotConversations;
+    // 热层失效次数，回源期间有失效发生时不把结果放入热层（可能读到了旧摘要）
+    private final AtomicLong hotInvalidations = new AtomicLong();
+
+    // 按对话分段加锁：同一对话的写日志、入队和更新热层保持顺序，不同对话互不阻塞
+    private final Object[] conversationLocks = new Object[LOCK_STRIPES];
+
+    // 写日志 + 入队（读锁，可并发）与切换日志段（写锁）互斥，保证段内的记录和 flushing 中的操作一一对应
+    private final ReentrantReadWriteLock rotateLock = new ReentrantReadWriteLock();
+
+    // 尚未写入 MySQL 的操作（按对话分组，组内保持写入顺序），pendingLock 只保护这两个集合本身
+    private final Object pendingLock = new Object();
+    private Map<String, List<ChatMemoryWriteAheadLog.Entry>> pending = new LinkedHashMap<>();
+    private Map<String, List<ChatMemoryWriteAheadLog.Entry>> flushing = new LinkedHashMap<>();
+    private final List<Path> flushingSegments = new ArrayList<>();
+
+    // 冷层加载（读锁）与刷盘落库（写锁）互斥，避免同一批消息被重复或遗漏合并
+    private final ReentrantReadWriteLock coldLock = new ReentrantReadWriteLock();
+
+    private final ScheduledExecutorService flushScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "tiered-chat-memory-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public TieredChatMemory(@Qualifier("mysqlChatMemory") ChatMemory coldStore,
+                            ChatMemorySummarizer chatMemorySummarizer,
+                            @Value("${yu-ai-agent.chat-memory.tiered.wal-dir:}") String walDir,
+                            @Value("${yu-ai-agent.chat-memory.tiered.fsync:false}") boolean fsync,
+                            @Value("${yu-ai-agent.chat-memory.tiered.flush-interval-ms:1000}") long flushIntervalMs,
+                            @Value("${yu-ai-agent.chat-memory.tiered.max-hot-conversations:10000}") int maxHotConversations,
+                            @Value("${yu-ai-agent.chat-memory.tiered.max-hot-messages:100}") int maxHotMessages,
+                            @Value("${yu-ai-agent.chat-memory.tiered.hot-ttl-ms:300000}") long hotTtlMs) {
+        this(coldStore, chatMemorySummarizer,
+                walDir.isBlank() ? Paths.get(System.getProperty("user.dir"), "chat-memory", "wal") : Paths.get(walDir),
+                fsync, flushIntervalMs, maxHotConversations, maxHotMessages, hotTtlMs);
+    }
+
+    public TieredChatMemory(ChatMemory coldStore, Path walDir, boolean fsync, long flushIntervalMs,
+                            int maxHotConversations, int maxHotMessages) {
+        this(coldStore, null, walDir, fsync, flushIntervalMs, maxHotConversations, maxHotMessages, 300_000);
+    }
+
+    /**
+     * @param chatMemorySummarizer 冷层的摘要器，写入新摘要后让热层失效；为 null 时只靠 hotTtlMs 过期
+     * @param hotTtlMs             热层条目的最长存活时间，到期后重新回源（拿到最新摘要）
+     */
+    public TieredChatMemory(ChatMemory coldStore, ChatMemorySummarizer chatMemorySummarizer, Path walDir,
+                            boolean fsync, long flushIntervalMs, int maxHotConversations, int maxHotMessages,
+                            long hotTtlMs) {
+        this.coldStore = coldStore;
+        this.chatMemorySummarizer = chatMemorySummarizer;
+        this.writeAheadLog = new ChatMemoryWriteAheadLog(walDir, fsync);
+        this.flushIntervalMs = flushIntervalMs;
+        this.maxHotConversations = maxHotConversations;
+        this.maxHotMessages = maxHotMessages;
+        this.hotTtlMs = hotTtlMs;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            conversationLocks[i] = new Object();
+        }
+        this.hotConversations = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, HotConversation> eldest) {
+                return size() > TieredChatMemory.this.maxHotConversations;
+            }
+        };
+    }
+
+    /**
+     * 崩溃恢复：重放上次未刷入 MySQL 的日志段，然后启动后台刷盘
+     */
+    @PostConstruct
+    public void start() {
+        if (chatMemorySummarizer != null) {
+            // 新摘要覆盖了热层中的部分原文，旧摘要和这些原文不能再进入提示词
+            chatMemorySummarizer.addSummaryListener(this::invalidateHot);
+        }
+        recover();
+        if (flushIntervalMs > 0) {
+            flushScheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 按段重放日志，跳过检查点记录的已落库部分；每个对话写完立即更新检查点，重放中途崩溃也不会重复写入
+     */
+    void recover() {
+        Map<String, Long> flushed = writeAheadLog.flushedSeqs();
+        for (Path segment : writeAheadLog.segments()) {
+            List<ChatMemoryWriteAheadLog.Entry> entries = ChatMemoryWriteAheadLog.read(segment);
+            int replayed = 0;
+            for (Map.Entry<String, List<ChatMemoryWriteAheadLog.Entry>> group : groupByConversation(entries).entrySet()) {
+                long flushedSeq = flushed.getOrDefault(group.getKey(), -1L);
+                List<ChatMemoryWriteAheadLog.Entry> ops = group.getValue().stream()
+                        .filter(op -> op.seq() > flushedSeq)
+                        .toList();
+                if (!ops.isEmpty()) {
+                    applyAndCheckpoint(group.getKey(), ops);
+                    replayed += ops.size();
+                }
+            }
+            writeAheadLog.delete(segment);
+            log.info("重放预写日志 {}，记录 {} 条，跳过已落库 {} 条", segment.getFileName(), replayed,
+                    entries.size() - replayed);
+        }
+        writeAheadLog.resetFlushed();
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        synchronized (lockFor(conversationId)) {
+            rotateLock.readLock().lock();
+            try {
+                List<ChatMemoryWriteAheadLog.Entry> entries = new ArrayList<>(messages.size());
+                for (Message message : messages) {
+                    entries.add(writeAheadLog.append(ChatMemoryWriteAheadLog.Op.ADD, conversationId, message));
+                }
+                synchronized (pendingLock) {
+                    pending.computeIfAbsent(conversationId, k -> new ArrayList<>()).addAll(entries);
+                }
+            } finally {
+                rotateLock.readLock().unlock();
+            }
+            HotConversation hot = getHot(conversationId);
+            if (hot != null) {
+                hot.append(messages, maxHotMessages);
+            }
+        }
+    }
+
+    @Override
+    public List<Message> get(String conversationId, int lastN) {
+        HotConversation hot = getHot(conversationId);
+        if (hot != null) {
+            List<Message> messages = hot.lastN(lastN, System.currentTimeMillis() - hotTtlMs);
+            if (messages != null) {
+                return messages;
+            }
+        }
+        // 热层未命中或已过期：MySQL 中已落库的部分 + 尚未落库的操作
+        return loadFromColdStore(conversationId, lastN);
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        synchronized (lockFor(conversationId)) {
+            rotateLock.readLock().lock();
+            try {
+                ChatMemoryWriteAheadLog.Entry entry =
+                        writeAheadLog.append(ChatMemoryWriteAheadLog.Op.CLEAR, conversationId, null);
+                // 清空之前未落库的追加已无意义
+                List<ChatMemoryWriteAheadLog.Entry> ops = new ArrayList<>();
+                ops.add(entry);
+                synchronized (pendingLock) {
+                    pending.put(conversationId, ops);
+                }
+            } finally {
+                rotateLock.readLock().unlock();
+            }
+            putHot(conversationId, new HotConversation(List.of(), List.of(), true));
+        }
+    }
+
+    /**
+     * 让对话的热层条目失效，下次读取时重新回源
+     */
+    public void invalidateHot(String conversationId) {
+        hotInvalidations.incrementAndGet();
+        synchronized (hotConversations) {
+            hotConversations.remove(conversationId);
+        }
+    }
+
+    /**
+     * 把日志中的操作批量写入 MySQL，成功后删除对应日志段
+     */
+    public synchronized void flush() {
+        rotateLock.writeLock().lock();
+        try {
+            synchronized (pendingLock) {
+                if (flushing.isEmpty()) {
+                    if (pending.isEmpty()) {
+                        return;
+                    }
+                    flushing = pending;
+                    pending = new LinkedHashMap<>();
+                    Path segment = writeAheadLog.rotate();
+                    if (segment != null) {
+                        flushingSegments.add(segment);
+                    }
+                }
+            }
+        } finally {
+            rotateLock.writeLock().unlock();
+        }
+        // 上次失败的批次会原样重试；已成功的对话会从 flushing 中移除，不会重复写入
+        List<String> conversationIds;
+        synchronized (pendingLock) {
+            conversationIds = new ArrayList<>(flushing.keySet());
+        }
+        for (String conversationId : conversationIds) {
+            List<ChatMemoryWriteAheadLog.Entry> ops;
+            synchronized (pendingLock) {
+                ops = flushing.get(conversationId);
+            }
+            coldLock.writeLock().lock();
+            try {
+                applyAndCheckpoint(conversationId, ops);
+                synchronized (pendingLock) {
+                    flushing.remove(conversationId);
+                }
+            } finally {
+                coldLock.writeLock().unlock();
+            }
+        }
+        List<Path> done;
+        synchronized (pendingLock) {
+            done = new ArrayList<>(flushingSegments);
+            flushingSegments.clear();
+        }
+        done.forEach(writeAheadLog::delete);
+        // 剩下的只有正在写的段，其中的记录都还没落库，检查点可以清空
+        writeAheadLog.resetFlushed();
+        log.debug("分层对话记忆落库完成，对话 {} 个", conversationIds.size());
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("分层对话记忆落库失败，稍后重试", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flushScheduler.shutdown();
+        flushQuietly();
+        writeAheadLog.close();
+    }
+
+    private Object lockFor(String conversationId) {
+        return conversationLocks[Math.floorMod(conversationId.hashCode(), LOCK_STRIPES)];
+    }
+
+    private HotConversation getHot(String conversationId) {
+        synchronized (hotConversations) {
+            return hotConversations.get(conversationId);
+        }
+    }
+
+    private void putHot(String conversationId, HotConversation hot) {
+        synchronized (hotConversations) {
+            hotConversations.put(conversationId, hot);
+        }
+    }
+
+    private List<Message> loadFromColdStore(String conversationId, int lastN) {
+        coldLock.readLock().lock();
+        try {
+            long invalidations = hotInvalidations.get();
+            int size = Math.max(lastN, maxHotMessages);
+            // MySQL 返回的摘要计入条数，只包含摘要之后的原文
+            List<Message> cold = coldStore.get(conversationId, size);
+            List<Message> pinned = new ArrayList<>();
+            List<Message> messages = new ArrayList<>();
+            for (Message message : cold) {
+                // MySQL 返回的摘要（SYSTEM）固定保留在最前面
+                (message.getMessageType() == MessageType.SYSTEM ? pinned : messages).add(message);
+            }
+            boolean complete = cold.size() < size;
+            // 与 add 在同一把对话锁内放入热层，保证不会漏掉并发写入的消息
+            synchronized (lockFor(conversationId)) {
+                List<ChatMemoryWriteAheadLog.Entry> ops;
+                synchronized (pendingLock) {
+                    ops = new ArrayList<>(flushing.getOrDefault(conversationId, List.of()));
+                    ops.addAll(pending.getOrDefault(conversationId, List.of()));
+                }
+                for (ChatMemoryWriteAheadLog.Entry op : ops) {
+                    if (op.op() == ChatMemoryWriteAheadLog.Op.CLEAR) {
+                        pinned.clear();
+                        messages.clear();
+                        complete = true;
+                    } else {
+                        messages.add(op.message());
+                    }
+                }
+                HotConversation hot = new HotConversation(pinned, messages, complete);
+                hot.trim(maxHotMessages);
+                if (hotInvalidations.get() == invalidations) {
+                    putHot(conversationId, hot);
+                }
+            }
+            return window(pinned, messages, lastN);
+        } finally {
+            coldLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 写入冷层后记录检查点（对话已落库到的最大序号）
+     * 检查点写入前崩溃时这一批仍会重放，窗口只有一次文件追加
+     */
+    private void applyAndCheckpoint(String conversationId, List<ChatMemoryWriteAheadLog.Entry> ops) {
+        applyToColdStore(Map.of(conversationId, ops));
+        writeAheadLog.markFlushed(conversationId, ops.get(ops.size() - 1).seq());
+    }
+
+    /**
+     * 摘要计入 lastN：先放摘要，剩余名额给最近的原文
+     */
+    private static List<Message> window(List<Message> pinned, List<Message> messages, int lastN) {
+        List<Message> result = new ArrayList<>(pinned.subList(0, Math.min(pinned.size(), lastN)));
+        int rest = lastN - result.size();
+        result.addAll(messages.subList(Math.max(0, messages.size() - rest), messages.size()));
+        return result;
+    }
+
+    private void applyToColdStore(Map<String, List<ChatMemoryWriteAheadLog.Entry>> opsByConversation) {
+        for (Map.Entry<String, List<ChatMemoryWriteAheadLog.Entry>> entry : opsByConversation.entrySet()) {
+            String conversationId = entry.getKey();
+            List<Message> batch = new ArrayList<>();
+            for (ChatMemoryWriteAheadLog.Entry op : entry.getValue()) {
+                if (op.op() == ChatMemoryWriteAheadLog.Op.CLEAR) {
+                    batch.clear();
+                    coldStore.clear(conversationId);
+                } else {
+                    batch.add(op.message());
+                }
+            }
+            if (!batch.isEmpty()) {
+                coldStore.add(conversationId, batch);
+            }
+        }
+    }
+
+    private static Map<String, List<ChatMemoryWriteAheadLog.Entry>> groupByConversation(
+            List<ChatMemoryWriteAheadLog.Entry> entries) {
+        Map<String, List<ChatMemoryWriteAheadLog.Entry>> grouped = new LinkedHashMap<>();
+        for (ChatMemoryWriteAheadLog.Entry entry : entries) {
+            grouped.computeIfAbsent(entry.conversationId(), k -> new ArrayList<>()).add(entry);
+        }
+        return grouped;
+    }
+
+    /**
+     * 热层中的一个对话
+     */
+    private static class HotConversation {
+
+        private final List<Message> pinned;
+        private final List<Message> messages;
+        private final long loadedAt = System.currentTimeMillis();
+        // 是否持有完整历史（否则只能回答不超过 pinned.size() + messages.size() 条的查询）
+        private boolean complete;
+
+        HotConversation(List<Message> pinned, List<Message> messages, boolean complete) {
+            this.pinned = new ArrayList<>(pinned);
+            this.messages = new ArrayList<>(messages);
+            this.complete = complete;
+        }
+
+        synchronized void append(List<Message> newMessages, int maxMessages) {
+            messages.addAll(newMessages);
+            trim(maxMessages);
+        }
+
+        synchronized void trim(int maxMessages) {
+            if (messages.size() > maxMessages) {
+                messages.subList(0, messages.size() - maxMessages).clear();
+                complete = false;
+            }
+        }
+
+        /**
+         * @param loadedAfter 早于该时间加载的条目视为过期
+         * @return 最近 lastN 条消息（含摘要），热层数据不足或已过期时返回 null
+         */
+        synchronized List<Message> lastN(int lastN, long loadedAfter) {
+            if (loadedAt < loadedAfter) {
+                return null;
+            }
+            if (!complete && pinned.size() + messages.size() < lastN) {
+                return null;
+            }
+            return window(pinned, messages, lastN);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.yupi.yuaiagent.controller;
+
+import com.yupi.yuaiagent.chatmemory.MySQLChatMemory;
+import com.yupi.yuaiagent.model.vo.ChatHistoryPage;
+import jakarta.annotation.Resource;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * 对话历史浏览接口
+ */
+@RestController
+@RequestMapping("/chat-history")
+public class ChatHistoryController {
+
+    @Resource
+    private MySQLChatMemory mySQLChatMemory;
+
+    /**
+     * 分页浏览对话历史（键集分页）
+     *
+     * @param conversationId 对话 ID
+     * @param afterIndex 上一页返回的 nextIndex，首页不传
+     * @param pageSize 每页条数
+     * @param metadataOnly 是否只返回元数据（不含消息内容）
+     * @return 分页结果
+     */
+    @GetMapping("/{conversationId}")
+    public ChatHistoryPage listHistory(@PathVariable String conversationId,
+                                       @RequestParam(required = false) Integer afterIndex,
+                                       @RequestParam(defaultValue = "50") int pageSize,
+                                       @RequestParam(defaultValue = "false") boolean metadataOnly) {
+        return mySQLChatMemory.listHistory(conversationId, afterIndex, pageSize, metadataOnly);
+    }
+}
@@ -0,0 +1,33 @@
+package com.yupi.yuaiagent.controller;
+
+import com.yupi.yuaiagent.chatmemory.ChatMemoryShardRebalancer;
+import jakarta.annotation.Resource;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * 对话记忆运维接口
+ * 接口没有鉴权，默认不注册，需要时打开 yu-ai-agent.chat-memory.sharding.rebalance-endpoint-enabled
+ */
+@RestController
+@RequestMapping("/admin/chat-memory")
+@ConditionalOnProperty(prefix = "yu-ai-agent.chat-memory.sharding", name = "rebalance-endpoint-enabled", havingValue = "true")
+public class ChatMemoryAdminController {
+
+    @Resource
+    private ChatMemoryShardRebalancer chatMemoryShardRebalancer;
+
+    /**
+     * 按当前分片配置迁移对话（同步执行，耗时与需要移动的对话数成正比）
+     * 使用步骤：修改分片配置并重启 → 把流量切到本实例（或停写）→ 调用本接口 → 恢复流量。
+     * 中途失败可以直接重跑；返回结果中的 skippedConversations 需要人工处理。
+     *
+     * @return 迁移结果
+     */
+    @PostMapping("/rebalance")
+    public ChatMemoryShardRebalancer.RebalanceReport rebalance() {
+        return chatMemoryShardRebalancer.rebalance();
+    }
+}
@@ -0,0 +1,42 @@
+package com.yupi.yuaiagent.controller;
+
+import com.yupi.yuaiagent.app.VisionApp;
+import com.yupi.yuaiagent.llm.AdaptiveConcurrencyLimiter;
+import jakarta.annotation.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+
+/**
+ * 图片分析接口
+ */
+@RestController
+@RequestMapping("/vision")
+public class VisionController {
+
+    @Resource
+    private VisionApp visionApp;
+
+    /**
+     * 流式分析图片（SSE），不传问题时做 OCR
+     * 每个事件是一段增量文本，结束时发送 done 事件；模型服务并发已满时发送 busy 事件
+     *
+     * @param imagePath 图片路径（相对于 resources/images）
+     * @param question 用户问题
+     * @return SSE 事件流
+     */
+    @GetMapping(value = "/analyze/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> analyzeImageStream(@RequestParam String imagePath,
+                                                            @RequestParam(required = false) String question) {
+        String prompt = question == null || question.isBlank() ? VisionApp.AnalysisKind.TEXT.getQuestion() : question;
+        return visionApp.analyzeImageStream(imagePath, prompt)
+                .map(chunk -> ServerSentEvent.<String>builder().data(chunk).build())
+                .concatWith(Flux.just(ServerSentEvent.<String>builder().event("done").data("").build()))
+                .onErrorResume(AdaptiveConcurrencyLimiter.LimitExceededException.class, e -> Flux.just(
+                        ServerSentEvent.<String>builder().event("busy").data(e.getMessage()).build()));
+    }
+}
@@ -42,7 +42,11 @@ public class HttpAiInvoke {
         requestBody.put("parameters", parameters);
 
         // 发送请求
+        // 显式设置超时并复用连接（与应用内 ModelHttpTransport 的默认值一致）
         HttpResponse response = HttpRequest.post(url)
+                .keepAlive(true)
+                .setConnectionTimeout(3000)
+                .setReadTimeout(300000)
                 .addHeaders(headers)
                 .body(requestBody.toString())
                 .execute();
@@ -0,0 +1,331 @@
+package com.yupi.yuaiagent.job;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.yupi.yuaiagent.app.VisionApp;
+import com.yupi.yuaiagent.llm.AdaptiveConcurrencyLimiter;
+import com.yupi.yuaiagent.utils.ImageUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * 目录批量 OCR 任务
+ * 1. 递归扫描目录下的图片（按路径排序，保证每次顺序一致）
+ * 2. 每张图片一个虚拟线程，信号量限制同时调用模型的数量（同时也限制了排队任务数）
+ * 3. 结果逐行写入 JSONL 文件，该文件同时作为检查点：重启后跳过已成功的图片，失败的图片重新处理
+ * 4. 结束时汇总吞吐量和单张图片耗时分位数
+ */
+@Slf4j
+@Component
+public class ImageOcrBatchJob {
+
+    /**
+     * 任务报告
+     *
+     * @param scanned         扫描到的图片数
+     * @param skipped         检查点中已完成而跳过的图片数
+     * @param succeeded       本次成功数
+     * @param failed          本次失败数
+     * @param elapsedMs       本次耗时
+     * @param imagesPerSecond 本次吞吐量（成功 + 失败）
+     * @param p50Ms           单张图片耗时 P50
+     * @param p90Ms           单张图片耗时 P90
+     * @param p99Ms           单张图片耗时 P99
+     * @param maxMs           单张图片最大耗时
+     */
+    public record JobReport(int scanned, int skipped, int succeeded, int failed, long elapsedMs,
+                            double imagesPerSecond, long p50Ms, long p90Ms, long p99Ms, long maxMs) {
+    }
+
+    // 模型服务并发已满时的退避重试
+    private static final int MAX_BUSY_RETRIES = 5;
+    private static final long BUSY_BACKOFF_MS = 500;
+
+    private final Function<Path, String> analyzer;
+    private final int maxConcurrency;
+    private final int checkpointInterval;
+
+    private final Timer latencyTimer = Timer.builder("ai.vision.batch.latency")
+            .description("批量任务单张图片分析耗时")
+            .publishPercentiles(0.5, 0.9, 0.99)
+            .register(Metrics.globalRegistry);
+    private final Counter successCounter = Counter.builder("ai.vision.batch.images")
+            .tag("result", "success").register(Metrics.globalRegistry);
+    private final Counter failureCounter = Counter.builder("ai.vision.batch.images")
+            .tag("result", "failure").register(Metrics.globalRegistry);
+
+    @Autowired
+    public ImageOcrBatchJob(VisionApp visionApp,
+                            @Value("${yu-ai-agent.vision.batch.max-concurrency:4}") int maxConcurrency,
+                            @Value("${yu-ai-agent.vision.batch.checkpoint-interval:50}") int checkpointInterval) {
+        this(file -> visionApp.analyzeImageFile(file, VisionApp.AnalysisKind.TEXT.getQuestion()),
+                maxConcurrency, checkpointInterval);
+    }
+
+    /**
+     * @param analyzer           单张图片的分析函数
+     * @param maxConcurrency     同时调用模型的最大数量
+     * @param checkpointInterval 每写入多少条结果强制刷盘一次
+     */
+    public ImageOcrBatchJob(Function<Path, String> analyzer, int maxConcurrency, int checkpointInterval) {
+        this.analyzer = analyzer;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.checkpointInterval = Math.max(1, checkpointInterval);
+    }
+
+    /**
+     * 对项目根目录/images 下的全部图片做 OCR
+     *
+     * @param outputFile 结果 JSONL 文件
+     */
+    public JobReport run(Path outputFile) {
+        return run(ImageUtils.projectImageDir(), outputFile);
+    }
+
+    /**
+     * 对目录下的全部图片做 OCR，阻塞直到全部完成
+     *
+     * @param inputDir   图片目录（递归扫描）
+     * @param outputFile 结果 JSONL 文件，每行 {"path", "text", "latencyMs"} 或 {"path", "error", "latencyMs"}
+     * @return 任务报告
+     */
+    public JobReport run(Path inputDir, Path outputFile) {
+        Set<String> completed = loadCompleted(outputFile);
+        List<Path> images = scan(inputDir);
+        log.info("批量 OCR 开始：{}，共 {} 张图片，检查点中已完成 {} 张，并发上限 {}",
+                inputDir, images.size(), completed.size(), maxConcurrency);
+
+        Semaphore permits = new Semaphore(maxConcurrency);
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        long[] latencies = new long[images.size()];
+        AtomicInteger latencyCount = new AtomicInteger();
+        int skipped = 0;
+        long start = System.nanoTime();
+        try (JsonlSink sink = new JsonlSink(outputFile, checkpointInterval);
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Path image : images) {
+                String key = relativeKey(inputDir, image);
+                if (completed.contains(key)) {
+                    skipped++;
+                    continue;
+                }
+                try {
+                    // 拿到许可才提交，扫描不会跑在处理前面太多
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    log.warn("批量 OCR 被中断，等待进行中的图片完成后退出");
+                    break;
+                }
+                executor.execute(() -> {
+                    try {
+                        long latency = processOne(image, key, sink, succeeded, failed);
+                        latencies[latencyCount.getAndIncrement()] = latency;
+                        int done = succeeded.get() + failed.get();
+                        if (done % checkpointInterval == 0) {
+                            log.info("批量 OCR 进度：{} 张，成功 {}，失败 {}", done, succeeded.get(), failed.get());
+                        }
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+            // executor.close() 等待全部任务结束，之后 sink 才关闭
+        }
+
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long[] sorted = Arrays.copyOf(latencies, latencyCount.get());
+        Arrays.sort(sorted);
+        int processed = succeeded.get() + failed.get();
+        JobReport report = new JobReport(images.size(), skipped, succeeded.get(), failed.get(), elapsedMs,
+                elapsedMs == 0 ? processed : processed * 1000.0 / elapsedMs,
+                percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+                sorted.length == 0 ? 0 : sorted[sorted.length - 1]);
+        log.info("批量 OCR 完成：{}", report);
+        return report;
+    }
+
+    private long processOne(Path image, String key, JsonlSink sink, AtomicInteger succeeded, AtomicInteger failed) {
+        long start = System.nanoTime();
+        JSONObject line = new JSONObject();
+        line.set("path", key);
+        try {
+            String text = analyzeWithBackoff(image);
+            line.set("text", text);
+            succeeded.incrementAndGet();
+            successCounter.increment();
+        } catch (RuntimeException e) {
+            log.warn("图片 OCR 失败：{}，{}", key, e.getMessage());
+            line.set("error", String.valueOf(e.getMessage()));
+            failed.incrementAndGet();
+            failureCounter.increment();
+        }
+        long latencyNanos = System.nanoTime() - start;
+        latencyTimer.record(latencyNanos, TimeUnit.NANOSECONDS);
+        long latencyMs = TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+        line.set("latencyMs", latencyMs);
+        sink.write(line.toString());
+        return latencyMs;
+    }
+
+    /**
+     * 模型服务并发已满时退避重试：批量任务不着急，让出名额给在线请求
+     */
+    private String analyzeWithBackoff(Path image) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return analyzer.apply(image);
+            } catch (AdaptiveConcurrencyLimiter.LimitExceededException e) {
+                if (attempt >= MAX_BUSY_RETRIES) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(BUSY_BACKOFF_MS * attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static List<Path> scan(Path inputDir) {
+        try (Stream<Path> files = Files.walk(inputDir)) {
+            return files
+                    .filter(Files::isRegularFile)
+                    .filter(p -> ImageUtils.isImageFile(p.getFileName().toString()))
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("扫描图片目录失败：" + inputDir, e);
+        }
+    }
+
+    /**
+     * 读取已有结果，返回成功处理过的图片（失败的记录不算完成，下次重试）
+     */
+    private static Set<String> loadCompleted(Path outputFile) {
+        Set<String> completed = new HashSet<>();
+        if (!Files.exists(outputFile)) {
+            return completed;
+        }
+        try (Stream<String> lines = Files.lines(outputFile, StandardCharsets.UTF_8)) {
+            lines.forEach(line -> {
+                if (!JSONUtil.isTypeJSONObject(line)) {
+                    return;
+                }
+                try {
+                    JSONObject json = JSONUtil.parseObj(line);
+                    if (json.containsKey("text") && !json.containsKey("error")) {
+                        completed.add(json.getStr("path"));
+                    }
+                } catch (RuntimeException e) {
+                    // 崩溃时写了一半的行
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取检查点失败：" + outputFile, e);
+        }
+        return completed;
+    }
+
+    private static String relativeKey(Path inputDir, Path image) {
+        return inputDir.relativize(image).toString().replace('\\', '/');
+    }
+
+    static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    /**
+     * 追加写的 JSONL 结果文件，每 checkpointInterval 行强制刷盘一次
+     */
+    private static final class JsonlSink implements Closeable {
+
+        private final FileChannel channel;
+        private final int checkpointInterval;
+        private int unsynced;
+
+        JsonlSink(Path file, int checkpointInterval) {
+            this.checkpointInterval = checkpointInterval;
+            try {
+                if (file.getParent() != null) {
+                    Files.createDirectories(file.getParent());
+                }
+                this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                // 截掉崩溃时写了一半的最后一行，避免新记录拼接到它后面
+                channel.truncate(lastLineEnd(channel));
+                channel.position(channel.size());
+            } catch (IOException e) {
+                throw new UncheckedIOException("打开结果文件失败：" + file, e);
+            }
+        }
+
+        synchronized void write(String line) {
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (++unsynced >= checkpointInterval) {
+                    channel.force(false);
+                    unsynced = 0;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("写入结果文件失败", e);
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            try {
+                channel.force(false);
+                channel.close();
+            } catch (IOException e) {
+                log.error("关闭结果文件失败", e);
+            }
+        }
+
+        private static long lastLineEnd(FileChannel channel) throws IOException {
+            long position = channel.size();
+            ByteBuffer one = ByteBuffer.allocate(1);
+            while (position > 0) {
+                one.clear();
+                channel.read(one, position - 1);
+                if (one.get(0) == '\n') {
+                    return position;
+                }
+                position--;
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.yupi.yuaiagent.llm;
+
+import com.fasterxml.jackson.core.JacksonException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 模型调用的自适应并发限制（梯度算法，参考 Netflix concurrency-limits 的 Gradient2）
+ * - 基线 RTT：观察到的最小 RTT，近似空载时的耗时；每个样本上浮一点（drift），以适应模型、硬件变化
+ * - 每个样本计算梯度 = clamp(容忍度 × 基线 / 本次 RTT, 0.5, 1)，新上限 = 上限 × 梯度 + √上限，再做平滑
+ *   排队变长 -> RTT 升高 -> 梯度 < 1 -> 上限收缩；RTT 回落 -> 梯度为 1 -> 上限按 √上限 增长
+ * - 在途请求不到上限一半时不据此放大上限（负载低时的 RTT 不能说明还能承受更多并发）
+ * - 超时、5xx、连接错误视为过载信号，上限乘以 0.9；4xx、解析失败等与负载无关的错误不作为样本
+ * 超过上限的请求直接拒绝，不排队。
+ * 大模型的耗时与生成长度强相关，调用方应按 Token 数归一化后再上报 RTT。
+ */
+@Slf4j
+@Component
+public class AdaptiveConcurrencyLimiter {
+
+    /**
+     * 并发已达上限，请求被拒绝
+     */
+    public static class LimitExceededException extends RuntimeException {
+
+        public LimitExceededException(int limit) {
+            super("模型服务繁忙（并发上限 " + limit + "），请稍后再试");
+        }
+    }
+
+    /**
+     * 一次请求占用的并发名额，必须且只能调用一次 onSuccess / onError / onDropped / onIgnore
+     */
+    public final class Permit {
+
+        private final long startNanos = System.nanoTime();
+        private final int inFlightAtStart;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(int inFlightAtStart) {
+            this.inFlightAtStart = inFlightAtStart;
+        }
+
+        /**
+         * 请求成功
+         *
+         * @param cost 归一化用的工作量（如 Token 数），RTT 按 耗时 / cost 计算
+         */
+        public void onSuccess(long cost) {
+            if (released.compareAndSet(false, true)) {
+                inFlight.decrementAndGet();
+                sample((System.nanoTime() - startNanos) / Math.max(1, cost), inFlightAtStart, false);
+            }
+        }
+
+        /**
+         * 请求失败，按错误类型决定是否作为过载信号
+         */
+        public void onError(Throwable error) {
+            if (isOverload(error)) {
+                onDropped();
+            } else {
+                onIgnore();
+            }
+        }
+
+        /**
+         * 请求因过载失败（超时、5xx、连接错误）
+         */
+        public void onDropped() {
+            if (released.compareAndSet(false, true)) {
+                inFlight.decrementAndGet();
+                sample(0, inFlightAtStart, true);
+            }
+        }
+
+        /**
+         * 请求被取消，不作为样本
+         */
+        public void onIgnore() {
+            if (released.compareAndSet(false, true)) {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final boolean enabled;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double smoothing;
+    private final double baselineDrift;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile double limit;
+    private double baselineRttNanos;
+
+    private final Counter rejectedCounter = Counter.builder("ai.chat.limiter.rejected")
+            .description("超过自适应并发上限被拒绝的模型调用数")
+            .register(Metrics.globalRegistry);
+
+    /**
+     * @param enabled      是否限制（关闭时只统计在途请求数）
+     * @param initialLimit 初始并发上限
+     * @param minLimit     并发上限下限
+     * @param maxLimit     并发上限上限
+     * @param tolerance    RTT 超过基线多少倍之前不收缩
+     * @param smoothing    上限变化的平滑系数（0~1，越小越平稳）
+     * @param baselineDrift 每个样本基线 RTT 允许上浮的比例
+     */
+    public AdaptiveConcurrencyLimiter(@Value("${yu-ai-agent.limiter.enabled:true}") boolean enabled,
+                                      @Value("${yu-ai-agent.limiter.initial-limit:4}") int initialLimit,
+                                      @Value("${yu-ai-agent.limiter.min-limit:1}") int minLimit,
+                                      @Value("${yu-ai-agent.limiter.max-limit:32}") int maxLimit,
+                                      @Value("${yu-ai-agent.limiter.tolerance:1.5}") double tolerance,
+                                      @Value("${yu-ai-agent.limiter.smoothing:0.2}") double smoothing,
+                                      @Value("${yu-ai-agent.limiter.baseline-drift:0.0001}") double baselineDrift) {
+        this.enabled = enabled;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.smoothing = smoothing;
+        this.baselineDrift = baselineDrift;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        Gauge.builder("ai.chat.limiter.limit", this, AdaptiveConcurrencyLimiter::getLimit)
+                .description("模型调用当前的并发上限")
+                .register(Metrics.globalRegistry);
+        Gauge.builder("ai.chat.limiter.inflight", inFlight, AtomicInteger::get)
+                .description("模型调用在途请求数")
+                .register(Metrics.globalRegistry);
+        Gauge.builder("ai.chat.limiter.baseline.rtt", this, l -> l.getBaselineRttNanos() / 1_000_000.0)
+                .description("基线 RTT（毫秒，按 Token 归一化）")
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * 占用一个并发名额
+     *
+     * @return 名额，超过上限时返回 null
+     */
+    public Permit tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (enabled && current >= getLimit()) {
+                rejectedCounter.increment();
+                return null;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return new Permit(current + 1);
+            }
+        }
+    }
+
+    /**
+     * 错误是否说明模型服务过载：超时、5xx、连接错误（沿 cause 链查找）
+     * 4xx 是请求本身的问题，解析失败、业务异常与服务负载无关，都不收缩上限
+     */
+    static boolean isOverload(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if (e instanceof TimeoutException || e instanceof SocketTimeoutException
+                    || e instanceof HttpTimeoutException || e instanceof TransientAiException) {
+                return true;
+            }
+            if (e instanceof RestClientResponseException re) {
+                return re.getStatusCode().is5xxServerError();
+            }
+            if (e instanceof WebClientResponseException we) {
+                return we.getStatusCode().is5xxServerError();
+            }
+            if (e instanceof NonTransientAiException || e instanceof JacksonException) {
+                return false;
+            }
+            // 连接被拒绝、被重置、中途断开
+            if (e instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 当前并发上限
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public synchronized double getBaselineRttNanos() {
+        return baselineRttNanos;
+    }
+
+    synchronized void sample(long rttNanos, int inFlightAtStart, boolean dropped) {
+        double current = limit;
+        if (dropped) {
+            limit = Math.max(minLimit, current * BACKOFF_RATIO);
+            log.debug("模型调用失败，并发上限 {} -> {}", (int) current, (int) limit);
+            return;
+        }
+        if (rttNanos <= 0) {
+            return;
+        }
+        if (baselineRttNanos == 0 || rttNanos < baselineRttNanos) {
+            baselineRttNanos = rttNanos;
+        } else {
+            baselineRttNanos = Math.min(rttNanos, baselineRttNanos * (1 + baselineDrift));
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * baselineRttNanos / rttNanos));
+        if (gradient >= 1.0 && inFlightAtStart * 2 < current) {
+            // 负载低，不据此放大上限
+            return;
+        }
+        double target = current * gradient + Math.sqrt(current);
+        double next = current * (1 - smoothing) + target * smoothing;
+        limit = Math.max(minLimit, Math.min(maxLimit, next));
+    }
+}
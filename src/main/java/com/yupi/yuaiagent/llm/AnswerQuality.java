@@ -0,0 +1,61 @@
+package com.yupi.yuaiagent.llm;
+
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+
+import java.util.List;
+
+/**
+ * 回答质量的廉价判断（不额外调用模型）
+ * 分级路由用它决定是否升级到大模型，Re2 用它统计开启前后的质量差异。
+ */
+public final class AnswerQuality {
+
+    /**
+     * 回答正常
+     */
+    public static final String OK = "ok";
+
+    private static final String THINK_END = "</think>";
+
+    private AnswerQuality() {
+    }
+
+    /**
+     * 给回答打质量标记：空回答 empty、被截断 truncated、含低置信度措辞 hedged，正常时返回 null
+     *
+     * @param response             模型响应
+     * @param lowConfidencePhrases 回答中出现即视为置信度低的措辞
+     */
+    public static String flag(ChatResponse response, List<String> lowConfidencePhrases) {
+        Generation generation = response != null ? response.getResult() : null;
+        if (generation == null || generation.getOutput() == null) {
+            return "empty";
+        }
+        String finishReason = generation.getMetadata().getFinishReason();
+        if ("length".equalsIgnoreCase(finishReason)) {
+            return "truncated";
+        }
+        String text = answer(generation.getOutput().getText());
+        if (text.isBlank()) {
+            return "empty";
+        }
+        for (String phrase : lowConfidencePhrases) {
+            if (!phrase.isBlank() && text.contains(phrase)) {
+                return "hedged";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 去掉推理模型的思考过程
+     */
+    public static String answer(String text) {
+        if (text == null) {
+            return "";
+        }
+        int end = text.lastIndexOf(THINK_END);
+        return (end >= 0 ? text.substring(end + THINK_END.length()) : text).strip();
+    }
+}
@@ -0,0 +1,267 @@
+package com.yupi.yuaiagent.llm;
+
+import com.yupi.yuaiagent.advisor.AdaptiveReReadingAdvisor;
+import com.yupi.yuaiagent.advisor.PrefetchedDocumentsAdvisor;
+import com.yupi.yuaiagent.advisor.UserContextAdvisor;
+import com.yupi.yuaiagent.rag.Bm25Index;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 分级路由的 ChatModel：简单请求交给小模型，复杂请求交给大模型
+ * 按廉价的启发式规则分类（不额外调用模型）：
+ * 1. 要求结构化输出（JSON）或带工具的请求 -> 大模型
+ * 2. 问题包含复杂任务关键词（报告、分析……） -> 大模型
+ * 3. 短问题（问候、寒暄） -> 小模型
+ * 4. 问题命中 FAQ 知识库（BM25 覆盖率达标、命中的词占问题的比例达标，且第一名明显领先第二名） -> 小模型
+ * 5. 其他 -> 大模型
+ * 非流式调用时，小模型的回答置信度低（空回答、被截断、"不确定"等措辞、FAQ 问题回答过短）则升级到大模型重答；
+ * 流式输出已经推送给用户，不做升级。
+ * 小模型调用失败（模型未拉取、超时等）时，非流式调用和尚未输出内容的流式调用都改由大模型回答。
+ */
+@Slf4j
+public class CascadeChatModel implements ChatModel {
+
+    /**
+     * 模型档位
+     */
+    public enum Tier {
+        FAST, QUALITY
+    }
+
+    /**
+     * 路由结果
+     *
+     * @param tier   档位
+     * @param reason 命中的规则，作为指标标签
+     */
+    public record Route(Tier tier, String reason) {
+    }
+
+    private final ChatModel fastModel;
+    private final ChatModel qualityModel;
+    private final Bm25Index faqIndex;
+    private final int fastMaxChars;
+    private final double faqMinCoverage;
+    private final double faqMinTermCoverage;
+    private final double faqMinMargin;
+    private final List<String> qualityKeywords;
+    private final boolean escalateOnLowConfidence;
+    private final int minAnswerChars;
+    private final List<String> lowConfidencePhrases;
+
+    /**
+     * @param fastModel               小模型
+     * @param qualityModel            大模型
+     * @param faqIndex                FAQ 关键词索引，为 null 时不按知识库命中路由
+     * @param fastMaxChars            不超过该字数的问题视为简单问题
+     * @param faqMinCoverage          FAQ 第一名的查询词覆盖率达到该值视为命中
+     * @param faqMinTermCoverage      FAQ 第一名命中的词占问题全部词的比例不低于该值，避免长问题只命中一个常见词也被当作 FAQ
+     * @param faqMinMargin            FAQ 第一名得分至少是第二名的倍数
+     * @param qualityKeywords         出现即交给大模型的关键词
+     * @param escalateOnLowConfidence 小模型回答置信度低时是否升级到大模型
+     * @param minAnswerChars          FAQ 问题的回答少于该字数视为置信度低
+     * @param lowConfidencePhrases    回答中出现即视为置信度低的措辞
+     */
+    public CascadeChatModel(ChatModel fastModel, ChatModel qualityModel, Bm25Index faqIndex,
+                            int fastMaxChars, double faqMinCoverage, double faqMinTermCoverage, double faqMinMargin,
+                            List<String> qualityKeywords,
+                            boolean escalateOnLowConfidence, int minAnswerChars, List<String> lowConfidencePhrases) {
+        this.fastModel = fastModel;
+        this.qualityModel = qualityModel;
+        this.faqIndex = faqIndex;
+        this.fastMaxChars = fastMaxChars;
+        this.faqMinCoverage = faqMinCoverage;
+        this.faqMinTermCoverage = faqMinTermCoverage;
+        this.faqMinMargin = faqMinMargin;
+        this.qualityKeywords = qualityKeywords;
+        this.escalateOnLowConfidence = escalateOnLowConfidence;
+        this.minAnswerChars = minAnswerChars;
+        this.lowConfidencePhrases = lowConfidencePhrases;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        Route route = route(prompt);
+        requestCounter(route).increment();
+        long start = System.nanoTime();
+        if (route.tier() == Tier.QUALITY) {
+            ChatResponse response = qualityModel.call(prompt);
+            latencyTimer("quality").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return response;
+        }
+
+        ChatResponse response = null;
+        String escalation;
+        try {
+            response = fastModel.call(forFastModel(prompt));
+            escalation = escalateOnLowConfidence ? lowConfidenceReason(route, response) : null;
+        } catch (RuntimeException e) {
+            log.warn("小模型调用失败，改由大模型回答：{}", e.getMessage());
+            escalation = "fast_error";
+        }
+        if (escalation == null) {
+            latencyTimer("fast").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return response;
+        }
+        log.info("小模型回答需要升级（{}），改由大模型重答", escalation);
+        escalationCounter(escalation).increment();
+        response = qualityModel.call(prompt);
+        latencyTimer("escalated").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return response;
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        Route route = route(prompt);
+        requestCounter(route).increment();
+        if (route.tier() == Tier.QUALITY) {
+            return qualityModel.stream(prompt);
+        }
+        // 小模型还没有输出任何内容就失败时改由大模型回答，已输出部分内容则直接报错
+        AtomicBoolean emitted = new AtomicBoolean();
+        return fastModel.stream(forFastModel(prompt))
+                .doOnNext(response -> emitted.set(true))
+                .onErrorResume(e -> !emitted.get(), e -> {
+                    log.warn("小模型流式调用失败，改由大模型回答：{}", e.getMessage());
+                    escalationCounter("fast_error").increment();
+                    return qualityModel.stream(prompt);
+                });
+    }
+
+    /**
+     * ChatClient 会把 getDefaultOptions()（大模型的配置）复制进每个请求，
+     * 请求里的 model 会覆盖小模型自己的默认模型，这里换回小模型
+     */
+    private Prompt forFastModel(Prompt prompt) {
+        ChatOptions fastOptions = fastModel.getDefaultOptions();
+        if (!(prompt.getOptions() instanceof OllamaOptions options) || fastOptions == null
+                || fastOptions.getModel() == null) {
+            return prompt;
+        }
+        OllamaOptions copy = options.copy();
+        copy.setModel(fastOptions.getModel());
+        return new Prompt(prompt.getInstructions(), copy);
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return qualityModel.getDefaultOptions();
+    }
+
+    /**
+     * 按启发式规则为请求选择档位
+     */
+    public Route route(Prompt prompt) {
+        String systemText = "";
+        String userText = "";
+        for (Message message : prompt.getInstructions()) {
+            if (message.getMessageType() == MessageType.SYSTEM) {
+                systemText = message.getText();
+            } else if (message.getMessageType() == MessageType.USER) {
+                userText = message.getText();
+            }
+        }
+        if (prompt.getOptions() instanceof ToolCallingChatOptions options
+                && (!options.getToolCallbacks().isEmpty() || !options.getToolNames().isEmpty())) {
+            return new Route(Tier.QUALITY, "tools");
+        }
+        if (systemText != null && systemText.toLowerCase(Locale.ROOT).contains("json")) {
+            return new Route(Tier.QUALITY, "structured");
+        }
+        String question = question(userText);
+        for (String keyword : qualityKeywords) {
+            if (!keyword.isBlank() && question.contains(keyword)) {
+                return new Route(Tier.QUALITY, "keyword");
+            }
+        }
+        if (question.length() <= fastMaxChars) {
+            return new Route(Tier.FAST, "short");
+        }
+        if (faqIndex != null) {
+            List<Bm25Index.ScoredDocument> hits = faqIndex.search(question, 2);
+            if (Bm25Index.isConfident(hits, faqMinCoverage, faqMinMargin)
+                    && hits.get(0).termCoverage() >= faqMinTermCoverage) {
+                return new Route(Tier.FAST, "faq");
+            }
+        }
+        return new Route(Tier.QUALITY, "default");
+    }
+
+    /**
+     * 从最终的用户消息中取出用户原始问题：去掉前面的用户信息、Re2 重复的问题和后面拼接的知识库上下文
+     */
+    static String question(String userText) {
+        if (userText == null) {
+            return "";
+        }
+        String question = userText;
+        int marker = question.lastIndexOf(UserContextAdvisor.QUESTION_MARKER);
+        if (marker >= 0) {
+            question = question.substring(marker + UserContextAdvisor.QUESTION_MARKER.length());
+        }
+        int context = question.indexOf(PrefetchedDocumentsAdvisor.CONTEXT_MARKER);
+        if (context >= 0) {
+            question = question.substring(0, context);
+        }
+        int reread = question.indexOf(AdaptiveReReadingAdvisor.REREAD_MARKER);
+        if (reread >= 0) {
+            question = question.substring(0, reread);
+        }
+        return question.strip();
+    }
+
+    /**
+     * 判断小模型的回答是否需要升级，返回原因，置信度正常时返回 null
+     */
+    String lowConfidenceReason(Route route, ChatResponse response) {
+        String flag = AnswerQuality.flag(response, lowConfidencePhrases);
+        if (flag != null) {
+            return flag;
+        }
+        // 寒暄的回答本来就短，只对 FAQ 类问题检查长度
+        if ("faq".equals(route.reason())
+                && AnswerQuality.answer(response.getResult().getOutput().getText()).length() < minAnswerChars) {
+            return "too_short";
+        }
+        return null;
+    }
+
+    private static Counter requestCounter(Route route) {
+        return Counter.builder("ai.chat.cascade.requests")
+                .description("分级路由的请求数")
+                .tag("tier", route.tier().name().toLowerCase(Locale.ROOT))
+                .tag("reason", route.reason())
+                .register(Metrics.globalRegistry);
+    }
+
+    private static Counter escalationCounter(String reason) {
+        return Counter.builder("ai.chat.cascade.escalations")
+                .description("小模型回答置信度低、升级到大模型的次数")
+                .tag("reason", reason)
+                .register(Metrics.globalRegistry);
+    }
+
+    private static Timer latencyTimer(String tier) {
+        return Timer.builder("ai.chat.cascade.latency")
+                .description("分级路由的调用耗时，escalated 包含小模型和大模型两次调用")
+                .tag("tier", tier)
+                .register(Metrics.globalRegistry);
+    }
+}
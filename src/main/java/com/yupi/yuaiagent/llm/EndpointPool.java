@@ -0,0 +1,267 @@
+package com.yupi.yuaiagent.llm;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * 模型服务端点池：最少在途请求选择 + 被动健康检查
+ * - 选择在途请求数最少的健康端点，并列时轮询
+ * - 连续失败达到阈值的端点被摘除一段时间，到期后自动放回（下一次请求即为探测）
+ * - 所有端点都被摘除时，选择最早到期的端点，不直接拒绝请求
+ * 同时记录最近的成功耗时，用于计算对冲请求的延迟（p95）。
+ *
+ * @param <T> 端点上的客户端类型，如 ChatModel、EmbeddingModel
+ */
+@Slf4j
+public class EndpointPool<T> {
+
+    /**
+     * 一个端点
+     */
+    public static final class Endpoint<T> {
+
+        private final String name;
+        private final T client;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile long ejectedUntilNanos;
+
+        Endpoint(String name, T client) {
+            this.name = name;
+            this.client = client;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public T client() {
+            return client;
+        }
+
+        public int inFlight() {
+            return inFlight.get();
+        }
+    }
+
+    private final String metricPrefix;
+    private final Tags tags;
+    private final List<Endpoint<T>> endpoints;
+    private final int maxFailures;
+    private final long ejectNanos;
+    private final LongSupplier nanoClock;
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    // 最近成功请求的耗时（环形缓冲区）
+    private final long[] latencies;
+    private final AtomicLong latencyCount = new AtomicLong();
+
+    /**
+     * @param metricPrefix 指标名前缀，如 ai.ollama.chat
+     * @param clients      端点名（如 base-url） -> 客户端，按顺序
+     * @param maxFailures  连续失败多少次后摘除
+     * @param ejectMillis  摘除时长
+     * @param window       用于计算分位数的最近耗时样本数
+     */
+    public EndpointPool(String metricPrefix, List<Map.Entry<String, T>> clients,
+                        int maxFailures, long ejectMillis, int window) {
+        this(metricPrefix, Tags.empty(), clients, maxFailures, ejectMillis, window);
+    }
+
+    /**
+     * 同一组端点上有多个池（如小模型和大模型）时，用 tags（如 model）区分各池的指标
+     */
+    public EndpointPool(String metricPrefix, Tags tags, List<Map.Entry<String, T>> clients,
+                        int maxFailures, long ejectMillis, int window) {
+        this(metricPrefix, tags, clients, maxFailures, ejectMillis, window, System::nanoTime);
+    }
+
+    EndpointPool(String metricPrefix, List<Map.Entry<String, T>> clients,
+                 int maxFailures, long ejectMillis, int window, LongSupplier nanoClock) {
+        this(metricPrefix, Tags.empty(), clients, maxFailures, ejectMillis, window, nanoClock);
+    }
+
+    EndpointPool(String metricPrefix, Tags tags, List<Map.Entry<String, T>> clients,
+                 int maxFailures, long ejectMillis, int window, LongSupplier nanoClock) {
+        if (clients.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一个端点");
+        }
+        this.metricPrefix = metricPrefix;
+        this.tags = tags;
+        this.maxFailures = maxFailures;
+        this.ejectNanos = ejectMillis * 1_000_000L;
+        this.nanoClock = nanoClock;
+        this.latencies = new long[Math.max(1, window)];
+        List<Endpoint<T>> list = new ArrayList<>();
+        for (Map.Entry<String, T> entry : clients) {
+            Endpoint<T> endpoint = new Endpoint<>(entry.getKey(), entry.getValue());
+            Gauge.builder(metricPrefix + ".inflight", endpoint.inFlight, AtomicInteger::get)
+                    .description("端点在途请求数")
+                    .tags(tags)
+                    .tag("endpoint", endpoint.name)
+                    .register(Metrics.globalRegistry);
+            list.add(endpoint);
+        }
+        this.endpoints = List.copyOf(list);
+    }
+
+    /**
+     * 本池指标的公共标签
+     */
+    public Tags tags() {
+        return tags;
+    }
+
+    public List<Endpoint<T>> endpoints() {
+        return endpoints;
+    }
+
+    /**
+     * 选择端点并占用一个在途名额，用完必须调用 release
+     *
+     * @param exclude 不参与选择的端点（如对冲、重试时排除已用过的），全部被排除时返回 null
+     */
+    public Endpoint<T> acquire(Collection<Endpoint<T>> exclude) {
+        long now = nanoClock.getAsLong();
+        int start = Math.floorMod(cursor.getAndIncrement(), endpoints.size());
+        Endpoint<T> best = null;
+        Endpoint<T> soonest = null;
+        for (int i = 0; i < endpoints.size(); i++) {
+            Endpoint<T> endpoint = endpoints.get((start + i) % endpoints.size());
+            if (exclude.contains(endpoint)) {
+                continue;
+            }
+            if (endpoint.ejectedUntilNanos - now > 0) {
+                if (soonest == null || endpoint.ejectedUntilNanos - soonest.ejectedUntilNanos < 0) {
+                    soonest = endpoint;
+                }
+                continue;
+            }
+            if (best == null || endpoint.inFlight.get() < best.inFlight.get()) {
+                best = endpoint;
+            }
+        }
+        Endpoint<T> chosen = best != null ? best : soonest;
+        if (chosen != null) {
+            chosen.inFlight.incrementAndGet();
+        }
+        return chosen;
+    }
+
+    /**
+     * 归还在途名额并记录结果
+     *
+     * @param success       请求是否成功；被对冲取消的请求传 null，不影响健康状态
+     * @param elapsedNanos  请求耗时
+     */
+    public void release(Endpoint<T> endpoint, Boolean success, long elapsedNanos) {
+        endpoint.inFlight.decrementAndGet();
+        if (success == null) {
+            requestCounter(endpoint, "cancelled").increment();
+            return;
+        }
+        if (success) {
+            endpoint.consecutiveFailures.set(0);
+            endpoint.ejectedUntilNanos = 0;
+            long index = latencyCount.getAndIncrement();
+            latencies[(int) (index % latencies.length)] = elapsedNanos;
+            requestCounter(endpoint, "success").increment();
+            return;
+        }
+        requestCounter(endpoint, "failure").increment();
+        int failures = endpoint.consecutiveFailures.incrementAndGet();
+        if (failures >= maxFailures) {
+            endpoint.ejectedUntilNanos = nanoClock.getAsLong() + ejectNanos;
+            endpoint.consecutiveFailures.set(0);
+            Counter.builder(metricPrefix + ".ejections")
+                    .description("端点连续失败被摘除的次数")
+                    .tags(tags)
+                    .tag("endpoint", endpoint.name)
+                    .register(Metrics.globalRegistry)
+                    .increment();
+            log.warn("端点 {} 连续失败 {} 次，摘除 {} ms", endpoint.name, failures, ejectNanos / 1_000_000);
+        }
+    }
+
+    /**
+     * 在选中的端点上执行调用，失败时换一个端点重试，直到所有端点都试过
+     * 4xx 错误是请求本身的问题，不重试也不计入端点失败
+     */
+    public <R> R execute(Function<T, R> call) {
+        return execute(call, new HashSet<>());
+    }
+
+    /**
+     * 同 execute(call)，跳过 tried 中已经用过的端点，选中的端点会加入 tried
+     */
+    public <R> R execute(Function<T, R> call, Set<Endpoint<T>> tried) {
+        RuntimeException last = null;
+        Endpoint<T> endpoint;
+        while ((endpoint = acquire(tried)) != null) {
+            tried.add(endpoint);
+            long start = System.nanoTime();
+            try {
+                R result = call.apply(endpoint.client);
+                release(endpoint, true, System.nanoTime() - start);
+                return result;
+            } catch (HttpClientErrorException e) {
+                release(endpoint, true, System.nanoTime() - start);
+                throw e;
+            } catch (RuntimeException e) {
+                release(endpoint, false, System.nanoTime() - start);
+                log.warn("端点 {} 调用失败，换下一个端点：{}", endpoint.name, e.getMessage());
+                last = e;
+            }
+        }
+        if (last == null) {
+            throw new IllegalStateException("没有可用的端点");
+        }
+        throw last;
+    }
+
+    /**
+     * 端点当前是否被摘除
+     */
+    public boolean isEjected(Endpoint<T> endpoint) {
+        return endpoint.ejectedUntilNanos - nanoClock.getAsLong() > 0;
+    }
+
+    /**
+     * 最近成功请求耗时的分位数，样本不足 minSamples 时返回 -1
+     */
+    public long latencyPercentileNanos(double percentile, int minSamples) {
+        int size = (int) Math.min(latencyCount.get(), latencies.length);
+        if (size < Math.max(1, minSamples)) {
+            return -1;
+        }
+        long[] copy = Arrays.copyOf(latencies, size);
+        Arrays.sort(copy);
+        int index = (int) Math.ceil(percentile * size) - 1;
+        return copy[Math.max(0, Math.min(size - 1, index))];
+    }
+
+    private Counter requestCounter(Endpoint<T> endpoint, String outcome) {
+        return Counter.builder(metricPrefix + ".requests")
+                .description("端点请求数")
+                .tags(tags)
+                .tag("endpoint", endpoint.name)
+                .tag("outcome", outcome)
+                .register(Metrics.globalRegistry);
+    }
+}
@@ -0,0 +1,196 @@
+package com.yupi.yuaiagent.llm;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 在多个模型服务端点之间负载均衡的 ChatModel
+ * - 非流式调用：最少在途请求选端点，失败自动换端点；开启对冲时，主请求超过 p95 耗时仍未返回，
+ *   再向另一个端点发一份相同请求，先成功的结果生效，另一个被中断
+ * - 流式调用：只做端点选择，不对冲（已推送的内容无法撤回）
+ * 对冲会在服务端多占一份算力，只适合端点有空闲、更在意尾延迟的场景，默认关闭。
+ */
+@Slf4j
+public class LoadBalancedChatModel implements ChatModel {
+
+    private final EndpointPool<ChatModel> pool;
+    private final boolean hedgeEnabled;
+    private final long minHedgeDelayNanos;
+    private final long maxHedgeDelayNanos;
+    private final int hedgeMinSamples;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * @param pool             端点池
+     * @param hedgeEnabled     是否开启对冲
+     * @param minHedgeDelayMs  对冲延迟下限
+     * @param maxHedgeDelayMs  对冲延迟上限，耗时样本不足时使用
+     * @param hedgeMinSamples  计算 p95 需要的最少样本数
+     */
+    public LoadBalancedChatModel(EndpointPool<ChatModel> pool, boolean hedgeEnabled,
+                                 long minHedgeDelayMs, long maxHedgeDelayMs, int hedgeMinSamples) {
+        this.pool = pool;
+        this.hedgeEnabled = hedgeEnabled;
+        this.minHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(minHedgeDelayMs);
+        this.maxHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxHedgeDelayMs);
+        this.hedgeMinSamples = hedgeMinSamples;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        if (!hedgeEnabled || pool.endpoints().size() < 2) {
+            return pool.execute(model -> model.call(prompt));
+        }
+        return callHedged(prompt);
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return Flux.defer(() -> {
+            EndpointPool.Endpoint<ChatModel> endpoint = pool.acquire(Set.of());
+            if (endpoint == null) {
+                return Flux.error(new IllegalStateException("没有可用的端点"));
+            }
+            long start = System.nanoTime();
+            return endpoint.client().stream(prompt)
+                    .doFinally(signal -> pool.release(endpoint,
+                            signal == SignalType.CANCEL ? null : signal == SignalType.ON_COMPLETE,
+                            System.nanoTime() - start));
+        });
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return pool.endpoints().get(0).client().getDefaultOptions();
+    }
+
+    /**
+     * 当前的对冲延迟：最近成功请求耗时的 p95，限制在 [min, max] 之间
+     */
+    long hedgeDelayNanos() {
+        long p95 = pool.latencyPercentileNanos(0.95, hedgeMinSamples);
+        if (p95 < 0) {
+            return maxHedgeDelayNanos;
+        }
+        return Math.max(minHedgeDelayNanos, Math.min(maxHedgeDelayNanos, p95));
+    }
+
+    private ChatResponse callHedged(Prompt prompt) {
+        Set<EndpointPool.Endpoint<ChatModel>> used = ConcurrentHashMap.newKeySet();
+        Attempt primary = submit(prompt, used);
+        if (primary == null) {
+            throw new IllegalStateException("没有可用的端点");
+        }
+        try {
+            return primary.result.get(hedgeDelayNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // 主请求偏慢，发出对冲请求
+        } catch (ExecutionException e) {
+            // 主请求很快就失败了，按普通方式换端点重试
+            return pool.execute(model -> model.call(prompt), used);
+        } catch (InterruptedException e) {
+            primary.cancel();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待模型响应时被中断", e);
+        }
+
+        Attempt hedge = submit(prompt, used);
+        if (hedge == null) {
+            return join(primary.result);
+        }
+        log.info("端点 {} 超过对冲延迟未返回，向 {} 发出对冲请求", primary.endpoint.name(), hedge.endpoint.name());
+
+        CompletableFuture<Attempt> winner = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (Attempt attempt : List.of(primary, hedge)) {
+            attempt.result.whenComplete((response, error) -> {
+                if (error == null) {
+                    winner.complete(attempt);
+                } else if (failures.incrementAndGet() == 2) {
+                    winner.completeExceptionally(error);
+                }
+            });
+        }
+        try {
+            Attempt won = join(winner);
+            (won == primary ? hedge : primary).cancel();
+            hedgeCounter(won == primary ? "primary_won" : "hedge_won").increment();
+            return won.result.join();
+        } catch (RuntimeException e) {
+            hedgeCounter("both_failed").increment();
+            throw e;
+        }
+    }
+
+    private Attempt submit(Prompt prompt, Set<EndpointPool.Endpoint<ChatModel>> used) {
+        EndpointPool.Endpoint<ChatModel> endpoint = pool.acquire(used);
+        if (endpoint == null) {
+            return null;
+        }
+        used.add(endpoint);
+        Attempt attempt = new Attempt(endpoint);
+        attempt.task = executor.submit(() -> {
+            long start = System.nanoTime();
+            try {
+                ChatResponse response = endpoint.client().call(prompt);
+                pool.release(endpoint, attempt.cancelled.get() ? null : Boolean.TRUE, System.nanoTime() - start);
+                attempt.result.complete(response);
+            } catch (RuntimeException e) {
+                pool.release(endpoint, attempt.cancelled.get() ? null : Boolean.FALSE, System.nanoTime() - start);
+                attempt.result.completeExceptionally(e);
+            }
+        });
+        return attempt;
+    }
+
+    private static <R> R join(CompletableFuture<R> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : e;
+        }
+    }
+
+    private Counter hedgeCounter(String result) {
+        return Counter.builder("ai.ollama.chat.hedges")
+                .description("对冲请求的结果")
+                .tags(pool.tags())
+                .tag("result", result)
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * 发往一个端点的一次请求
+     */
+    private static final class Attempt {
+
+        private final EndpointPool.Endpoint<ChatModel> endpoint;
+        private final CompletableFuture<ChatResponse> result = new CompletableFuture<>();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private volatile Future<?> task;
+
+        Attempt(EndpointPool.Endpoint<ChatModel> endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        void cancel() {
+            cancelled.set(true);
+            if (task != null) {
+                task.cancel(true);
+            }
+        }
+    }
+}
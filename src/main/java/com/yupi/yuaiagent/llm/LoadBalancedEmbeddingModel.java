@@ -0,0 +1,29 @@
+package com.yupi.yuaiagent.llm;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+/**
+ * 在多个模型服务端点之间负载均衡的 EmbeddingModel
+ * 最少在途请求选端点，失败自动换端点；Embedding 请求耗时短，不做对冲。
+ */
+public class LoadBalancedEmbeddingModel implements EmbeddingModel {
+
+    private final EndpointPool<EmbeddingModel> pool;
+
+    public LoadBalancedEmbeddingModel(EndpointPool<EmbeddingModel> pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        return pool.execute(model -> model.call(request));
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return pool.execute(model -> model.embed(document));
+    }
+}
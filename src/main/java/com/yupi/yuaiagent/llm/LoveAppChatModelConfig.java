@@ -0,0 +1,114 @@
+package com.yupi.yuaiagent.llm;
+
+import com.yupi.yuaiagent.rag.Bm25Index;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.ollama.OllamaChatModel;
+import org.springframework.ai.ollama.OllamaEmbeddingModel;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LoveApp 使用的 ChatModel 和 EmbeddingModel
+ * - 配置了多个 Ollama 端点（yu-ai-agent.ollama.endpoints）时，按最少在途请求在端点之间负载均衡
+ * - 开启分级路由时，小模型与大模型共用同一组端点，只是模型名不同
+ */
+@Slf4j
+@Configuration
+public class LoveAppChatModelConfig {
+
+    @Autowired
+    private OllamaEndpointsProperties ollamaProperties;
+
+    // 已应用 ModelHttpClientConfig 中的连接池、超时和指标设置
+    @Autowired
+    private ObjectProvider<RestClient.Builder> restClientBuilderProvider;
+
+    @Autowired
+    private ObjectProvider<WebClient.Builder> webClientBuilderProvider;
+
+    @Bean
+    ChatModel loveAppChatModel(@Qualifier("ollamaChatModel") ChatModel ollamaChatModel,
+                               OllamaApi ollamaApi,
+                               Bm25Index loveAppBm25Index,
+                               @Value("${yu-ai-agent.cascade.enabled:false}") boolean enabled,
+                               @Value("${yu-ai-agent.cascade.fast-model:qwen3:0.6b}") String fastModelName,
+                               @Value("${yu-ai-agent.cascade.fast-max-chars:8}") int fastMaxChars,
+                               @Value("${yu-ai-agent.cascade.faq-min-coverage:0.6}") double faqMinCoverage,
+                               @Value("${yu-ai-agent.cascade.faq-min-term-coverage:0.2}") double faqMinTermCoverage,
+                               @Value("${yu-ai-agent.cascade.faq-min-margin:2.0}") double faqMinMargin,
+                               @Value("${yu-ai-agent.cascade.quality-keywords:报告,分析,计划,详细}") List<String> qualityKeywords,
+                               @Value("${yu-ai-agent.cascade.escalate-on-low-confidence:true}") boolean escalateOnLowConfidence,
+                               @Value("${yu-ai-agent.cascade.min-answer-chars:30}") int minAnswerChars,
+                               @Value("${yu-ai-agent.cascade.low-confidence-phrases:不确定,无法回答,不太清楚,can't answer}") List<String> lowConfidencePhrases) {
+        OllamaOptions qualityOptions = (OllamaOptions) ollamaChatModel.getDefaultOptions();
+        ChatModel qualityModel = ollamaProperties.isBalanced() ? balancedChatModel(qualityOptions) : ollamaChatModel;
+        if (!enabled) {
+            return qualityModel;
+        }
+        OllamaOptions fastOptions = OllamaOptions.fromOptions(qualityOptions);
+        fastOptions.setModel(fastModelName);
+        ChatModel fastModel = ollamaProperties.isBalanced() ? balancedChatModel(fastOptions) : OllamaChatModel.builder()
+                .ollamaApi(ollamaApi)
+                .defaultOptions(fastOptions)
+                .build();
+        log.info("LoveApp 开启分级路由：小模型 {}，大模型 {}", fastModelName, qualityOptions.getModel());
+        return new CascadeChatModel(fastModel, qualityModel, loveAppBm25Index, fastMaxChars, faqMinCoverage,
+                faqMinTermCoverage, faqMinMargin, qualityKeywords, escalateOnLowConfidence, minAnswerChars, lowConfidencePhrases);
+    }
+
+    @Bean
+    EmbeddingModel loveAppEmbeddingModel(@Qualifier("ollamaEmbeddingModel") EmbeddingModel ollamaEmbeddingModel,
+                                         @Value("${spring.ai.ollama.embedding.options.model:nomic-embed-text}") String model) {
+        if (!ollamaProperties.isBalanced()) {
+            return ollamaEmbeddingModel;
+        }
+        List<String> endpoints = ollamaProperties.getEndpoints();
+        OllamaOptions options = OllamaOptions.builder().model(model).build();
+        List<Map.Entry<String, EmbeddingModel>> clients = endpoints.stream()
+                .map(url -> Map.entry(url, (EmbeddingModel) OllamaEmbeddingModel.builder()
+                        .ollamaApi(ollamaApi(url))
+                        .defaultOptions(options)
+                        .build()))
+                .toList();
+        log.info("Embedding 在 {} 个 Ollama 端点之间负载均衡：{}", endpoints.size(), endpoints);
+        return new LoadBalancedEmbeddingModel(new EndpointPool<>("ai.ollama.embedding", Tags.of("model", model),
+                clients, ollamaProperties.getMaxFailures(), ollamaProperties.getEjectMs(), 1));
+    }
+
+    /**
+     * 小模型与大模型各用一个端点池，指标带上 model 标签区分
+     */
+    private ChatModel balancedChatModel(OllamaOptions options) {
+        List<String> endpoints = ollamaProperties.getEndpoints();
+        List<Map.Entry<String, ChatModel>> clients = endpoints.stream()
+                .map(url -> Map.entry(url, (ChatModel) OllamaChatModel.builder()
+                        .ollamaApi(ollamaApi(url))
+                        .defaultOptions(OllamaOptions.fromOptions(options))
+                        .build()))
+                .toList();
+        log.info("模型 {} 在 {} 个 Ollama 端点之间负载均衡：{}", options.getModel(), endpoints.size(), endpoints);
+        OllamaEndpointsProperties.Hedge hedge = ollamaProperties.getHedge();
+        return new LoadBalancedChatModel(
+                new EndpointPool<>("ai.ollama.chat", Tags.of("model", options.getModel()), clients,
+                        ollamaProperties.getMaxFailures(), ollamaProperties.getEjectMs(), 200),
+                hedge.isEnabled(), hedge.getMinDelayMs(), hedge.getMaxDelayMs(), hedge.getMinSamples());
+    }
+
+    private OllamaApi ollamaApi(String baseUrl) {
+        return new OllamaApi(baseUrl, restClientBuilderProvider.getObject(), webClientBuilderProvider.getObject());
+    }
+}
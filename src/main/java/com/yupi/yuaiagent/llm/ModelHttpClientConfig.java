@@ -0,0 +1,42 @@
+package com.yupi.yuaiagent.llm;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestClientCustomizer;
+import org.springframework.boot.web.reactive.function.client.WebClientCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * 模型服务 HTTP 传输层配置
+ * 通过 Customizer 作用于 Spring Boot 提供的 RestClient.Builder / WebClient.Builder，
+ * Ollama、DashScope 的自动配置以及手动创建的 OllamaApi、DashScopeApi 都使用这两个 Builder。
+ */
+@Slf4j
+@Configuration
+public class ModelHttpClientConfig {
+
+    @Bean
+    ModelHttpTransport modelHttpTransport(@Value("${yu-ai-agent.http.connect-timeout-ms:3000}") long connectTimeoutMs,
+                                          @Value("${yu-ai-agent.http.read-timeout-ms:300000}") long readTimeoutMs,
+                                          @Value("${yu-ai-agent.http.stream-idle-timeout-ms:60000}") long streamIdleTimeoutMs) {
+        // 连接保活时间由 ModelHttpKeepAliveEnvironmentPostProcessor 在启动时写入系统属性
+        String keepAliveSeconds = System.getProperty(ModelHttpKeepAliveEnvironmentPostProcessor.KEEP_ALIVE_PROPERTY);
+        log.info("模型服务 HTTP 传输层：建连超时 {} ms，响应超时 {} ms，流式空闲超时 {} ms，连接保活 {} s",
+                connectTimeoutMs, readTimeoutMs, streamIdleTimeoutMs, keepAliveSeconds);
+        return new ModelHttpTransport(Duration.ofMillis(connectTimeoutMs), Duration.ofMillis(readTimeoutMs),
+                Duration.ofMillis(streamIdleTimeoutMs));
+    }
+
+    @Bean
+    RestClientCustomizer modelRestClientCustomizer(ModelHttpTransport modelHttpTransport) {
+        return modelHttpTransport::customize;
+    }
+
+    @Bean
+    WebClientCustomizer modelWebClientCustomizer(ModelHttpTransport modelHttpTransport) {
+        return modelHttpTransport::customize;
+    }
+}
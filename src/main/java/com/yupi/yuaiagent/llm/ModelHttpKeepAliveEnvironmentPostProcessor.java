@@ -0,0 +1,23 @@
+package com.yupi.yuaiagent.llm;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.env.EnvironmentPostProcessor;
+import org.springframework.core.env.ConfigurableEnvironment;
+
+/**
+ * 启动时把 yu-ai-agent.http.keep-alive-seconds 写入 JDK HttpClient 的保活系统属性
+ * 该属性只能通过系统属性配置，且在第一个 HttpClient 创建时读取，因此在环境准备好、创建任何 Bean 之前设置。
+ * 已通过 -Djdk.httpclient.keepalive.timeout 指定时不覆盖。
+ */
+public class ModelHttpKeepAliveEnvironmentPostProcessor implements EnvironmentPostProcessor {
+
+    static final String KEEP_ALIVE_PROPERTY = "jdk.httpclient.keepalive.timeout";
+
+    @Override
+    public void postProcessEnvironment(ConfigurableEnvironment environment, SpringApplication application) {
+        String keepAliveSeconds = environment.getProperty("yu-ai-agent.http.keep-alive-seconds", "300");
+        if (System.getProperty(KEEP_ALIVE_PROPERTY) == null) {
+            System.setProperty(KEEP_ALIVE_PROPERTY, keepAliveSeconds);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.yupi.yuaiagent.llm;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.http.client.reactive.JdkClientHttpConnector;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.SignalType;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 模型服务共用的 HTTP 传输层（基于 JDK HttpClient）
+ * - 进程内共用两个 HttpClient，连接由 HttpClient 池化复用（keep-alive）
+ * - https（DashScope）走 HTTP/2，多个请求复用同一条连接；http（本地 Ollama）走 HTTP/1.1，避免 h2c 升级
+ * - 超时：建连超时、等待响应头超时（非流式调用要等整段生成完，需要足够长）、流式响应的空闲超时
+ * - 指标：每个主机的在途请求数和请求耗时（流式请求计到响应体结束）
+ * 通过 RestClient / WebClient 的 Builder 接入，Spring AI 的 OllamaApi、DashScopeApi 都用这两个 Builder 构建客户端。
+ */
+public class ModelHttpTransport {
+
+    private final HttpClient plainClient;
+    private final HttpClient tlsClient;
+    private final Duration readTimeout;
+    private final Duration streamIdleTimeout;
+    private final Map<String, AtomicInteger> activeRequests = new ConcurrentHashMap<>();
+
+    /**
+     * @param connectTimeout    建连超时
+     * @param readTimeout       等待响应头的超时
+     * @param streamIdleTimeout 流式响应两段数据之间的最长间隔
+     */
+    public ModelHttpTransport(Duration connectTimeout, Duration readTimeout, Duration streamIdleTimeout) {
+        this.readTimeout = readTimeout;
+        this.streamIdleTimeout = streamIdleTimeout;
+        this.plainClient = newClient(HttpClient.Version.HTTP_1_1, connectTimeout);
+        this.tlsClient = newClient(HttpClient.Version.HTTP_2, connectTimeout);
+    }
+
+    private static HttpClient newClient(HttpClient.Version version, Duration connectTimeout) {
+        return HttpClient.newBuilder()
+                .version(version)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    /**
+     * 同步客户端（RestClient）使用的请求工厂，按协议选择 HttpClient
+     */
+    public ClientHttpRequestFactory requestFactory() {
+        JdkClientHttpRequestFactory plain = new JdkClientHttpRequestFactory(plainClient);
+        plain.setReadTimeout(readTimeout);
+        JdkClientHttpRequestFactory tls = new JdkClientHttpRequestFactory(tlsClient);
+        tls.setReadTimeout(readTimeout);
+        return (uri, method) -> (isTls(uri) ? tls : plain).createRequest(uri, method);
+    }
+
+    /**
+     * 响应式客户端（WebClient，流式输出）使用的连接器，按协议选择 HttpClient
+     */
+    public ClientHttpConnector connector() {
+        JdkClientHttpConnector plain = new JdkClientHttpConnector(plainClient);
+        plain.setReadTimeout(readTimeout);
+        JdkClientHttpConnector tls = new JdkClientHttpConnector(tlsClient);
+        tls.setReadTimeout(readTimeout);
+        return (method, uri, callback) -> (isTls(uri) ? tls : plain).connect(method, uri, callback);
+    }
+
+    public void customize(RestClient.Builder builder) {
+        builder.requestFactory(requestFactory())
+                .requestInterceptor(metricsInterceptor());
+    }
+
+    public void customize(WebClient.Builder builder) {
+        builder.clientConnector(connector())
+                .filter(metricsAndIdleTimeoutFilter());
+    }
+
+    /**
+     * 主机当前的在途请求数
+     */
+    public int activeRequests(String host) {
+        AtomicInteger active = activeRequests.get(host);
+        return active != null ? active.get() : 0;
+    }
+
+    private ClientHttpRequestInterceptor metricsInterceptor() {
+        return (request, body, execution) -> {
+            String host = hostOf(request.getURI());
+            AtomicInteger active = active(host);
+            active.incrementAndGet();
+            long start = System.nanoTime();
+            String outcome = "error";
+            try {
+                var response = execution.execute(request, body);
+                outcome = String.valueOf(response.getStatusCode().value());
+                return response;
+            } finally {
+                active.decrementAndGet();
+                latencyTimer(host, "rest", outcome).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        };
+    }
+
+    private ExchangeFilterFunction metricsAndIdleTimeoutFilter() {
+        return (request, next) -> {
+            String host = hostOf(request.url());
+            AtomicInteger active = active(host);
+            active.incrementAndGet();
+            long start = System.nanoTime();
+            AtomicBoolean finished = new AtomicBoolean();
+            AtomicBoolean responded = new AtomicBoolean();
+            // 每个请求只计一次：响应体结束时，或者拿到响应前出错、被取消时
+            Consumer<String> finish = outcome -> {
+                if (finished.compareAndSet(false, true)) {
+                    active.decrementAndGet();
+                    latencyTimer(host, "web", outcome).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+            };
+            return next.exchange(request)
+                    .map(response -> {
+                        responded.set(true);
+                        String status = String.valueOf(response.statusCode().value());
+                        return response.mutate()
+                                // 流式响应长时间没有新数据视为连接卡死
+                                .body(body -> body.timeout(streamIdleTimeout)
+                                        .doFinally(signal -> finish.accept(status)))
+                                .build();
+                    })
+                    .doFinally(signal -> {
+                        if (!responded.get()) {
+                            finish.accept(signal == SignalType.CANCEL ? "cancel" : "error");
+                        }
+                    });
+        };
+    }
+
+    private AtomicInteger active(String host) {
+        return activeRequests.computeIfAbsent(host, h -> {
+            AtomicInteger counter = new AtomicInteger();
+            Gauge.builder("ai.http.client.active", counter, AtomicInteger::get)
+                    .description("模型服务 HTTP 客户端在途请求数")
+                    .tag("host", h)
+                    .register(Metrics.globalRegistry);
+            return counter;
+        });
+    }
+
+    private static Timer latencyTimer(String host, String client, String outcome) {
+        return Timer.builder("ai.http.client.latency")
+                .description("模型服务 HTTP 请求耗时，rest 计到响应头，web 计到响应体结束")
+                .tag("host", host)
+                .tag("client", client)
+                .tag("outcome", outcome)
+                .register(Metrics.globalRegistry);
+    }
+
+    private static boolean isTls(URI uri) {
+        return "https".equalsIgnoreCase(uri.getScheme());
+    }
+
+    private static String hostOf(URI uri) {
+        return uri.getPort() > 0 ? uri.getHost() + ":" + uri.getPort() : uri.getHost();
+    }
+}
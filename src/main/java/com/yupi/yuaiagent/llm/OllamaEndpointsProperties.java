@@ -0,0 +1,69 @@
+package com.yupi.yuaiagent.llm;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 多个 Ollama 端点负载均衡配置
+ * endpoints 既可以写成 YAML 列表，也可以写成逗号分隔的字符串；不配置或只配一个时直接使用 spring.ai.ollama.base-url。
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "yu-ai-agent.ollama")
+public class OllamaEndpointsProperties {
+
+    /**
+     * 端点 base-url 列表
+     */
+    private List<String> endpoints = new ArrayList<>();
+
+    /**
+     * 连续失败多少次后摘除端点
+     */
+    private int maxFailures = 3;
+
+    /**
+     * 摘除时长（毫秒），到期后自动放回
+     */
+    private long ejectMs = 30000;
+
+    /**
+     * 对冲配置
+     */
+    private Hedge hedge = new Hedge();
+
+    /**
+     * 是否配置了多个端点（需要负载均衡）
+     */
+    public boolean isBalanced() {
+        return endpoints != null && endpoints.size() > 1;
+    }
+
+    @Data
+    public static class Hedge {
+
+        /**
+         * 是否开启对冲
+         */
+        private boolean enabled = false;
+
+        /**
+         * 对冲延迟下限（毫秒）
+         */
+        private long minDelayMs = 500;
+
+        /**
+         * 对冲延迟上限（毫秒），耗时样本不足时使用
+         */
+        private long maxDelayMs = 30000;
+
+        /**
+         * 计算 p95 需要的最少样本数
+         */
+        private int minSamples = 20;
+    }
+}
@@ -3,9 +3,61 @@ package com.yupi.yuaiagent.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.yupi.yuaiagent.model.entity.ChatMemoryEntity;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+
+import java.util.List;
 
 @Mapper
 public interface ChatMemoryMapper extends BaseMapper<ChatMemoryEntity> {
-    
 
-}
\ No newline at end of file
+    /**
+     * 查询最近的消息（按索引倒序），只取 afterIndex 之后的部分
+     * LIMIT 使用参数绑定，命中 uk_conversation_index 后倒序扫描 limit 行
+     */
+    @Select("SELECT id, conversation_id, message_index, message_type, content, content_bin, create_time FROM chat_memory " +
+            "WHERE conversation_id = #{conversationId} AND message_index > #{afterIndex} " +
+            "ORDER BY message_index DESC LIMIT #{limit}")
+    List<ChatMemoryEntity> selectLatest(@Param("conversationId") String conversationId,
+                                        @Param("afterIndex") int afterIndex,
+                                        @Param("limit") int limit);
+
+    /**
+     * 键集分页：查询 afterIndex 之后的一页消息（含内容）
+     * 每页代价只与页大小有关，与已翻过的页数无关
+     */
+    @Select("SELECT id, conversation_id, message_index, message_type, content, content_bin, create_time FROM chat_memory " +
+            "WHERE conversation_id = #{conversationId} AND message_index > #{afterIndex} " +
+            "ORDER BY message_index ASC LIMIT #{limit}")
+    List<ChatMemoryEntity> selectPageAfter(@Param("conversationId") String conversationId,
+                                           @Param("afterIndex") int afterIndex,
+                                           @Param("limit") int limit);
+
+    /**
+     * 键集分页：只查元数据（不含 content），由 idx_conversation_meta 覆盖，无需回表
+     */
+    @Select("SELECT conversation_id, message_index, message_type, create_time FROM chat_memory " +
+            "WHERE conversation_id = #{conversationId} AND message_index > #{afterIndex} " +
+            "ORDER BY message_index ASC LIMIT #{limit}")
+    List<ChatMemoryEntity> selectMetaPageAfter(@Param("conversationId") String conversationId,
+                                               @Param("afterIndex") int afterIndex,
+                                               @Param("limit") int limit);
+
+    /**
+     * 把对话在本库中的所有消息索引整体后移 offset（分片迁移合并使用）
+     * offset 需大于现有最大索引，逐行更新时才不会撞上 uk_conversation_index
+     */
+    @Update("UPDATE chat_memory SET message_index = message_index + #{offset} WHERE conversation_id = #{conversationId}")
+    int shiftMessageIndex(@Param("conversationId") String conversationId, @Param("offset") int offset);
+
+    /**
+     * 键集分页：按 conversation_id 升序扫描本库中的对话 ID（分片迁移使用）
+     */
+    @Select("SELECT DISTINCT conversation_id FROM chat_memory " +
+            "WHERE conversation_id > #{afterConversationId} " +
+            "ORDER BY conversation_id ASC LIMIT #{limit}")
+    List<String> selectConversationIdsAfter(@Param("afterConversationId") String afterConversationId,
+                                            @Param("limit") int limit);
+
+}
@@ -0,0 +1,20 @@
+package com.yupi.yuaiagent.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.yupi.yuaiagent.model.entity.ChatMemorySummaryEntity;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+
+@Mapper
+public interface ChatMemorySummaryMapper extends BaseMapper<ChatMemorySummaryEntity> {
+
+    /**
+     * 仅当摘要覆盖到的最后一条消息仍然存在时插入摘要（对话已被清空并删完旧消息时插入 0 行）
+     * 已存在摘要行（例如并发写入的清空标记）时抛出主键冲突
+     */
+    @Insert("INSERT INTO chat_memory_summary (conversation_id, summary, covered_index, update_time) " +
+            "SELECT conversation_id, #{summary}, message_index, #{updateTime} FROM chat_memory " +
+            "WHERE conversation_id = #{conversationId} AND message_index = #{coveredIndex}")
+    int insertIfCovered(ChatMemorySummaryEntity entity);
+
+}
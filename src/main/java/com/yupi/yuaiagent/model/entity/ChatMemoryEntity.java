@@ -32,6 +32,11 @@ public class ChatMemoryEntity {
      * 消息内容（对应 Message.getContent()）
      */
     private String content;
+
+    /**
+     * 二进制存储时的消息内容（MessageCodec 编码），此时 content 为空字符串
+     */
+    private byte[] contentBin;
     
     /**
      * 创建时间
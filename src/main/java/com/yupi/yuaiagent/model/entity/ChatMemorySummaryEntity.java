@@ -0,0 +1,30 @@
+package com.yupi.yuaiagent.model.entity;
+
+import java.time.LocalDateTime;
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+
+@Data
+@TableName("chat_memory_summary")
+public class ChatMemorySummaryEntity {
+    /**
+     * 对话ID（一个对话只有一条摘要）
+     */
+    @TableId(type = IdType.INPUT)
+    private String conversationId;
+
+    /**
+     * 摘要内容（早期消息折叠后的文本）
+     */
+    private String summary;
+
+    /**
+     * 摘要已覆盖到的消息索引（含），之后的消息仍按原文回放
+     */
+    private Integer coveredIndex;
+
+    /**
+     * 更新时间
+     */
+    private LocalDateTime updateTime;
+}
@@ -0,0 +1,15 @@
+package com.yupi.yuaiagent.model.vo;
+
+import com.yupi.yuaiagent.model.entity.ChatMemoryEntity;
+
+import java.util.List;
+
+/**
+ * 对话历史分页结果（键集分页）
+ *
+ * @param records   当前页消息，按 messageIndex 升序；只查元数据时 content 为 null
+ * @param nextIndex 下一页的游标（传给 afterIndex），没有下一页时为 null
+ * @param hasMore   是否还有下一页
+ */
+public record ChatHistoryPage(List<ChatMemoryEntity> records, Integer nextIndex, boolean hasMore) {
+}
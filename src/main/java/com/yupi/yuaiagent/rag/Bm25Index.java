@@ -0,0 +1,177 @@
+package com.yupi.yuaiagent.rag;
+
+import org.springframework.ai.document.Document;
+
+import java.util.*;
+
+/**
+ * 进程内倒排索引 + BM25 打分
+ * 分词：连续汉字切成重叠的二元组（单个汉字保留为一元），字母数字按单词小写。
+ * 中文 FAQ 里的关键词（如"异地恋"、"彩礼"）大多是 2~4 字词，二元组能覆盖且不依赖词典。
+ * 索引构建后只读，可并发查询。
+ */
+public class Bm25Index {
+
+    /**
+     * 一条检索结果
+     *
+     * @param document 文档
+     * @param score    BM25 得分
+     * @param coverage     文档命中的查询词 IDF 之和占查询词（在索引中出现过的）IDF 总和的比例（0~1）
+     * @param termCoverage 文档命中的查询词个数占全部查询词（含未出现在任何文档的词）的比例（0~1），
+     *                     长问题只碰巧命中一个常见词时 coverage 可能为 1，termCoverage 仍然很低
+     */
+    public record ScoredDocument(Document document, double score, double coverage, double termCoverage) {
+    }
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final List<Document> documents;
+    // 词 -> 倒排列表（文档下标, 词频）
+    private final Map<String, List<int[]>> postings = new HashMap<>();
+    private final int[] docLengths;
+    private final double avgDocLength;
+
+    public Bm25Index(List<Document> documents) {
+        this.documents = List.copyOf(documents);
+        this.docLengths = new int[this.documents.size()];
+        long totalLength = 0;
+        for (int i = 0; i < this.documents.size(); i++) {
+            List<String> tokens = tokenize(indexText(this.documents.get(i)));
+            docLengths[i] = tokens.size();
+            totalLength += tokens.size();
+            Map<String, Integer> termFreq = new HashMap<>();
+            for (String token : tokens) {
+                termFreq.merge(token, 1, Integer::sum);
+            }
+            for (Map.Entry<String, Integer> entry : termFreq.entrySet()) {
+                postings.computeIfAbsent(entry.getKey(), k -> new ArrayList<>()).add(new int[]{i, entry.getValue()});
+            }
+        }
+        this.avgDocLength = this.documents.isEmpty() ? 0 : (double) totalLength / this.documents.size();
+    }
+
+    /**
+     * 建立索引的全部文档
+     */
+    public List<Document> documents() {
+        return documents;
+    }
+
+    /**
+     * 检索得分最高的 topK 个文档（只返回至少命中一个查询词的文档）
+     */
+    public List<ScoredDocument> search(String query, int topK) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(query));
+        double[] scores = new double[documents.size()];
+        double[] matchedIdf = new double[documents.size()];
+        int[] matchedTerms = new int[documents.size()];
+        double totalIdf = 0;
+        for (String term : terms) {
+            List<int[]> list = postings.get(term);
+            if (list == null) {
+                // 未出现在任何文档的词（多为跨词的二元组，如"理异"）不计入覆盖率
+                continue;
+            }
+            double idf = idf(list.size());
+            totalIdf += idf;
+            for (int[] posting : list) {
+                int doc = posting[0];
+                int tf = posting[1];
+                double norm = K1 * (1 - B + B * docLengths[doc] / avgDocLength);
+                scores[doc] += idf * tf * (K1 + 1) / (tf + norm);
+                matchedIdf[doc] += idf;
+                matchedTerms[doc]++;
+            }
+        }
+
+        PriorityQueue<Integer> top = new PriorityQueue<>(Comparator.comparingDouble(i -> scores[i]));
+        for (int i = 0; i < scores.length; i++) {
+            if (scores[i] <= 0) {
+                continue;
+            }
+            top.offer(i);
+            if (top.size() > topK) {
+                top.poll();
+            }
+        }
+        List<ScoredDocument> results = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            int doc = top.poll();
+            results.add(new ScoredDocument(documents.get(doc), scores[doc],
+                    totalIdf == 0 ? 0 : matchedIdf[doc] / totalIdf, (double) matchedTerms[doc] / terms.size()));
+        }
+        Collections.reverse(results);
+        return results;
+    }
+
+    /**
+     * 检索结果是否足够可信：第一名的覆盖率达标，且得分至少是第二名的 minMargin 倍（没有第二名时视为达标）
+     */
+    public static boolean isConfident(List<ScoredDocument> results, double minCoverage, double minMargin) {
+        if (results.isEmpty() || results.get(0).coverage() < minCoverage) {
+            return false;
+        }
+        return results.size() == 1 || results.get(0).score() >= minMargin * results.get(1).score();
+    }
+
+    /**
+     * 参与索引的文本：Markdown 标题（问题）+ 正文（回答）
+     */
+    private static String indexText(Document document) {
+        Object title = document.getMetadata().get("title");
+        return title == null ? document.getText() : title + "\n" + document.getText();
+    }
+
+    private double idf(int docFreq) {
+        int n = documents.size();
+        return Math.log(1 + (n - docFreq + 0.5) / (docFreq + 0.5));
+    }
+
+    /**
+     * 分词：汉字二元组 + 小写英文单词/数字
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        int i = 0;
+        int length = text.length();
+        while (i < length) {
+            int cp = text.codePointAt(i);
+            if (isCjk(cp)) {
+                int start = i;
+                while (i < length && isCjk(text.codePointAt(i))) {
+                    i += Character.charCount(text.codePointAt(i));
+                }
+                addCjkBigrams(text.substring(start, i), tokens);
+            } else if (Character.isLetterOrDigit(cp)) {
+                int start = i;
+                while (i < length && Character.isLetterOrDigit(text.codePointAt(i)) && !isCjk(text.codePointAt(i))) {
+                    i += Character.charCount(text.codePointAt(i));
+                }
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+            } else {
+                i += Character.charCount(cp);
+            }
+        }
+        return tokens;
+    }
+
+    private static void addCjkBigrams(String run, List<String> tokens) {
+        int[] cps = run.codePoints().toArray();
+        if (cps.length == 1) {
+            tokens.add(run);
+            return;
+        }
+        for (int j = 0; j + 1 < cps.length; j++) {
+            tokens.add(new String(cps, j, 2));
+        }
+    }
+
+    private static boolean isCjk(int cp) {
+        return Character.UnicodeScript.of(cp) == Character.UnicodeScript.HAN;
+    }
+}
@@ -0,0 +1,93 @@
+package com.yupi.yuaiagent.rag;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
+
+import java.text.Normalizer;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 带过期时间的检索结果缓存（装饰任意 DocumentRetriever）
+ * key 为归一化后的查询：全角转半角、英文转小写、合并空白、去掉末尾标点，
+ * "怎么表白？" 和 "怎么表白" 命中同一条缓存。
+ * 内存 LRU，超过条数上限淘汰最久未使用的条目。
+ */
+public class CachingDocumentRetriever implements DocumentRetriever {
+
+    private record Entry(List<Document> documents, long expireAtMillis) {
+    }
+
+    private final DocumentRetriever delegate;
+    private final long ttlMillis;
+    private final Clock clock;
+    private final Map<String, Entry> cache;
+
+    private final Counter hitCounter = Counter.builder("ai.rag.cache.requests")
+            .tag("result", "hit").register(Metrics.globalRegistry);
+    private final Counter missCounter = Counter.builder("ai.rag.cache.requests")
+            .tag("result", "miss").register(Metrics.globalRegistry);
+
+    public CachingDocumentRetriever(DocumentRetriever delegate, Duration ttl, int maxEntries) {
+        this(delegate, ttl, maxEntries, Clock.systemUTC());
+    }
+
+    CachingDocumentRetriever(DocumentRetriever delegate, Duration ttl, int maxEntries, Clock clock) {
+        this.delegate = delegate;
+        this.ttlMillis = ttl.toMillis();
+        this.clock = clock;
+        this.cache = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public List<Document> retrieve(Query query) {
+        String key = normalize(query.text());
+        long now = clock.millis();
+        synchronized (cache) {
+            Entry entry = cache.get(key);
+            if (entry != null && entry.expireAtMillis() > now) {
+                hitCounter.increment();
+                return entry.documents();
+            }
+            if (entry != null) {
+                cache.remove(key);
+            }
+        }
+        missCounter.increment();
+        // 远程调用不持锁，同一问题并发未命中时可能重复检索，结果相同无副作用
+        List<Document> documents = List.copyOf(delegate.retrieve(query));
+        synchronized (cache) {
+            cache.put(key, new Entry(documents, clock.millis() + ttlMillis));
+        }
+        return documents;
+    }
+
+    /**
+     * 清空缓存（知识库更新后调用）
+     */
+    public void invalidateAll() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    static String normalize(String text) {
+        String normalized = Normalizer.normalize(text == null ? "" : text, Normalizer.Form.NFKC)
+                .toLowerCase(Locale.ROOT)
+                .replaceAll("\\s+", " ")
+                .strip();
+        return normalized.replaceAll("[\\p{Punct}。，、！？；：…~]+$", "");
+    }
+}
@@ -0,0 +1,261 @@
+package com.yupi.yuaiagent.rag;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.retrieval.join.DocumentJoiner;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 检索结果压缩：在检索之后、拼装提示词之前缩短上下文，减少本地模型的 prefill 耗时
+ * 1. 去重：文档切成句子，重复或高度相似（二元组 Jaccard ≥ 0.8）的句子只保留第一次出现
+ * 2. 相关性：按与问题共有的词（汉字二元组 / 英文单词）数量给句子打分，只保留命中问题的句子
+ * 3. 预算：按得分从高到低装入，总字符数不超过 maxChars；单句就超过预算时截断得分最高的一句
+ * 4. 输出时恢复原文档和原句顺序，句子之间保留原文的换行（标题、列表项不会粘连）
+ * 统计压缩比、节省的 Token 数，并按本地模型 prefill 速度估算节省的耗时。
+ * 同时实现 DocumentJoiner，可直接挂到 RetrievalAugmentationAdvisor 上。
+ */
+@Slf4j
+@Component
+public class ContextCompressor implements DocumentJoiner {
+
+    /**
+     * 压缩结果
+     *
+     * @param documents        压缩后的文档（保留原 ID 和元数据）
+     * @param originalChars    压缩前字符数
+     * @param compressedChars  压缩后字符数
+     * @param savedTokens      节省的 Token 数（估算）
+     * @param savedPrefillMs   按 prefill 速度估算节省的耗时
+     */
+    public record CompressionResult(List<Document> documents, int originalChars, int compressedChars,
+                                    int savedTokens, double savedPrefillMs) {
+
+        public double ratio() {
+            return originalChars == 0 ? 1.0 : (double) compressedChars / originalChars;
+        }
+    }
+
+    /**
+     * @param separator 原文中句子后面的分隔：换行为 "\n"，空格为 " "，否则为空
+     */
+    private record Sentence(int docIndex, int position, String text, String separator, Set<String> tokens) {
+    }
+
+    private static final double DUPLICATE_JACCARD = 0.8;
+    private static final TokenCountEstimator TOKEN_ESTIMATOR = new JTokkitTokenCountEstimator();
+
+    private final boolean enabled;
+    private final int maxChars;
+    private final double prefillTokensPerSecond;
+
+    private final DistributionSummary ratioSummary = DistributionSummary.builder("ai.rag.compression.ratio")
+            .description("压缩后与压缩前的字符数之比")
+            .register(Metrics.globalRegistry);
+    private final DistributionSummary savedTokensSummary = DistributionSummary.builder("ai.rag.compression.saved.tokens")
+            .description("压缩节省的 Token 数（估算）")
+            .register(Metrics.globalRegistry);
+    private final DistributionSummary savedPrefillSummary = DistributionSummary.builder("ai.rag.compression.saved.prefill")
+            .description("按 prefill 速度估算节省的耗时")
+            .baseUnit("milliseconds")
+            .register(Metrics.globalRegistry);
+    private final Timer compressTimer = Timer.builder("ai.rag.compression.time")
+            .description("压缩本身的耗时")
+            .register(Metrics.globalRegistry);
+
+    public ContextCompressor(@Value("${yu-ai-agent.rag.compression.enabled:true}") boolean enabled,
+                             @Value("${yu-ai-agent.rag.compression.max-chars:1200}") int maxChars,
+                             @Value("${yu-ai-agent.rag.compression.prefill-tokens-per-second:400}") double prefillTokensPerSecond) {
+        this.enabled = enabled;
+        this.maxChars = maxChars;
+        this.prefillTokensPerSecond = prefillTokensPerSecond;
+    }
+
+    /**
+     * 按问题压缩检索结果
+     *
+     * @param query     用户问题
+     * @param documents 检索结果（按相关性排序）
+     * @return 压缩结果
+     */
+    public CompressionResult compress(String query, List<Document> documents) {
+        int originalChars = documents.stream().mapToInt(d -> length(d.getText())).sum();
+        if (!enabled || documents.isEmpty()) {
+            return new CompressionResult(documents, originalChars, originalChars, 0, 0);
+        }
+        long start = System.nanoTime();
+
+        //1、切句并去重
+        List<Sentence> sentences = new ArrayList<>();
+        for (int i = 0; i < documents.size(); i++) {
+            for (Sentence sentence : split(i, String.valueOf(documents.get(i).getText()))) {
+                if (sentences.stream().noneMatch(kept -> isDuplicate(kept, sentence))) {
+                    sentences.add(sentence);
+                }
+            }
+        }
+
+        //2、按与问题共有的词数打分，只保留命中问题的句子；都没命中时保留排名第一文档的开头
+        Set<String> queryTokens = new HashSet<>(Bm25Index.tokenize(query));
+        Map<Sentence, Integer> scores = new HashMap<>();
+        for (Sentence sentence : sentences) {
+            int overlap = 0;
+            for (String token : sentence.tokens()) {
+                if (queryTokens.contains(token)) {
+                    overlap++;
+                }
+            }
+            if (overlap > 0) {
+                scores.put(sentence, overlap);
+            }
+        }
+        List<Sentence> candidates = new ArrayList<>(scores.keySet());
+        if (candidates.isEmpty()) {
+            sentences.stream().filter(s -> s.docIndex() == sentences.get(0).docIndex()).forEach(candidates::add);
+        }
+        candidates.sort(Comparator.comparingInt((Sentence s) -> -scores.getOrDefault(s, 0))
+                .thenComparingInt(Sentence::docIndex)
+                .thenComparingInt(Sentence::position));
+
+        //3、在字符预算内按得分装入
+        List<Sentence> selected = new ArrayList<>();
+        int usedChars = 0;
+        for (Sentence sentence : candidates) {
+            int chars = sentence.text().length() + sentence.separator().length();
+            if (usedChars + chars > maxChars) {
+                continue;
+            }
+            selected.add(sentence);
+            usedChars += chars;
+        }
+        if (selected.isEmpty() && !candidates.isEmpty()) {
+            // 单句超过预算时截断得分最高的一句，避免整段上下文被压缩为空
+            Sentence top = candidates.get(0);
+            selected.add(new Sentence(top.docIndex(), top.position(), truncate(top.text(), maxChars), "", top.tokens()));
+        }
+
+        //4、恢复原文档和原句顺序
+        selected.sort(Comparator.comparingInt(Sentence::docIndex).thenComparingInt(Sentence::position));
+        List<Document> compressed = new ArrayList<>();
+        Map<Integer, StringBuilder> texts = new LinkedHashMap<>();
+        for (Sentence sentence : selected) {
+            texts.computeIfAbsent(sentence.docIndex(), k -> new StringBuilder())
+                    .append(sentence.text()).append(sentence.separator());
+        }
+        texts.forEach((docIndex, text) -> {
+            Document original = documents.get(docIndex);
+            compressed.add(new Document(original.getId(), text.toString().strip(), original.getMetadata()));
+        });
+
+        int compressedChars = compressed.stream().mapToInt(d -> length(d.getText())).sum();
+        int savedTokens = Math.max(0, estimate(documents) - estimate(compressed));
+        double savedPrefillMs = prefillTokensPerSecond > 0 ? savedTokens * 1000.0 / prefillTokensPerSecond : 0;
+        CompressionResult result = new CompressionResult(compressed, originalChars, compressedChars, savedTokens, savedPrefillMs);
+
+        long elapsed = System.nanoTime() - start;
+        compressTimer.record(elapsed, TimeUnit.NANOSECONDS);
+        ratioSummary.record(result.ratio());
+        savedTokensSummary.record(savedTokens);
+        savedPrefillSummary.record(savedPrefillMs);
+        log.info("检索上下文压缩：{} -> {} 字符（{}%），节省约 {} Token、prefill 约 {} ms，压缩耗时 {} ms",
+                originalChars, compressedChars, Math.round(result.ratio() * 100), savedTokens,
+                Math.round(savedPrefillMs), String.format("%.2f", elapsed / 1_000_000.0));
+        return result;
+    }
+
+    /**
+     * 合并多个查询的检索结果（按文档 ID 去重）后压缩，用于 RetrievalAugmentationAdvisor
+     */
+    @Override
+    public List<Document> join(Map<Query, List<List<Document>>> documentsForQuery) {
+        Map<String, Document> merged = new LinkedHashMap<>();
+        documentsForQuery.values().stream()
+                .flatMap(List::stream)
+                .flatMap(List::stream)
+                .forEach(document -> merged.putIfAbsent(document.getId(), document));
+        String query = documentsForQuery.keySet().stream().findFirst().map(Query::text).orElse("");
+        return compress(query, new ArrayList<>(merged.values())).documents();
+    }
+
+    /**
+     * 按句末标点和换行切句，记录每句后面的分隔
+     */
+    private static List<Sentence> split(int docIndex, String text) {
+        List<Sentence> sentences = new ArrayList<>();
+        List<StringBuilder> separators = new ArrayList<>();
+        String[] parts = text.split("(?<=[。！？；!?;\\n])");
+        for (int j = 0; j < parts.length; j++) {
+            String part = parts[j];
+            String stripped = part.strip();
+            int begin = stripped.isEmpty() ? part.length() : part.indexOf(stripped);
+            // 句首的空白属于上一句的分隔
+            if (!separators.isEmpty()) {
+                separators.get(separators.size() - 1).append(part, 0, begin);
+            }
+            if (stripped.isEmpty()) {
+                continue;
+            }
+            sentences.add(new Sentence(docIndex, j, stripped, "", new HashSet<>(Bm25Index.tokenize(stripped))));
+            separators.add(new StringBuilder(part.substring(begin + stripped.length())));
+        }
+        List<Sentence> result = new ArrayList<>(sentences.size());
+        for (int k = 0; k < sentences.size(); k++) {
+            Sentence sentence = sentences.get(k);
+            String whitespace = separators.get(k).toString();
+            String separator = whitespace.indexOf('\n') >= 0 ? "\n" : whitespace.isEmpty() ? "" : " ";
+            result.add(new Sentence(docIndex, sentence.position(), sentence.text(), separator, sentence.tokens()));
+        }
+        return result;
+    }
+
+    private static String truncate(String text, int maxChars) {
+        if (text.length() <= maxChars) {
+            return text;
+        }
+        int end = Math.max(0, maxChars);
+        // 不把代理对切成两半
+        if (end > 0 && Character.isHighSurrogate(text.charAt(end - 1))) {
+            end--;
+        }
+        return text.substring(0, end);
+    }
+
+    private static boolean isDuplicate(Sentence kept, Sentence candidate) {
+        if (kept.text().equals(candidate.text())) {
+            return true;
+        }
+        if (kept.tokens().isEmpty() || candidate.tokens().isEmpty()) {
+            return false;
+        }
+        int intersection = 0;
+        for (String token : candidate.tokens()) {
+            if (kept.tokens().contains(token)) {
+                intersection++;
+            }
+        }
+        int union = kept.tokens().size() + candidate.tokens().size() - intersection;
+        return (double) intersection / union >= DUPLICATE_JACCARD;
+    }
+
+    private static int estimate(List<Document> documents) {
+        int tokens = 0;
+        for (Document document : documents) {
+            String text = document.getText();
+            tokens += (text == null || text.isEmpty()) ? 0 : TOKEN_ESTIMATOR.estimate(text);
+        }
+        return tokens;
+    }
+
+    private static int length(String text) {
+        return text == null ? 0 : text.length();
+    }
+}
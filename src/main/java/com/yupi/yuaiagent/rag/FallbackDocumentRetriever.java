@@ -0,0 +1,57 @@
+package com.yupi.yuaiagent.rag;
+
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * 带超时的检索：主检索器超时或出错时改用备用检索器
+ * 主检索器在虚拟线程中执行，超时后不取消（远程调用结束后其结果仍可写入下层缓存）。
+ */
+@Slf4j
+public class FallbackDocumentRetriever implements DocumentRetriever {
+
+    private final DocumentRetriever primary;
+    private final DocumentRetriever fallback;
+    private final long timeoutMillis;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * @param primary  主检索器（如云知识库）
+     * @param fallback 备用检索器（如本地向量库）
+     * @param timeout  主检索器超时时间
+     */
+    public FallbackDocumentRetriever(DocumentRetriever primary, DocumentRetriever fallback, Duration timeout) {
+        this.primary = primary;
+        this.fallback = fallback;
+        this.timeoutMillis = timeout.toMillis();
+    }
+
+    @Override
+    public List<Document> retrieve(Query query) {
+        Future<List<Document>> future = executor.submit(() -> primary.retrieve(query));
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("知识库检索超过 {} ms，改用本地检索", timeoutMillis);
+            return doFallback(query, "timeout");
+        } catch (ExecutionException e) {
+            log.warn("知识库检索失败，改用本地检索：{}", e.getCause().getMessage());
+            return doFallback(query, "error");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("知识库检索被中断", e);
+        }
+    }
+
+    private List<Document> doFallback(Query query, String reason) {
+        Metrics.counter("ai.rag.fallback", "reason", reason).increment();
+        return fallback.retrieve(query);
+    }
+}
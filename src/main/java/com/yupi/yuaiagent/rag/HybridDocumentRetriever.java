@@ -0,0 +1,94 @@
+package com.yupi.yuaiagent.rag;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+
+import java.util.*;
+
+/**
+ * BM25 + 向量混合检索
+ * 1. 先查 BM25（纯内存，亚毫秒级）
+ * 2. 关键词置信度高时直接返回，不调用 Embedding 模型
+ *    置信度：第一名覆盖了足够多的查询词（按 IDF 加权），且得分明显高于第二名
+ * 3. 否则再做向量检索，两路结果按倒数排名融合（RRF）：score = Σ 1 / (rrfK + rank)
+ */
+@Slf4j
+public class HybridDocumentRetriever implements DocumentRetriever {
+
+    private final Bm25Index bm25Index;
+    private final VectorStore vectorStore;
+    private final int topK;
+    private final int rrfK;
+    private final double fastPathMinCoverage;
+    private final double fastPathMinMargin;
+
+    private final Counter keywordCounter = Counter.builder("ai.rag.hybrid.requests")
+            .tag("path", "keyword").register(Metrics.globalRegistry);
+    private final Counter hybridCounter = Counter.builder("ai.rag.hybrid.requests")
+            .tag("path", "hybrid").register(Metrics.globalRegistry);
+
+    /**
+     * @param bm25Index           关键词索引
+     * @param vectorStore         向量库（文档 ID 与关键词索引一致）
+     * @param topK                返回文档数
+     * @param rrfK                RRF 平滑常数，常用 60
+     * @param fastPathMinCoverage 走关键词快速通道要求的最低查询词覆盖率
+     * @param fastPathMinMargin   走关键词快速通道要求第一名得分至少是第二名的倍数
+     */
+    public HybridDocumentRetriever(Bm25Index bm25Index, VectorStore vectorStore, int topK, int rrfK,
+                                   double fastPathMinCoverage, double fastPathMinMargin) {
+        this.bm25Index = bm25Index;
+        this.vectorStore = vectorStore;
+        this.topK = topK;
+        this.rrfK = rrfK;
+        this.fastPathMinCoverage = fastPathMinCoverage;
+        this.fastPathMinMargin = fastPathMinMargin;
+    }
+
+    @Override
+    public List<Document> retrieve(Query query) {
+        String text = query.text();
+        // 多取一些候选，融合后再截断
+        int candidates = topK * 2;
+        List<Bm25Index.ScoredDocument> keywordResults = bm25Index.search(text, candidates);
+        if (isConfident(keywordResults)) {
+            keywordCounter.increment();
+            log.info("关键词检索置信度高，跳过向量检索，覆盖率: {}", String.format("%.2f", keywordResults.get(0).coverage()));
+            return keywordResults.stream().limit(topK).map(Bm25Index.ScoredDocument::document).toList();
+        }
+
+        hybridCounter.increment();
+        List<Document> vectorResults = vectorStore.similaritySearch(
+                SearchRequest.builder().query(text).topK(candidates).build());
+        return fuse(keywordResults.stream().map(Bm25Index.ScoredDocument::document).toList(), vectorResults);
+    }
+
+    boolean isConfident(List<Bm25Index.ScoredDocument> results) {
+        return Bm25Index.isConfident(results, fastPathMinCoverage, fastPathMinMargin);
+    }
+
+    /**
+     * 倒数排名融合，同一文档按 ID 合并
+     */
+    List<Document> fuse(List<Document> keywordResults, List<Document> vectorResults) {
+        Map<String, Double> scores = new HashMap<>();
+        Map<String, Document> byId = new LinkedHashMap<>();
+        for (List<Document> ranked : List.of(keywordResults, vectorResults)) {
+            for (int rank = 0; rank < ranked.size(); rank++) {
+                Document document = ranked.get(rank);
+                scores.merge(document.getId(), 1.0 / (rrfK + rank + 1), Double::sum);
+                byId.putIfAbsent(document.getId(), document);
+            }
+        }
+        return byId.values().stream()
+                .sorted(Comparator.comparingDouble((Document d) -> scores.get(d.getId())).reversed())
+                .limit(topK)
+                .toList();
+    }
+}
@@ -0,0 +1,46 @@
+package com.yupi.yuaiagent.rag;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * 云知识库的本地替身
+ * 用本地 FAQ 的 BM25 索引代替 DashScope 知识库检索，可选模拟网络延迟，
+ * 用于离线开发和对 RetrievalAugmentationAdvisor 链路做压测，不产生任何网络请求。
+ */
+public class LocalStandInDocumentRetriever implements DocumentRetriever {
+
+    private final Bm25Index bm25Index;
+    private final int topK;
+    private final long latencyMillis;
+
+    /**
+     * @param bm25Index 本地关键词索引
+     * @param topK      返回文档数
+     * @param latency   模拟的远程调用延迟，为 0 时不等待
+     */
+    public LocalStandInDocumentRetriever(Bm25Index bm25Index, int topK, Duration latency) {
+        this.bm25Index = bm25Index;
+        this.topK = topK;
+        this.latencyMillis = latency.toMillis();
+    }
+
+    @Override
+    public List<Document> retrieve(Query query) {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return List.of();
+            }
+        }
+        return bm25Index.search(query.text(), topK).stream()
+                .map(Bm25Index.ScoredDocument::document)
+                .toList();
+    }
+}
@@ -2,14 +2,23 @@ package com.yupi.yuaiagent.rag;
 
 
 import com.alibaba.cloud.ai.dashscope.api.DashScopeApi;
+import com.alibaba.cloud.ai.dashscope.common.DashScopeApiConstants;
 import com.alibaba.cloud.ai.dashscope.rag.DashScopeDocumentRetriever;
 import com.alibaba.cloud.ai.dashscope.rag.DashScopeDocumentRetrieverOptions;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.advisor.RetrievalAugmentationAdvisor;
 import org.springframework.ai.chat.client.advisor.api.Advisor;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
+import org.springframework.ai.rag.retrieval.search.VectorStoreDocumentRetriever;
+import org.springframework.ai.retry.RetryUtils;
+import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.time.Duration;
 
 @Slf4j
 @Configuration
@@ -18,17 +27,55 @@ public class LoveAppRagCloudAdvisorConfig {
     @Value("${spring.ai.dashscope.api-key}")
     private String dashScopeApiKey;
 
+    // cloud：调用 DashScope 知识库；local：使用本地替身，不访问网络
+    @Value("${yu-ai-agent.rag.cloud.mode:cloud}")
+    private String mode;
+
+    @Value("${yu-ai-agent.rag.cloud.timeout-ms:3000}")
+    private long timeoutMs;
+
+    @Value("${yu-ai-agent.rag.cloud.cache-ttl-seconds:600}")
+    private long cacheTtlSeconds;
+
+    @Value("${yu-ai-agent.rag.cloud.cache-max-entries:1000}")
+    private int cacheMaxEntries;
+
+    @Value("${yu-ai-agent.rag.cloud.stand-in-latency-ms:0}")
+    private long standInLatencyMs;
+
+    /**
+     * 检索链路：超时降级（缓存（云知识库或本地替身），本地向量库）
+     * 降级结果不写缓存，云端恢复后即可重新命中云端结果
+     */
     @Bean
-    public Advisor loveAppRagCloudAdvisor() {
-        DashScopeApi dashScopeApi = new DashScopeApi(dashScopeApiKey);
-        final String KNOWLEDGE_INDEX="ai-agent-rag";
-        DashScopeDocumentRetriever documentRetriever = new DashScopeDocumentRetriever(dashScopeApi,
-                DashScopeDocumentRetrieverOptions.builder()
-                        .withIndexName(KNOWLEDGE_INDEX)
-                        .build()
-        );
+    public Advisor loveAppRagCloudAdvisor(Bm25Index loveAppBm25Index, VectorStore loveAppVectorStore,
+                                          ContextCompressor contextCompressor,
+                                          RestClient.Builder restClientBuilder,
+                                          WebClient.Builder webClientBuilder) {
+        DocumentRetriever remote;
+        if ("local".equalsIgnoreCase(mode)) {
+            log.info("云知识库使用本地替身，模拟延迟 {} ms", standInLatencyMs);
+            remote = new LocalStandInDocumentRetriever(loveAppBm25Index, 4, Duration.ofMillis(standInLatencyMs));
+        } else {
+            // 使用共用的 HTTP 传输层（连接复用、HTTP/2、超时、指标）
+            DashScopeApi dashScopeApi = new DashScopeApi(DashScopeApiConstants.DEFAULT_BASE_URL, dashScopeApiKey,
+                    restClientBuilder, webClientBuilder, RetryUtils.DEFAULT_RESPONSE_ERROR_HANDLER);
+            final String KNOWLEDGE_INDEX="ai-agent-rag";
+            remote = new DashScopeDocumentRetriever(dashScopeApi,
+                    DashScopeDocumentRetrieverOptions.builder()
+                            .withIndexName(KNOWLEDGE_INDEX)
+                            .build()
+            );
+        }
+        DocumentRetriever cached = new CachingDocumentRetriever(remote,
+                Duration.ofSeconds(cacheTtlSeconds), cacheMaxEntries);
+        DocumentRetriever local = VectorStoreDocumentRetriever.builder()
+                .vectorStore(loveAppVectorStore)
+                .build();
         return RetrievalAugmentationAdvisor.builder()
-                .documentRetriever(documentRetriever)
+                .documentRetriever(new FallbackDocumentRetriever(cached, local, Duration.ofMillis(timeoutMs)))
+                // 合并检索结果后压缩，再拼进提示词
+                .documentJoiner(contextCompressor)
                 .build();
     }
 }
@@ -4,10 +4,12 @@ package com.yupi.yuaiagent.rag;
 import jakarta.annotation.Resource;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
 
 import org.springframework.ai.vectorstore.SimpleVectorStore;
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -21,14 +23,37 @@ public class LoveAppVectorStoreConfig {
     private LoveAppDocumentLoader loveAppDocumentLoader;
 
 
+    /**
+     * 关键词索引，与向量库共用同一批文档（文档 ID 一致，便于融合）
+     */
     @Bean
-    VectorStore loveAppVectorStore(@Qualifier("ollamaEmbeddingModel") EmbeddingModel embeddingModel){
-        SimpleVectorStore simpleVectorStore = SimpleVectorStore.builder(embeddingModel)
-                .build();
+    Bm25Index loveAppBm25Index(){
         //加载文档
         List<Document> documents = loveAppDocumentLoader.loadMarkdowns();
-        simpleVectorStore.add(documents);
+        return new Bm25Index(documents);
+    }
+
+    @Bean
+    VectorStore loveAppVectorStore(@Qualifier("loveAppEmbeddingModel") EmbeddingModel embeddingModel,
+                                   Bm25Index loveAppBm25Index){
+        SimpleVectorStore simpleVectorStore = SimpleVectorStore.builder(embeddingModel)
+                .build();
+        simpleVectorStore.add(loveAppBm25Index.documents());
         return simpleVectorStore;
     }
 
+    /**
+     * BM25 + 向量混合检索
+     */
+    @Bean
+    DocumentRetriever loveAppHybridRetriever(Bm25Index loveAppBm25Index,
+                                             VectorStore loveAppVectorStore,
+                                             @Value("${yu-ai-agent.rag.hybrid.top-k:4}") int topK,
+                                             @Value("${yu-ai-agent.rag.hybrid.rrf-k:60}") int rrfK,
+                                             @Value("${yu-ai-agent.rag.hybrid.fast-path-min-coverage:0.6}") double fastPathMinCoverage,
+                                             @Value("${yu-ai-agent.rag.hybrid.fast-path-min-margin:2.0}") double fastPathMinMargin){
+        return new HybridDocumentRetriever(loveAppBm25Index, loveAppVectorStore, topK, rrfK,
+                fastPathMinCoverage, fastPathMinMargin);
+    }
+
 }
@@ -0,0 +1,88 @@
+package com.yupi.yuaiagent.template;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 提示词布局
+ * - legacy：所有变量（包括用户名、问题）填进 System Prompt，每次调用前缀都不同
+ * - kv-cache：System Prompt 只包含人设变量，同一人设逐字节不变；用户变量放到最后一条用户消息里。
+ *   消息顺序为 System、历史（按时间追加）、本轮用户消息，历史未被裁剪时前缀只会变长，
+ *   Ollama / llama.cpp 可以复用上一次请求的 KV 缓存，只对新增部分做 prefill。
+ * 前缀复用的边界（对话饱和后）：
+ * - 超出 Token 预算时 TokenBudgetChatMemoryAdvisor 按 trim-step 整块裁剪，前缀每裁一次变化一次，而不是每轮都变
+ * - 滚动摘要每折叠一次（约 summary.threshold 条消息）替换一次摘要，前缀随之变化一次
+ * - 候选历史固定取最近 max-history-size 条：摘要关闭或跟不上时，对话超过这个条数后窗口每轮滑动，前缀每轮都变
+ */
+@Slf4j
+@Component
+public class PromptLayoutAssembler {
+
+    public enum Layout {
+        LEGACY, KV_CACHE
+    }
+
+    /**
+     * 人设变量，对同一个助手固定不变
+     */
+    public static final Set<String> PERSONA_VARIABLES = Set.of("advisorName", "profession", "problemType", "tone", "maxWords");
+
+    private static final String LEGACY_TEMPLATE_PATH = "promptTemplate/SystemTemplate";
+    private static final String STATIC_TEMPLATE_PATH = "promptTemplate/SystemTemplateStatic";
+    private static final String USER_CONTEXT_TEMPLATE_PATH = "promptTemplate/UserContextTemplate";
+
+    private final PromptTemplateLoader promptTemplateLoader;
+    private final Layout layout;
+    // 人设变量 -> 渲染好的 System Prompt，保证每次返回同一个字符串
+    private final Map<Map<String, String>, String> staticPrompts = new ConcurrentHashMap<>();
+    private volatile String userContextTemplate;
+
+    public PromptLayoutAssembler(PromptTemplateLoader promptTemplateLoader,
+                                 @Value("${yu-ai-agent.prompt.layout:kv-cache}") String layout) {
+        this.promptTemplateLoader = promptTemplateLoader;
+        this.layout = Layout.valueOf(layout.trim().toUpperCase().replace('-', '_'));
+        log.info("提示词布局：{}", this.layout);
+    }
+
+    public Layout layout() {
+        return layout;
+    }
+
+    /**
+     * System Prompt：kv-cache 布局下只使用人设变量，结果缓存
+     */
+    public String systemPrompt(Map<String, String> variables) {
+        if (layout == Layout.LEGACY) {
+            return promptTemplateLoader.loadAndFill(LEGACY_TEMPLATE_PATH, variables);
+        }
+        Map<String, String> persona = new HashMap<>();
+        for (String name : PERSONA_VARIABLES) {
+            if (variables.containsKey(name)) {
+                persona.put(name, variables.get(name));
+            }
+        }
+        return staticPrompts.computeIfAbsent(Map.copyOf(persona),
+                key -> promptTemplateLoader.loadAndFill(STATIC_TEMPLATE_PATH, key));
+    }
+
+    /**
+     * 放在本轮用户消息最前面的用户信息，legacy 布局下为 null（已在 System Prompt 中）
+     */
+    public String userContext(Map<String, String> variables) {
+        if (layout == Layout.LEGACY) {
+            return null;
+        }
+        String template = userContextTemplate;
+        if (template == null) {
+            template = promptTemplateLoader.loadTemplate(USER_CONTEXT_TEMPLATE_PATH);
+            userContextTemplate = template;
+        }
+        return promptTemplateLoader.fillTemplate(template, variables);
+    }
+}
@@ -0,0 +1,200 @@
+package com.yupi.yuaiagent.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 图片元数据工具（只解析容器结构，不解码像素）
+ * - 读取 JPEG 的 EXIF 方向
+ * - 去掉 GIF、WebP 中的元数据块：这两种格式不重新编码（GIF 可能是动图，JDK 不能解码 WebP），
+ *   只删除注释、EXIF、XMP 等块，图像数据原样保留
+ * 结构损坏时抛出 IllegalArgumentException，不把无法确认已去掉元数据的图片发出去。
+ */
+public class ImageMetadataUtils {
+
+    private static final int EXIF_ORIENTATION_TAG = 0x0112;
+
+    // WebP VP8X 标志位
+    private static final int VP8X_EXIF_FLAG = 0x08;
+    private static final int VP8X_XMP_FLAG = 0x04;
+
+    private ImageMetadataUtils() {
+    }
+
+    /**
+     * 读取 JPEG 的 EXIF 方向（1~8），没有 EXIF 或无法解析时返回 1（正常方向）
+     */
+    public static int readJpegOrientation(byte[] jpeg) {
+        int pos = 2;
+        while (pos + 4 <= jpeg.length && (jpeg[pos] & 0xFF) == 0xFF) {
+            int marker = jpeg[pos + 1] & 0xFF;
+            // SOS 之后是压缩数据，不会再有 APP 段
+            if (marker == 0xDA || marker == 0xD9) {
+                break;
+            }
+            int length = readUnsignedShort(jpeg, pos + 2, true);
+            if (length < 2 || pos + 2 + length > jpeg.length) {
+                break;
+            }
+            if (marker == 0xE1 && length >= 8 && startsWith(jpeg, pos + 4, "Exif\0\0")) {
+                return readTiffOrientation(jpeg, pos + 10, pos + 2 + length);
+            }
+            pos += 2 + length;
+        }
+        return 1;
+    }
+
+    private static int readTiffOrientation(byte[] data, int tiff, int end) {
+        if (tiff + 8 > end) {
+            return 1;
+        }
+        boolean bigEndian = data[tiff] == 'M' && data[tiff + 1] == 'M';
+        if (!bigEndian && !(data[tiff] == 'I' && data[tiff + 1] == 'I')) {
+            return 1;
+        }
+        long ifd = tiff + (readInt(data, tiff + 4, bigEndian) & 0xFFFFFFFFL);
+        if (ifd + 2 > end) {
+            return 1;
+        }
+        int count = readUnsignedShort(data, (int) ifd, bigEndian);
+        for (int i = 0; i < count; i++) {
+            int entry = (int) ifd + 2 + i * 12;
+            if (entry + 12 > end) {
+                break;
+            }
+            if (readUnsignedShort(data, entry, bigEndian) == EXIF_ORIENTATION_TAG) {
+                // SHORT 类型，值在 value 字段的前两个字节
+                int orientation = readUnsignedShort(data, entry + 8, bigEndian);
+                return orientation >= 1 && orientation <= 8 ? orientation : 1;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * 去掉 GIF 中的注释扩展和应用扩展（保留控制循环播放的 NETSCAPE2.0 / ANIMEXTS1.0），以及结束符之后的数据
+     */
+    public static byte[] stripGifMetadata(byte[] gif) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(gif.length);
+        // 文件头 6 字节 + 逻辑屏幕描述符 7 字节 + 全局颜色表
+        int pos = 13;
+        require(gif, pos);
+        int packed = gif[10] & 0xFF;
+        if ((packed & 0x80) != 0) {
+            pos += 3 * (1 << ((packed & 0x07) + 1));
+        }
+        require(gif, pos);
+        out.write(gif, 0, pos);
+        while (true) {
+            require(gif, pos + 1);
+            int block = gif[pos] & 0xFF;
+            if (block == 0x3B) {
+                out.write(0x3B);
+                return out.toByteArray();
+            }
+            int start = pos;
+            if (block == 0x21) {
+                require(gif, pos + 2);
+                int label = gif[pos + 1] & 0xFF;
+                pos = skipSubBlocks(gif, pos + 2);
+                boolean keep = label != 0xFE && (label != 0xFF || isLoopExtension(gif, start + 2));
+                if (keep) {
+                    out.write(gif, start, pos - start);
+                }
+            } else if (block == 0x2C) {
+                // 图像描述符 10 字节 + 局部颜色表 + LZW 最小码长 1 字节 + 图像数据子块
+                require(gif, pos + 11);
+                int imagePacked = gif[pos + 9] & 0xFF;
+                pos += 10;
+                if ((imagePacked & 0x80) != 0) {
+                    pos += 3 * (1 << ((imagePacked & 0x07) + 1));
+                }
+                pos = skipSubBlocks(gif, pos + 1);
+                out.write(gif, start, pos - start);
+            } else {
+                throw new IllegalArgumentException("GIF 结构损坏");
+            }
+        }
+    }
+
+    private static boolean isLoopExtension(byte[] gif, int subBlock) {
+        return (gif[subBlock] & 0xFF) == 11
+                && (startsWith(gif, subBlock + 1, "NETSCAPE2.0") || startsWith(gif, subBlock + 1, "ANIMEXTS1.0"));
+    }
+
+    private static int skipSubBlocks(byte[] gif, int pos) {
+        while (true) {
+            require(gif, pos + 1);
+            int size = gif[pos] & 0xFF;
+            pos += 1 + size;
+            if (size == 0) {
+                return pos;
+            }
+        }
+    }
+
+    /**
+     * 去掉 WebP 中的 EXIF、XMP 块，并清除 VP8X 中对应的标志位
+     */
+    public static byte[] stripWebpMetadata(byte[] webp) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(webp.length);
+        out.write(webp, 0, 12);
+        int riffEnd = (int) Math.min(webp.length, 8 + (readInt(webp, 4, false) & 0xFFFFFFFFL));
+        int pos = 12;
+        while (pos + 8 <= riffEnd) {
+            String fourCc = new String(webp, pos, 4, StandardCharsets.US_ASCII);
+            long size = readInt(webp, pos + 4, false) & 0xFFFFFFFFL;
+            long next = pos + 8 + size + (size & 1);
+            if (pos + 8 + size > riffEnd) {
+                throw new IllegalArgumentException("WebP 结构损坏");
+            }
+            int chunkEnd = (int) Math.min(next, riffEnd);
+            if ("VP8X".equals(fourCc) && size >= 1) {
+                byte[] chunk = new byte[chunkEnd - pos];
+                System.arraycopy(webp, pos, chunk, 0, chunk.length);
+                chunk[8] &= (byte) ~(VP8X_EXIF_FLAG | VP8X_XMP_FLAG);
+                out.write(chunk, 0, chunk.length);
+            } else if (!"EXIF".equals(fourCc) && !"XMP ".equals(fourCc)) {
+                out.write(webp, pos, chunkEnd - pos);
+            }
+            pos = chunkEnd;
+        }
+        byte[] result = out.toByteArray();
+        int riffSize = result.length - 8;
+        result[4] = (byte) riffSize;
+        result[5] = (byte) (riffSize >>> 8);
+        result[6] = (byte) (riffSize >>> 16);
+        result[7] = (byte) (riffSize >>> 24);
+        return result;
+    }
+
+    private static void require(byte[] data, int length) {
+        if (length > data.length) {
+            throw new IllegalArgumentException("图片数据不完整");
+        }
+    }
+
+    private static boolean startsWith(byte[] data, int offset, String prefix) {
+        if (offset + prefix.length() > data.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (data[offset + i] != (byte) prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readUnsignedShort(byte[] data, int offset, boolean bigEndian) {
+        int b0 = data[offset] & 0xFF;
+        int b1 = data[offset + 1] & 0xFF;
+        return bigEndian ? b0 << 8 | b1 : b1 << 8 | b0;
+    }
+
+    private static int readInt(byte[] data, int offset, boolean bigEndian) {
+        int first = readUnsignedShort(data, offset, bigEndian);
+        int second = readUnsignedShort(data, offset + 2, bigEndian);
+        return bigEndian ? first << 16 | second : second << 16 | first;
+    }
+}
@@ -0,0 +1,278 @@
+package com.yupi.yuaiagent.utils;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 图片预处理：发送给视觉模型前缩小并重新编码
+ * 1. 按文件头识别真实格式（不依赖扩展名）
+ * 2. 只读文件头拿到尺寸，大图按整数步长降采样解码（ImageReadParam.setSourceSubsampling），
+ *    解码出的像素数与 maxEdge 相关而与原图尺寸无关；再等比缩小到长边不超过 maxEdge
+ * 3. 按 JPEG 的 EXIF 方向旋转/翻转，重新编码为 JPEG（不写入 EXIF 等元数据），即使结果比原图大也使用重新编码的结果
+ * 4. GIF（可能是动图）和 JDK 无法解码的 WebP 不重新编码，只去掉其中的元数据块
+ * 5. 无法识别的格式、无法解码的 JPEG/PNG/BMP 直接拒绝
+ * 编解码在有界 CPU 线程池中执行，避免大图占满请求线程。
+ */
+@Slf4j
+@Component
+public class ImagePreprocessor {
+
+    /**
+     * 预处理结果
+     *
+     * @param bytes         发送给模型的图片内容
+     * @param mimeType      图片真实 MIME 类型
+     * @param originalBytes 原图大小
+     * @param width         处理后宽度，未解码时为 -1
+     * @param height        处理后高度，未解码时为 -1
+     */
+    public record ProcessedImage(byte[] bytes, String mimeType, int originalBytes, int width, int height) {
+
+        public int savedBytes() {
+            return originalBytes - bytes.length;
+        }
+    }
+
+    // 处理逻辑改变（发给模型的图片随之改变）时递增，使旧的分析结果缓存失效
+    private static final int VERSION = 2;
+
+    private final boolean enabled;
+    private final int maxEdge;
+    private final float jpegQuality;
+    private final ThreadPoolExecutor executor;
+
+    private final DistributionSummary savedBytesSummary = DistributionSummary
+            .builder("ai.vision.image.bytes.saved")
+            .description("预处理后每张图片节省的字节数")
+            .baseUnit("bytes")
+            .register(Metrics.globalRegistry);
+
+    public ImagePreprocessor(@Value("${yu-ai-agent.vision.preprocess.enabled:true}") boolean enabled,
+                             @Value("${yu-ai-agent.vision.preprocess.max-edge:1024}") int maxEdge,
+                             @Value("${yu-ai-agent.vision.preprocess.jpeg-quality:0.85}") float jpegQuality,
+                             @Value("${yu-ai-agent.vision.preprocess.pool-size:0}") int poolSize,
+                             @Value("${yu-ai-agent.vision.preprocess.queue-capacity:64}") int queueCapacity) {
+        this.enabled = enabled;
+        this.maxEdge = maxEdge;
+        this.jpegQuality = jpegQuality;
+        int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadIndex = new AtomicInteger();
+        // 队列满时由调用线程自己处理，起到背压作用
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread thread = new Thread(r, "image-preprocess-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * 在预处理线程池中处理图片，阻塞等待结果
+     *
+     * @param imageBytes 原图内容
+     * @return 处理结果
+     */
+    public ProcessedImage process(byte[] imageBytes) {
+        try {
+            return CompletableFuture.supplyAsync(() -> doProcess(imageBytes), executor).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : e;
+        }
+    }
+
+    /**
+     * 影响处理结果的配置，作为图片分析结果缓存键的一部分
+     */
+    public String configKey() {
+        return "v" + VERSION + ",enabled=" + enabled + ",maxEdge=" + maxEdge + ",jpegQuality=" + jpegQuality;
+    }
+
+    ProcessedImage doProcess(byte[] imageBytes) {
+        String mimeType = ImageUtils.sniffImageMimeType(imageBytes);
+        if (mimeType == null) {
+            throw new IllegalArgumentException("无法识别的图片格式，仅支持 JPEG、PNG、GIF、WebP、BMP");
+        }
+        if (!enabled) {
+            return record(new ProcessedImage(imageBytes, mimeType, imageBytes.length, -1, -1));
+        }
+        // GIF 可能是动图，保持原样，只去掉注释和应用扩展
+        if ("image/gif".equals(mimeType)) {
+            return record(new ProcessedImage(ImageMetadataUtils.stripGifMetadata(imageBytes), mimeType,
+                    imageBytes.length, -1, -1));
+        }
+
+        long start = System.currentTimeMillis();
+        DecodedImage decoded = decode(imageBytes);
+        if (decoded == null) {
+            if ("image/webp".equals(mimeType)) {
+                // JDK 不支持解码 WebP，原样发送图像数据，去掉 EXIF、XMP
+                return record(new ProcessedImage(ImageMetadataUtils.stripWebpMetadata(imageBytes), mimeType,
+                        imageBytes.length, -1, -1));
+            }
+            throw new IllegalArgumentException("图片解码失败，文件可能已损坏");
+        }
+
+        BufferedImage image = decoded.image();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (Math.max(width, height) > maxEdge) {
+            double scale = (double) maxEdge / Math.max(width, height);
+            width = Math.max(1, (int) Math.round(width * scale));
+            height = Math.max(1, (int) Math.round(height * scale));
+        }
+        int orientation = "image/jpeg".equals(mimeType) ? ImageMetadataUtils.readJpegOrientation(imageBytes) : 1;
+        BufferedImage rgb = toRgb(image, width, height, orientation);
+        // 即使没有变小也使用重新编码的结果，保证原图的 EXIF 等元数据（如拍摄位置）不会发给模型
+        byte[] encoded = encodeJpeg(rgb);
+        ProcessedImage processed = new ProcessedImage(encoded, "image/jpeg", imageBytes.length,
+                rgb.getWidth(), rgb.getHeight());
+        log.info("图片预处理完成：{} {}x{}（降采样 1/{}，方向 {}）-> image/jpeg {}x{}，{} -> {} bytes，节省 {} bytes，耗时 {} ms",
+                mimeType, decoded.width(), decoded.height(), decoded.step(), orientation, rgb.getWidth(), rgb.getHeight(),
+                imageBytes.length, encoded.length, processed.savedBytes(), System.currentTimeMillis() - start);
+        return record(processed);
+    }
+
+    /**
+     * 解码结果
+     *
+     * @param width  原图宽度
+     * @param height 原图高度
+     * @param step   降采样步长，1 表示完整解码
+     */
+    private record DecodedImage(BufferedImage image, int width, int height, int step) {
+    }
+
+    /**
+     * 先读文件头拿到尺寸，长边超过 maxEdge 两倍以上时按整数步长降采样解码
+     * 步长取 长边 / maxEdge 向下取整，解码结果的长边仍不小于 maxEdge，再由 toRgb 平滑缩放
+     *
+     * @return 解码结果，没有可用的解码器时返回 null
+     */
+    private DecodedImage decode(byte[] imageBytes) {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(imageBytes))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                // 不解析元数据
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int step = Math.max(1, Math.max(width, height) / maxEdge);
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (step > 1) {
+                    param.setSourceSubsampling(step, step, 0, 0);
+                }
+                return new DecodedImage(reader.read(0, param), width, height, step);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            log.warn("图片解码失败：{}", e.getMessage());
+            return null;
+        }
+    }
+
+    private ProcessedImage record(ProcessedImage processed) {
+        savedBytesSummary.record(Math.max(0, processed.savedBytes()));
+        return processed;
+    }
+
+    /**
+     * 缩放、按 EXIF 方向旋转/翻转，并转为不带透明通道的 RGB（JPEG 不支持透明，透明区域填充白色）
+     *
+     * @param width       缩放后的宽度（旋转前）
+     * @param height      缩放后的高度（旋转前）
+     * @param orientation EXIF 方向 1~8，5~8 时宽高互换
+     */
+    static BufferedImage toRgb(BufferedImage source, int width, int height, int orientation) {
+        boolean swap = orientation >= 5;
+        int targetWidth = swap ? height : width;
+        int targetHeight = swap ? width : height;
+        BufferedImage target = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, targetWidth, targetHeight);
+            g.transform(orientationTransform(orientation, width, height));
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    /**
+     * EXIF 方向对应的变换：把按存储方向绘制的 width x height 图像变成正常显示方向
+     */
+    private static AffineTransform orientationTransform(int orientation, int width, int height) {
+        return switch (orientation) {
+            // 水平翻转
+            case 2 -> new AffineTransform(-1, 0, 0, 1, width, 0);
+            // 旋转 180°
+            case 3 -> new AffineTransform(-1, 0, 0, -1, width, height);
+            // 垂直翻转
+            case 4 -> new AffineTransform(1, 0, 0, -1, 0, height);
+            // 沿主对角线翻转
+            case 5 -> new AffineTransform(0, 1, 1, 0, 0, 0);
+            // 顺时针旋转 90°
+            case 6 -> new AffineTransform(0, 1, -1, 0, height, 0);
+            // 沿副对角线翻转
+            case 7 -> new AffineTransform(0, -1, -1, 0, height, width);
+            // 逆时针旋转 90°
+            case 8 -> new AffineTransform(0, -1, 1, 0, 0, width);
+            default -> new AffineTransform();
+        };
+    }
+
+    private byte[] encodeJpeg(BufferedImage image) {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            writer.setOutput(ios);
+            // 不传入 metadata，原图的 EXIF 等信息不会被写出
+            writer.write(null, new IIOImage(image, null, null), param);
+        } catch (IOException e) {
+            throw new RuntimeException("图片编码失败", e);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -3,6 +3,8 @@ package com.yupi.yuaiagent.utils;
 
 import cn.hutool.core.io.resource.ClassPathResource;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
 
 import java.io.File;
 import java.nio.file.Files;
@@ -25,10 +27,77 @@ public  class ImageUtils {
     //项目根目录下的图片目录
     private static final String PROJECT_IMAGE_DIR=System.getProperty("user.dir")+"/images";
 
+    //超过该大小的图片使用内存映射读取
+    private static final long MMAP_THRESHOLD=1024*1024;
+
     private ImageUtils(){}
 
+    /**
+     * 加载 resources/images 下的图片为 Resource（不经过 Base64）
+     * 图片在文件系统上时按需读取（大文件内存映射），在 jar 内时按已知长度一次读入
+     * @param imagePath 图片路径（相对于 resources/images）
+     * @return 图片 Resource，可直接传给模型的 media
+     */
+    public static Resource loadImageResourceFromResources(String imagePath){
+        org.springframework.core.io.ClassPathResource resource =
+                new org.springframework.core.io.ClassPathResource(IMAGE_DIR + "/" + imagePath);
+        try {
+            if (resource.isFile()) {
+                return new MappedFileResource(resource.getFile().toPath(), MMAP_THRESHOLD);
+            }
+            long length = resource.contentLength();
+            try (InputStream inputStream = resource.getInputStream()) {
+                byte[] imageBytes = length >= 0 ? inputStream.readNBytes((int) length) : inputStream.readAllBytes();
+                log.info("成功加载图片：{},大小：{}bytes", imagePath, imageBytes.length);
+                return new ByteArrayResource(imageBytes, imagePath);
+            }
+        } catch (IOException e) {
+            log.error("加载图片失败：{}", imagePath, e);
+            throw new RuntimeException("加载图片失败：" + imagePath, e);
+        }
+    }
+
+    /**
+     * 加载项目根目录/images 下的图片为 Resource（不经过 Base64，大文件内存映射）
+     * @param imagePath 图片路径（相对于项目根目录/images）
+     * @return 图片 Resource，可直接传给模型的 media
+     */
+    public static Resource loadImageResourceFromProject(String imagePath){
+        return loadImageResource(Paths.get(PROJECT_IMAGE_DIR, imagePath));
+    }
+
+    /**
+     * 加载任意位置的图片文件为 Resource（批量任务扫描目录时使用）
+     * @param path 图片文件路径
+     * @return 图片 Resource，可直接传给模型的 media
+     */
+    public static Resource loadImageResource(Path path){
+        if (!Files.isRegularFile(path)) {
+            log.error("加载图片失败，文件不存在：{}", path);
+            throw new RuntimeException("加载图片失败：" + path);
+        }
+        return new MappedFileResource(path, MMAP_THRESHOLD);
+    }
+
+    /**
+     * 项目根目录下的图片目录
+     */
+    public static Path projectImageDir(){
+        return Paths.get(PROJECT_IMAGE_DIR);
+    }
+
+    /**
+     * 按扩展名判断是否为支持的图片文件
+     */
+    public static boolean isImageFile(String fileName){
+        String name = fileName.toLowerCase();
+        return name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png")
+                || name.endsWith(".gif") || name.endsWith(".webp") || name.endsWith(".bmp");
+    }
+
     /**
      * 加载图片并转换为Base64
+     * 只在确实需要 Base64 文本时使用；传给模型请用 loadImageResourceFromResources
      * @param imagePath
      * @return
      */
@@ -48,6 +117,7 @@ public  class ImageUtils {
 
     /**
      * 加载项目下的图片并转换为Base64
+     * 只在确实需要 Base64 文本时使用；传给模型请用 loadImageResourceFromProject
      * @param imagePath
      * @return
      */
@@ -85,7 +155,35 @@ public  class ImageUtils {
 
 
     /**
-     * 获取图片的 MIME 类型
+     * 根据文件头（魔数）识别图片的 MIME 类型
+     * @param bytes 图片内容
+     * @return MIME 类型，无法识别时返回 null
+     */
+    public static String sniffImageMimeType(byte[] bytes) {
+        if (bytes == null || bytes.length < 12) {
+            return null;
+        }
+        if ((bytes[0] & 0xFF) == 0xFF && (bytes[1] & 0xFF) == 0xD8 && (bytes[2] & 0xFF) == 0xFF) {
+            return "image/jpeg";
+        }
+        if ((bytes[0] & 0xFF) == 0x89 && bytes[1] == 'P' && bytes[2] == 'N' && bytes[3] == 'G') {
+            return "image/png";
+        }
+        if (bytes[0] == 'G' && bytes[1] == 'I' && bytes[2] == 'F' && bytes[3] == '8') {
+            return "image/gif";
+        }
+        if (bytes[0] == 'R' && bytes[1] == 'I' && bytes[2] == 'F' && bytes[3] == 'F'
+                && bytes[8] == 'W' && bytes[9] == 'E' && bytes[10] == 'B' && bytes[11] == 'P') {
+            return "image/webp";
+        }
+        if (bytes[0] == 'B' && bytes[1] == 'M') {
+            return "image/bmp";
+        }
+        return null;
+    }
+
+    /**
+     * 获取图片的 MIME 类型（按扩展名猜测，优先使用 sniffImageMimeType）
      */
     public static String getImageMimeType(String fileName) {
         String extension = fileName.substring(fileName.lastIndexOf(".") + 1).toLowerCase();
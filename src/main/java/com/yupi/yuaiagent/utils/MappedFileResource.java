@@ -0,0 +1,89 @@
+package com.yupi.yuaiagent.utils;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 按需读取的本地文件 Resource
+ * 读取内容时按文件大小一次性分配 byte[]，大文件通过内存映射直接拷贝，
+ * 不经过 Base64 字符串或可扩容缓冲区。
+ */
+public class MappedFileResource extends AbstractResource {
+
+    private final Path path;
+    private final long mmapThreshold;
+
+    /**
+     * @param path          文件路径
+     * @param mmapThreshold 超过该字节数时使用内存映射读取
+     */
+    public MappedFileResource(Path path, long mmapThreshold) {
+        this.path = path;
+        this.mmapThreshold = mmapThreshold;
+    }
+
+    @Override
+    public byte[] getContentAsByteArray() throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException("文件过大：" + path);
+            }
+            byte[] bytes = new byte[(int) size];
+            if (size >= mmapThreshold) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                mapped.get(bytes);
+            } else {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // 读满为止
+                }
+            }
+            return bytes;
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return Files.newInputStream(path);
+    }
+
+    @Override
+    public boolean exists() {
+        return Files.exists(path);
+    }
+
+    @Override
+    public boolean isFile() {
+        return true;
+    }
+
+    @Override
+    public File getFile() {
+        return path.toFile();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        return Files.size(path);
+    }
+
+    @Override
+    public String getFilename() {
+        return path.getFileName().toString();
+    }
+
+    @Override
+    public String getDescription() {
+        return "mapped file [" + path.toAbsolutePath() + "]";
+    }
+}
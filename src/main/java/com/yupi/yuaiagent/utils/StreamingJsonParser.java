@@ -0,0 +1,300 @@
+package com.yupi.yuaiagent.utils;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * 增量 JSON 解析器：边接收模型输出边解析顶层对象
+ * 只关心两类值，一旦完整就回调，不等整段 JSON 结束：
+ * - 顶层字段的字符串值，如 {"title": "..."}
+ * - 顶层字段数组中的字符串元素，如 {"suggestions": ["...", "..."]}
+ * 第一个 '{' 之前的内容（&lt;think&gt; 思考过程、```json 代码块标记等）被忽略；
+ * 多余的逗号等常见缺陷不影响增量解析，完整文本可再交给 repair 修复后整体解析。
+ * 非线程安全，一个解析器只处理一路输出。
+ */
+public class StreamingJsonParser {
+
+    /**
+     * 解析回调
+     */
+    public interface Listener {
+
+        /**
+         * 顶层字段的字符串值
+         */
+        default void onField(String key, String value) {
+        }
+
+        /**
+         * 顶层字段数组中的第 index 个字符串元素
+         */
+        default void onArrayElement(String key, int index, String value) {
+        }
+    }
+
+    private static final String THINK_START = "<think>";
+    private static final String THINK_END = "</think>";
+
+    private final Listener listener;
+    private final StringBuilder raw = new StringBuilder();
+    private final Deque<Character> containers = new ArrayDeque<>();
+    private final StringBuilder current = new StringBuilder();
+
+    // 下一个待处理字符的位置
+    private int position;
+    private boolean started;
+    private boolean inThink;
+    private boolean inString;
+    private boolean escape;
+    private int unicodeRemaining = -1;
+    private final StringBuilder unicode = new StringBuilder();
+    // 对象中下一个字符串是否是 key
+    private boolean expectKey;
+    private String topLevelKey;
+    private int arrayIndex;
+
+    public StreamingJsonParser(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 输入一段增量文本
+     */
+    public void feed(String chunk) {
+        if (chunk == null) {
+            return;
+        }
+        raw.append(chunk);
+        while (position < raw.length()) {
+            if (started) {
+                accept(raw.charAt(position++));
+            } else if (!skipPreamble()) {
+                // 标记被分在两段里，等下一段再判断
+                return;
+            }
+        }
+    }
+
+    /**
+     * 至今收到的完整文本
+     */
+    public String text() {
+        return raw.toString();
+    }
+
+    /**
+     * 顶层对象是否已经闭合
+     */
+    public boolean isComplete() {
+        return started && containers.isEmpty();
+    }
+
+    /**
+     * 跳过顶层对象之前的内容，返回 false 表示需要更多输入
+     */
+    private boolean skipPreamble() {
+        if (inThink) {
+            int end = raw.indexOf(THINK_END, position);
+            if (end < 0) {
+                // 保留可能被截断的结束标记
+                position = Math.max(position, raw.length() - THINK_END.length() + 1);
+                return false;
+            }
+            inThink = false;
+            position = end + THINK_END.length();
+            return true;
+        }
+        char c = raw.charAt(position);
+        if (c == '<') {
+            int available = Math.min(THINK_START.length(), raw.length() - position);
+            String head = raw.substring(position, position + available);
+            if (THINK_START.startsWith(head)) {
+                if (available < THINK_START.length()) {
+                    return false;
+                }
+                inThink = true;
+                position += THINK_START.length();
+                return true;
+            }
+        }
+        if (c == '{') {
+            started = true;
+            containers.push('{');
+            expectKey = true;
+        }
+        position++;
+        return true;
+    }
+
+    private void accept(char c) {
+        if (containers.isEmpty()) {
+            // 顶层对象之后的内容忽略
+            return;
+        }
+        if (inString) {
+            acceptStringChar(c);
+            return;
+        }
+        switch (c) {
+            case '"' -> {
+                inString = true;
+                current.setLength(0);
+            }
+            case '{' -> {
+                containers.push('{');
+                expectKey = true;
+            }
+            case '[' -> {
+                containers.push('[');
+                if (containers.size() == 2) {
+                    arrayIndex = 0;
+                }
+            }
+            case '}', ']' -> {
+                containers.pop();
+                expectKey = false;
+            }
+            case ',' -> expectKey = containers.peek() == '{';
+            case ':' -> expectKey = false;
+            default -> {
+                // 数字、true/false/null 和空白不需要处理
+            }
+        }
+    }
+
+    private void acceptStringChar(char c) {
+        if (unicodeRemaining > 0) {
+            unicode.append(c);
+            if (--unicodeRemaining == 0) {
+                try {
+                    current.append((char) Integer.parseInt(unicode.toString(), 16));
+                } catch (NumberFormatException e) {
+                    current.append("\\u").append(unicode);
+                }
+                unicode.setLength(0);
+                unicodeRemaining = -1;
+            }
+            return;
+        }
+        if (escape) {
+            escape = false;
+            switch (c) {
+                case 'n' -> current.append('\n');
+                case 't' -> current.append('\t');
+                case 'r' -> current.append('\r');
+                case 'b' -> current.append('\b');
+                case 'f' -> current.append('\f');
+                case 'u' -> unicodeRemaining = 4;
+                default -> current.append(c);
+            }
+            return;
+        }
+        if (c == '\\') {
+            escape = true;
+        } else if (c == '"') {
+            inString = false;
+            onString(current.toString());
+        } else {
+            current.append(c);
+        }
+    }
+
+    private void onString(String value) {
+        int depth = containers.size();
+        char top = containers.peek();
+        if (depth == 1 && top == '{') {
+            if (expectKey) {
+                topLevelKey = value;
+            } else {
+                listener.onField(topLevelKey, value);
+            }
+        } else if (depth == 2 && top == '[') {
+            listener.onArrayElement(topLevelKey, arrayIndex++, value);
+        }
+    }
+
+    /**
+     * 修复模型输出中常见的 JSON 缺陷，返回可交给 Jackson 解析的文本
+     * - 去掉 &lt;think&gt; 思考过程和顶层对象之前的说明、代码块标记
+     * - 删除 ] 或 } 前多余的逗号
+     * - 输出被截断时补全未闭合的字符串和括号
+     *
+     * @param text 模型原始输出
+     * @return 修复后的 JSON，找不到对象起点时返回 null
+     */
+    public static String repair(String text) {
+        if (text == null) {
+            return null;
+        }
+        String body = text.replaceAll("(?s)<think>.*?</think>", "");
+        int start = body.indexOf('{');
+        if (start < 0) {
+            return null;
+        }
+        StringBuilder out = new StringBuilder();
+        Deque<Character> stack = new ArrayDeque<>();
+        boolean inString = false;
+        boolean escape = false;
+        for (int i = start; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (inString) {
+                out.append(c);
+                if (escape) {
+                    escape = false;
+                } else if (c == '\\') {
+                    escape = true;
+                } else if (c == '"') {
+                    inString = false;
+                } else if (c == '\n') {
+                    // 字符串中的裸换行改为转义
+                    out.setLength(out.length() - 1);
+                    out.append("\\n");
+                }
+                continue;
+            }
+            switch (c) {
+                case '"' -> inString = true;
+                case '{' -> stack.push('}');
+                case '[' -> stack.push(']');
+                case '}', ']' -> {
+                    removeTrailingComma(out);
+                    if (!stack.isEmpty()) {
+                        stack.pop();
+                    }
+                }
+                default -> {
+                }
+            }
+            out.append(c);
+            if (stack.isEmpty()) {
+                // 顶层对象结束，后面的内容（如代码块结束标记）丢弃
+                return out.toString();
+            }
+        }
+        // 被截断：补全字符串和括号
+        if (inString) {
+            if (escape) {
+                out.setLength(out.length() - 1);
+            }
+            out.append('"');
+        }
+        while (!stack.isEmpty()) {
+            removeTrailingComma(out);
+            out.append(stack.pop());
+        }
+        return out.toString();
+    }
+
+    private static void removeTrailingComma(StringBuilder out) {
+        int i = out.length() - 1;
+        while (i >= 0 && Character.isWhitespace(out.charAt(i))) {
+            i--;
+        }
+        if (i >= 0 && out.charAt(i) == ',') {
+            out.deleteCharAt(i);
+        } else if (i >= 0 && out.charAt(i) == ':') {
+            // 截断在冒号后：补一个 null 值
+            out.append("null");
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.yupi.yuaiagent.utils;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 视觉模型调用耗时统计
+ * 客户端看不到上传和 prefill 的边界，因此按以下口径拆分：
+ * - ai.vision.preprocess.time：读取 + 预处理图片
+ * - ai.vision.ttft：发起请求到收到第一个片段（上传 + 图片编码 + prefill）
+ * - ai.vision.decode.time：第一个片段到最后一个片段（decode）
+ * - ai.vision.total.time：发起请求到结束
+ * 所有指标带 mode 标签（call / stream），非流式调用没有 ttft 和 decode。
+ */
+@Slf4j
+public class VisionTimingMetrics {
+
+    public static final String MODE_CALL = "call";
+    public static final String MODE_STREAM = "stream";
+
+    private final MeterRegistry registry;
+    private final DistributionSummary imageBytes;
+
+    public VisionTimingMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.imageBytes = DistributionSummary.builder("ai.vision.image.bytes")
+                .description("发送给视觉模型的图片大小")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * 记录一次发送给模型的图片大小和预处理耗时
+     */
+    public void recordImage(int bytes, long preprocessNanos) {
+        imageBytes.record(bytes);
+        timer("ai.vision.preprocess.time", null).record(preprocessNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 统计一次阻塞调用的总耗时
+     */
+    public String timeCall(Supplier<String> call) {
+        long start = System.nanoTime();
+        try {
+            return call.get();
+        } finally {
+            long total = System.nanoTime() - start;
+            timer("ai.vision.total.time", MODE_CALL).record(total, TimeUnit.NANOSECONDS);
+            log.info("图片分析耗时：总计 {} ms", TimeUnit.NANOSECONDS.toMillis(total));
+        }
+    }
+
+    /**
+     * 包装流式输出，订阅时开始计时，记录首个片段时间和总时间
+     * 客户端中途取消时只记录已经得到的 ttft，不记录 total
+     */
+    public Flux<String> timeStream(Flux<String> chunks) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicLong firstChunk = new AtomicLong();
+            return chunks
+                    .doOnNext(chunk -> {
+                        if (firstChunk.compareAndSet(0, System.nanoTime())) {
+                            timer("ai.vision.ttft", MODE_STREAM).record(firstChunk.get() - start, TimeUnit.NANOSECONDS);
+                        }
+                    })
+                    .doOnComplete(() -> {
+                        long end = System.nanoTime();
+                        long first = firstChunk.get() == 0 ? end : firstChunk.get();
+                        timer("ai.vision.decode.time", MODE_STREAM).record(end - first, TimeUnit.NANOSECONDS);
+                        timer("ai.vision.total.time", MODE_STREAM).record(end - start, TimeUnit.NANOSECONDS);
+                        log.info("图片流式分析耗时：首字 {} ms，decode {} ms，总计 {} ms",
+                                TimeUnit.NANOSECONDS.toMillis(first - start),
+                                TimeUnit.NANOSECONDS.toMillis(end - first),
+                                TimeUnit.NANOSECONDS.toMillis(end - start));
+                    });
+        });
+    }
+
+    private Timer timer(String name, String mode) {
+        Timer.Builder builder = Timer.builder(name).publishPercentiles(0.5, 0.9, 0.99);
+        if (mode != null) {
+            builder.tag("mode", mode);
+        }
+        return builder.register(registry);
+    }
+}
@@ -12,8 +12,37 @@ CREATE TABLE `chat_memory` (
   `message_index` INT NOT NULL COMMENT '消息索引（顺序）',
   `message_type` VARCHAR(20) NOT NULL COMMENT '消息类型：USER/ASSISTANT/SYSTEM',
   `content` TEXT NOT NULL COMMENT '消息内容',
+  `content_bin` BLOB NULL COMMENT '二进制存储时的消息内容（MessageCodec 编码，长内容已压缩）',
   `create_time` DATETIME DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
   PRIMARY KEY (`id`),
   UNIQUE KEY `uk_conversation_index` (`conversation_id`, `message_index`),
-  KEY `idx_conversation_id` (`conversation_id`)
+  -- 覆盖索引：只查元数据（不含 content）时无需回表
+  KEY `idx_conversation_meta` (`conversation_id`, `message_index`, `message_type`, `create_time`),
+  -- 保留策略按创建时间键集扫描过期消息，带上 conversation_id 后按前缀过滤不用回表
+  KEY `idx_create_time` (`create_time`, `conversation_id`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='对话记忆表';
+
+-- 迁移脚本（已有库执行一次）：
+-- idx_conversation_id 是 uk_conversation_index 的前缀，属于冗余索引，删除后换成元数据覆盖索引
+-- ALTER TABLE `chat_memory`
+--   DROP INDEX `idx_conversation_id`,
+--   ADD INDEX `idx_conversation_meta` (`conversation_id`, `message_index`, `message_type`, `create_time`),
+--   ALGORITHM=INPLACE, LOCK=NONE;
+-- 二进制存储（yu-ai-agent.chat-memory.storage-format=binary）需要的列，旧数据仍从 content 读取
+-- ALTER TABLE `chat_memory` ADD COLUMN `content_bin` BLOB NULL AFTER `content`, ALGORITHM=INSTANT;
+-- 过期清理（yu-ai-agent.chat-memory.retention）需要的索引
+-- ALTER TABLE `chat_memory` ADD INDEX `idx_create_time` (`create_time`, `conversation_id`), ALGORITHM=INPLACE, LOCK=NONE;
+-- 已按旧版本建过单列 idx_create_time 的表：
+-- ALTER TABLE `chat_memory`
+--   DROP INDEX `idx_create_time`,
+--   ADD INDEX `idx_create_time` (`create_time`, `conversation_id`),
+--   ALGORITHM=INPLACE, LOCK=NONE;
+
+-- 创建对话摘要表（长对话的早期消息被折叠为一条摘要）
+CREATE TABLE IF NOT EXISTS `chat_memory_summary` (
+  `conversation_id` VARCHAR(100) NOT NULL COMMENT '对话ID',
+  `summary` TEXT NOT NULL COMMENT '摘要内容',
+  `covered_index` INT NOT NULL COMMENT '摘要已覆盖到的消息索引（含）',
+  `update_time` DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+  PRIMARY KEY (`conversation_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='对话摘要表';
@@ -0,0 +1,126 @@
+package com.yupi.yuaiagent.advisor;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.advisor.api.AdvisedRequest;
+import org.springframework.ai.chat.client.advisor.api.AdvisedResponse;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 自适应 Re2 测试（不依赖模型）
+ */
+class AdaptiveReReadingAdvisorTest {
+
+    private static final List<String> KEYWORDS = List.of("为什么", "如何", "比较", "分析");
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    void setUp() {
+        Metrics.addRegistry(registry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        Metrics.removeRegistry(registry);
+    }
+
+    @Test
+    void testDecideBySignals() {
+        AdaptiveReReadingAdvisor advisor = advisor(0.9, 0.05);
+
+        Assertions.assertEquals("simple", advisor.decide("你好"));
+        // 只命中关键词一个信号
+        Assertions.assertEquals("simple", advisor.decide("为什么下雨？"));
+        // 关键词 + 多个问句
+        Assertions.assertEquals("complex", advisor.decide("他为什么不回消息？是不是不喜欢我了？"));
+        // 长度 + 关键词
+        Assertions.assertEquals("complex", advisor.decide("请帮我分析一下" + "我们的相处情况".repeat(10)));
+    }
+
+    @Test
+    void testSampleSimpleQuestions() {
+        Assertions.assertEquals("sampled", advisor(0.01, 0.05).decide("你好"));
+        Assertions.assertEquals("simple", advisor(0.1, 0.05).decide("你好"));
+    }
+
+    @Test
+    void testRereadOnlyComplexQuestion() {
+        AdaptiveReReadingAdvisor advisor = advisor(0.9, 0.05);
+        List<String> sent = new ArrayList<>();
+        List<Object> applied = new ArrayList<>();
+
+        for (String question : List.of("你好", "他为什么不回消息？是不是不喜欢我了？")) {
+            advisor.aroundCall(request(question), advisedRequest -> {
+                sent.add(advisedRequest.userText());
+                applied.add(advisedRequest.adviseContext().get(AdaptiveReReadingAdvisor.RE2_APPLIED_KEY));
+                return response(advisedRequest, "好的，我们来聊聊");
+            });
+        }
+
+        Assertions.assertEquals("你好", sent.get(0));
+        Assertions.assertEquals("他为什么不回消息？是不是不喜欢我了？" + AdaptiveReReadingAdvisor.REREAD_MARKER
+                + "他为什么不回消息？是不是不喜欢我了？\n", sent.get(1));
+        Assertions.assertEquals(List.of(false, true), applied);
+        Assertions.assertEquals(1.0, registry.get("ai.chat.re2.requests").tag("applied", "true").counter().count());
+        Assertions.assertTrue(registry.get("ai.chat.re2.overhead.tokens").summary().totalAmount() > 0);
+        Assertions.assertEquals(1.0, registry.get("ai.chat.re2.outcome")
+                .tags("applied", "true", "quality", "ok").counter().count());
+    }
+
+    @Test
+    void testStreamRecordsQualityFlag() {
+        AdaptiveReReadingAdvisor advisor = advisor(0.9, 0.05);
+
+        List<AdvisedResponse> responses = advisor.aroundStream(request("他为什么不回消息？是不是不喜欢我了？"),
+                advisedRequest -> Flux.just(response(advisedRequest, "这个我"), response(advisedRequest, "不确定")))
+                .collectList().block();
+
+        Assertions.assertEquals(2, responses.size());
+        Assertions.assertEquals(1.0, registry.get("ai.chat.re2.outcome")
+                .tags("applied", "true", "quality", "hedged").counter().count());
+    }
+
+    @Test
+    void testDisabledPassThrough() {
+        AdaptiveReReadingAdvisor advisor = new AdaptiveReReadingAdvisor(false, 10, 2, KEYWORDS, 1, 1.0,
+                List.of("不确定"), () -> 0.0);
+        List<String> sent = new ArrayList<>();
+        advisor.aroundCall(request("为什么"), advisedRequest -> {
+            sent.add(advisedRequest.userText());
+            return response(advisedRequest, "好的");
+        });
+        Assertions.assertEquals(List.of("为什么"), sent);
+    }
+
+    private AdaptiveReReadingAdvisor advisor(double random, double sampleRate) {
+        return new AdaptiveReReadingAdvisor(true, 50, 2, KEYWORDS, 2, sampleRate, List.of("不确定"), () -> random);
+    }
+
+    private AdvisedRequest request(String question) {
+        return AdvisedRequest.builder()
+                .chatModel(prompt -> null)
+                .userText(question)
+                .systemText("你是一位情感咨询师")
+                .adviseContext(Map.of())
+                .build();
+    }
+
+    private AdvisedResponse response(AdvisedRequest advisedRequest, String text) {
+        return AdvisedResponse.builder()
+                .response(new ChatResponse(List.of(new Generation(new AssistantMessage(text)))))
+                .adviseContext(advisedRequest.adviseContext())
+                .build();
+    }
+}
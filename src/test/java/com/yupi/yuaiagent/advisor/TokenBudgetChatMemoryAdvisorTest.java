@@ -0,0 +1,91 @@
+package com.yupi.yuaiagent.advisor;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.advisor.api.AdvisedRequest;
+import org.springframework.ai.chat.client.advisor.api.AdvisedResponse;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.InMemoryChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_CONVERSATION_ID_KEY;
+
+/**
+ * Token 预算对话记忆测试（不依赖模型和数据库）
+ */
+class TokenBudgetChatMemoryAdvisorTest {
+
+    @Test
+    void testTrimOldestAndKeepSystem() {
+        ChatMemory chatMemory = new InMemoryChatMemory();
+        String chatId = "budget_001";
+        chatMemory.add(chatId, new SystemMessage("对话摘要"));
+        for (int i = 0; i < 20; i++) {
+            chatMemory.add(chatId, new UserMessage("第" + i + "轮问题，" + "很长的内容".repeat(20)));
+            chatMemory.add(chatId, new AssistantMessage("第" + i + "轮回答，" + "很长的内容".repeat(20)));
+        }
+
+        TokenBudgetChatMemoryAdvisor advisor = new TokenBudgetChatMemoryAdvisor(chatMemory, 500, 100);
+        List<Message> sent = new ArrayList<>();
+        advisor.aroundCall(request(chatId), advisedRequest -> {
+            sent.addAll(advisedRequest.messages());
+            return AdvisedResponse.builder()
+                    .response(new ChatResponse(List.of(new Generation(new AssistantMessage("好的")))))
+                    .adviseContext(advisedRequest.adviseContext())
+                    .build();
+        });
+
+        // SYSTEM 消息始终保留且排在最前，历史只保留最新的一部分
+        Assertions.assertInstanceOf(SystemMessage.class, sent.get(0));
+        Assertions.assertTrue(sent.size() > 1 && sent.size() < 41);
+        Assertions.assertTrue(sent.get(sent.size() - 1).getText().startsWith("第19轮回答"));
+        // 本轮问答已写回记忆
+        List<Message> stored = chatMemory.get(chatId, 2);
+        Assertions.assertEquals("你好", stored.get(0).getText());
+        Assertions.assertEquals("好的", stored.get(1).getText());
+    }
+
+    @Test
+    void testPrefetchedHistorySkipsStore() {
+        ChatMemory chatMemory = new InMemoryChatMemory();
+        String chatId = "budget_002";
+        chatMemory.add(chatId, new UserMessage("存储中的消息"));
+        List<Message> prefetched = List.of(new UserMessage("预取的问题"), new AssistantMessage("预取的回答"));
+
+        TokenBudgetChatMemoryAdvisor advisor = new TokenBudgetChatMemoryAdvisor(chatMemory, 500, 100);
+        List<Message> sent = new ArrayList<>();
+        AdvisedRequest request = AdvisedRequest.from(request(chatId))
+                .adviseContext(Map.of(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId,
+                        TokenBudgetChatMemoryAdvisor.PREFETCHED_HISTORY_KEY, prefetched))
+                .build();
+        advisor.aroundCall(request, advisedRequest -> {
+            sent.addAll(advisedRequest.messages());
+            return AdvisedResponse.builder()
+                    .response(new ChatResponse(List.of(new Generation(new AssistantMessage("好的")))))
+                    .adviseContext(advisedRequest.adviseContext())
+                    .build();
+        });
+
+        Assertions.assertEquals(prefetched, sent);
+        // 写入仍然落到存储
+        Assertions.assertEquals(3, chatMemory.get(chatId, 10).size());
+    }
+
+    private AdvisedRequest request(String chatId) {
+        return AdvisedRequest.builder()
+                .chatModel(prompt -> null)
+                .userText("你好")
+                .systemText("你是一位情感咨询师")
+                .adviseContext(Map.of(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId))
+                .build();
+    }
+}
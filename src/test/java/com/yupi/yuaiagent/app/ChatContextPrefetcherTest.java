@@ -0,0 +1,96 @@
+package com.yupi.yuaiagent.app;
+
+import com.yupi.yuaiagent.advisor.PrefetchedDocumentsAdvisor;
+import com.yupi.yuaiagent.rag.ContextCompressor;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.advisor.QuestionAnswerAdvisor;
+import org.springframework.ai.chat.client.advisor.api.AdvisedRequest;
+import org.springframework.ai.chat.client.advisor.api.AdvisedResponse;
+import org.springframework.ai.chat.memory.InMemoryChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 并发预取测试（历史、检索、模板均用桩代替）
+ */
+class ChatContextPrefetcherTest {
+
+    private static final DocumentRetriever RETRIEVER = query -> List.of(new Document(query.text()));
+
+    @Test
+    void stagesRunConcurrently() {
+        // 三个阶段都要等到另外两个阶段开始后才能结束，串行执行时会等待超时
+        CountDownLatch started = new CountDownLatch(3);
+        DocumentRetriever retriever = query -> {
+            awaitOthers(started);
+            return RETRIEVER.retrieve(query);
+        };
+        InMemoryChatMemory chatMemory = new InMemoryChatMemory() {
+            @Override
+            public List<Message> get(String conversationId, int lastN) {
+                awaitOthers(started);
+                return super.get(conversationId, lastN);
+            }
+        };
+        chatMemory.add("prefetch_001", new UserMessage("上一轮问题"));
+        ChatContextPrefetcher prefetcher = new ChatContextPrefetcher(retriever, new ContextCompressor(false, 1200, 400), 50);
+
+        ChatContextPrefetcher.PrefetchedContext context = prefetcher.prefetch(chatMemory, "prefetch_001", "怎么表白",
+                () -> {
+                    awaitOthers(started);
+                    return "你是一位情感咨询师";
+                }, true);
+
+        Assertions.assertEquals("你是一位情感咨询师", context.systemPrompt());
+        Assertions.assertEquals(1, context.history().size());
+        Assertions.assertEquals("怎么表白", context.documents().get(0).getText());
+    }
+
+    @Test
+    void skippedStagesAreNull() {
+        ChatContextPrefetcher prefetcher = new ChatContextPrefetcher(RETRIEVER, new ContextCompressor(false, 1200, 400), 50);
+        ChatContextPrefetcher.PrefetchedContext context = prefetcher.prefetch(new InMemoryChatMemory(), "prefetch_002", "你好", null, false);
+        Assertions.assertNull(context.systemPrompt());
+        Assertions.assertNull(context.documents());
+        Assertions.assertTrue(context.history().isEmpty());
+    }
+
+    @Test
+    void prefetchedDocumentsAreInjectedIntoUserText() {
+        AtomicReference<AdvisedRequest> sent = new AtomicReference<>();
+        AdvisedRequest request = AdvisedRequest.builder()
+                .chatModel(prompt -> null)
+                .userText("怎么表白")
+                .adviseContext(Map.of(QuestionAnswerAdvisor.RETRIEVED_DOCUMENTS,
+                        List.of(new Document("真诚最重要"), new Document("选择合适的时机"))))
+                .build();
+        new PrefetchedDocumentsAdvisor().aroundCall(request, advisedRequest -> {
+            sent.set(advisedRequest);
+            return AdvisedResponse.builder().adviseContext(advisedRequest.adviseContext()).build();
+        });
+
+        Assertions.assertTrue(sent.get().userText().startsWith("怎么表白"));
+        Assertions.assertTrue(sent.get().userText().contains("{question_answer_context}"));
+        Assertions.assertEquals("真诚最重要" + System.lineSeparator() + "选择合适的时机",
+                sent.get().userParams().get("question_answer_context"));
+    }
+
+    private static void awaitOthers(CountDownLatch started) {
+        started.countDown();
+        try {
+            Assertions.assertTrue(started.await(10, TimeUnit.SECONDS), "预取阶段没有并发执行");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -5,6 +5,7 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import java.util.List;
 import java.util.UUID;
 
 @SpringBootTest
@@ -72,6 +73,26 @@ class LoveAppTest {
         Assertions.assertFalse(report.suggestions().isEmpty());
     }
 
+    /**
+     * 测试流式生成恋爱报告：建议逐条推送，最后一个事件是完整报告
+     */
+    @Test
+    void testChatWithReportStream() {
+        String chatId = UUID.randomUUID().toString();
+
+        List<LoveApp.LoveReportEvent> events = loveApp.doChatWithReportStreamForUser(
+                "我是一名程序员，想找女朋友但不知道从何开始",
+                chatId,
+                "王五",
+                "前端工程师"
+        ).doOnNext(event -> System.out.println(event.type() + "：" + event.text())).collectList().block();
+
+        Assertions.assertNotNull(events);
+        LoveApp.LoveReportEvent last = events.get(events.size() - 1);
+        Assertions.assertEquals(LoveApp.LoveReportEvent.Type.DONE, last.type());
+        Assertions.assertFalse(last.report().suggestions().isEmpty());
+    }
+
     @Test
     void doChatWithRag() {
         String chatId = UUID.randomUUID().toString();
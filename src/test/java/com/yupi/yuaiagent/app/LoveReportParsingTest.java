@@ -0,0 +1,110 @@
+package com.yupi.yuaiagent.app;
+
+import com.yupi.yuaiagent.advisor.AdaptiveReReadingAdvisor;
+import com.yupi.yuaiagent.llm.AdaptiveConcurrencyLimiter;
+import com.yupi.yuaiagent.rag.ContextCompressor;
+import com.yupi.yuaiagent.template.PromptLayoutAssembler;
+import com.yupi.yuaiagent.template.PromptTemplateLoader;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.memory.InMemoryChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 恋爱报告解析测试：能修复的输出不需要重新生成，重新生成时记忆中只保留最终结果
+ */
+class LoveReportParsingTest {
+
+    @Test
+    void parseCleanOutput() {
+        LoveApp.LoveReport report = LoveApp.parseReport("{\"title\": \"报告\", \"suggestions\": [\"多沟通\"]}");
+        Assertions.assertEquals(new LoveApp.LoveReport("报告", List.of("多沟通")), report);
+    }
+
+    @Test
+    void repairInsteadOfRegenerating() {
+        // 与旧版格式示例一样带多余逗号，外面包着代码块
+        String content = """
+                好的，以下是报告：
+                ```json
+                {"title": "报告",
+                  "suggestions": ["多沟通", "一起旅行",]
+                }
+                ```""";
+        LoveApp.LoveReport report = LoveApp.parseReport(content);
+        Assertions.assertEquals(List.of("多沟通", "一起旅行"), report.suggestions());
+    }
+
+    @Test
+    void unrepairableOutputNeedsRetry() {
+        Assertions.assertNull(LoveApp.parseReport("抱歉，我无法生成报告。"));
+        Assertions.assertNull(LoveApp.parseReport("{\"title\": \"报告\"}"));
+    }
+
+    @Test
+    void retryKeepsOnlyFinalTurnInMemory() {
+        InMemoryChatMemory chatMemory = new InMemoryChatMemory();
+        LoveApp loveApp = loveApp(chatMemory, "抱歉，我无法生成报告。", "{\"title\": \"报告\", \"suggestions\": [\"多沟通\"]}");
+
+        LoveApp.LoveReport report = loveApp.doChatWithReport("我该怎么表白？", "report_001");
+        Assertions.assertEquals(List.of("多沟通"), report.suggestions());
+        assertSingleTurn(chatMemory.get("report_001", 10), "我该怎么表白？");
+    }
+
+    @Test
+    void streamRetryKeepsOnlyFinalTurnInMemory() {
+        InMemoryChatMemory chatMemory = new InMemoryChatMemory();
+        LoveApp loveApp = loveApp(chatMemory, "抱歉，我无法生成报告。", "{\"title\": \"报告\", \"suggestions\": [\"多沟通\"]}");
+
+        List<LoveApp.LoveReportEvent> events = loveApp.doChatWithReportStream("我该怎么表白？", "report_002")
+                .collectList().block();
+        Assertions.assertEquals(LoveApp.LoveReportEvent.Type.RETRY, events.get(0).type());
+        assertSingleTurn(chatMemory.get("report_002", 10), "我该怎么表白？");
+    }
+
+    private static void assertSingleTurn(List<Message> history, String question) {
+        // 只有一条问题和一条最终报告，失败的输出没有写入
+        Assertions.assertEquals(2, history.size());
+        Assertions.assertEquals(MessageType.USER, history.get(0).getMessageType());
+        Assertions.assertEquals(question, history.get(0).getText());
+        Assertions.assertEquals(MessageType.ASSISTANT, history.get(1).getMessageType());
+        Assertions.assertEquals(new LoveApp.LoveReport("报告", List.of("多沟通")), LoveApp.parseReport(history.get(1).getText()));
+    }
+
+    /**
+     * 桩模型依次返回 answers（阻塞和流式调用共用）
+     */
+    private static LoveApp loveApp(InMemoryChatMemory chatMemory, String... answers) {
+        Iterator<String> iterator = List.of(answers).iterator();
+        ChatModel chatModel = new ChatModel() {
+            @Override
+            public ChatResponse call(Prompt prompt) {
+                return new ChatResponse(List.of(new Generation(new AssistantMessage(iterator.next()))));
+            }
+
+            @Override
+            public Flux<ChatResponse> stream(Prompt prompt) {
+                return Flux.just(call(prompt));
+            }
+        };
+        LoveApp loveApp = new LoveApp(chatModel, chatMemory, 2048, 50, 10,
+                new AdaptiveConcurrencyLimiter(false, 4, 1, 32, 1.5, 0.2, 0.0001),
+                new AdaptiveReReadingAdvisor(false, 80, 2, List.of(), 2, 0, List.of()));
+        ReflectionTestUtils.setField(loveApp, "chatContextPrefetcher",
+                new ChatContextPrefetcher(query -> List.of(), new ContextCompressor(false, 1200, 400), 50));
+        ReflectionTestUtils.setField(loveApp, "promptLayoutAssembler",
+                new PromptLayoutAssembler(new PromptTemplateLoader(), "kv-cache"));
+        return loveApp;
+    }
+}
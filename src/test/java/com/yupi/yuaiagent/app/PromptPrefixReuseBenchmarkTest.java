@@ -0,0 +1,226 @@
+package com.yupi.yuaiagent.app;
+
+import com.yupi.yuaiagent.advisor.TokenBudgetChatMemoryAdvisor;
+import com.yupi.yuaiagent.template.PromptLayoutAssembler;
+import com.yupi.yuaiagent.template.PromptTemplateLoader;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.advisor.api.AdvisedRequest;
+import org.springframework.ai.chat.client.advisor.api.AdvisedResponse;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.InMemoryChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.ai.ollama.api.OllamaOptions;
+
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_CONVERSATION_ID_KEY;
+
+/**
+ * 提示词前缀复用压测：对比 legacy 与 kv-cache 布局下多轮对话的 prefill 耗时
+ * 直接调用本地 Ollama（http://localhost:11434），未启动时跳过
+ * 饱和对话（历史超出 Token 预算）的前缀变化次数不依赖模型，总是执行
+ */
+@Slf4j
+public class PromptPrefixReuseBenchmarkTest {
+
+    private static final String BASE_URL = "http://localhost:11434";
+    private static final String MODEL = "qwen3:4b";
+
+    private static final List<String> QUESTIONS = List.of(
+            "我和女朋友异地恋，最近总是吵架怎么办？",
+            "她说我不够关心她，我该怎么表达？",
+            "我们约好周末视频，但我经常加班，怎么平衡？",
+            "她想让我换到她所在的城市工作，我该怎么考虑？",
+            "如果搬过去，怎么和她父母相处？",
+            "最后想问，怎么给她准备一个生日惊喜？");
+
+    // 饱和对话：轮数、Token 预算（约 8 轮后开始裁剪）
+    private static final int SATURATED_TURNS = 30;
+    private static final int SATURATED_TOKEN_BUDGET = 600;
+    private static final String ANSWER = "好的，我们一起来分析这个问题。".repeat(3);
+
+    @Test
+    public void testSaturatedConversationPrefixChanges() {
+        int stepOne = prefixChanges(saturatedHistories(1));
+        int stepTen = prefixChanges(saturatedHistories(10));
+        log.info("饱和对话 {} 轮中前缀变化次数：逐条裁剪 {}，按 10 条裁剪 {}", SATURATED_TURNS, stepOne, stepTen);
+        // 逐条裁剪：开始裁剪后几乎每轮都要重新 prefill 全部历史
+        Assertions.assertTrue(stepOne >= SATURATED_TURNS - 10, "stepOne=" + stepOne);
+        // 按块裁剪：每裁一块（5 轮）才变化一次
+        Assertions.assertTrue(stepTen * 3 <= stepOne, "stepTen=" + stepTen);
+    }
+
+    @Test
+    public void benchmarkPrefillSaturated() {
+        Assumptions.assumeTrue(ollamaReachable(), "本地 Ollama 未启动，跳过压测");
+        OllamaApi ollamaApi = new OllamaApi(BASE_URL);
+        PromptLayoutAssembler assembler = new PromptLayoutAssembler(new PromptTemplateLoader(), "kv-cache");
+
+        double stepOne = averagePrefillMillis(ollamaApi, assembler, saturatedHistories(1));
+        double stepTen = averagePrefillMillis(ollamaApi, assembler, saturatedHistories(10));
+        log.info("饱和对话平均 prefill 耗时：逐条裁剪 {} ms，按 10 条裁剪 {} ms",
+                String.format("%.1f", stepOne), String.format("%.1f", stepTen));
+        Assertions.assertTrue(stepTen < stepOne);
+    }
+
+    @Test
+    public void benchmarkPrefill() {
+        Assumptions.assumeTrue(ollamaReachable(), "本地 Ollama 未启动，跳过压测");
+        OllamaApi ollamaApi = new OllamaApi(BASE_URL);
+        PromptTemplateLoader loader = new PromptTemplateLoader();
+
+        double legacy = averagePrefillMillis(ollamaApi, new PromptLayoutAssembler(loader, "legacy"));
+        double kvCache = averagePrefillMillis(ollamaApi, new PromptLayoutAssembler(loader, "kv-cache"));
+        log.info("平均 prefill 耗时：legacy {} ms，kv-cache {} ms",
+                String.format("%.1f", legacy), String.format("%.1f", kvCache));
+        Assertions.assertTrue(kvCache < legacy);
+    }
+
+    /**
+     * 模拟一段多轮对话，每轮只生成 1 个 Token，统计第 2 轮起的平均 prompt_eval_duration
+     */
+    private static double averagePrefillMillis(OllamaApi ollamaApi, PromptLayoutAssembler assembler) {
+        List<OllamaApi.Message> history = new ArrayList<>();
+        long totalNanos = 0;
+        for (int i = 0; i < QUESTIONS.size(); i++) {
+            String question = QUESTIONS.get(i);
+            Map<String, String> variables = variables(question);
+            List<OllamaApi.Message> messages = new ArrayList<>();
+            messages.add(message(OllamaApi.Message.Role.SYSTEM, assembler.systemPrompt(variables)));
+            messages.addAll(history);
+            String userContext = assembler.userContext(variables);
+            messages.add(message(OllamaApi.Message.Role.USER,
+                    userContext == null ? question : userContext + "\n\n问题描述：" + question));
+
+            OllamaApi.ChatResponse response = ollamaApi.chat(OllamaApi.ChatRequest.builder(MODEL)
+                    .messages(messages)
+                    .stream(false)
+                    .keepAlive("30m")
+                    .options(OllamaOptions.builder().numPredict(1).numCtx(4096).build())
+                    .build());
+            // 第 1 轮用于加载模型和预热
+            if (i > 0) {
+                totalNanos += response.promptEvalDuration();
+            }
+            history.add(message(OllamaApi.Message.Role.USER, question));
+            history.add(message(OllamaApi.Message.Role.ASSISTANT, "好的，我们一起来分析这个问题。".repeat(3)));
+        }
+        return totalNanos / 1_000_000.0 / (QUESTIONS.size() - 1);
+    }
+
+    /**
+     * 发送 TokenBudgetChatMemoryAdvisor 挑选出的历史，统计第 2 轮起的平均 prompt_eval_duration
+     */
+    private static double averagePrefillMillis(OllamaApi ollamaApi, PromptLayoutAssembler assembler,
+                                               List<List<Message>> histories) {
+        long totalNanos = 0;
+        for (int i = 0; i < histories.size(); i++) {
+            Map<String, String> variables = variables(question(i));
+            List<OllamaApi.Message> messages = new ArrayList<>();
+            messages.add(message(OllamaApi.Message.Role.SYSTEM, assembler.systemPrompt(variables)));
+            for (Message history : histories.get(i)) {
+                messages.add(message(history.getMessageType() == MessageType.USER
+                        ? OllamaApi.Message.Role.USER : OllamaApi.Message.Role.ASSISTANT, history.getText()));
+            }
+            messages.add(message(OllamaApi.Message.Role.USER,
+                    assembler.userContext(variables) + "\n\n问题描述：" + question(i)));
+            OllamaApi.ChatResponse response = ollamaApi.chat(OllamaApi.ChatRequest.builder(MODEL)
+                    .messages(messages)
+                    .stream(false)
+                    .keepAlive("30m")
+                    .options(OllamaOptions.builder().numPredict(1).numCtx(4096).build())
+                    .build());
+            if (i > 0) {
+                totalNanos += response.promptEvalDuration();
+            }
+        }
+        return totalNanos / 1_000_000.0 / (histories.size() - 1);
+    }
+
+    /**
+     * 用 TokenBudgetChatMemoryAdvisor 跑一段超出预算的对话，返回每一轮实际发送的历史
+     * 候选条数足够大，只观察 Token 预算裁剪的影响
+     */
+    private static List<List<Message>> saturatedHistories(int trimStep) {
+        ChatMemory chatMemory = new InMemoryChatMemory();
+        TokenBudgetChatMemoryAdvisor advisor =
+                new TokenBudgetChatMemoryAdvisor(chatMemory, SATURATED_TOKEN_BUDGET, 1000, trimStep);
+        List<List<Message>> histories = new ArrayList<>();
+        for (int i = 0; i < SATURATED_TURNS; i++) {
+            AdvisedRequest request = AdvisedRequest.builder()
+                    .chatModel(prompt -> null)
+                    .userText(question(i))
+                    .systemText("你是一位情感咨询师")
+                    .adviseContext(Map.of(CHAT_MEMORY_CONVERSATION_ID_KEY, "saturated"))
+                    .build();
+            advisor.aroundCall(request, advisedRequest -> {
+                histories.add(List.copyOf(advisedRequest.messages()));
+                return AdvisedResponse.builder()
+                        .response(new ChatResponse(List.of(new Generation(new AssistantMessage(ANSWER)))))
+                        .adviseContext(advisedRequest.adviseContext())
+                        .build();
+            });
+        }
+        return histories;
+    }
+
+    /**
+     * 上一轮的历史不是本轮历史的前缀时，模型要从头 prefill
+     */
+    private static int prefixChanges(List<List<Message>> histories) {
+        int changes = 0;
+        for (int i = 1; i < histories.size(); i++) {
+            List<Message> previous = histories.get(i - 1);
+            List<Message> current = histories.get(i);
+            if (current.size() < previous.size() || !current.subList(0, previous.size()).equals(previous)) {
+                changes++;
+            }
+        }
+        return changes;
+    }
+
+    private static String question(int turn) {
+        return QUESTIONS.get(turn % QUESTIONS.size()) + "（第" + (turn + 1) + "轮）";
+    }
+
+    private static OllamaApi.Message message(OllamaApi.Message.Role role, String content) {
+        return OllamaApi.Message.builder(role).content(content).build();
+    }
+
+    private static Map<String, String> variables(String question) {
+        Map<String, String> variables = new HashMap<>();
+        variables.put("advisorName", "心灵导师小爱");
+        variables.put("profession", "程序员");
+        variables.put("userName", "小明");
+        variables.put("userProfession", "程序员");
+        variables.put("problemType", "情感咨询");
+        variables.put("tone", "温暖而专业");
+        variables.put("question", question);
+        variables.put("maxWords", "300");
+        return variables;
+    }
+
+    private static boolean ollamaReachable() {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) URI.create(BASE_URL + "/api/version").toURL().openConnection();
+            connection.setConnectTimeout(500);
+            connection.setReadTimeout(500);
+            return connection.getResponseCode() == 200;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
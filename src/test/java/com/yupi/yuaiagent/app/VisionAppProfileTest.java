@@ -0,0 +1,128 @@
+package com.yupi.yuaiagent.app;
+
+import com.yupi.yuaiagent.cache.VisionResultCache;
+import com.yupi.yuaiagent.llm.AdaptiveConcurrencyLimiter;
+import com.yupi.yuaiagent.utils.ImagePreprocessor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.InMemoryChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 图片批量分析测试（桩模型，不依赖 Ollama）
+ */
+class VisionAppProfileTest {
+
+    @TempDir
+    Path cacheDir;
+
+    // 桩模型收到的提示词
+    private final List<String> prompts = new CopyOnWriteArrayList<>();
+
+    private VisionApp visionApp;
+
+    @AfterEach
+    void tearDown() {
+        if (visionApp != null) {
+            visionApp.shutdown();
+        }
+    }
+
+    @Test
+    void testOnlyMissingFieldsAreAskedAgain() {
+        // 单次推理：图片中没有文字（text 为空字符串），objects 缺失
+        visionApp = visionApp(prompt -> {
+            String question = lastUserText(prompt);
+            prompts.add(question);
+            String answer = question.contains("JSON")
+                    ? "{\"description\":\"海边日落\",\"text\":\"\",\"objects\":null,\"emotion\":\"宁静\"}"
+                    : "太阳、海面、礁石";
+            return new ChatResponse(List.of(new Generation(new AssistantMessage(answer))));
+        });
+
+        VisionApp.ImageProfile profile = visionApp.analyzeImageProfile("test.png",
+                EnumSet.allOf(VisionApp.AnalysisKind.class));
+        Assertions.assertEquals(new VisionApp.ImageProfile("海边日落", "", "太阳、海面、礁石", "宁静"), profile);
+        // 一次批量推理 + 只补充缺失的 objects
+        Assertions.assertEquals(2, prompts.size());
+        Assertions.assertTrue(prompts.get(1).contains(VisionApp.AnalysisKind.OBJECTS.getQuestion()));
+
+        // 再次分析同一张图片全部命中缓存
+        Assertions.assertEquals(profile, visionApp.analyzeImageProfile("test.png",
+                EnumSet.allOf(VisionApp.AnalysisKind.class)));
+        Assertions.assertEquals(2, prompts.size());
+    }
+
+    @Test
+    void testCachedFieldsAreNotAskedInBatch() {
+        visionApp = visionApp(prompt -> {
+            prompts.add(lastUserText(prompt));
+            return new ChatResponse(List.of(new Generation(new AssistantMessage(
+                    "{\"description\":null,\"text\":\"你好\",\"objects\":null,\"emotion\":null}"))));
+        });
+        visionApp.analyzeImageProfile("test.png", EnumSet.of(VisionApp.AnalysisKind.TEXT));
+
+        prompts.clear();
+        visionApp = visionApp(prompt -> {
+            prompts.add(lastUserText(prompt));
+            return new ChatResponse(List.of(new Generation(new AssistantMessage(
+                    "{\"description\":\"一张卡片\",\"text\":null,\"objects\":null,\"emotion\":null}"))));
+        });
+        VisionApp.ImageProfile profile = visionApp.analyzeImageProfile("test.png",
+                EnumSet.of(VisionApp.AnalysisKind.DESCRIPTION, VisionApp.AnalysisKind.TEXT));
+        Assertions.assertEquals("一张卡片", profile.description());
+        Assertions.assertEquals("你好", profile.text());
+        Assertions.assertEquals(1, prompts.size());
+        Assertions.assertFalse(prompts.get(0).contains(VisionApp.AnalysisKind.TEXT.getQuestion()));
+    }
+
+    @Test
+    void testBatchAnalysisDoesNotCarryChatHistory() {
+        InMemoryChatMemory memory = new InMemoryChatMemory();
+        memory.add("default", List.of(new UserMessage("之前的问题"), new AssistantMessage("之前的回答")));
+        List<Integer> messageCounts = new CopyOnWriteArrayList<>();
+        visionApp = visionApp(prompt -> {
+            messageCounts.add(prompt.getInstructions().size());
+            return new ChatResponse(List.of(new Generation(new AssistantMessage(
+                    "{\"description\":\"一张卡片\",\"text\":null,\"objects\":null,\"emotion\":null}"))));
+        }, memory);
+        visionApp.analyzeImageProfile("test.png", EnumSet.of(VisionApp.AnalysisKind.DESCRIPTION));
+        // 只有本次的提问，没有重放历史，也不写入历史
+        Assertions.assertEquals(List.of(1), messageCounts);
+        Assertions.assertEquals(2, memory.get("default", 100).size());
+    }
+
+    private static String lastUserText(Prompt prompt) {
+        List<Message> messages = prompt.getInstructions();
+        return messages.get(messages.size() - 1).getText();
+    }
+
+    private VisionApp visionApp(ChatModel chatModel) {
+        return visionApp(chatModel, new InMemoryChatMemory());
+    }
+
+    private VisionApp visionApp(ChatModel chatModel, ChatMemory chatMemory) {
+        if (visionApp != null) {
+            visionApp.shutdown();
+        }
+        return new VisionApp(chatModel, chatMemory,
+                new ImagePreprocessor(false, 1024, 0.85f, 1, 8),
+                new VisionResultCache(true, cacheDir, 100, Duration.ofHours(1)),
+                new AdaptiveConcurrencyLimiter(false, 4, 1, 32, 1.5, 0.2, 0.0001));
+    }
+}
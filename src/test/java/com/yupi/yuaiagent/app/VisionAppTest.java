@@ -1,10 +1,13 @@
 package com.yupi.yuaiagent.app;
 
 import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import java.util.EnumSet;
+
 /**
  * 多模态对话测试
  */
@@ -52,4 +55,25 @@ public class VisionAppTest {
         String result = visionApp.analyzeEmotion("test.png");
         log.info("情感分析：{}", result);
     }
+
+    @Test
+    public void testAnalyzeImageProfile() {
+        // 测试一次推理完成多项分析
+        VisionApp.ImageProfile profile = visionApp.analyzeImageProfile("test.png",
+                EnumSet.allOf(VisionApp.AnalysisKind.class));
+        Assertions.assertNotNull(profile);
+        Assertions.assertNotNull(profile.description());
+        log.info("图片画像：{}", profile);
+    }
+
+    @Test
+    public void testAnalyzeImageStream() {
+        // 测试流式 OCR
+        String result = String.join("", visionApp
+                .analyzeImageStream("test.png", VisionApp.AnalysisKind.TEXT.getQuestion())
+                .doOnNext(chunk -> log.info("片段：{}", chunk))
+                .collectList()
+                .block());
+        Assertions.assertFalse(result.isEmpty());
+    }
 }
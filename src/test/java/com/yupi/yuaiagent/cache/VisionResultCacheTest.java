@@ -0,0 +1,146 @@
+package com.yupi.yuaiagent.cache;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 图片分析结果缓存测试
+ */
+class VisionResultCacheTest {
+
+    @TempDir
+    Path cacheDir;
+
+    @Test
+    void testMemoryAndDiskTiers() {
+        String imageHash = VisionResultCache.hashImage(new byte[]{1, 2, 3});
+        VisionResultCache cache = new VisionResultCache(true, cacheDir, 10, Duration.ofHours(1));
+        Assertions.assertTrue(cache.get(imageHash, "描述图片").isEmpty());
+
+        cache.put(imageHash, "描述图片", "一只猫");
+        Assertions.assertEquals("一只猫", cache.get(imageHash, "描述图片").orElseThrow());
+        Assertions.assertTrue(cache.get(imageHash, "识别文字").isEmpty());
+
+        // 新实例（模拟重启）从磁盘层命中
+        VisionResultCache restarted = new VisionResultCache(true, cacheDir, 10, Duration.ofHours(1));
+        Assertions.assertEquals("一只猫", restarted.get(imageHash, "描述图片").orElseThrow());
+    }
+
+    @Test
+    void testInvalidate() {
+        String imageA = VisionResultCache.hashImage(new byte[]{1});
+        String imageB = VisionResultCache.hashImage(new byte[]{2});
+        VisionResultCache cache = new VisionResultCache(true, cacheDir, 10, Duration.ofHours(1));
+        cache.put(imageA, "q1", "a1");
+        cache.put(imageA, "q2", "a2");
+        cache.put(imageB, "q1", "b1");
+
+        cache.invalidate(imageA);
+        Assertions.assertTrue(cache.get(imageA, "q1").isEmpty());
+        Assertions.assertTrue(cache.get(imageA, "q2").isEmpty());
+        Assertions.assertEquals("b1", cache.get(imageB, "q1").orElseThrow());
+
+        cache.invalidateAll();
+        Assertions.assertTrue(cache.get(imageB, "q1").isEmpty());
+    }
+
+    @Test
+    void testMemoryEntryExpires() throws Exception {
+        String imageHash = VisionResultCache.hashImage(new byte[]{1});
+        MutableClock clock = new MutableClock();
+        VisionResultCache cache = new VisionResultCache(true, cacheDir, 10, Duration.ofHours(1), Long.MAX_VALUE, "",
+                clock, Duration.ZERO);
+        cache.put(imageHash, "q", "a");
+        clock.advance(Duration.ofMinutes(59));
+        Assertions.assertEquals("a", cache.get(imageHash, "q").orElseThrow());
+
+        // 内存层的条目同样过期，不会一直命中到被 LRU 淘汰
+        clock.advance(Duration.ofMinutes(2));
+        Assertions.assertTrue(cache.get(imageHash, "q").isEmpty());
+        try (var files = Files.walk(cacheDir)) {
+            Assertions.assertEquals(0, files.filter(path -> path.toString().endsWith(".txt")).count());
+        }
+    }
+
+    @Test
+    void testVariantIsPartOfKey() {
+        String imageHash = VisionResultCache.hashImage(new byte[]{1});
+        VisionResultCache small = new VisionResultCache(true, cacheDir, 10, Duration.ofHours(1), Long.MAX_VALUE,
+                "model=qwen3:4b,maxEdge=1024", Clock.systemDefaultZone(), Duration.ZERO);
+        small.put(imageHash, "q", "小模型的回答");
+
+        // 换模型或预处理参数后（重启后磁盘层也）不命中旧结果
+        VisionResultCache other = new VisionResultCache(true, cacheDir, 10, Duration.ofHours(1), Long.MAX_VALUE,
+                "model=qwen2.5vl:7b,maxEdge=1024", Clock.systemDefaultZone(), Duration.ZERO);
+        Assertions.assertTrue(other.get(imageHash, "q").isEmpty());
+        Assertions.assertEquals("小模型的回答", small.get(imageHash, "q").orElseThrow());
+
+        // 按图片失效对所有变体生效
+        small.invalidate(imageHash);
+        Assertions.assertTrue(small.get(imageHash, "q").isEmpty());
+    }
+
+    @Test
+    void testPruneByAgeAndSize() {
+        MutableClock clock = new MutableClock();
+        VisionResultCache cache = new VisionResultCache(true, cacheDir, 10, Duration.ofHours(1), 10, "",
+                clock, Duration.ZERO);
+        String expired = VisionResultCache.hashImage(new byte[]{1});
+        String older = VisionResultCache.hashImage(new byte[]{2});
+        String newer = VisionResultCache.hashImage(new byte[]{3});
+        cache.put(expired, "q", "0123");
+        clock.advance(Duration.ofMinutes(30));
+        cache.put(older, "q", "0123456");
+        clock.advance(Duration.ofMinutes(1));
+        cache.put(newer, "q", "0123456");
+        clock.advance(Duration.ofMinutes(31));
+
+        // expired 已超过有效期；剩下 14 字节超过 10 字节上限，删除较早写入的 older
+        Assertions.assertEquals(2, cache.prune());
+        Assertions.assertFalse(Files.exists(cacheDir.resolve(expired)));
+        Assertions.assertFalse(Files.exists(cacheDir.resolve(older)));
+        VisionResultCache restarted = new VisionResultCache(true, cacheDir, 10, Duration.ofHours(1), 10, "",
+                clock, Duration.ZERO);
+        Assertions.assertEquals("0123456", restarted.get(newer, "q").orElseThrow());
+        Assertions.assertEquals(0, cache.prune());
+    }
+
+    private static class MutableClock extends Clock {
+
+        private final AtomicLong millis = new AtomicLong(Instant.parse("2025-01-01T00:00:00Z").toEpochMilli());
+
+        void advance(Duration duration) {
+            millis.addAndGet(duration.toMillis());
+        }
+
+        @Override
+        public long millis() {
+            return millis.get();
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis.get());
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
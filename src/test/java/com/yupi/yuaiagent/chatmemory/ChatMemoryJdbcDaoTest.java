@@ -0,0 +1,148 @@
+package com.yupi.yuaiagent.chatmemory;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.yupi.yuaiagent.mapper.ChatMemoryMapper;
+import com.yupi.yuaiagent.model.entity.ChatMemoryEntity;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 对话记忆 JDBC 热点路径测试，并与 MyBatis-Plus Mapper 路径对比耗时
+ * 使用 Druid 连接池（开启 PS 缓存）+ 内嵌 H2，与线上连接池配置一致
+ */
+@Slf4j
+class ChatMemoryJdbcDaoTest {
+
+    private static final int CONVERSATIONS = 50;
+    private static final int TURNS = 20;
+
+    private DruidDataSource dataSource;
+    private ChatMemoryJdbcDao dao;
+    private ChatMemoryMapper chatMemoryMapper;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        dataSource = new DruidDataSource();
+        dataSource.setUrl("jdbc:h2:mem:jdbc_dao_" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        dataSource.setDriverClassName("org.h2.Driver");
+        dataSource.setPoolPreparedStatements(true);
+        dataSource.setMaxPoolPreparedStatementPerConnectionSize(50);
+        new ResourceDatabasePopulator(new ClassPathResource("sql/schema-h2.sql")).execute(dataSource);
+        dao = new ChatMemoryJdbcDao(dataSource);
+        chatMemoryMapper = H2ChatMemoryTestSupport.sqlSessionTemplate(dataSource).getMapper(ChatMemoryMapper.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        dataSource.close();
+    }
+
+    @Test
+    void testAppendFindDelete() {
+        Assertions.assertEquals(0, dao.append("dao_001",
+                List.of(new SystemMessage("摘要"), new UserMessage("问题1"), new AssistantMessage("回答1")), null));
+        Assertions.assertEquals(3, dao.append("dao_001",
+                List.of(new UserMessage("问题2"), new AssistantMessage("回答2".repeat(200))),
+                new MessageCodec(MessageCodec.DEFAULT_COMPRESS_THRESHOLD)));
+
+        // 最近 3 条按时间正序，文本行和二进制行混合
+        List<Message> latest = dao.findLatest("dao_001", -1, 3);
+        Assertions.assertEquals(List.of("回答1", "问题2", "回答2".repeat(200)), latest.stream().map(Message::getText).toList());
+        Assertions.assertEquals(MessageType.ASSISTANT, latest.get(0).getMessageType());
+        Assertions.assertEquals(MessageType.SYSTEM, dao.findLatest("dao_001", -1, 10).get(0).getMessageType());
+        // 只取 afterIndex 之后的消息
+        Assertions.assertEquals(1, dao.findLatest("dao_001", 3, 10).size());
+
+        // 早期消息被删除后，按最大索引续写，不会与已有索引冲突
+        chatMemoryMapper.delete(new QueryWrapper<ChatMemoryEntity>()
+                .eq("conversation_id", "dao_001").lt("message_index", 2));
+        Assertions.assertEquals(5, dao.append("dao_001", List.of(new UserMessage("问题3")), null));
+
+        // 分批删除只删到指定索引
+        Assertions.assertEquals(5, dao.maxIndex("dao_001"));
+        Assertions.assertEquals(3, dao.deleteByIds(dao.findIdsUpTo("dao_001", 4, 10)));
+        Assertions.assertEquals(List.of("问题3"), dao.findLatest("dao_001", -1, 10).stream().map(Message::getText).toList());
+    }
+
+    @Test
+    void benchmarkAgainstMapper() {
+        // 预热
+        runMapper("warmup_mapper", 5);
+        runJdbc("warmup_jdbc", 5);
+
+        long start = System.nanoTime();
+        runMapper("mapper", CONVERSATIONS);
+        long mapperNanos = System.nanoTime() - start;
+
+        long hitsBefore = dataSource.getCachedPreparedStatementHitCount();
+        start = System.nanoTime();
+        runJdbc("jdbc", CONVERSATIONS);
+        long jdbcNanos = System.nanoTime() - start;
+
+        int rounds = CONVERSATIONS * TURNS;
+        log.info("每轮（写入一问一答 + 读取最近 10 条）平均耗时：Mapper {} µs，JDBC {} µs",
+                String.format("%.1f", mapperNanos / 1e3 / rounds), String.format("%.1f", jdbcNanos / 1e3 / rounds));
+        // 固定 SQL 命中了 Druid 的 PS 缓存
+        Assertions.assertTrue(dataSource.getCachedPreparedStatementHitCount() - hitsBefore > rounds);
+    }
+
+    /**
+     * 原 MySQLChatMemory 的实现：QueryWrapper 计数 + 逐条 insert + 实体查询后转换
+     */
+    private void runMapper(String prefix, int conversations) {
+        for (int c = 0; c < conversations; c++) {
+            String conversationId = prefix + "_" + c;
+            for (int t = 0; t < TURNS; t++) {
+                Long count = chatMemoryMapper.selectCount(
+                        new QueryWrapper<ChatMemoryEntity>().eq("conversation_id", conversationId));
+                List<Message> turn = turn(t);
+                for (int i = 0; i < turn.size(); i++) {
+                    ChatMemoryEntity entity = new ChatMemoryEntity();
+                    entity.setConversationId(conversationId);
+                    entity.setMessageIndex(count.intValue() + i);
+                    entity.setMessageType(turn.get(i).getMessageType().getValue());
+                    entity.setContent(turn.get(i).getText());
+                    chatMemoryMapper.insert(entity);
+                }
+                List<ChatMemoryEntity> entities = chatMemoryMapper.selectLatest(conversationId, -1, 10);
+                List<Message> messages = new ArrayList<>();
+                for (int i = entities.size() - 1; i >= 0; i--) {
+                    ChatMemoryEntity entity = entities.get(i);
+                    messages.add("ASSISTANT".equals(entity.getMessageType())
+                            ? new AssistantMessage(entity.getContent()) : new UserMessage(entity.getContent()));
+                }
+                Assertions.assertEquals(Math.min(10, (t + 1) * 2), messages.size());
+            }
+        }
+    }
+
+    private void runJdbc(String prefix, int conversations) {
+        for (int c = 0; c < conversations; c++) {
+            String conversationId = prefix + "_" + c;
+            for (int t = 0; t < TURNS; t++) {
+                dao.append(conversationId, turn(t), null);
+                Assertions.assertEquals(Math.min(10, (t + 1) * 2), dao.findLatest(conversationId, -1, 10).size());
+            }
+        }
+    }
+
+    private static List<Message> turn(int t) {
+        return List.of(new UserMessage("第" + t + "轮问题：最近总是吵架怎么办？"),
+                new AssistantMessage("第" + t + "轮回答：" + "先冷静下来，再把感受说出来。".repeat(10)));
+    }
+}
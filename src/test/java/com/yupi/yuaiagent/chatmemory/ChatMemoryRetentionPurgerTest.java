@@ -0,0 +1,252 @@
+package com.yupi.yuaiagent.chatmemory;
+
+import com.yupi.yuaiagent.mapper.ChatMemoryMapper;
+import com.yupi.yuaiagent.mapper.ChatMemorySummaryMapper;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+
+/**
+ * 对话记忆保留策略与分批清理测试（内嵌 H2）
+ */
+class ChatMemoryRetentionPurgerTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2025, 6, 1, 12, 0);
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private JdbcTemplate jdbcTemplate;
+    private ChatMemoryJdbcDao dao;
+    private ChatMemoryMapper chatMemoryMapper;
+    private ChatMemorySummaryMapper chatMemorySummaryMapper;
+    private ChatMemoryShardRouter router;
+    private ChatMemorySummarizer summarizer;
+    private ChatMemoryRetentionProperties properties;
+    private ChatMemoryRetentionPurger purger;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Metrics.addRegistry(registry);
+        DataSource dataSource = H2ChatMemoryTestSupport.h2DataSource("retention");
+        SqlSessionTemplate template = H2ChatMemoryTestSupport.sqlSessionTemplate(dataSource);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        dao = new ChatMemoryJdbcDao(dataSource);
+        chatMemoryMapper = template.getMapper(ChatMemoryMapper.class);
+        chatMemorySummaryMapper = template.getMapper(ChatMemorySummaryMapper.class);
+        router = new ChatMemoryShardRouter(List.of(), 160);
+        summarizer = new ChatMemorySummarizer(prompt -> null, chatMemoryMapper, chatMemorySummaryMapper, router,
+                false, 20, 10, 500, 1, 1);
+
+        properties = new ChatMemoryRetentionProperties();
+        properties.setDefaultTtl(Duration.ofDays(7));
+        properties.setPolicies(List.of(policy("vip_", Duration.ZERO), policy("tmp_", Duration.ofHours(1))));
+        properties.setChunkSize(3);
+        properties.setPause(Duration.ZERO);
+        purger = new ChatMemoryRetentionPurger(dao, summarizer, router, properties,
+                Clock.fixed(NOW.atZone(ZoneId.systemDefault()).toInstant(), ZoneId.systemDefault()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        purger.shutdown();
+        Metrics.removeRegistry(registry);
+    }
+
+    @Test
+    void testTtlByLongestPrefix() {
+        Assertions.assertEquals(Duration.ofDays(7), purger.ttlFor("c1"));
+        Assertions.assertNull(purger.ttlFor("vip_001"));
+        Assertions.assertEquals(Duration.ofHours(1), purger.ttlFor("tmp_001"));
+        properties.setPolicies(List.of(policy("tmp_", Duration.ofHours(1)), policy("tmp_long_", Duration.ofDays(1))));
+        Assertions.assertEquals(Duration.ofDays(1), purger.ttlFor("tmp_long_001"));
+    }
+
+    @Test
+    void testPurgeExpiredInChunks() {
+        // 10 条 30 天前的消息（分多批删除）、2 条 1 天前的消息
+        for (int i = 0; i < 10; i++) {
+            insert("old", i, NOW.minusDays(30).plusMinutes(i));
+        }
+        insert("recent", 0, NOW.minusDays(1));
+        insert("recent", 1, NOW.minusDays(1));
+        // 永久保留的对话、2 小时前的临时对话
+        insert("vip_001", 0, NOW.minusDays(300));
+        insert("tmp_001", 0, NOW.minusHours(2));
+        summarizer.markCleared("old", 0);
+
+        purger.purgeExpired();
+
+        Assertions.assertFalse(dao.exists("old"));
+        Assertions.assertFalse(dao.exists("tmp_001"));
+        Assertions.assertEquals(2, dao.findLatest("recent", -1, 10).size());
+        Assertions.assertTrue(dao.exists("vip_001"));
+        // 消息全部过期的对话，摘要一起删除
+        Assertions.assertNull(chatMemorySummaryMapper.selectById("old"));
+        Assertions.assertEquals(11.0, registry.get("ai.chat.memory.retention.purged").tag("reason", "ttl").counter().count());
+        Assertions.assertEquals(11, registry.get("ai.chat.memory.retention.lag").summary().count());
+    }
+
+    @Test
+    void testAddAfterClearPurgedKeepsIndexAfterMarker() {
+        MySQLChatMemory chatMemory = chatMemory();
+        chatMemory.add("clear_002", List.of(new UserMessage("问题"), new AssistantMessage("回答")));
+        chatMemory.clear("clear_002");
+        // 旧消息删除完成后再续写
+        purger.purgeClears();
+        chatMemory.add("clear_002", List.of(new UserMessage("新问题")));
+        Assertions.assertEquals(List.of("新问题"), chatMemory.get("clear_002", 10).stream().map(Message::getText).toList());
+    }
+
+    @Test
+    void testTimeBudgetResumesFromCursor() {
+        for (int i = 0; i < 10; i++) {
+            insert("old", i, NOW.minusDays(30).plusMinutes(i));
+        }
+        properties.setTimeBudget(Duration.ZERO);
+        purger.purgeExpired();
+        Assertions.assertEquals(10, dao.findLatest("old", -1, 20).size());
+
+        properties.setTimeBudget(Duration.ofSeconds(10));
+        purger.purgeExpired();
+        Assertions.assertFalse(dao.exists("old"));
+    }
+
+    @Test
+    void testClearHidesMessagesAndPurgesInBackground() throws Exception {
+        MySQLChatMemory chatMemory = chatMemory();
+        for (int i = 0; i < 5; i++) {
+            chatMemory.add("clear_001", List.of(new UserMessage("问题" + i), new AssistantMessage("回答" + i)));
+        }
+
+        chatMemory.clear("clear_001");
+        // 清空后立即不可见，新消息从原索引之后续写
+        Assertions.assertTrue(chatMemory.get("clear_001", 10).isEmpty());
+        chatMemory.add("clear_001", List.of(new UserMessage("新问题")));
+        Assertions.assertEquals(List.of("新问题"), chatMemory.get("clear_001", 10).stream().map(Message::getText).toList());
+        Assertions.assertEquals(1, chatMemory.listHistory("clear_001", null, 10, false).records().size());
+
+        // 后台分批删除完成后旧消息全部删除，清空标记随之移除
+        long deadline = System.currentTimeMillis() + 5000;
+        while (chatMemorySummaryMapper.selectById("clear_001") != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        Assertions.assertNull(chatMemorySummaryMapper.selectById("clear_001"));
+        Assertions.assertEquals(List.of("新问题"), dao.findLatest("clear_001", -1, 10).stream().map(Message::getText).toList());
+        Assertions.assertEquals(List.of("新问题"), chatMemory.get("clear_001", 10).stream().map(Message::getText).toList());
+        Assertions.assertEquals(10.0, registry.get("ai.chat.memory.retention.purged").tag("reason", "clear").counter().count());
+    }
+
+    @Test
+    void testRecoverPendingClearsAfterRestart() {
+        MySQLChatMemory chatMemory = chatMemory();
+        for (int i = 0; i < 4; i++) {
+            chatMemory.add("clear_003", List.of(new UserMessage("问题" + i), new AssistantMessage("回答" + i)));
+        }
+        // 写入清空标记后进程退出，内存中的待删除队列丢失，旧消息一行都没删
+        summarizer.markCleared("clear_003", 7);
+        // 重启前续写的消息排在标记之后
+        chatMemory.add("clear_003", List.of(new UserMessage("新问题")));
+
+        purger.recoverPendingClears();
+
+        Assertions.assertEquals(List.of("新问题"), dao.findLatest("clear_003", -1, 20).stream().map(Message::getText).toList());
+        Assertions.assertEquals(8, dao.maxIndex("clear_003"));
+        Assertions.assertNull(chatMemorySummaryMapper.selectById("clear_003"));
+        Assertions.assertEquals(List.of("新问题"), chatMemory.get("clear_003", 10).stream().map(Message::getText).toList());
+    }
+
+    @Test
+    void testIndexDoesNotFallBehindMarkerAfterAllRowsDeleted() {
+        MySQLChatMemory chatMemory = chatMemory();
+        chatMemory.add("clear_004", List.of(new UserMessage("问题"), new AssistantMessage("回答")));
+        // 旧消息已全部删除、标记尚未移除（如两步之间进程退出）
+        summarizer.markCleared("clear_004", 1);
+        dao.deleteByIds(dao.findIdsUpTo("clear_004", 1, 10));
+
+        chatMemory.add("clear_004", List.of(new UserMessage("新问题")));
+        Assertions.assertEquals(2, dao.maxIndex("clear_004"));
+        Assertions.assertEquals(List.of("新问题"), chatMemory.get("clear_004", 10).stream().map(Message::getText).toList());
+    }
+
+    @Test
+    void testScanGroupsSkipLongerAndPermanentPrefixes() {
+        properties.setPolicies(List.of(policy("vip_", Duration.ZERO), policy("tmp_", Duration.ofHours(1)),
+                policy("tmp_long_", Duration.ofDays(1)), policy("tmp_long_x_", Duration.ofHours(1))));
+        Assertions.assertEquals(List.of(
+                new ChatMemoryRetentionPurger.ScanGroup(Duration.ofHours(1), List.of("tmp_", "tmp_long_x_"), List.of()),
+                // tmp_long_x_ 回到 1 小时，1 天组跳过它
+                new ChatMemoryRetentionPurger.ScanGroup(Duration.ofDays(1), List.of("tmp_long_"), List.of("tmp_long_x_")),
+                new ChatMemoryRetentionPurger.ScanGroup(Duration.ofDays(7), List.of(), List.of("vip_", "tmp_", "tmp_long_", "tmp_long_x_"))),
+                purger.scanGroups());
+
+        // 更长的前缀回到默认保留时长时，默认组不能跳过外层前缀
+        properties.setPolicies(List.of(policy("tmp_", Duration.ofHours(1)), policy("tmp_keep_", Duration.ofDays(7))));
+        Assertions.assertEquals(List.of(), purger.scanGroups().get(1).excludePrefixes());
+
+        properties.setDefaultTtl(null);
+        properties.setPolicies(List.of(policy("test_", Duration.ofDays(1))));
+        Assertions.assertEquals(List.of(new ChatMemoryRetentionPurger.ScanGroup(Duration.ofDays(1), List.of("test_"), List.of())),
+                purger.scanGroups());
+    }
+
+    @Test
+    void testPrefixFilterEscapesWildcardsAndPagesInIndexOrder() {
+        insert("test_001", 0, NOW.minusDays(2));
+        insert("testX001", 0, NOW.minusDays(2));
+        insert("test_002", 0, NOW.minusDays(2));
+        insert("test_003", 0, NOW.minusDays(3));
+        // 前缀中的下划线不作为通配符
+        List<ChatMemoryJdbcDao.RowRef> page = dao.findCreatedBefore(NOW, List.of("test_"), List.of(), null, 2);
+        Assertions.assertEquals(List.of("test_003", "test_001"), page.stream().map(ChatMemoryJdbcDao.RowRef::conversationId).toList());
+        page = dao.findCreatedBefore(NOW, List.of("test_"), List.of(), page.get(1), 2);
+        Assertions.assertEquals(List.of("test_002"), page.stream().map(ChatMemoryJdbcDao.RowRef::conversationId).toList());
+        Assertions.assertEquals(List.of("testX001"), dao.findCreatedBefore(NOW, List.of(), List.of("test_"), null, 10)
+                .stream().map(ChatMemoryJdbcDao.RowRef::conversationId).toList());
+
+        // 永久保留、保留时长更长的对话在 SQL 里就被跳过，只有真正过期的行被读出
+        properties.setDefaultTtl(null);
+        properties.setPolicies(List.of(policy("test_", Duration.ofDays(1))));
+        purger.purgeExpired();
+        Assertions.assertEquals(List.of("testX001"), dao.findCreatedBefore(NOW, List.of(), List.of(), null, 10)
+                .stream().map(ChatMemoryJdbcDao.RowRef::conversationId).toList());
+    }
+
+    private MySQLChatMemory chatMemory() {
+        MySQLChatMemory chatMemory = new MySQLChatMemory();
+        ReflectionTestUtils.setField(chatMemory, "chatMemoryMapper", chatMemoryMapper);
+        ReflectionTestUtils.setField(chatMemory, "chatMemorySummarizer", summarizer);
+        ReflectionTestUtils.setField(chatMemory, "chatMemoryShardRouter", router);
+        ReflectionTestUtils.setField(chatMemory, "chatMemoryJdbcDao", dao);
+        ReflectionTestUtils.setField(chatMemory, "chatMemoryRetentionPurger", purger);
+        return chatMemory;
+    }
+
+    private void insert(String conversationId, int index, LocalDateTime createTime) {
+        jdbcTemplate.update("INSERT INTO chat_memory (conversation_id, message_index, message_type, content, create_time) " +
+                "VALUES (?, ?, 'USER', '消息', ?)", conversationId, index, Timestamp.valueOf(createTime));
+    }
+
+    private static ChatMemoryRetentionProperties.Policy policy(String prefix, Duration ttl) {
+        ChatMemoryRetentionProperties.Policy policy = new ChatMemoryRetentionProperties.Policy();
+        policy.setPrefix(prefix);
+        policy.setTtl(ttl);
+        return policy;
+    }
+}
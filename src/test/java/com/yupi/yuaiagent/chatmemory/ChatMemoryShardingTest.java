@@ -0,0 +1,166 @@
+package com.yupi.yuaiagent.chatmemory;
+
+import com.yupi.yuaiagent.mapper.ChatMemoryMapper;
+import com.yupi.yuaiagent.mapper.ChatMemorySummaryMapper;
+import com.yupi.yuaiagent.model.entity.ChatMemoryEntity;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 对话记忆分片测试（每个分片一个内嵌 H2 库）
+ */
+class ChatMemoryShardingTest {
+
+    private ChatMemoryMapper chatMemoryMapper;
+    private ChatMemorySummaryMapper chatMemorySummaryMapper;
+    private ChatMemoryJdbcDao chatMemoryJdbcDao;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ChatMemoryRoutingDataSource dataSource = H2ChatMemoryTestSupport.routingDataSource("ds0", "ds1", "ds2");
+        SqlSessionTemplate template = H2ChatMemoryTestSupport.sqlSessionTemplate(dataSource);
+        chatMemoryJdbcDao = new ChatMemoryJdbcDao(dataSource);
+        chatMemoryMapper = template.getMapper(ChatMemoryMapper.class);
+        chatMemorySummaryMapper = template.getMapper(ChatMemorySummaryMapper.class);
+    }
+
+    @Test
+    void testConsistentHashMovesFewConversations() {
+        ChatMemoryShardRouter two = new ChatMemoryShardRouter(List.of("ds0", "ds1"), 160);
+        ChatMemoryShardRouter three = new ChatMemoryShardRouter(List.of("ds0", "ds1", "ds2"), 160);
+        Map<String, Integer> counts = new HashMap<>();
+        int moved = 0;
+        for (int i = 0; i < 10000; i++) {
+            String id = "conversation-" + i;
+            counts.merge(three.shardFor(id), 1, Integer::sum);
+            if (!two.shardFor(id).equals(three.shardFor(id))) {
+                moved++;
+                // 新增分片时只会迁往新分片
+                Assertions.assertEquals("ds2", three.shardFor(id));
+            }
+        }
+        // 大约 1/3 的对话迁移，各分片分布均匀
+        Assertions.assertTrue(moved > 2500 && moved < 4200, "moved=" + moved);
+        counts.values().forEach(c -> Assertions.assertTrue(c > 2500 && c < 4200, "counts=" + counts));
+    }
+
+    @Test
+    void testReadWriteRoutedByConversation() {
+        ChatMemoryShardRouter router = new ChatMemoryShardRouter(List.of("ds0", "ds1", "ds2"), 160);
+        MySQLChatMemory chatMemory = chatMemory(router);
+
+        for (int i = 0; i < 20; i++) {
+            chatMemory.add("c" + i, List.of(new UserMessage("问题" + i), new AssistantMessage("回答" + i)));
+        }
+        for (int i = 0; i < 20; i++) {
+            String id = "c" + i;
+            List<Message> messages = chatMemory.get(id, 10);
+            Assertions.assertEquals(2, messages.size());
+            Assertions.assertEquals("回答" + i, messages.get(1).getText());
+            // 数据只存在于所属分片
+            for (String shard : router.shards()) {
+                long count = router.onShard(shard, () -> chatMemoryMapper.selectPageAfter(id, -1, 10).size());
+                Assertions.assertEquals(shard.equals(router.shardFor(id)) ? 2 : 0, count);
+            }
+        }
+    }
+
+    @Test
+    void testRebalanceAfterAddingShard() {
+        // 先只用 ds0 写入
+        ChatMemoryShardRouter oneShard = new ChatMemoryShardRouter(List.of("ds0"), 160);
+        MySQLChatMemory before = chatMemory(oneShard);
+        for (int i = 0; i < 30; i++) {
+            before.add("r" + i, List.of(new UserMessage("问题" + i), new AssistantMessage("回答" + i)));
+        }
+
+        // 扩容到三个分片后迁移
+        ChatMemoryShardRouter threeShards = new ChatMemoryShardRouter(List.of("ds0", "ds1", "ds2"), 160);
+        ChatMemoryShardRebalancer rebalancer =
+                new ChatMemoryShardRebalancer(threeShards, chatMemoryMapper, chatMemorySummaryMapper);
+        ChatMemoryShardRebalancer.RebalanceReport report = rebalancer.rebalance();
+        Assertions.assertTrue(report.movedConversations() > 0);
+        Assertions.assertEquals(report.movedConversations() * 2L, report.movedMessages());
+
+        MySQLChatMemory after = chatMemory(threeShards);
+        for (int i = 0; i < 30; i++) {
+            Assertions.assertEquals(2, after.get("r" + i, 10).size());
+        }
+        // 再次执行不会有任何迁移
+        Assertions.assertEquals(0, rebalancer.rebalance().movedConversations());
+    }
+
+    @Test
+    void testRebalanceMergesWritesAfterRingChange() {
+        ChatMemoryShardRouter oneShard = new ChatMemoryShardRouter(List.of("ds0"), 160);
+        ChatMemoryShardRouter threeShards = new ChatMemoryShardRouter(List.of("ds0", "ds1", "ds2"), 160);
+        String id = movedConversation(threeShards);
+        chatMemory(oneShard).add(id, List.of(new UserMessage("旧问题"), new AssistantMessage("旧回答")));
+
+        // 改配置后、迁移前已有新消息写到了新分片
+        MySQLChatMemory after = chatMemory(threeShards);
+        after.add(id, List.of(new UserMessage("新问题")));
+        ChatMemoryShardRebalancer.RebalanceReport report =
+                new ChatMemoryShardRebalancer(threeShards, chatMemoryMapper, chatMemorySummaryMapper).rebalance();
+
+        Assertions.assertEquals(2, report.movedMessages());
+        Assertions.assertTrue(report.skippedConversations().isEmpty());
+        Assertions.assertEquals(List.of("旧问题", "旧回答", "新问题"),
+                after.get(id, 10).stream().map(Message::getText).toList());
+        // 合并后继续写入，索引接在最后
+        after.add(id, List.of(new AssistantMessage("新回答")));
+        Assertions.assertEquals("新回答", after.get(id, 10).get(3).getText());
+        Assertions.assertEquals(0, oneShard.route(id, () -> chatMemoryMapper.selectPageAfter(id, -1, 10).size()));
+    }
+
+    @Test
+    void testRebalanceResumesAfterPartialCopy() {
+        ChatMemoryShardRouter oneShard = new ChatMemoryShardRouter(List.of("ds0"), 160);
+        ChatMemoryShardRouter threeShards = new ChatMemoryShardRouter(List.of("ds0", "ds1", "ds2"), 160);
+        String id = movedConversation(threeShards);
+        chatMemory(oneShard).add(id, List.of(new UserMessage("问题"), new AssistantMessage("回答")));
+
+        // 上次迁移只复制了第一条就中断
+        ChatMemoryEntity first = oneShard.route(id, () -> chatMemoryMapper.selectPageAfter(id, -1, 1)).get(0);
+        first.setId(null);
+        threeShards.route(id, () -> chatMemoryMapper.insert(first));
+
+        ChatMemoryShardRebalancer.RebalanceReport report =
+                new ChatMemoryShardRebalancer(threeShards, chatMemoryMapper, chatMemorySummaryMapper).rebalance();
+        Assertions.assertEquals(1, report.movedMessages());
+        Assertions.assertEquals(List.of("问题", "回答"),
+                chatMemory(threeShards).get(id, 10).stream().map(Message::getText).toList());
+    }
+
+    /**
+     * 三分片时不在 ds0 上的对话
+     */
+    private String movedConversation(ChatMemoryShardRouter router) {
+        for (int i = 0; ; i++) {
+            if (!"ds0".equals(router.shardFor("m" + i))) {
+                return "m" + i;
+            }
+        }
+    }
+
+    private MySQLChatMemory chatMemory(ChatMemoryShardRouter router) {
+        ChatMemorySummarizer summarizer = new ChatMemorySummarizer(prompt -> null, chatMemoryMapper,
+                chatMemorySummaryMapper, router, false, 20, 10, 500, 1, 1);
+        MySQLChatMemory chatMemory = new MySQLChatMemory();
+        ReflectionTestUtils.setField(chatMemory, "chatMemoryMapper", chatMemoryMapper);
+        ReflectionTestUtils.setField(chatMemory, "chatMemorySummarizer", summarizer);
+        ReflectionTestUtils.setField(chatMemory, "chatMemoryShardRouter", router);
+        ReflectionTestUtils.setField(chatMemory, "chatMemoryJdbcDao", chatMemoryJdbcDao);
+        return chatMemory;
+    }
+}
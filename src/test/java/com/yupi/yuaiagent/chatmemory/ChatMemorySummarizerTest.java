@@ -0,0 +1,172 @@
+package com.yupi.yuaiagent.chatmemory;
+
+import com.yupi.yuaiagent.mapper.ChatMemoryMapper;
+import com.yupi.yuaiagent.mapper.ChatMemorySummaryMapper;
+import com.yupi.yuaiagent.model.entity.ChatMemorySummaryEntity;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 对话滚动摘要测试（内嵌 H2 + 桩模型）
+ */
+class ChatMemorySummarizerTest {
+
+    private static final String ID = "summary_001";
+
+    // 桩模型收到的提示词，依次返回“摘要1”“摘要2”……
+    private final List<String> prompts = new ArrayList<>();
+    // 模拟模型调用期间其他请求的操作
+    private Runnable duringCall = () -> {
+    };
+    private final ChatModel stubModel = prompt -> {
+        prompts.add(prompt.getContents());
+        duringCall.run();
+        return new ChatResponse(List.of(new Generation(new AssistantMessage("摘要" + prompts.size()))));
+    };
+
+    private ChatMemoryJdbcDao dao;
+    private ChatMemorySummaryMapper chatMemorySummaryMapper;
+    private ChatMemorySummarizer summarizer;
+    private MySQLChatMemory chatMemory;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        DataSource dataSource = H2ChatMemoryTestSupport.h2DataSource("summary");
+        SqlSessionTemplate template = H2ChatMemoryTestSupport.sqlSessionTemplate(dataSource);
+        dao = new ChatMemoryJdbcDao(dataSource);
+        ChatMemoryMapper chatMemoryMapper = template.getMapper(ChatMemoryMapper.class);
+        chatMemorySummaryMapper = template.getMapper(ChatMemorySummaryMapper.class);
+        ChatMemoryShardRouter router = new ChatMemoryShardRouter(List.of(), 160);
+        // 未摘要消息达到 4 + 2 条时，折叠除最近 2 条以外的消息
+        summarizer = new ChatMemorySummarizer(stubModel, chatMemoryMapper, chatMemorySummaryMapper, router,
+                true, 4, 2, 500, 1, 1);
+        chatMemory = new MySQLChatMemory();
+        ReflectionTestUtils.setField(chatMemory, "chatMemoryMapper", chatMemoryMapper);
+        ReflectionTestUtils.setField(chatMemory, "chatMemorySummarizer", summarizer);
+        ReflectionTestUtils.setField(chatMemory, "chatMemoryShardRouter", router);
+        ReflectionTestUtils.setField(chatMemory, "chatMemoryJdbcDao", dao);
+    }
+
+    @Test
+    void testBelowThresholdDoesNotSummarize() {
+        append(0, 5);
+        summarizer.summarizeIfNeeded(ID, 4);
+        Assertions.assertTrue(prompts.isEmpty());
+        Assertions.assertNull(chatMemorySummaryMapper.selectById(ID));
+    }
+
+    @Test
+    void testFoldEarlyMessagesAndMergePreviousSummary() {
+        append(0, 6);
+        summarizer.summarizeIfNeeded(ID, 5);
+        // 折叠索引 0~3，最近 2 条保留原文
+        ChatMemorySummaryEntity summary = chatMemorySummaryMapper.selectById(ID);
+        Assertions.assertEquals("摘要1", summary.getSummary());
+        Assertions.assertEquals(3, summary.getCoveredIndex());
+        Assertions.assertTrue(prompts.get(0).contains("【已有摘要】\n无"));
+        Assertions.assertTrue(prompts.get(0).contains("消息0") && prompts.get(0).contains("消息3"));
+        Assertions.assertFalse(prompts.get(0).contains("消息4"));
+
+        // 已覆盖的消息不计入阈值
+        append(6, 3);
+        summarizer.summarizeIfNeeded(ID, 8);
+        Assertions.assertEquals(1, prompts.size());
+
+        append(9, 3);
+        summarizer.summarizeIfNeeded(ID, 11);
+        summary = chatMemorySummaryMapper.selectById(ID);
+        Assertions.assertEquals("摘要2", summary.getSummary());
+        Assertions.assertEquals(9, summary.getCoveredIndex());
+        // 新摘要合并了已有摘要，只带上未覆盖的消息
+        Assertions.assertTrue(prompts.get(1).contains("【已有摘要】\n摘要1"));
+        Assertions.assertTrue(prompts.get(1).contains("消息4") && prompts.get(1).contains("消息9"));
+        Assertions.assertFalse(prompts.get(1).contains("消息3\n"));
+        Assertions.assertFalse(prompts.get(1).contains("消息10"));
+    }
+
+    @Test
+    void testSummaryCountsTowardsLastN() {
+        append(0, 6);
+        summarizer.summarizeIfNeeded(ID, 5);
+
+        List<Message> messages = chatMemory.get(ID, 3);
+        Assertions.assertEquals(3, messages.size());
+        Assertions.assertEquals(MessageType.SYSTEM, messages.get(0).getMessageType());
+        Assertions.assertEquals(List.of("消息4", "消息5"), messages.subList(1, 3).stream().map(Message::getText).toList());
+        // 只剩摘要的位置
+        Assertions.assertEquals(1, chatMemory.get(ID, 1).size());
+    }
+
+    @Test
+    void testClearDuringFirstSummaryDropsResult() {
+        append(0, 6);
+        // 模型调用期间对话被清空，清空标记已经写入
+        duringCall = () -> summarizer.markCleared(ID, 5);
+        summarizer.summarizeIfNeeded(ID, 5);
+
+        ChatMemorySummaryEntity marker = chatMemorySummaryMapper.selectById(ID);
+        Assertions.assertEquals("", marker.getSummary());
+        Assertions.assertEquals(5, marker.getCoveredIndex());
+        Assertions.assertTrue(chatMemory.get(ID, 10).isEmpty());
+    }
+
+    @Test
+    void testClearAndDrainDuringSummaryDropsResult() {
+        append(0, 6);
+        summarizer.summarizeIfNeeded(ID, 5);
+        append(6, 6);
+        // 模型调用期间对话被清空，旧消息删完、标记已移除
+        duringCall = this::clearAndDrain;
+        summarizer.summarizeIfNeeded(ID, 11);
+
+        Assertions.assertEquals(2, prompts.size());
+        Assertions.assertNull(chatMemorySummaryMapper.selectById(ID));
+        Assertions.assertTrue(chatMemory.get(ID, 10).isEmpty());
+    }
+
+    @Test
+    void testClearAndDrainDuringFirstSummaryDropsResult() {
+        append(0, 6);
+        duringCall = this::clearAndDrain;
+        summarizer.summarizeIfNeeded(ID, 5);
+
+        Assertions.assertNull(chatMemorySummaryMapper.selectById(ID));
+        // 清空后的新对话不受影响
+        duringCall = () -> {
+        };
+        append(6, 2);
+        Assertions.assertEquals(List.of("消息6", "消息7"), chatMemory.get(ID, 10).stream().map(Message::getText).toList());
+    }
+
+    /**
+     * 与 MySQLChatMemory.clear + ChatMemoryRetentionPurger.purgeClears 相同的步骤
+     */
+    private void clearAndDrain() {
+        int maxIndex = dao.maxIndex(ID);
+        summarizer.markCleared(ID, maxIndex);
+        dao.deleteByIds(dao.findIdsUpTo(ID, maxIndex, 100));
+        summarizer.removeClearMarker(ID, maxIndex);
+    }
+
+    private void append(int from, int count) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            messages.add(i % 2 == 0 ? new UserMessage("消息" + i) : new AssistantMessage("消息" + i));
+        }
+        dao.append(ID, messages, null);
+    }
+}
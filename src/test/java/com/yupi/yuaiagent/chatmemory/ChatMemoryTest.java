@@ -1,6 +1,8 @@
 package com.yupi.yuaiagent.chatmemory;
 
+import com.yupi.yuaiagent.model.vo.ChatHistoryPage;
 import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
@@ -36,4 +38,26 @@ class ChatMemoryTest {
         // 3. 清空
         mySQLChatMemory.clear(conversationId);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testListHistory() {
+        String conversationId = "test_mysql_page_001";
+        mySQLChatMemory.clear(conversationId);
+        for (int i = 0; i < 5; i++) {
+            mySQLChatMemory.add(conversationId, List.of(new UserMessage("问题" + i), new AssistantMessage("回答" + i)));
+        }
+
+        // 逐页翻完 10 条消息
+        ChatHistoryPage page = mySQLChatMemory.listHistory(conversationId, null, 4, false);
+        Assertions.assertEquals(4, page.records().size());
+        Assertions.assertTrue(page.hasMore());
+        page = mySQLChatMemory.listHistory(conversationId, page.nextIndex(), 4, false);
+        Assertions.assertEquals(4, page.records().get(0).getMessageIndex());
+        page = mySQLChatMemory.listHistory(conversationId, page.nextIndex(), 4, true);
+        Assertions.assertEquals(2, page.records().size());
+        Assertions.assertFalse(page.hasMore());
+        Assertions.assertNull(page.records().get(0).getContent());
+
+        mySQLChatMemory.clear(conversationId);
+    }
+}
@@ -0,0 +1,62 @@
+package com.yupi.yuaiagent.chatmemory;
+
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.extension.spring.MybatisSqlSessionFactoryBean;
+import com.yupi.yuaiagent.mapper.ChatMemoryMapper;
+import com.yupi.yuaiagent.mapper.ChatMemorySummaryMapper;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.h2.jdbcx.JdbcDataSource;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 基于内嵌 H2 搭建对话记忆存储（不启动 Spring 容器，不依赖 MySQL）
+ */
+class H2ChatMemoryTestSupport {
+
+    private H2ChatMemoryTestSupport() {
+    }
+
+    /**
+     * 创建一个已建表的 H2 内存库
+     */
+    static DataSource h2DataSource(String name) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + name + "_" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        new ResourceDatabasePopulator(new ClassPathResource("sql/schema-h2.sql")).execute(dataSource);
+        return dataSource;
+    }
+
+    /**
+     * 创建按分片名路由的数据源，每个分片一个 H2 内存库
+     */
+    static ChatMemoryRoutingDataSource routingDataSource(String... shards) {
+        Map<Object, Object> targets = new LinkedHashMap<>();
+        for (String shard : shards) {
+            targets.put(shard, h2DataSource(shard));
+        }
+        ChatMemoryRoutingDataSource routingDataSource = new ChatMemoryRoutingDataSource();
+        routingDataSource.setTargetDataSources(targets);
+        routingDataSource.setDefaultTargetDataSource(targets.get(shards[0]));
+        routingDataSource.afterPropertiesSet();
+        return routingDataSource;
+    }
+
+    static SqlSessionTemplate sqlSessionTemplate(DataSource dataSource) throws Exception {
+        MybatisConfiguration configuration = new MybatisConfiguration();
+        configuration.setMapUnderscoreToCamelCase(true);
+        configuration.addMapper(ChatMemoryMapper.class);
+        configuration.addMapper(ChatMemorySummaryMapper.class);
+        MybatisSqlSessionFactoryBean factoryBean = new MybatisSqlSessionFactoryBean();
+        factoryBean.setDataSource(dataSource);
+        factoryBean.setConfiguration(configuration);
+        SqlSessionFactory sqlSessionFactory = factoryBean.getObject();
+        return new SqlSessionTemplate(sqlSessionFactory);
+    }
+}
@@ -0,0 +1,126 @@
+package com.yupi.yuaiagent.chatmemory;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 对话消息存储格式对比：Kryo（文件存储旧格式）、TEXT（MySQL content 列）、MessageCodec
+ * 使用 resources/document 下的 FAQ 作为回答内容，模拟回答较长的多轮对话
+ */
+@Slf4j
+class MessageCodecBenchmarkTest {
+
+    private static final int ROUNDS = 200;
+
+    @Test
+    void benchmarkSizeAndThroughput() throws Exception {
+        List<Message> conversation = conversation();
+        MessageCodec codec = new MessageCodec(MessageCodec.DEFAULT_COMPRESS_THRESHOLD);
+        MessageCodec uncompressed = new MessageCodec(0);
+        Kryo kryo = new Kryo();
+        kryo.setRegistrationRequired(false);
+        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+
+        byte[] kryoBytes = kryoEncode(kryo, conversation);
+        byte[] codecBytes = codecEncode(codec, conversation);
+        byte[] uncompressedBytes = codecEncode(uncompressed, conversation);
+        long textBytes = 0;
+        for (Message message : conversation) {
+            // content 列的 UTF-8 字节 + message_type 列
+            textBytes += message.getText().getBytes(StandardCharsets.UTF_8).length
+                    + message.getMessageType().getValue().length();
+        }
+        log.info("{} 条消息：Kryo {} 字节，TEXT {} 字节，MessageCodec 不压缩 {} 字节，压缩 {} 字节",
+                conversation.size(), kryoBytes.length, textBytes, uncompressedBytes.length, codecBytes.length);
+        Assertions.assertTrue(codecBytes.length < kryoBytes.length);
+        Assertions.assertTrue(codecBytes.length < textBytes);
+
+        // 预热后计时
+        for (int i = 0; i < 20; i++) {
+            kryoDecode(kryo, kryoEncode(kryo, conversation));
+            codecDecode(codec, codecEncode(codec, conversation));
+            codecDecode(uncompressed, codecEncode(uncompressed, conversation));
+        }
+        long kryoNanos = 0;
+        long codecNanos = 0;
+        long uncompressedNanos = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            Assertions.assertEquals(conversation.size(), kryoDecode(kryo, kryoEncode(kryo, conversation)).size());
+            kryoNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            Assertions.assertEquals(conversation.size(), codecDecode(codec, codecEncode(codec, conversation)).size());
+            codecNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            Assertions.assertEquals(conversation.size(),
+                    codecDecode(uncompressed, codecEncode(uncompressed, conversation)).size());
+            uncompressedNanos += System.nanoTime() - start;
+        }
+        log.info("编码 + 解码整个对话平均耗时：Kryo {} ms，MessageCodec 不压缩 {} ms，压缩 {} ms",
+                String.format("%.3f", kryoNanos / 1e6 / ROUNDS), String.format("%.3f", uncompressedNanos / 1e6 / ROUNDS),
+                String.format("%.3f", codecNanos / 1e6 / ROUNDS));
+    }
+
+    private static List<Message> conversation() throws Exception {
+        List<Message> messages = new ArrayList<>();
+        Resource[] resources = new PathMatchingResourcePatternResolver().getResources("classpath:document/*.md");
+        for (Resource resource : resources) {
+            String markdown = resource.getContentAsString(StandardCharsets.UTF_8);
+            for (String section : markdown.split("\n#### ")) {
+                int lineEnd = section.indexOf('\n');
+                if (lineEnd <= 0) {
+                    continue;
+                }
+                messages.add(new UserMessage(section.substring(0, lineEnd).strip()));
+                messages.add(new AssistantMessage(section.substring(lineEnd + 1).strip()));
+            }
+        }
+        Assertions.assertFalse(messages.isEmpty());
+        return messages;
+    }
+
+    private static byte[] kryoEncode(Kryo kryo, List<Message> messages) {
+        Output output = new Output(4096, -1);
+        kryo.writeObject(output, new ArrayList<>(messages));
+        return output.toBytes();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Message> kryoDecode(Kryo kryo, byte[] bytes) {
+        return kryo.readObject(new Input(bytes), ArrayList.class);
+    }
+
+    private static byte[] codecEncode(MessageCodec codec, List<Message> messages) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Message message : messages) {
+            codec.write(out, message);
+        }
+        return out.toByteArray();
+    }
+
+    private static List<Message> codecDecode(MessageCodec codec, byte[] bytes) throws Exception {
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+        List<Message> messages = new ArrayList<>();
+        Message message;
+        while ((message = codec.read(in)) != null) {
+            messages.add(message);
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,232 @@
+package com.yupi.yuaiagent.chatmemory;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import com.yupi.yuaiagent.mapper.ChatMemoryMapper;
+import com.yupi.yuaiagent.mapper.ChatMemorySummaryMapper;
+import com.yupi.yuaiagent.model.entity.ChatMemoryEntity;
+import com.yupi.yuaiagent.model.vo.ChatHistoryPage;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对话消息二进制编码测试（文件存储用临时目录，MySQL 存储用内嵌 H2）
+ */
+class MessageCodecTest {
+
+    private final MessageCodec codec = new MessageCodec(MessageCodec.DEFAULT_COMPRESS_THRESHOLD);
+
+    @Test
+    void testRoundTrip() {
+        List<Message> messages = List.of(
+                new UserMessage("你好"),
+                new AssistantMessage(""),
+                new SystemMessage("以下是本次对话早期内容的摘要"),
+                new AssistantMessage("异地恋最重要的是沟通和信任 💕\n".repeat(50)));
+        for (Message message : messages) {
+            Message decoded = codec.decode(codec.encode(message));
+            Assertions.assertEquals(message.getMessageType(), decoded.getMessageType());
+            Assertions.assertEquals(message.getText(), decoded.getText());
+        }
+    }
+
+    @Test
+    void testShortTextUncompressedAndLongTextCompressed() {
+        byte[] shortRecord = codec.encode(new UserMessage("你好"));
+        // 头部 1 字节 + 长度 1 字节 + 6 字节 UTF-8
+        Assertions.assertEquals(8, shortRecord.length);
+
+        String text = "我们经常因为小事吵架，怎么才能好好沟通？".repeat(30);
+        byte[] longRecord = codec.encode(new AssistantMessage(text));
+        Assertions.assertTrue(longRecord.length < text.getBytes(StandardCharsets.UTF_8).length / 4);
+        // 关闭压缩时按原文存储
+        byte[] raw = new MessageCodec(0).encode(new AssistantMessage(text));
+        Assertions.assertTrue(raw.length > longRecord.length);
+        Assertions.assertEquals(text, codec.decode(raw).getText());
+    }
+
+    @Test
+    void testVarint() throws Exception {
+        for (int value : new int[]{0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            MessageCodec.writeVarint(out, value);
+            Assertions.assertEquals(value, MessageCodec.readVarint(new ByteArrayInputStream(out.toByteArray())));
+        }
+    }
+
+    @Test
+    void testTruncatedRecord() throws Exception {
+        byte[] record = codec.encode(new AssistantMessage("好的".repeat(200)));
+        ByteArrayInputStream in = new ByteArrayInputStream(Arrays.copyOf(record, record.length - 3));
+        Assertions.assertThrows(EOFException.class, () -> codec.read(in));
+        Assertions.assertNull(codec.read(new ByteArrayInputStream(new byte[0])));
+    }
+
+    @Test
+    void testRejectOversizedLength() throws Exception {
+        // 损坏的长度字段：在分配缓冲区之前拒绝
+        for (int header : new int[]{1, 2 | 0x80}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(header);
+            MessageCodec.writeVarint(out, header == 1 ? Integer.MAX_VALUE : 100);
+            MessageCodec.writeVarint(out, -1);
+            ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+            IOException e = Assertions.assertThrows(IOException.class, () -> codec.read(in));
+            Assertions.assertFalse(e instanceof EOFException);
+        }
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> codec.encode(new UserMessage("a".repeat(MessageCodec.MAX_CONTENT_LENGTH + 1))));
+    }
+
+    @Test
+    void testFileChatMemoryAppendAndTruncatedTail(@TempDir Path dir) throws Exception {
+        FileBasedChatMemory chatMemory = new FileBasedChatMemory(dir.toString());
+        chatMemory.add("file_001", List.of(new UserMessage("问题1"), new AssistantMessage("回答1")));
+        chatMemory.add("file_001", List.of(new UserMessage("问题2"), new AssistantMessage("回答2".repeat(100))));
+
+        List<Message> messages = chatMemory.get("file_001", 3);
+        Assertions.assertEquals(3, messages.size());
+        Assertions.assertEquals("问题2", messages.get(1).getText());
+        Assertions.assertEquals("回答2".repeat(100), messages.get(2).getText());
+
+        // 模拟写入中途退出：末尾不完整的记录被截掉，之后还能继续追加
+        File file = dir.resolve("file_001.msg").toFile();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 2);
+        }
+        Assertions.assertEquals(3, chatMemory.get("file_001", 10).size());
+        chatMemory.add("file_001", List.of(new AssistantMessage("重新回答")));
+        Assertions.assertEquals("重新回答", chatMemory.get("file_001", 10).get(3).getText());
+
+        chatMemory.clear("file_001");
+        Assertions.assertTrue(chatMemory.get("file_001", 10).isEmpty());
+    }
+
+    @Test
+    void testFileChatMemoryConcurrentAdds(@TempDir Path dir) throws Exception {
+        FileBasedChatMemory chatMemory = new FileBasedChatMemory(dir.toString());
+        int threads = 8;
+        int rounds = 30;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < rounds; i++) {
+                        // 随机汉字压缩不了多少，单条记录超过缓冲区大小，不加锁时会分多次写入、与其他线程交错
+                        StringBuilder answer = new StringBuilder();
+                        while (answer.length() < 8_000) {
+                            answer.append((char) ThreadLocalRandom.current().nextInt(0x4E00, 0x9FA5));
+                        }
+                        chatMemory.add("file_002", List.of(new UserMessage(thread + "-" + i),
+                                new AssistantMessage(answer.toString())));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<Message> messages = chatMemory.get("file_002", Integer.MAX_VALUE);
+        Assertions.assertEquals(threads * rounds * 2, messages.size());
+        Set<String> questions = new HashSet<>();
+        for (int i = 0; i < messages.size(); i += 2) {
+            Assertions.assertInstanceOf(UserMessage.class, messages.get(i));
+            Assertions.assertInstanceOf(AssistantMessage.class, messages.get(i + 1));
+            questions.add(messages.get(i).getText());
+        }
+        Assertions.assertEquals(threads * rounds, questions.size());
+    }
+
+    @Test
+    void testFileChatMemoryMigratesLegacyKryoFile(@TempDir Path dir) throws Exception {
+        Kryo kryo = new Kryo();
+        kryo.setRegistrationRequired(false);
+        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+        File legacy = dir.resolve("legacy_001.kryo").toFile();
+        try (Output output = new Output(new FileOutputStream(legacy))) {
+            kryo.writeObject(output, new ArrayList<>(List.of(new UserMessage("旧问题"), new AssistantMessage("旧回答"))));
+        }
+
+        FileBasedChatMemory chatMemory = new FileBasedChatMemory(dir.toString());
+        chatMemory.add("legacy_001", List.of(new UserMessage("新问题")));
+
+        List<Message> messages = chatMemory.get("legacy_001", 10);
+        Assertions.assertEquals(List.of("旧问题", "旧回答", "新问题"), messages.stream().map(Message::getText).toList());
+        Assertions.assertFalse(legacy.exists());
+    }
+
+    @Test
+    void testMySQLChatMemoryBinaryFormat() throws Exception {
+        DataSource dataSource = H2ChatMemoryTestSupport.h2DataSource("codec");
+        SqlSessionTemplate template = H2ChatMemoryTestSupport.sqlSessionTemplate(dataSource);
+        ChatMemoryMapper chatMemoryMapper = template.getMapper(ChatMemoryMapper.class);
+        ChatMemorySummaryMapper chatMemorySummaryMapper = template.getMapper(ChatMemorySummaryMapper.class);
+        ChatMemoryShardRouter router = new ChatMemoryShardRouter(List.of("ds0"), 160);
+        ChatMemorySummarizer summarizer = new ChatMemorySummarizer(prompt -> null, chatMemoryMapper,
+                chatMemorySummaryMapper, router, false, 20, 10, 500, 1, 1);
+        MySQLChatMemory chatMemory = new MySQLChatMemory();
+        ReflectionTestUtils.setField(chatMemory, "chatMemoryMapper", chatMemoryMapper);
+        ReflectionTestUtils.setField(chatMemory, "chatMemorySummarizer", summarizer);
+        ReflectionTestUtils.setField(chatMemory, "chatMemoryShardRouter", router);
+        ReflectionTestUtils.setField(chatMemory, "chatMemoryJdbcDao", new ChatMemoryJdbcDao(dataSource));
+
+        // 先按文本写入，切换为二进制后继续写入，两种行混合读取
+        chatMemory.add("blob_001", List.of(new UserMessage("文本问题"), new AssistantMessage("文本回答")));
+        ReflectionTestUtils.setField(chatMemory, "storageFormat", "binary");
+        String longAnswer = "先冷静下来，再把感受说出来。".repeat(40);
+        chatMemory.add("blob_001", List.of(new UserMessage("二进制问题"), new AssistantMessage(longAnswer)));
+
+        List<Message> messages = chatMemory.get("blob_001", 10);
+        Assertions.assertEquals(List.of("文本问题", "文本回答", "二进制问题", longAnswer),
+                messages.stream().map(Message::getText).toList());
+
+        List<ChatMemoryEntity> rows = chatMemoryMapper.selectPageAfter("blob_001", -1, 10);
+        Assertions.assertNull(rows.get(0).getContentBin());
+        Assertions.assertEquals("", rows.get(3).getContent());
+        Assertions.assertTrue(rows.get(3).getContentBin().length < longAnswer.getBytes(StandardCharsets.UTF_8).length);
+
+        // 分页浏览返回解码后的文本
+        ChatHistoryPage page = chatMemory.listHistory("blob_001", 1, 10, false);
+        Assertions.assertEquals(longAnswer, page.records().get(1).getContent());
+        Assertions.assertNull(page.records().get(1).getContentBin());
+    }
+}
@@ -0,0 +1,129 @@
+package com.yupi.yuaiagent.chatmemory;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.InMemoryChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * 分层对话记忆测试（冷层用 InMemoryChatMemory 代替 MySQL）
+ */
+class TieredChatMemoryTest {
+
+    @TempDir
+    Path walDir;
+
+    @Test
+    void testFlushToColdStore() {
+        ChatMemory cold = new InMemoryChatMemory();
+        TieredChatMemory tiered = new TieredChatMemory(cold, walDir, false, 0, 100, 100);
+
+        tiered.add("t1", List.of(new UserMessage("你好"), new AssistantMessage("你好！")));
+        // 落库前冷层没有数据，热层可以直接读到
+        Assertions.assertTrue(cold.get("t1", 10).isEmpty());
+        Assertions.assertEquals(2, tiered.get("t1", 10).size());
+
+        tiered.flush();
+        Assertions.assertEquals(2, cold.get("t1", 10).size());
+        // 重复落库不会写入重复消息
+        tiered.flush();
+        Assertions.assertEquals(2, cold.get("t1", 10).size());
+    }
+
+    @Test
+    void testRecoverFromWriteAheadLog() {
+        // 第一次运行：写入后未落库就“崩溃”
+        TieredChatMemory crashed = new TieredChatMemory(new InMemoryChatMemory(), walDir, false, 0, 100, 100);
+        crashed.add("t2", List.of(new UserMessage("问题1"), new AssistantMessage("回答1")));
+        crashed.clear("t2");
+        crashed.add("t2", List.of(new UserMessage("问题2")));
+
+        // 重启后重放日志
+        ChatMemory cold = new InMemoryChatMemory();
+        TieredChatMemory restarted = new TieredChatMemory(cold, walDir, false, 0, 100, 100);
+        restarted.recover();
+        List<Message> messages = cold.get("t2", 10);
+        Assertions.assertEquals(1, messages.size());
+        Assertions.assertEquals("问题2", messages.get(0).getText());
+    }
+
+    @Test
+    void testHotMissMergesPendingWrites() {
+        ChatMemory cold = new InMemoryChatMemory();
+        cold.add("t3", List.of(new UserMessage("旧问题"), new AssistantMessage("旧回答")));
+        TieredChatMemory tiered = new TieredChatMemory(cold, walDir, false, 0, 100, 2);
+
+        tiered.add("t3", List.of(new UserMessage("新问题")));
+        List<Message> messages = tiered.get("t3", 10);
+        Assertions.assertEquals(List.of("旧问题", "旧回答", "新问题"), messages.stream().map(Message::getText).toList());
+        // 热层只保留 2 条，更长的窗口会回源
+        Assertions.assertEquals(2, tiered.get("t3", 2).size());
+    }
+
+    @Test
+    void testRecoverSkipsFlushedConversations() {
+        // 第一次运行：t4 已落库，t5 落库失败，随后“崩溃”（日志段没有删除）
+        ChatMemory cold = new InMemoryChatMemory();
+        ChatMemory failing = new InMemoryChatMemory() {
+            @Override
+            public void add(String conversationId, List<Message> messages) {
+                if ("t5".equals(conversationId)) {
+                    throw new IllegalStateException("MySQL 不可用");
+                }
+                cold.add(conversationId, messages);
+            }
+        };
+        TieredChatMemory crashed = new TieredChatMemory(failing, walDir, false, 0, 100, 100);
+        crashed.add("t4", List.of(new UserMessage("问题1"), new AssistantMessage("回答1")));
+        crashed.add("t5", List.of(new UserMessage("问题2")));
+        Assertions.assertThrows(IllegalStateException.class, crashed::flush);
+        Assertions.assertEquals(2, cold.get("t4", 10).size());
+
+        // 重启后重放：t4 不会重复写入，t5 补写
+        TieredChatMemory restarted = new TieredChatMemory(cold, walDir, false, 0, 100, 100);
+        restarted.recover();
+        Assertions.assertEquals(List.of("问题1", "回答1"), cold.get("t4", 10).stream().map(Message::getText).toList());
+        Assertions.assertEquals(List.of("问题2"), cold.get("t5", 10).stream().map(Message::getText).toList());
+        // 再次重启没有可重放的内容
+        new TieredChatMemory(cold, walDir, false, 0, 100, 100).recover();
+        Assertions.assertEquals(2, cold.get("t4", 10).size());
+    }
+
+    @Test
+    void testSummaryCountsTowardsLastNAndRefreshesOnInvalidate() {
+        // 冷层模拟 MySQL：摘要（SYSTEM）+ 摘要之后的原文
+        ChatMemory cold = new InMemoryChatMemory();
+        cold.add("t6", List.of(new SystemMessage("摘要1"), new UserMessage("问题3"), new AssistantMessage("回答3")));
+        TieredChatMemory tiered = new TieredChatMemory(cold, walDir, false, 0, 100, 100);
+
+        Assertions.assertEquals(List.of("摘要1", "回答3"), tiered.get("t6", 2).stream().map(Message::getText).toList());
+        Assertions.assertEquals(List.of("摘要1"), tiered.get("t6", 1).stream().map(Message::getText).toList());
+
+        // 新摘要覆盖了问题3、回答3：失效前热层仍是旧内容，失效后重新回源
+        cold.clear("t6");
+        cold.add("t6", List.of(new SystemMessage("摘要2"), new UserMessage("问题4")));
+        Assertions.assertEquals("摘要1", tiered.get("t6", 10).get(0).getText());
+        tiered.invalidateHot("t6");
+        Assertions.assertEquals(List.of("摘要2", "问题4"), tiered.get("t6", 10).stream().map(Message::getText).toList());
+    }
+
+    @Test
+    void testHotEntryExpires() {
+        ChatMemory cold = new InMemoryChatMemory();
+        cold.add("t7", List.of(new UserMessage("问题5")));
+        TieredChatMemory tiered = new TieredChatMemory(cold, null, walDir, false, 0, 100, 100, -1);
+
+        Assertions.assertEquals(1, tiered.get("t7", 10).size());
+        // 存活时间为负：每次读取都回源
+        cold.add("t7", List.of(new AssistantMessage("回答5")));
+        Assertions.assertEquals(2, tiered.get("t7", 10).size());
+    }
+}
@@ -0,0 +1,92 @@
+package com.yupi.yuaiagent.job;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量 OCR 任务测试（分析函数用桩代替模型）
+ */
+class ImageOcrBatchJobTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void respectsConcurrencyCapAndResumesFromCheckpoint() throws IOException {
+        Path images = tempDir.resolve("images");
+        Files.createDirectories(images.resolve("sub"));
+        for (int i = 0; i < 30; i++) {
+            Files.write(images.resolve((i % 2 == 0 ? "sub/" : "") + "img-" + i + ".png"), new byte[]{1});
+        }
+        Files.writeString(images.resolve("readme.txt"), "not an image");
+        Path output = tempDir.resolve("out/result.jsonl");
+
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Set<String> calls = ConcurrentHashMap.newKeySet();
+        Set<String> failing = ConcurrentHashMap.newKeySet();
+        failing.add("img-7.png");
+        ImageOcrBatchJob job = new ImageOcrBatchJob(file -> {
+            String name = file.getFileName().toString();
+            calls.add(name);
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+            }
+            if (failing.contains(name)) {
+                throw new IllegalStateException("模型超时");
+            }
+            return "text of " + name;
+        }, 3, 5);
+
+        ImageOcrBatchJob.JobReport first = job.run(images, output);
+        Assertions.assertEquals(30, first.scanned());
+        Assertions.assertEquals(0, first.skipped());
+        Assertions.assertEquals(29, first.succeeded());
+        Assertions.assertEquals(1, first.failed());
+        Assertions.assertTrue(maxRunning.get() <= 3, "并发数超过上限：" + maxRunning.get());
+        Assertions.assertTrue(first.p50Ms() >= 20 && first.p99Ms() >= first.p50Ms());
+        List<String> lines = Files.readAllLines(output, StandardCharsets.UTF_8);
+        Assertions.assertEquals(30, lines.size());
+        JSONObject sample = JSONUtil.parseObj(lines.get(0));
+        Assertions.assertTrue(sample.containsKey("path") && sample.containsKey("latencyMs"));
+
+        // 模拟崩溃时写了一半的行，重启后只重试失败的图片
+        Files.writeString(output, "{\"path\":\"img-9", StandardOpenOption.APPEND);
+        calls.clear();
+        failing.clear();
+        ImageOcrBatchJob.JobReport second = job.run(images, output);
+        Assertions.assertEquals(Set.of("img-7.png"), calls);
+        Assertions.assertEquals(29, second.skipped());
+        Assertions.assertEquals(1, second.succeeded());
+        List<String> resumed = Files.readAllLines(output, StandardCharsets.UTF_8);
+        Assertions.assertEquals(31, resumed.size());
+        Assertions.assertEquals("text of img-7.png", JSONUtil.parseObj(resumed.get(30)).getStr("text"));
+    }
+
+    @Test
+    void percentile() {
+        long[] sorted = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+        Assertions.assertEquals(5, ImageOcrBatchJob.percentile(sorted, 0.5));
+        Assertions.assertEquals(9, ImageOcrBatchJob.percentile(sorted, 0.9));
+        Assertions.assertEquals(10, ImageOcrBatchJob.percentile(sorted, 0.99));
+        Assertions.assertEquals(0, ImageOcrBatchJob.percentile(new long[0], 0.5));
+    }
+}
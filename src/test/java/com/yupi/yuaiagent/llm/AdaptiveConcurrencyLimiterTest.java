@@ -0,0 +1,108 @@
+package com.yupi.yuaiagent.llm;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 自适应并发限制测试（模拟一个处理能力固定、超出后排队的模型服务）
+ */
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long BASE_RTT = 50_000_000L;
+
+    @Test
+    void rejectBeyondLimitImmediately() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(true, 2, 1, 8, 1.5, 0.2, 0.0001);
+        AdaptiveConcurrencyLimiter.Permit first = limiter.tryAcquire();
+        AdaptiveConcurrencyLimiter.Permit second = limiter.tryAcquire();
+        Assertions.assertNotNull(first);
+        Assertions.assertNotNull(second);
+        Assertions.assertNull(limiter.tryAcquire());
+
+        first.onIgnore();
+        first.onIgnore();
+        Assertions.assertEquals(1, limiter.getInFlight());
+        Assertions.assertNotNull(limiter.tryAcquire());
+    }
+
+    @Test
+    void convergeNearServerCapacityAndFollowChanges() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(true, 4, 1, 64, 1.5, 0.2, 0.0001);
+        simulate(limiter, 4, 400);
+        int limit = limiter.getLimit();
+        System.out.println("服务并行度 4 时的并发上限：" + limit);
+        // 允许少量排队（约 √上限），但不会无限放大
+        Assertions.assertTrue(limit >= 4 && limit <= 12, "limit " + limit);
+
+        // 服务扩容后上限跟着增长
+        simulate(limiter, 16, 400);
+        System.out.println("服务并行度 16 时的并发上限：" + limiter.getLimit());
+        Assertions.assertTrue(limiter.getLimit() > 16, "limit " + limiter.getLimit());
+
+        // 服务降级（变慢）后上限收缩
+        simulate(limiter, 2, 400);
+        System.out.println("服务并行度 2 时的并发上限：" + limiter.getLimit());
+        Assertions.assertTrue(limiter.getLimit() <= 8, "limit " + limiter.getLimit());
+    }
+
+    @Test
+    void backOffOnErrors() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(true, 20, 1, 64, 1.5, 0.2, 0.0001);
+        for (int i = 0; i < 10; i++) {
+            limiter.tryAcquire().onDropped();
+        }
+        Assertions.assertTrue(limiter.getLimit() < 8, "limit " + limiter.getLimit());
+    }
+
+    @Test
+    void onlyOverloadErrorsShrinkLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(true, 20, 1, 64, 1.5, 0.2, 0.0001);
+        // 4xx、解析失败、业务异常与负载无关
+        limiter.tryAcquire().onError(HttpClientErrorException.create(HttpStatus.BAD_REQUEST, "Bad Request", null, null, null));
+        limiter.tryAcquire().onError(new NonTransientAiException("404 - model not found"));
+        limiter.tryAcquire().onError(new IllegalStateException("解析失败", new JsonParseException(null, "Unexpected character")));
+        limiter.tryAcquire().onError(new IllegalArgumentException("参数错误"));
+        Assertions.assertEquals(20, limiter.getLimit());
+        Assertions.assertEquals(0, limiter.getInFlight());
+
+        // 超时、5xx、连接错误
+        limiter.tryAcquire().onError(new ResourceAccessException("I/O error", new SocketTimeoutException("Read timed out")));
+        limiter.tryAcquire().onError(new RuntimeException(new TimeoutException("Did not observe any item")));
+        limiter.tryAcquire().onError(HttpServerErrorException.create(HttpStatus.SERVICE_UNAVAILABLE, "Service Unavailable", null, null, null));
+        limiter.tryAcquire().onError(new TransientAiException("500 - Internal Server Error"));
+        limiter.tryAcquire().onError(new ResourceAccessException("I/O error", new ConnectException("Connection refused")));
+        Assertions.assertEquals((int) (20 * Math.pow(0.9, 5)), limiter.getLimit());
+        Assertions.assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void doNotGrowWhenLightlyLoaded() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(true, 10, 1, 64, 1.5, 0.2, 0.0001);
+        for (int i = 0; i < 100; i++) {
+            limiter.sample(BASE_RTT, 1, false);
+        }
+        Assertions.assertEquals(10, limiter.getLimit());
+    }
+
+    /**
+     * 需求远大于上限：在途请求数等于上限，超过服务并行度的部分排队，RTT 按比例变长
+     */
+    private static void simulate(AdaptiveConcurrencyLimiter limiter, int capacity, int samples) {
+        for (int i = 0; i < samples; i++) {
+            int inFlight = limiter.getLimit();
+            long rtt = (long) (BASE_RTT * Math.max(1.0, (double) inFlight / capacity));
+            limiter.sample(rtt, inFlight, false);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.yupi.yuaiagent.llm;
+
+import com.yupi.yuaiagent.advisor.AdaptiveReReadingAdvisor;
+import com.yupi.yuaiagent.advisor.UserContextAdvisor;
+import com.yupi.yuaiagent.rag.Bm25Index;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.metadata.ChatGenerationMetadata;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 分级路由测试（两个档位都用桩模型）
+ */
+class CascadeChatModelTest {
+
+    private final Bm25Index faqIndex = new Bm25Index(List.of(
+            new Document("1", "相亲对象值得发展吗？看三观是否一致、相处是否舒服。", Map.of("title", "相亲对象值得发展吗")),
+            new Document("2", "婚后消费观念不同怎么理财？先坦诚沟通再共同制定预算。", Map.of("title", "婚后理财"))));
+
+    private final StubChatModel fast = new StubChatModel("qwen3:0.6b");
+    private final StubChatModel quality = new StubChatModel("qwen3:4b");
+
+    private final CascadeChatModel cascade = new CascadeChatModel(fast, quality, faqIndex, 20, 0.6, 0.2, 2.0,
+            List.of("报告", "分析"), true, 30, List.of("不确定", "无法回答"));
+
+    @Test
+    void routeByHeuristics() {
+        Assertions.assertEquals(new CascadeChatModel.Route(CascadeChatModel.Tier.FAST, "short"),
+                cascade.route(prompt(null, "你好呀")));
+        Assertions.assertEquals(new CascadeChatModel.Route(CascadeChatModel.Tier.FAST, "faq"),
+                cascade.route(prompt(null, "上周认识的相亲对象，你觉得这个人值得继续发展吗？")));
+        Assertions.assertEquals(new CascadeChatModel.Route(CascadeChatModel.Tier.QUALITY, "keyword"),
+                cascade.route(prompt(null, "帮我分析一下")));
+        Assertions.assertEquals(new CascadeChatModel.Route(CascadeChatModel.Tier.QUALITY, "structured"),
+                cascade.route(prompt("使用Json格式回答", "你好")));
+        Assertions.assertEquals(new CascadeChatModel.Route(CascadeChatModel.Tier.QUALITY, "default"),
+                cascade.route(prompt(null, "我和对象因为工作城市不同一直在纠结要不要辞职过去，家里人也反对")));
+    }
+
+    @Test
+    void longQuestionSharingOneCommonTermIsNotFaq() {
+        String question = "最近工作压力特别大，每天加班到深夜，回家以后什么都不想做，还总是失眠，对象也开始抱怨";
+        List<Bm25Index.ScoredDocument> hits = faqIndex.search(question, 2);
+        // 在索引中出现过的词只有"对象"，按 IDF 算覆盖率是 1
+        Assertions.assertEquals(1.0, hits.get(0).coverage(), 1e-9);
+        Assertions.assertTrue(hits.get(0).termCoverage() < 0.1);
+        Assertions.assertEquals(new CascadeChatModel.Route(CascadeChatModel.Tier.QUALITY, "default"),
+                cascade.route(prompt(null, question)));
+    }
+
+    @Test
+    void classifyOnlyTheOriginalQuestion() {
+        // kv-cache 布局下用户消息前面拼了很长的用户信息，后面拼了知识库上下文
+        String userText = "用户名：张三，职业：程序员，咨询类型：情感咨询，语气温暖而专业，字数不超过 300 字"
+                + UserContextAdvisor.QUESTION_MARKER + "你好"
+                + "\n\nContext information is below, surrounded by ---------------------\n很长的上下文";
+        Assertions.assertEquals("你好", CascadeChatModel.question(userText));
+        // Re2 重复的问题不计入问题长度
+        Assertions.assertEquals("你好", CascadeChatModel.question(
+                "你好" + AdaptiveReReadingAdvisor.REREAD_MARKER + "你好\n"));
+        Assertions.assertEquals(CascadeChatModel.Tier.FAST, cascade.route(prompt(null, userText)).tier());
+    }
+
+    @Test
+    void fastTierUsesItsOwnModelName() {
+        fast.answer = "你好！有什么感情上的问题都可以和我聊聊。";
+        Prompt prompt = new Prompt(List.of(new UserMessage("你好")), OllamaOptions.builder().model("qwen3:4b").build());
+
+        ChatResponse response = cascade.call(prompt);
+        Assertions.assertEquals(fast.answer, response.getResult().getOutput().getText());
+        Assertions.assertEquals("qwen3:0.6b", fast.prompts.get(0).getOptions().getModel());
+        Assertions.assertTrue(quality.prompts.isEmpty());
+    }
+
+    @Test
+    void escalateLowConfidenceAnswers() {
+        quality.answer = "可以从三观、相处舒适度和未来规划三个方面判断，这个人是否值得继续发展。";
+
+        fast.answer = "<think>我不确定</think>我不确定，无法回答这个问题。";
+        cascade.call(prompt(null, "你好"));
+        Assertions.assertEquals(1, quality.prompts.size());
+
+        // FAQ 问题回答太短也要升级；思考过程里的"不确定"不算
+        fast.answer = "<think>我不确定</think>值得。";
+        cascade.call(prompt(null, "上周认识的相亲对象，你觉得这个人值得继续发展吗？"));
+        Assertions.assertEquals(2, quality.prompts.size());
+
+        fast.answer = "<think>我不确定</think>嗨！";
+        cascade.call(prompt(null, "你好"));
+        Assertions.assertEquals(2, quality.prompts.size());
+
+        fast.answer = "一段被截断的回答";
+        fast.finishReason = "length";
+        cascade.call(prompt(null, "你好"));
+        Assertions.assertEquals(3, quality.prompts.size());
+    }
+
+    @Test
+    void escalateWhenFastModelFails() {
+        quality.answer = "你好！有什么感情上的问题都可以和我聊聊。";
+        fast.failure = new IllegalStateException("model 'qwen3:0.6b' not found");
+
+        Assertions.assertEquals(quality.answer, cascade.call(prompt(null, "你好")).getResult().getOutput().getText());
+        Assertions.assertEquals(1, quality.prompts.size());
+        // 流式调用还没有输出内容时同样改由大模型回答
+        Assertions.assertEquals(quality.answer, cascade.stream(prompt(null, "你好")).blockFirst().getResult().getOutput().getText());
+        Assertions.assertEquals(2, quality.prompts.size());
+    }
+
+    private static Prompt prompt(String system, String user) {
+        return system == null
+                ? new Prompt(new UserMessage(user))
+                : new Prompt(List.of(new SystemMessage(system), new UserMessage(user)));
+    }
+
+    private static class StubChatModel implements ChatModel {
+
+        private final String model;
+        private final List<Prompt> prompts = new ArrayList<>();
+        private String answer = "";
+        private String finishReason = "stop";
+        private RuntimeException failure;
+
+        StubChatModel(String model) {
+            this.model = model;
+        }
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            prompts.add(prompt);
+            if (failure != null) {
+                throw failure;
+            }
+            return new ChatResponse(List.of(new Generation(new AssistantMessage(answer),
+                    ChatGenerationMetadata.builder().finishReason(finishReason).build())));
+        }
+
+        @Override
+        public Flux<ChatResponse> stream(Prompt prompt) {
+            return Flux.defer(() -> Flux.just(call(prompt)));
+        }
+
+        @Override
+        public ChatOptions getDefaultOptions() {
+            return OllamaOptions.builder().model(model).build();
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.yupi.yuaiagent.llm;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.ollama.OllamaChatModel;
+import org.springframework.ai.ollama.OllamaEmbeddingModel;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多端点负载均衡测试（用本地 HTTP 桩模拟 Ollama 服务）
+ */
+class LoadBalancedChatModelTest {
+
+    private final List<StubOllama> servers = new ArrayList<>();
+
+    @AfterEach
+    void stopServers() {
+        servers.forEach(StubOllama::stop);
+    }
+
+    @Test
+    void pickEndpointWithFewestInFlightRequests() {
+        EndpointPool<String> pool = new EndpointPool<>("test.pool",
+                List.of(Map.entry("a", "a"), Map.entry("b", "b"), Map.entry("c", "c")), 3, 1000, 10);
+        EndpointPool.Endpoint<String> first = pool.acquire(Set.of());
+        EndpointPool.Endpoint<String> second = pool.acquire(Set.of());
+        EndpointPool.Endpoint<String> third = pool.acquire(Set.of());
+        Assertions.assertEquals(3, Set.of(first.name(), second.name(), third.name()).size());
+
+        pool.release(second, true, 1);
+        // 只有 second 空闲
+        Assertions.assertSame(second, pool.acquire(Set.of()));
+    }
+
+    @Test
+    void ejectFailingEndpointAndPutItBackLater() {
+        AtomicLong now = new AtomicLong();
+        EndpointPool<String> pool = new EndpointPool<>("test.pool",
+                List.of(Map.entry("a", "a"), Map.entry("b", "b")), 2, 1000, 10, now::get);
+        EndpointPool.Endpoint<String> a = pool.endpoints().get(0);
+        for (int i = 0; i < 2; i++) {
+            pool.acquire(Set.of(pool.endpoints().get(1)));
+            pool.release(a, false, 1);
+        }
+        Assertions.assertTrue(pool.isEjected(a));
+        for (int i = 0; i < 4; i++) {
+            EndpointPool.Endpoint<String> chosen = pool.acquire(Set.of());
+            Assertions.assertEquals("b", chosen.name());
+            pool.release(chosen, true, 1);
+        }
+        // 所有健康端点都被排除时，仍然可以用被摘除的端点
+        Assertions.assertSame(a, pool.acquire(Set.of(pool.endpoints().get(1))));
+        pool.release(a, null, 0);
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1001));
+        Assertions.assertFalse(pool.isEjected(a));
+    }
+
+    @Test
+    void failOverAndEjectUnhealthyServer() throws IOException {
+        StubOllama broken = start("broken", 0, true);
+        StubOllama healthy = start("healthy", 0, false);
+        LoadBalancedChatModel model = new LoadBalancedChatModel(chatPool(broken, healthy), false, 0, 0, 1);
+
+        for (int i = 0; i < 6; i++) {
+            Assertions.assertEquals("来自 healthy 的回答", model.call(new Prompt("你好")).getResult().getOutput().getText());
+        }
+        // 连续失败 2 次后被摘除，之后的请求不再发给它
+        Assertions.assertEquals(2, broken.chatRequests.get());
+        Assertions.assertEquals(6, healthy.chatRequests.get());
+    }
+
+    @Test
+    void spreadConcurrentRequestsAcrossServers() throws Exception {
+        StubOllama a = start("a", 200, false);
+        StubOllama b = start("b", 200, false);
+        LoadBalancedChatModel model = new LoadBalancedChatModel(chatPool(a, b), false, 0, 0, 1);
+
+        int requests = 8;
+        CountDownLatch done = new CountDownLatch(requests);
+        long start = System.nanoTime();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < requests; i++) {
+                executor.submit(() -> {
+                    model.call(new Prompt("你好"));
+                    done.countDown();
+                });
+            }
+            Assertions.assertTrue(done.await(10, TimeUnit.SECONDS));
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.printf("%d 个请求，两个端点各 %d / %d，总耗时 %d ms%n",
+                requests, a.chatRequests.get(), b.chatRequests.get(), elapsedMs);
+        Assertions.assertEquals(requests / 2, a.chatRequests.get());
+        Assertions.assertEquals(requests / 2, b.chatRequests.get());
+    }
+
+    @Test
+    void hedgeSlowRequest() throws IOException {
+        StubOllama slow = start("slow", 3000, false);
+        StubOllama fast = start("fast", 0, false);
+        EndpointPool<ChatModel> pool = chatPool(slow, fast);
+        // 对冲延迟 100 ms（样本不足时用上限）
+        LoadBalancedChatModel model = new LoadBalancedChatModel(pool, true, 50, 100, 20);
+
+        long start = System.nanoTime();
+        String answer = null;
+        // 轮询起点不固定，确保主请求发给慢端点一次
+        while (slow.chatRequests.get() == 0) {
+            answer = model.call(new Prompt("你好")).getResult().getOutput().getText();
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assertions.assertEquals("来自 fast 的回答", answer);
+        Assertions.assertTrue(elapsedMs < 2000, "对冲后耗时 " + elapsedMs + " ms");
+        // 被取消的慢请求不计为端点失败
+        Assertions.assertFalse(pool.isEjected(pool.endpoints().get(0)));
+    }
+
+    @Test
+    void poolsOnSameEndpointsKeepSeparateMetrics() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+        try {
+            List<Map.Entry<String, String>> clients = List.of(Map.entry("a", "a"));
+            EndpointPool<String> quality = new EndpointPool<>("test.tagged", Tags.of("model", "qwen3:4b"), clients, 3, 1000, 10);
+            EndpointPool<String> fast = new EndpointPool<>("test.tagged", Tags.of("model", "qwen3:0.6b"), clients, 3, 1000, 10);
+            quality.acquire(Set.of());
+            fast.release(fast.acquire(Set.of()), true, 1);
+
+            Assertions.assertEquals(1.0, registry.get("test.tagged.inflight").tags("model", "qwen3:4b", "endpoint", "a").gauge().value());
+            Assertions.assertEquals(0.0, registry.get("test.tagged.inflight").tags("model", "qwen3:0.6b", "endpoint", "a").gauge().value());
+            Assertions.assertEquals(1.0, registry.get("test.tagged.requests").tags("model", "qwen3:0.6b", "outcome", "success").counter().count());
+            Assertions.assertTrue(registry.find("test.tagged.requests").tags("model", "qwen3:4b").counters().isEmpty());
+        } finally {
+            Metrics.removeRegistry(registry);
+        }
+    }
+
+    @Test
+    void bindEndpointsFromYamlListOrCommaSeparatedString() {
+        OllamaEndpointsProperties list = bind(Map.of(
+                "yu-ai-agent.ollama.endpoints[0]", "http://a:11434",
+                "yu-ai-agent.ollama.endpoints[1]", "http://b:11434",
+                "yu-ai-agent.ollama.hedge.enabled", "true"));
+        Assertions.assertEquals(List.of("http://a:11434", "http://b:11434"), list.getEndpoints());
+        Assertions.assertTrue(list.isBalanced());
+        Assertions.assertTrue(list.getHedge().isEnabled());
+        Assertions.assertEquals(3, list.getMaxFailures());
+
+        OllamaEndpointsProperties csv = bind(Map.of("yu-ai-agent.ollama.endpoints", "http://a:11434,http://b:11434"));
+        Assertions.assertEquals(List.of("http://a:11434", "http://b:11434"), csv.getEndpoints());
+        Assertions.assertFalse(bind(Map.of()).isBalanced());
+    }
+
+    private static OllamaEndpointsProperties bind(Map<String, String> properties) {
+        return new Binder(new MapConfigurationPropertySource(properties))
+                .bindOrCreate("yu-ai-agent.ollama", OllamaEndpointsProperties.class);
+    }
+
+    @Test
+    void balanceEmbeddingRequests() throws IOException {
+        StubOllama a = start("a", 0, true);
+        StubOllama b = start("b", 0, false);
+        List<Map.Entry<String, EmbeddingModel>> clients = new ArrayList<>();
+        for (StubOllama server : List.of(a, b)) {
+            clients.add(Map.entry(server.url(), OllamaEmbeddingModel.builder()
+                    .ollamaApi(new OllamaApi(server.url()))
+                    .defaultOptions(OllamaOptions.builder().model("nomic-embed-text").build())
+                    .build()));
+        }
+        LoadBalancedEmbeddingModel model = new LoadBalancedEmbeddingModel(
+                new EndpointPool<>("test.embedding", clients, 2, 60_000, 1));
+
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertArrayEquals(new float[]{0.1f, 0.2f, 0.3f}, model.embed("你好"), 1e-6f);
+        }
+        Assertions.assertEquals(3, b.embedRequests.get());
+    }
+
+    private EndpointPool<ChatModel> chatPool(StubOllama... stubs) {
+        List<Map.Entry<String, ChatModel>> clients = new ArrayList<>();
+        for (StubOllama server : stubs) {
+            clients.add(Map.entry(server.url(), OllamaChatModel.builder()
+                    .ollamaApi(new OllamaApi(server.url()))
+                    .defaultOptions(OllamaOptions.builder().model("qwen3:4b").build())
+                    .build()));
+        }
+        return new EndpointPool<>("test.chat", clients, 2, 60_000, 100);
+    }
+
+    private StubOllama start(String name, long delayMs, boolean broken) throws IOException {
+        StubOllama server = new StubOllama(name, delayMs, broken);
+        servers.add(server);
+        return server;
+    }
+
+    /**
+     * 模拟 Ollama 的 /api/chat 和 /api/embed 接口
+     */
+    private static class StubOllama {
+
+        private final HttpServer server;
+        private final AtomicInteger chatRequests = new AtomicInteger();
+        private final AtomicInteger embedRequests = new AtomicInteger();
+
+        StubOllama(String name, long delayMs, boolean broken) throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+            server.createContext("/api/chat", exchange -> {
+                chatRequests.incrementAndGet();
+                exchange.getRequestBody().readAllBytes();
+                sleep(delayMs);
+                respond(exchange, broken, """
+                        {"model":"qwen3:4b","created_at":"2025-01-01T00:00:00Z",
+                         "message":{"role":"assistant","content":"来自 %s 的回答"},
+                         "done_reason":"stop","done":true,"prompt_eval_count":5,"eval_count":5}
+                        """.formatted(name));
+            });
+            server.createContext("/api/embed", exchange -> {
+                embedRequests.incrementAndGet();
+                exchange.getRequestBody().readAllBytes();
+                respond(exchange, broken, """
+                        {"model":"nomic-embed-text","embeddings":[[0.1,0.2,0.3]]}
+                        """);
+            });
+            server.start();
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+
+        private static void respond(com.sun.net.httpserver.HttpExchange exchange, boolean broken, String body)
+                throws IOException {
+            byte[] bytes = (broken ? "{\"error\":\"model crashed\"}" : body).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(broken ? 500 : 200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+
+        private static void sleep(long millis) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.yupi.yuaiagent.llm;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 模型服务 HTTP 传输层测试（本地 HTTP 桩）
+ */
+class ModelHttpTransportTest {
+
+    private final ModelHttpTransport transport = new ModelHttpTransport(
+            Duration.ofSeconds(1), Duration.ofSeconds(5), Duration.ofMillis(300));
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private HttpServer server;
+    private String baseUrl;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        Metrics.addRegistry(registry);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/api/chat", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            exchange.getRequestBody().readAllBytes();
+            byte[] body = "{\"done\":true}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        // 先输出一段，然后卡住不再输出
+        server.createContext("/api/stalled", exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write("{\"message\":\"第一段\"}\n".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                Thread.sleep(3000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                // 客户端超时后断开
+            }
+        });
+        // 迟迟不返回响应头
+        server.createContext("/api/slow", exchange -> {
+            try {
+                Thread.sleep(3000);
+                exchange.sendResponseHeaders(200, -1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                // 客户端取消后断开
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+        Metrics.removeRegistry(registry);
+    }
+
+    @Test
+    void reuseKeepAliveConnection() {
+        RestClient.Builder builder = RestClient.builder().baseUrl(baseUrl);
+        transport.customize(builder);
+        RestClient client = builder.build();
+
+        for (int i = 0; i < 5; i++) {
+            Assertions.assertEquals("{\"done\":true}", client.post().uri("/api/chat").body("{}").retrieve().body(String.class));
+        }
+        // 顺序请求复用同一条连接
+        Assertions.assertEquals(1, clientPorts.size());
+        String host = "127.0.0.1:" + server.getAddress().getPort();
+        Assertions.assertEquals(0, transport.activeRequests(host));
+        Timer timer = registry.find("ai.http.client.latency")
+                .tags("host", host, "client", "rest", "outcome", "200").timer();
+        Assertions.assertNotNull(timer);
+        Assertions.assertEquals(5, timer.count());
+    }
+
+    @Test
+    void failStalledStreamAfterIdleTimeout() {
+        WebClient.Builder builder = WebClient.builder().baseUrl(baseUrl);
+        transport.customize(builder);
+        WebClient client = builder.build();
+
+        long start = System.nanoTime();
+        Exception error = Assertions.assertThrows(Exception.class, () -> client.get().uri("/api/stalled")
+                .retrieve().bodyToFlux(String.class).collectList().block());
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        Assertions.assertInstanceOf(TimeoutException.class, error.getCause() != null ? error.getCause() : error);
+        Assertions.assertTrue(elapsedMs < 2000, "空闲超时耗时 " + elapsedMs + " ms");
+        Assertions.assertEquals(0, transport.activeRequests("127.0.0.1:" + server.getAddress().getPort()));
+    }
+
+    @Test
+    void releaseActiveCountWhenExchangeIsCancelled() throws InterruptedException {
+        WebClient.Builder builder = WebClient.builder().baseUrl(baseUrl);
+        transport.customize(builder);
+        WebClient client = builder.build();
+        String host = "127.0.0.1:" + server.getAddress().getPort();
+
+        Disposable subscription = client.get().uri("/api/slow").retrieve().bodyToMono(String.class).subscribe();
+        Thread.sleep(200);
+        Assertions.assertEquals(1, transport.activeRequests(host));
+        // 拿到响应头之前取消（如下游 timeout、客户端断开）
+        subscription.dispose();
+        Assertions.assertEquals(0, transport.activeRequests(host));
+        Assertions.assertEquals(1, registry.get("ai.http.client.latency")
+                .tags("host", host, "client", "web", "outcome", "cancel").timer().count());
+    }
+}
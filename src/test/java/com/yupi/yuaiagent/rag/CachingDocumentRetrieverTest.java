@@ -0,0 +1,160 @@
+package com.yupi.yuaiagent.rag;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.advisor.RetrievalAugmentationAdvisor;
+import org.springframework.ai.chat.client.advisor.api.AdvisedRequest;
+import org.springframework.ai.chat.client.advisor.api.AdvisedResponse;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 检索缓存、超时降级和本地替身测试（不访问网络）
+ */
+@Slf4j
+class CachingDocumentRetrieverTest {
+
+    @Test
+    void normalizeQuery() {
+        Assertions.assertEquals("怎么表白", CachingDocumentRetriever.normalize("  怎么表白？ "));
+        Assertions.assertEquals("how to say i love you", CachingDocumentRetriever.normalize("How  to say I LOVE you?!"));
+        // 全角字母转半角
+        Assertions.assertEquals("abc", CachingDocumentRetriever.normalize("ＡＢＣ"));
+    }
+
+    @Test
+    void cachesUntilTtlExpires() {
+        AtomicInteger calls = new AtomicInteger();
+        DocumentRetriever delegate = query -> {
+            calls.incrementAndGet();
+            return List.of(new Document(query.text()));
+        };
+        MutableClock clock = new MutableClock();
+        CachingDocumentRetriever retriever = new CachingDocumentRetriever(delegate, Duration.ofMinutes(10), 100, clock);
+
+        retriever.retrieve(new Query("怎么表白？"));
+        retriever.retrieve(new Query("怎么表白"));
+        Assertions.assertEquals(1, calls.get());
+
+        clock.advance(Duration.ofMinutes(11));
+        retriever.retrieve(new Query("怎么表白"));
+        Assertions.assertEquals(2, calls.get());
+
+        retriever.invalidateAll();
+        retriever.retrieve(new Query("怎么表白"));
+        Assertions.assertEquals(3, calls.get());
+    }
+
+    @Test
+    void timeoutFallsBackToLocal() {
+        DocumentRetriever slow = query -> {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return List.of(new Document("云端结果"));
+        };
+        DocumentRetriever failing = query -> {
+            throw new IllegalStateException("401 Unauthorized");
+        };
+        DocumentRetriever local = query -> List.of(new Document("本地结果"));
+
+        long start = System.currentTimeMillis();
+        List<Document> timedOut = new FallbackDocumentRetriever(slow, local, Duration.ofMillis(100)).retrieve(new Query("你好"));
+        Assertions.assertEquals("本地结果", timedOut.get(0).getText());
+        Assertions.assertTrue(System.currentTimeMillis() - start < 800);
+
+        List<Document> failed = new FallbackDocumentRetriever(failing, local, Duration.ofMillis(100)).retrieve(new Query("你好"));
+        Assertions.assertEquals("本地结果", failed.get(0).getText());
+    }
+
+    /**
+     * 离线压测 RetrievalAugmentationAdvisor 链路：本地替身模拟 30ms 远程延迟，对比有无缓存
+     */
+    @Test
+    void benchmarkAdvisorWithStandIn() {
+        Bm25Index index = new Bm25Index(new LoveAppDocumentLoader(new PathMatchingResourcePatternResolver()).loadMarkdowns());
+        DocumentRetriever standIn = new LocalStandInDocumentRetriever(index, 4, Duration.ofMillis(30));
+        List<String> questions = List.of("婚后如何理财", "相亲对象值得发展吗", "怎么制造浪漫惊喜", "如何克服单身焦虑");
+
+        double uncached = averageMillis(RetrievalAugmentationAdvisor.builder().documentRetriever(standIn).build(), questions);
+        CachingDocumentRetriever cachedRetriever = new CachingDocumentRetriever(standIn, Duration.ofMinutes(10), 100);
+        double cached = averageMillis(RetrievalAugmentationAdvisor.builder().documentRetriever(cachedRetriever).build(), questions);
+        log.info("RetrievalAugmentationAdvisor 平均耗时：无缓存 {} ms，有缓存 {} ms",
+                String.format("%.2f", uncached), String.format("%.2f", cached));
+
+        Assertions.assertTrue(uncached >= 30);
+        Assertions.assertTrue(cached < uncached / 3);
+    }
+
+    private static double averageMillis(RetrievalAugmentationAdvisor advisor, List<String> questions) {
+        int rounds = 10;
+        AtomicInteger augmented = new AtomicInteger();
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (String question : questions) {
+                AdvisedRequest request = AdvisedRequest.builder()
+                        .chatModel(prompt -> null)
+                        .userText(question)
+                        .messages(List.of())
+                        .build();
+                advisor.aroundCall(request, advisedRequest -> {
+                    if (!advisedRequest.userText().equals(question)) {
+                        augmented.incrementAndGet();
+                    }
+                    return AdvisedResponse.builder()
+                            .response(new ChatResponse(List.of(new Generation(new AssistantMessage("好的")))))
+                            .adviseContext(advisedRequest.adviseContext())
+                            .build();
+                });
+            }
+        }
+        Assertions.assertEquals(rounds * questions.size(), augmented.get());
+        return (System.nanoTime() - start) / 1_000_000.0 / (rounds * questions.size());
+    }
+
+    private static class MutableClock extends Clock {
+
+        private final AtomicLong millis = new AtomicLong(Instant.parse("2025-01-01T00:00:00Z").toEpochMilli());
+
+        void advance(Duration duration) {
+            millis.addAndGet(duration.toMillis());
+        }
+
+        @Override
+        public long millis() {
+            return millis.get();
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis.get());
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
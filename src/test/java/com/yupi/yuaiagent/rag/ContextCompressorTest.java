@@ -0,0 +1,91 @@
+package com.yupi.yuaiagent.rag;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 检索上下文压缩测试
+ */
+class ContextCompressorTest {
+
+    private final ContextCompressor compressor = new ContextCompressor(true, 300, 400);
+
+    @Test
+    void compressRealFaqChunks() {
+        List<Document> documents = new LoveAppDocumentLoader(new PathMatchingResourcePatternResolver()).loadMarkdowns();
+        String query = "婚后夫妻消费观念不同，怎么做理财规划？";
+        List<Document> retrieved = new Bm25Index(documents).search(query, 4).stream()
+                .map(Bm25Index.ScoredDocument::document)
+                .toList();
+
+        ContextCompressor.CompressionResult result = compressor.compress(query, retrieved);
+        Assertions.assertTrue(result.compressedChars() <= 300);
+        Assertions.assertTrue(result.ratio() < 0.5, "压缩比 " + result.ratio());
+        Assertions.assertTrue(result.savedTokens() > 0 && result.savedPrefillMs() > 0);
+        // 最相关的内容保留下来，且保留原文档 ID
+        Assertions.assertTrue(result.documents().get(0).getText().contains("理财"));
+        Assertions.assertEquals(retrieved.get(0).getId(), result.documents().get(0).getId());
+    }
+
+    @Test
+    void dropDuplicateAndIrrelevantSentences() {
+        List<Document> documents = List.of(
+                new Document("a", "异地恋要保持每天视频沟通。周末可以一起看电影。", Map.of()),
+                new Document("b", "异地恋要保持每天视频沟通！推荐课程：情感提升课。", Map.of()));
+
+        ContextCompressor.CompressionResult result = compressor.compress("异地恋怎么沟通", documents);
+        Assertions.assertEquals(1, result.documents().size());
+        Assertions.assertEquals("异地恋要保持每天视频沟通。", result.documents().get(0).getText());
+    }
+
+    @Test
+    void keepTopDocumentWhenNothingMatches() {
+        List<Document> documents = List.of(new Document("a", "第一句。第二句。", Map.of()), new Document("b", "其他内容。", Map.of()));
+        ContextCompressor.CompressionResult result = compressor.compress("hello", documents);
+        Assertions.assertEquals("第一句。第二句。", result.documents().get(0).getText());
+        Assertions.assertEquals(1, result.documents().size());
+    }
+
+    @Test
+    void keepLineBreaksBetweenSelectedSentences() {
+        List<Document> documents = List.of(new Document("a",
+                "## 异地恋沟通\n- 每天固定时间视频沟通\n- 见面前一起规划行程\n\n无关的内容。", Map.of()));
+        ContextCompressor.CompressionResult result = compressor.compress("异地恋怎么沟通", documents);
+        Assertions.assertEquals("## 异地恋沟通\n- 每天固定时间视频沟通", result.documents().get(0).getText());
+
+        List<Document> english = List.of(new Document("b", "Call every day. Plan trips together!", Map.of()));
+        Assertions.assertEquals("Call every day. Plan trips together!",
+                compressor.compress("call plan", english).documents().get(0).getText());
+    }
+
+    @Test
+    void truncateSentenceLongerThanBudget() {
+        String longSentence = "异地恋要保持沟通" + "，多分享日常".repeat(100) + "。";
+        ContextCompressor.CompressionResult result = new ContextCompressor(true, 50, 400)
+                .compress("异地恋怎么沟通", List.of(new Document("a", longSentence, Map.of())));
+        Assertions.assertEquals(1, result.documents().size());
+        Assertions.assertEquals(longSentence.substring(0, 50), result.documents().get(0).getText());
+    }
+
+    @Test
+    void joinMergesQueriesAndCompresses() {
+        Document shared = new Document("a", "异地恋要保持沟通。无关的话。", Map.of());
+        List<Document> joined = compressor.join(Map.of(new Query("异地恋"), List.of(List.of(shared), List.of(shared))));
+        Assertions.assertEquals(1, joined.size());
+        Assertions.assertEquals("异地恋要保持沟通。", joined.get(0).getText());
+    }
+
+    @Test
+    void disabledReturnsInput() {
+        List<Document> documents = List.of(new Document("a", "原文。", Map.of()));
+        ContextCompressor.CompressionResult result = new ContextCompressor(false, 10, 400).compress("x", documents);
+        Assertions.assertSame(documents, result.documents());
+        Assertions.assertEquals(1.0, result.ratio());
+    }
+}
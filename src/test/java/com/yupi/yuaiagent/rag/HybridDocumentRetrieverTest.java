@@ -0,0 +1,102 @@
+package com.yupi.yuaiagent.rag;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BM25 + 向量混合检索测试（使用 resources/document 下的真实 FAQ，向量库用桩代替）
+ */
+class HybridDocumentRetrieverTest {
+
+    private final List<Document> documents = new LoveAppDocumentLoader(new PathMatchingResourcePatternResolver())
+            .loadMarkdowns();
+    private final Bm25Index index = new Bm25Index(documents);
+
+    @Test
+    void tokenizeCjkBigramsAndWords() {
+        Assertions.assertEquals(List.of("异地", "地恋", "ok", "520", "爱"), Bm25Index.tokenize("异地恋，OK 520 爱！"));
+    }
+
+    @Test
+    void bm25FindsExactKeywordQuestion() {
+        List<Bm25Index.ScoredDocument> results = index.search("婚后夫妻消费观念不同怎么理财", 3);
+        Assertions.assertTrue(results.get(0).document().getText().contains("理财"));
+        Assertions.assertEquals(1.0, results.get(0).coverage(), 1e-9);
+        Assertions.assertTrue(index.search("量子计算", 3).isEmpty());
+    }
+
+    @Test
+    void confidentKeywordMatchSkipsVectorSearch() {
+        CountingVectorStore vectorStore = new CountingVectorStore(List.of());
+        HybridDocumentRetriever retriever = new HybridDocumentRetriever(index, vectorStore, 4, 60, 0.6, 2.0);
+
+        List<Document> results = retriever.retrieve(new Query("相亲对象值得发展吗"));
+        Assertions.assertEquals(0, vectorStore.calls.get());
+        Assertions.assertTrue(results.get(0).getText().contains("相亲对象"));
+    }
+
+    @Test
+    void ambiguousQueryFusesWithVectorResults() {
+        // 向量检索认为"冷战"与沟通相关，关键词检索只命中了泛泛的词
+        Document communication = documents.stream()
+                .filter(d -> d.getText().contains("心平气"))
+                .findFirst().orElseThrow();
+        CountingVectorStore vectorStore = new CountingVectorStore(List.of(communication));
+        HybridDocumentRetriever retriever = new HybridDocumentRetriever(index, vectorStore, 4, 60, 0.6, 2.0);
+
+        List<Document> results = retriever.retrieve(new Query("我和对象经常冷战，感觉不到被爱"));
+        Assertions.assertEquals(1, vectorStore.calls.get());
+        Assertions.assertTrue(results.size() <= 4);
+        Assertions.assertTrue(results.contains(communication));
+    }
+
+    @Test
+    void reciprocalRankFusion() {
+        Document a = new Document("a", "A", Map.of());
+        Document b = new Document("b", "B", Map.of());
+        Document c = new Document("c", "C", Map.of());
+        HybridDocumentRetriever retriever = new HybridDocumentRetriever(index, new CountingVectorStore(List.of()), 2, 60, 0.6, 2.0);
+
+        // b 在两路都排第二，累计得分高于只在一路排第一的 a、c
+        List<Document> fused = retriever.fuse(List.of(a, b), List.of(c, b));
+        Assertions.assertEquals(List.of("b", "a"), fused.stream().map(Document::getId).toList());
+    }
+
+    private static class CountingVectorStore implements VectorStore {
+
+        private final List<Document> results;
+        private final AtomicInteger calls = new AtomicInteger();
+
+        CountingVectorStore(List<Document> results) {
+            this.results = results;
+        }
+
+        @Override
+        public void add(List<Document> documents) {
+        }
+
+        @Override
+        public void delete(List<String> idList) {
+        }
+
+        @Override
+        public void delete(Filter.Expression filterExpression) {
+        }
+
+        @Override
+        public List<Document> similaritySearch(SearchRequest request) {
+            calls.incrementAndGet();
+            return results;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.yupi.yuaiagent.template;
+
+import com.yupi.yuaiagent.advisor.UserContextAdvisor;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.advisor.api.AdvisedRequest;
+import org.springframework.ai.chat.client.advisor.api.AdvisedResponse;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 提示词布局测试
+ */
+class PromptLayoutAssemblerTest {
+
+    @Test
+    void kvCacheSystemPromptIsStaticAcrossUsersAndQuestions() {
+        PromptLayoutAssembler assembler = new PromptLayoutAssembler(new PromptTemplateLoader(), "kv-cache");
+        String first = assembler.systemPrompt(variables("小明", "怎么表白"));
+        String second = assembler.systemPrompt(variables("小红", "异地恋怎么办"));
+
+        Assertions.assertSame(first, second);
+        Assertions.assertFalse(first.contains("小明") || first.contains("怎么表白"));
+        Assertions.assertTrue(first.contains("心灵导师小爱"));
+        Assertions.assertTrue(assembler.userContext(variables("小明", "怎么表白")).contains("姓名：小明"));
+    }
+
+    @Test
+    void legacyEmbedsEverythingInSystemPrompt() {
+        PromptLayoutAssembler assembler = new PromptLayoutAssembler(new PromptTemplateLoader(), "legacy");
+        String prompt = assembler.systemPrompt(variables("小明", "怎么表白"));
+        Assertions.assertTrue(prompt.contains("小明") && prompt.contains("怎么表白"));
+        Assertions.assertNull(assembler.userContext(variables("小明", "怎么表白")));
+    }
+
+    @Test
+    void userContextAdvisorPrependsContext() {
+        AtomicReference<String> sent = new AtomicReference<>();
+        AdvisedRequest request = AdvisedRequest.builder()
+                .chatModel(prompt -> null)
+                .userText("怎么表白")
+                .adviseContext(Map.of(UserContextAdvisor.USER_CONTEXT_KEY, "用户信息：小明"))
+                .build();
+        new UserContextAdvisor().aroundCall(request, advisedRequest -> {
+            sent.set(advisedRequest.userText());
+            return AdvisedResponse.builder().adviseContext(advisedRequest.adviseContext()).build();
+        });
+        Assertions.assertEquals("用户信息：小明\n\n问题描述：怎么表白", sent.get());
+    }
+
+    private static Map<String, String> variables(String userName, String question) {
+        Map<String, String> variables = new HashMap<>();
+        variables.put("advisorName", "心灵导师小爱");
+        variables.put("profession", "程序员");
+        variables.put("userName", userName);
+        variables.put("userProfession", "程序员");
+        variables.put("problemType", "情感咨询");
+        variables.put("tone", "温暖而专业");
+        variables.put("question", question);
+        variables.put("maxWords", "300");
+        return variables;
+    }
+}
@@ -0,0 +1,174 @@
+package com.yupi.yuaiagent.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 图片预处理测试
+ */
+class ImagePreprocessorTest {
+
+    private final ImagePreprocessor imagePreprocessor = new ImagePreprocessor(true, 1024, 0.85f, 2, 8);
+
+    @Test
+    void testDownscaleAndReencode() throws IOException {
+        byte[] png = createPng(3000, 2000);
+        ImagePreprocessor.ProcessedImage processed = imagePreprocessor.process(png);
+
+        Assertions.assertEquals("image/jpeg", processed.mimeType());
+        Assertions.assertEquals("image/jpeg", ImageUtils.sniffImageMimeType(processed.bytes()));
+        Assertions.assertEquals(1024, processed.width());
+        Assertions.assertEquals(683, processed.height());
+        Assertions.assertTrue(processed.savedBytes() > 0);
+    }
+
+    @Test
+    void testSniffIgnoresExtension() throws IOException {
+        byte[] png = createPng(10, 10);
+        Assertions.assertEquals("image/jpeg", ImageUtils.getImageMimeType("fake.jpg"));
+        Assertions.assertEquals("image/png", ImageUtils.sniffImageMimeType(png));
+        Assertions.assertNull(ImageUtils.sniffImageMimeType("not an image".getBytes()));
+    }
+
+    @Test
+    void testUnknownFormatRejected() {
+        byte[] unknown = "not an image at all".getBytes();
+        Assertions.assertThrows(IllegalArgumentException.class, () -> imagePreprocessor.process(unknown));
+    }
+
+    @Test
+    void testMetadataStrippedEvenWhenNotSmaller() throws IOException {
+        // 很小的 JPEG 插入一段 EXIF（APP1），重新编码后不会变小
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), "jpeg", out);
+        byte[] jpeg = out.toByteArray();
+        byte[] exif = "Exif\0\0GPS=31.23,121.47".getBytes();
+        ByteArrayOutputStream withExif = new ByteArrayOutputStream();
+        withExif.write(jpeg, 0, 2);
+        withExif.write(new byte[]{(byte) 0xFF, (byte) 0xE1, 0, (byte) (exif.length + 2)});
+        withExif.write(exif);
+        withExif.write(jpeg, 2, jpeg.length - 2);
+
+        ImagePreprocessor.ProcessedImage processed = imagePreprocessor.process(withExif.toByteArray());
+        Assertions.assertEquals("image/jpeg", processed.mimeType());
+        Assertions.assertFalse(new String(processed.bytes(), StandardCharsets.ISO_8859_1).contains("GPS="));
+    }
+
+    @Test
+    void testExifOrientationApplied() throws IOException {
+        // 存储方向 40x20，左半红、右半蓝；EXIF 方向 6 表示需要顺时针旋转 90° 显示
+        BufferedImage image = new BufferedImage(40, 20, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(0, 0, 20, 20);
+        g.setColor(Color.BLUE);
+        g.fillRect(20, 0, 20, 20);
+        g.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpeg", out);
+        byte[] exif = {'E', 'x', 'i', 'f', 0, 0, 'M', 'M', 0, 0x2A, 0, 0, 0, 8,
+                0, 1, 0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, 6, 0, 0, 0, 0, 0, 0};
+        byte[] jpeg = insertApp1(out.toByteArray(), exif);
+        Assertions.assertEquals(6, ImageMetadataUtils.readJpegOrientation(jpeg));
+
+        ImagePreprocessor.ProcessedImage processed = imagePreprocessor.process(jpeg);
+        Assertions.assertEquals(20, processed.width());
+        Assertions.assertEquals(40, processed.height());
+        // 旋转后红色在上、蓝色在下
+        BufferedImage result = ImageIO.read(new ByteArrayInputStream(processed.bytes()));
+        Assertions.assertTrue(new Color(result.getRGB(10, 5)).getRed() > 200);
+        Assertions.assertTrue(new Color(result.getRGB(10, 35)).getBlue() > 200);
+    }
+
+    @Test
+    void testGifCommentStripped() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), "gif", out);
+        byte[] gif = out.toByteArray();
+        // 在结束符前插入一段注释扩展
+        byte[] comment = "GPS=31.23,121.47".getBytes(StandardCharsets.US_ASCII);
+        ByteArrayOutputStream withComment = new ByteArrayOutputStream();
+        withComment.write(gif, 0, gif.length - 1);
+        withComment.write(new byte[]{0x21, (byte) 0xFE, (byte) comment.length});
+        withComment.write(comment);
+        withComment.write(new byte[]{0, 0x3B});
+
+        ImagePreprocessor.ProcessedImage processed = imagePreprocessor.process(withComment.toByteArray());
+        Assertions.assertEquals("image/gif", processed.mimeType());
+        Assertions.assertFalse(new String(processed.bytes(), StandardCharsets.ISO_8859_1).contains("GPS="));
+        Assertions.assertArrayEquals(gif, processed.bytes());
+    }
+
+    @Test
+    void testWebpExifStripped() throws IOException {
+        ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+        // VP8X 声明带 EXIF，后面是图像数据和 EXIF 块
+        writeChunk(chunks, "VP8X", new byte[]{0x08, 0, 0, 0, 7, 0, 0, 7, 0, 0});
+        writeChunk(chunks, "VP8L", new byte[]{0x2F, 7, (byte) 0xC0, 0x01, 0});
+        writeChunk(chunks, "EXIF", "GPS=31.23,121.47".getBytes(StandardCharsets.US_ASCII));
+        byte[] webp = riff(chunks.toByteArray());
+
+        ImagePreprocessor.ProcessedImage processed = imagePreprocessor.process(webp);
+        byte[] bytes = processed.bytes();
+        Assertions.assertEquals("image/webp", processed.mimeType());
+        Assertions.assertFalse(new String(bytes, StandardCharsets.ISO_8859_1).contains("GPS="));
+        Assertions.assertEquals(0, bytes[20] & 0x08);
+        Assertions.assertEquals(bytes.length - 8, (bytes[4] & 0xFF) | (bytes[5] & 0xFF) << 8);
+    }
+
+    @Test
+    void testCorruptJpegRejected() {
+        byte[] corrupt = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0, 16, 'J', 'F', 'I', 'F', 0, 1, 1};
+        Assertions.assertThrows(IllegalArgumentException.class, () -> imagePreprocessor.process(corrupt));
+    }
+
+    private static byte[] insertApp1(byte[] jpeg, byte[] payload) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(jpeg, 0, 2);
+        out.write(0xFF);
+        out.write(0xE1);
+        out.write((payload.length + 2) >> 8);
+        out.write((payload.length + 2) & 0xFF);
+        out.write(payload, 0, payload.length);
+        out.write(jpeg, 2, jpeg.length - 2);
+        return out.toByteArray();
+    }
+
+    private static void writeChunk(ByteArrayOutputStream out, String fourCc, byte[] data) throws IOException {
+        out.write(fourCc.getBytes(StandardCharsets.US_ASCII));
+        out.write(new byte[]{(byte) data.length, (byte) (data.length >> 8), 0, 0});
+        out.write(data);
+        if (data.length % 2 == 1) {
+            out.write(0);
+        }
+    }
+
+    private static byte[] riff(byte[] chunks) throws IOException {
+        int size = chunks.length + 4;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("RIFF".getBytes(StandardCharsets.US_ASCII));
+        out.write(new byte[]{(byte) size, (byte) (size >> 8), 0, 0});
+        out.write("WEBP".getBytes(StandardCharsets.US_ASCII));
+        out.write(chunks);
+        return out.toByteArray();
+    }
+
+    private static byte[] createPng(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, Color.RED, width, height, Color.BLUE));
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
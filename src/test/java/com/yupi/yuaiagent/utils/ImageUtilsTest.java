@@ -0,0 +1,81 @@
+package com.yupi.yuaiagent.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * 图片加载分配量对比：Base64 往返 vs Resource 直接读取
+ */
+@Slf4j
+class ImageUtilsTest {
+
+    private static final int ROUNDS = 20;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testResourceMatchesBase64Path() throws IOException {
+        byte[] viaBase64 = Base64.getDecoder().decode(ImageUtils.loadImageAsBase64FromResources("test.png"));
+        byte[] viaResource = ImageUtils.loadImageResourceFromResources("test.png").getContentAsByteArray();
+        Assertions.assertArrayEquals(viaBase64, viaResource);
+    }
+
+    @Test
+    void benchmarkAllocation() throws IOException {
+        // 4MB 随机内容，走内存映射分支
+        byte[] content = new byte[4 * 1024 * 1024];
+        new Random(42).nextBytes(content);
+        Path image = tempDir.resolve("large.png");
+        Files.write(image, content);
+        MappedFileResource resource = new MappedFileResource(image, 1024 * 1024);
+
+        // 预热
+        for (int i = 0; i < 3; i++) {
+            base64RoundTrip(image);
+            resource.getContentAsByteArray();
+        }
+
+        long base64Start = allocatedBytes();
+        long base64Time = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            base64RoundTrip(image);
+        }
+        base64Time = System.nanoTime() - base64Time;
+        long base64Allocated = (allocatedBytes() - base64Start) / ROUNDS;
+
+        long resourceStart = allocatedBytes();
+        long resourceTime = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            Assertions.assertEquals(content.length, resource.getContentAsByteArray().length);
+        }
+        resourceTime = System.nanoTime() - resourceTime;
+        long resourceAllocated = (allocatedBytes() - resourceStart) / ROUNDS;
+
+        log.info("图片 {} bytes：Base64 往返每次分配 {} bytes / {} ms，Resource 每次分配 {} bytes / {} ms",
+                content.length, base64Allocated, base64Time / ROUNDS / 1_000_000,
+                resourceAllocated, resourceTime / ROUNDS / 1_000_000);
+        Assertions.assertTrue(resourceAllocated < base64Allocated / 2);
+    }
+
+    /**
+     * 旧路径：读入 -> Base64 字符串 -> 解码回 byte[]
+     */
+    private static byte[] base64RoundTrip(Path image) throws IOException {
+        String base64 = Base64.getEncoder().encodeToString(Files.readAllBytes(image));
+        return Base64.getDecoder().decode(base64);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+}
@@ -0,0 +1,85 @@
+package com.yupi.yuaiagent.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 增量 JSON 解析与修复测试
+ */
+class StreamingJsonParserTest {
+
+    private static final String REPORT = """
+            <think>用户想要 {建议}，先想一想</think>
+            ```json
+            {"title": "恋爱报告：小王",
+              "score": 90,
+              "suggestions": [
+                "多沟通：说出\\"真实\\"想法。",
+                "一起旅行\\u2764",
+              ]
+            }
+            ```
+            """;
+
+    @Test
+    void emitElementsAsSoonAsTheyComplete() {
+        List<String> events = new ArrayList<>();
+        List<Integer> emittedAt = new ArrayList<>();
+        StringBuilder fed = new StringBuilder();
+        StreamingJsonParser parser = new StreamingJsonParser(new StreamingJsonParser.Listener() {
+            @Override
+            public void onField(String key, String value) {
+                events.add(key + "=" + value);
+            }
+
+            @Override
+            public void onArrayElement(String key, int index, String value) {
+                events.add(key + "[" + index + "]=" + value);
+                emittedAt.add(fed.length());
+            }
+        });
+        // 模拟模型按 3 个字符一段输出
+        for (int i = 0; i < REPORT.length(); i += 3) {
+            String chunk = REPORT.substring(i, Math.min(REPORT.length(), i + 3));
+            fed.append(chunk);
+            parser.feed(chunk);
+        }
+
+        Assertions.assertEquals(List.of(
+                "title=恋爱报告：小王",
+                "suggestions[0]=多沟通：说出\"真实\"想法。",
+                "suggestions[1]=一起旅行❤"), events);
+        Assertions.assertTrue(parser.isComplete());
+        // 第一条建议在第二条开始生成前就已回调
+        Assertions.assertTrue(emittedAt.get(0) < REPORT.indexOf("一起旅行"));
+    }
+
+    @Test
+    void repairTrailingCommaAndFences() {
+        String repaired = StreamingJsonParser.repair(REPORT);
+        JSONObject json = JSONUtil.parseObj(repaired);
+        Assertions.assertEquals("恋爱报告：小王", json.getStr("title"));
+        Assertions.assertEquals(2, json.getJSONArray("suggestions").size());
+        Assertions.assertFalse(repaired.contains("```"));
+    }
+
+    @Test
+    void repairTruncatedOutput() {
+        String truncated = "{\"title\": \"报告\", \"suggestions\": [\"第一条\", \"第二条没写完";
+        JSONObject json = JSONUtil.parseObj(StreamingJsonParser.repair(truncated));
+        Assertions.assertEquals(List.of("第一条", "第二条没写完"), json.getJSONArray("suggestions").toList(String.class));
+
+        JSONObject cutAfterColon = JSONUtil.parseObj(StreamingJsonParser.repair("{\"title\": \"报告\", \"suggestions\":"));
+        Assertions.assertEquals("报告", cutAfterColon.getStr("title"));
+    }
+
+    @Test
+    void repairGivesUpWithoutObject() {
+        Assertions.assertNull(StreamingJsonParser.repair("抱歉，我无法生成报告。"));
+    }
+}
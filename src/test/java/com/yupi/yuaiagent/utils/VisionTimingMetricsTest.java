@@ -0,0 +1,55 @@
+package com.yupi.yuaiagent.utils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 视觉调用耗时统计测试
+ */
+class VisionTimingMetricsTest {
+
+    @Test
+    void streamRecordsTtftDecodeAndTotal() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        VisionTimingMetrics metrics = new VisionTimingMetrics(registry);
+        metrics.recordImage(2048, TimeUnit.MILLISECONDS.toNanos(5));
+
+        // 首个片段 100ms 后到达，之后每 30ms 一个
+        Flux<String> chunks = Flux.just("a", "b", "c")
+                .delayElements(Duration.ofMillis(30))
+                .delaySubscription(Duration.ofMillis(70));
+        String text = String.join("", metrics.timeStream(chunks).collectList().block());
+        Assertions.assertEquals("abc", text);
+
+        double ttft = registry.get("ai.vision.ttft").tag("mode", "stream").timer().totalTime(TimeUnit.MILLISECONDS);
+        double decode = registry.get("ai.vision.decode.time").tag("mode", "stream").timer().totalTime(TimeUnit.MILLISECONDS);
+        double total = registry.get("ai.vision.total.time").tag("mode", "stream").timer().totalTime(TimeUnit.MILLISECONDS);
+        Assertions.assertTrue(ttft >= 90, "ttft=" + ttft);
+        Assertions.assertTrue(decode >= 50, "decode=" + decode);
+        Assertions.assertEquals(total, ttft + decode, 5);
+        Assertions.assertEquals(2048, registry.get("ai.vision.image.bytes").summary().totalAmount());
+        Assertions.assertEquals(1, registry.get("ai.vision.preprocess.time").timer().count());
+    }
+
+    @Test
+    void cancelledStreamDoesNotRecordTotal() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        VisionTimingMetrics metrics = new VisionTimingMetrics(registry);
+        metrics.timeStream(Flux.just("a", "b", "c")).take(1).blockLast();
+        Assertions.assertEquals(1, registry.get("ai.vision.ttft").timer().count());
+        Assertions.assertNull(registry.find("ai.vision.total.time").timer());
+    }
+
+    @Test
+    void callRecordsTotal() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        VisionTimingMetrics metrics = new VisionTimingMetrics(registry);
+        Assertions.assertEquals("ok", metrics.timeCall(() -> "ok"));
+        Assertions.assertEquals(1, registry.get("ai.vision.total.time").tag("mode", "call").timer().count());
+    }
+}
@@ -0,0 +1,22 @@
+-- H2（MySQL 兼容模式）测试用表结构，与 src/main/resources/sql/schema.sql 保持一致
+CREATE TABLE IF NOT EXISTS chat_memory (
+  id BIGINT NOT NULL AUTO_INCREMENT,
+  conversation_id VARCHAR(100) NOT NULL,
+  message_index INT NOT NULL,
+  message_type VARCHAR(20) NOT NULL,
+  content TEXT NOT NULL,
+  content_bin BLOB,
+  create_time DATETIME DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (id),
+  UNIQUE KEY uk_conversation_index (conversation_id, message_index),
+  KEY idx_conversation_meta (conversation_id, message_index, message_type, create_time),
+  KEY idx_create_time (create_time, conversation_id)
+);
+
+CREATE TABLE IF NOT EXISTS chat_memory_summary (
+  conversation_id VARCHAR(100) NOT NULL,
+  summary TEXT NOT NULL,
+  covered_index INT NOT NULL,
+  update_time DATETIME DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (conversation_id)
+);